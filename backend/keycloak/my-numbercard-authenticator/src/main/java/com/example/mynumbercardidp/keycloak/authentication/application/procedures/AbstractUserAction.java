@@ -1,16 +1,20 @@
 package com.example.mynumbercardidp.keycloak.authentication.application.procedures;
 
-import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.SpiConfigProperty;
+import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.UserActionContext;
 import com.example.mynumbercardidp.keycloak.core.network.AuthenticationRequest;
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientInterface;
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformAuthenticationResponseStructure;
 import com.example.mynumbercardidp.keycloak.util.Encryption;
 import com.example.mynumbercardidp.keycloak.util.StringUtil;
-import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
+import com.example.mynumbercardidp.keycloak.util.authentication.SignedNonce;
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics;
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics.ValidationStage;
+import com.example.mynumbercardidp.keycloak.util.ratelimit.ActionRateLimiter;
+import com.example.mynumbercardidp.keycloak.util.tracing.TraceSpan;
+import com.example.mynumbercardidp.keycloak.util.tracing.Tracing;
 import org.jboss.logging.Logger;
-import org.keycloak.authentication.authenticators.x509.UserIdentityToModelMapper;
-import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.crypto.KeyUse;
+import org.keycloak.models.ModelDuplicateException;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 
@@ -23,11 +27,16 @@ import java.security.Signature;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateFactory;
 import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import javax.ws.rs.core.Response;
 
 /**
  * ユーザーが希望する操作の抽象クラスです。
  *
  * 認証、登録、登録情報の変更などで実行される処理のうち、共通の処理を定義します。
+ * 認証フローの外からも実行できるよう、共通の処理は認証フローのコンテキストではなく {@link UserActionContext} に依存します。
  */
 public abstract class AbstractUserAction {
 
@@ -36,44 +45,57 @@ public abstract class AbstractUserAction {
     /**
      * 認証ユーザーのセッション情報からNonce文字列を取得します。
      *
-     * @param context 認証フローのコンテキスト
+     * @param context ユーザーの操作のコンテキスト
      * @return Nonce文字列
      */
-    private static String getSessionNonce(final AuthenticationFlowContext context) {
+    private static String getSessionNonce(final UserActionContext context) {
         String authNoteName = "nonce";
         return context.getAuthenticationSession().getAuthNote(authNoteName);
     }
 
     /**
      * プラットフォームが返したユニークIDからKeycloak内のユーザーを返します。
-     * 
-     * @param context 認証フローのコンテキスト
+     *
+     * ユニークIDをユーザー属性に持つユーザーを検索し、複数見つかった場合は例外を送出します。
+     *
+     * @param context ユーザーの操作のコンテキスト
      * @param uniqueId プラットフォームが識別したユーザーを特定する一意の文字列
      * @return ユーザーのデータ構造 Keycloak内のユーザーが見つかった場合はユーザーデータ構造、そうでない場合はNull
      * @exception IllegalArgumentException Keycloak内のユーザーを検索中に例外が発生した場合
      */
-    protected UserModel findUser(final AuthenticationFlowContext context, final String uniqueId) {
+    protected UserModel findUser(final UserActionContext context, final String uniqueId) {
+        long startNanos = AuthenticatorMetrics.startTimer();
+        TraceSpan span = Tracing.startSpan("AbstractUserAction.findUser");
         try {
-            return UserIdentityToModelMapperBuilder.fromUniqueId().find(context, uniqueId);
+            List<UserModel> users = context.getSession().users()
+                    .searchForUserByUserAttributeStream(context.getRealm(),
+                            PlatformAuthenticationResponseStructure.UNIQUE_ID_ATTRIBUTE, uniqueId)
+                    .limit(2)
+                    .collect(Collectors.toList());
+            if (users.size() > 1) {
+                throw new ModelDuplicateException();
+            }
+            UserModel user = users.isEmpty() ? null : users.get(0);
+            span.setAttribute("mynumbercard.user_found", Objects.nonNull(user));
+            return user;
         } catch (Exception e) {
             // 報告された例外は全ての例外である。
+            span.recordException(e);
             throw new IllegalArgumentException(e);
+        } finally {
+            span.close();
+            AuthenticatorMetrics.recordLatency(AuthenticatorMetrics.Stage.USER_LOOKUP, startNanos);
         }
     }
 
     /**
      * デバッグモードの状態を返します。
      *
-     * @param context 認証フローのコンテキスト
+     * @param context ユーザーの操作のコンテキスト
      * @return 有効の場合はtrue、そうでない場合はfalse
      */
-    protected boolean isDebugMode(final AuthenticationFlowContext context) {
-        String key = SpiConfigProperty.DebugMode.CONFIG.getName();
-        String value = CurrentConfig.getValue(context, key).toLowerCase();
-        if (StringUtil.isEmpty(value)) {
-            return false;
-        }
-        return Boolean.parseBoolean(value);
+    protected boolean isDebugMode(final UserActionContext context) {
+        return context.getConfig().isDebugMode();
     }
 
     /**
@@ -94,37 +116,149 @@ public abstract class AbstractUserAction {
     /**
      * ユーザーリクエストから公開鍵とnonceを利用して、署名した値が文字列と一致するかを検証します。
      *
-     * @param context 認証フローのコンテキスト
+     * 不正なリクエストを秘密鍵の処理より前に拒否するため、処理の軽い順に次の段階で検証します。
+     * <ol>
+     * <li>値の有無と文字数</li>
+     * <li>Nonceの一致と有効期限</li>
+     * <li>署名のBase64と証明書JWEの形式</li>
+     * <li>秘密鍵による証明書の復号</li>
+     * <li>署名の検証</li>
+     * </ol>
+     * 復号した証明書はユーザーリクエストに保持し、プラットフォームリクエストの作成で再び復号しません。
+     *
+     * @param context ユーザーの操作のコンテキスト
      * @param platform プラットフォームAPIクライアント
-     * @return 検証された場合はtrue、そうでない場合はfalse
+     * @return 検証された場合はOK、証明書ごとの要求数の上限を超えた場合はTOO_MANY_REQUESTS、
+     *         そうでない場合はBAD_REQUEST
+     * @exception IllegalStateException 1つ以上のフィールドでNullまたは空値があった場合
      */
     // Keycloakが発行したnonce値とユーザーが自己申告したnonce値は異なる可能性がある。
-    protected boolean validateSignature(final AuthenticationFlowContext context,
+    protected Response.Status validateSignature(final UserActionContext context,
             final PlatformApiClientInterface platform) {
-        String nonce = AbstractUserAction.getSessionNonce(context);
-        AbstractUserAction.consoleLogger.debug("Nonce: " + nonce);
-
         AuthenticationRequest userRequest = platform.getUserRequest();
-        userRequest.validateHasValues();
+        try {
+            userRequest.validateHasValues();
+        } catch (IllegalStateException e) {
+            AuthenticatorMetrics.countValidation(ValidationStage.FIELDS, false);
+            throw e;
+        }
+        if (!AbstractUserAction.pass(ValidationStage.FIELDS, userRequest.isWithinSizeLimits())) {
+            return Response.Status.BAD_REQUEST;
+        }
+
         String applicantData = userRequest.getApplicantData();
-        AbstractUserAction.consoleLogger.debug("Applicant data: " + applicantData);
+        AbstractUserAction.consoleLogger.debugf("Applicant data: %s", applicantData);
+        String nonce = AbstractUserAction.getSessionNonce(context);
+        AbstractUserAction.consoleLogger.debugf("Nonce: %s", nonce);
+        // SPIオプション stateless-nonce をtrueにした場合のみ、認証セッションに無いNonceを署名で検証する。
+        boolean signedNonce = Objects.isNull(nonce) && context.getConfig().isStatelessNonce();
+        if (signedNonce) {
+            nonce = SignedNonce.verify(context.getSession(), context.getRealm(), context.getAuthenticationSession(),
+                    applicantData) && !AbstractUserAction.isReplayedNonce(context, applicantData) ? applicantData : null;
+        }
+        if (!AbstractUserAction.pass(ValidationStage.NONCE,
+                Objects.nonNull(nonce) && nonce.equals(applicantData))) {
+            return Response.Status.BAD_REQUEST;
+        }
 
-        if (!nonce.equals(applicantData)) {
-            return false;
+        String jweCertificate = userRequest.getCertificate();
+        byte[] sign = AbstractUserAction.decodeSign(userRequest.getSign());
+        if (!AbstractUserAction.pass(ValidationStage.FORMAT,
+                Objects.nonNull(sign) && Encryption.isWellFormed(jweCertificate))) {
+            return Response.Status.BAD_REQUEST;
+        }
+
+        String certificateContent = AbstractUserAction.decryptCertificate(context, jweCertificate);
+        if (!AbstractUserAction.pass(ValidationStage.DECRYPT, Objects.nonNull(certificateContent))) {
+            return Response.Status.BAD_REQUEST;
         }
+        userRequest.setCertificateContent(certificateContent);
+        // 証明書ごとの要求数は復号するまで数えられないため、署名の検証とプラットフォームの呼び出しより前に確認する。
+        if (!ActionRateLimiter.tryAcquireCard(context.getSession(), context.getRealm(), context.getConfig(),
+                certificateContent)) {
+            return Response.Status.TOO_MANY_REQUESTS;
+        }
+
+        boolean verified = validateSignature(sign, certificateContent, nonce)
+                // 署名付きNonceは認証セッションから削除できないため、使用済みとして登録して再利用を拒否する。
+                // 自動モードでは同じリクエストでログインと登録の署名を検証するため、このリクエストで登録したNonceは受け付ける。
+                && (!signedNonce || nonce.equals(SignedNonce.getVerified(context.getSession()))
+                        || SignedNonce.markUsed(context.getSession(), nonce));
+        return AbstractUserAction.pass(ValidationStage.SIGNATURE, verified) ? Response.Status.OK
+                : Response.Status.BAD_REQUEST;
+    }
 
-        String jweCertificate = platform.getUserRequest().getCertificate();
-        String sign = platform.getUserRequest().getSign();
+    /**
+     * 署名付きNonceが他のリクエストで使用済みか確認します。
+     *
+     * 秘密鍵による復号と署名の検証より前に再送を拒否するため、使用済みの登録があるかだけを確認します。
+     * 自動モードで同じリクエストの中で登録したNonceは使用済みとして扱いません。
+     *
+     * @param context ユーザーアクションのコンテキスト
+     * @param nonce   署名を検証したNonce文字列
+     * @return 他のリクエストで使用済みの場合はtrue、そうでない場合はfalse
+     */
+    private static boolean isReplayedNonce(final UserActionContext context, final String nonce) {
+        return !nonce.equals(SignedNonce.getVerified(context.getSession()))
+                && SignedNonce.isUsed(context.getSession(), nonce);
+    }
 
+    /**
+     * プラットフォームへリクエストを送信し、プラットフォームの呼び出し段階の結果を計測値へ加算します。
+     *
+     * @param platform プラットフォームAPIクライアント
+     * @return プラットフォームのレスポンス
+     */
+    protected PlatformAuthenticationResponseStructure sendPlatformRequest(final PlatformApiClientInterface platform) {
+        boolean passed = false;
+        try {
+            platform.sendRequest();
+            PlatformAuthenticationResponseStructure response = platform.getPlatformResponse();
+            passed = Objects.nonNull(response) && Response.Status.Family
+                    .familyOf(response.getHttpStatusCode()) == Response.Status.Family.SUCCESSFUL;
+            return response;
+        } finally {
+            AuthenticatorMetrics.countValidation(ValidationStage.PLATFORM, passed);
+        }
+    }
+
+    private static boolean pass(final ValidationStage stage, final boolean passed) {
+        AuthenticatorMetrics.countValidation(stage, passed);
+        return passed;
+    }
+
+    /**
+     * 署名のBase64文字列をデコードします。
+     *
+     * @param sign 署名のBase64文字列
+     * @return 署名 Base64として不正な場合はnull
+     */
+    private static byte[] decodeSign(final String sign) {
+        try {
+            return Base64.getDecoder().decode(sign);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 証明書データJWEを秘密鍵で復号します。
+     *
+     * 例外が発生した場合は握り潰し、nullを返します。
+     *
+     * @param context        ユーザーの操作のコンテキスト
+     * @param jweCertificate 暗号化された証明書データJWE
+     * @return 証明書 復号できない場合はnull
+     */
+    private static String decryptCertificate(final UserActionContext context, final String jweCertificate) {
         try {
             RealmModel realm = context.getRealm();
             Key privateKey = context.getSession().keys().getActiveKey(realm, KeyUse.ENC, "RSA-OAEP-256").getPrivateKey();
-            String certificateContent = Encryption.decrypt(jweCertificate, privateKey).get("claim").asText();
-            return validateSignature(sign, certificateContent, nonce);
+            return Encryption.decrypt(jweCertificate, privateKey).get("claim").asText();
         } catch(Exception e) {
             // 例外を握り潰す。
             AbstractUserAction.consoleLogger.warn("Caught exception at method validateSignature." + e.getMessage(), e);
-            return false;
+            return null;
         }
     }
 
@@ -138,7 +272,9 @@ public abstract class AbstractUserAction {
      * @param nonce              Nonce文字列
      * @return 検証された場合はtrue、そうでない場合はfalse
      */
-    private boolean validateSignature(final String signature, final String certificateContent, final String nonce) {
+    private boolean validateSignature(final byte[] signature, final String certificateContent, final String nonce) {
+        long startNanos = AuthenticatorMetrics.startTimer();
+        TraceSpan span = Tracing.startSpan("AbstractUserAction.validateSignature");
         try {
             Certificate certificate = null;
             try (InputStream inputStream = new ByteArrayInputStream(certificateContent.getBytes("utf-8"))) {
@@ -150,28 +286,17 @@ public abstract class AbstractUserAction {
             Signature engine = Signature.getInstance("SHA256withRSA");
             engine.initVerify(certificate);
             engine.update(nonce.getBytes());
-            return engine.verify(Base64.getDecoder().decode(signature));
+            boolean verified = engine.verify(signature);
+            span.setAttribute("mynumbercard.signature_verified", verified);
+            return verified;
         } catch (Exception e) {
             // 例外を握り潰す。
             AbstractUserAction.consoleLogger.warn("Caught exception at method validateSignature." + e.getMessage(), e);
+            span.recordException(e);
             return false;
-        }
-    }
-
-    /**
-     * ユーザー属性項目と値の組み合わせからユーザーを返す処理の定義です。
-     */
-    private static class UserIdentityToModelMapperBuilder {
-
-        private static UserIdentityToModelMapper fromUniqueId() {
-            String attributeName = "uniqueid";
-            return fromString(attributeName);
-        }
-
-        private static UserIdentityToModelMapper fromString(final String attributeName) {
-            UserIdentityToModelMapper mapper = UserIdentityToModelMapper
-                    .getUserIdentityToCustomAttributeMapper(attributeName);
-            return mapper;
+        } finally {
+            span.close();
+            AuthenticatorMetrics.recordLatency(AuthenticatorMetrics.Stage.SIGNATURE_VERIFY, startNanos);
         }
     }
 }
@@ -5,8 +5,22 @@ import com.example.mynumbercardidp.keycloak.authentication.application.procedure
 import com.example.mynumbercardidp.keycloak.authentication.application.procedures.user.RegistrationAction;
 import com.example.mynumbercardidp.keycloak.authentication.application.procedures.user.ReplacementAction;
 import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.AbstractActionResolver;
+import com.example.mynumbercardidp.keycloak.core.network.AuthenticationRequest;
+import com.example.mynumbercardidp.keycloak.core.network.AuthenticationRequestBinder;
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientInterface;
+import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformAuthenticationResponseStructure;
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics;
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics.ValidationStage;
+import com.example.mynumbercardidp.keycloak.util.tracing.TraceSpan;
+import com.example.mynumbercardidp.keycloak.util.tracing.Tracing;
 import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.authentication.FlowStatus;
+import org.keycloak.services.messages.Messages;
+
+import java.util.Objects;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
 
 /**
  * ユーザーからKeycloakへのHTTPリクエストを元に実行する処理を呼び出すクラスです。
@@ -18,25 +32,104 @@ public class ActionResolver extends AbstractActionResolver {
 
     @Override
     public void executeUserAction(final AuthenticationFlowContext context) {
-        PlatformApiClientInterface platform = super.createPlatform(context);
-        platform.setContextForDataManager(context);
-        ActionType userActionMode = Enum.valueOf(ActionType.class,
-                platform.getUserRequest().getActionMode().toUpperCase());
-        switch (userActionMode) {
-            case LOGIN:
-                LoginAction LOGIN_ACTION = new LoginAction();
-                LOGIN_ACTION.authenticate(context, platform);
-                break;
-            case REGISTRATION:
-                RegistrationAction REGISTRATION_ACTION = new RegistrationAction();
-                REGISTRATION_ACTION.register(context, platform);
-                break;
-            case REPLACEMENT:
-                ReplacementAction REPLACEMENT_ACTION = new ReplacementAction();
-                REPLACEMENT_ACTION.replace(context, platform);
-                break;
-            default:
-                throw new IllegalArgumentException("Action mode " + userActionMode.getName() + " is the undefined.");
+        TraceSpan span = Tracing.startSpan("ActionResolver.executeUserAction");
+        try {
+            MultivaluedMap<String, String> formData = context.getHttpRequest().getDecodedFormParameters();
+            // 想定しないパラメータや大きすぎる値は、プラットフォームAPIクライアントを作成する前に拒否する。
+            if (!AuthenticationRequestBinder.isAcceptable(formData)) {
+                AuthenticatorMetrics.countValidation(ValidationStage.FIELDS, false);
+                span.setAttribute("mynumbercard.rejected", true);
+                ResponseCreater.setLoginFormAttributes(context);
+                context.challenge(ResponseCreater.createChallengePage(context, Messages.INVALID_REQUEST, null,
+                        Response.Status.BAD_REQUEST));
+                return;
+            }
+            boolean autoMode = ActionType.AUTO.getName()
+                    .equalsIgnoreCase(formData.getFirst(AuthenticationRequest.Filed.ACTION_MODE.getName()));
+            // 自動モードはまずログインとしてプラットフォームへ送信する。
+            PlatformApiClientInterface platform = super.createPlatform(context, autoMode
+                    ? ActionResolver.toActionForm(formData, ActionType.LOGIN, AuthenticationRequest.Filed.SIGN)
+                    : formData);
+            platform.setContextForDataManager(context);
+            ActionType userActionMode = autoMode ? ActionType.AUTO
+                    : Enum.valueOf(ActionType.class, platform.getUserRequest().getActionMode().toUpperCase());
+            span.setAttribute("mynumbercard.action", userActionMode.getName());
+            AuthenticatorMetrics.countAttempt(userActionMode.getName());
+            boolean success = false;
+            try {
+                switch (userActionMode) {
+                    case LOGIN:
+                        LoginAction LOGIN_ACTION = new LoginAction();
+                        LOGIN_ACTION.authenticate(context, platform);
+                        break;
+                    case REGISTRATION:
+                        RegistrationAction REGISTRATION_ACTION = new RegistrationAction();
+                        REGISTRATION_ACTION.register(context, platform);
+                        break;
+                    case REPLACEMENT:
+                        ReplacementAction REPLACEMENT_ACTION = new ReplacementAction();
+                        REPLACEMENT_ACTION.replace(context, platform);
+                        break;
+                    case AUTO:
+                        LoginAction AUTO_ACTION = new LoginAction();
+                        AUTO_ACTION.authenticate(context, platform, () -> {
+                            // ユーザーが見つからない場合は、同じリクエストの署名用証明書と署名で登録する。
+                            PlatformApiClientInterface registrationPlatform = super.createPlatform(context,
+                                    ActionResolver.toActionForm(formData, ActionType.REGISTRATION,
+                                            AuthenticationRequest.Filed.DIGITAL_SIGNATURE_SIGN));
+                            registrationPlatform.setContextForDataManager(context);
+                            RegistrationAction AUTO_REGISTRATION_ACTION = new RegistrationAction();
+                            AUTO_REGISTRATION_ACTION.register(context, registrationPlatform);
+                        });
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Action mode " + userActionMode.getName() + " is the undefined.");
+                }
+                success = context.getStatus() == FlowStatus.SUCCESS;
+            } finally {
+                ActionResolver.countResult(userActionMode, success, platform);
+            }
+            span.setAttribute("mynumbercard.flow_status", context.getStatus());
+        } catch (RuntimeException e) {
+            span.recordException(e);
+            throw e;
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * 自動モードのHTMLフォームパラメータから、指定された処理のHTMLフォームパラメータを作成します。
+     *
+     * 証明書とNonceはそのまま使い、処理の種類と署名を置き換えます。
+     *
+     * @param formData   自動モードのHTMLフォームパラメータ
+     * @param actionType 処理の種類
+     * @param signField  署名として使うHTMLフォームパラメータ
+     * @return 指定された処理のHTMLフォームパラメータ
+     */
+    private static MultivaluedMap<String, String> toActionForm(final MultivaluedMap<String, String> formData,
+            final ActionType actionType, final AuthenticationRequest.Filed signField) {
+        MultivaluedMap<String, String> actionForm = new MultivaluedHashMap<>(formData);
+        actionForm.putSingle(AuthenticationRequest.Filed.ACTION_MODE.getName(), actionType.getName());
+        actionForm.putSingle(AuthenticationRequest.Filed.SIGN.getName(), formData.getFirst(signField.getName()));
+        return actionForm;
+    }
+
+    /**
+     * ユーザーが希望する処理の結果をプラットフォームのステータスコード別に計測値へ加算します。
+     *
+     * @param userActionMode ユーザーが希望する処理の種類
+     * @param success        認証フローが成功した場合はtrue、そうでない場合はfalse
+     * @param platform       プラットフォーム APIクライアントのインスタンス
+     */
+    private static void countResult(final ActionType userActionMode, final boolean success,
+            final PlatformApiClientInterface platform) {
+        if (!AuthenticatorMetrics.isEnabled()) {
+            return;
         }
+        PlatformAuthenticationResponseStructure response = platform.getPlatformResponse();
+        Integer platformStatus = Objects.isNull(response) ? null : response.getHttpStatusCode();
+        AuthenticatorMetrics.countResult(userActionMode.getName(), success, platformStatus);
     }
 }
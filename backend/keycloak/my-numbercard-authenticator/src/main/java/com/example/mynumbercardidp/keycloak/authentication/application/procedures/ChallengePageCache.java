@@ -0,0 +1,470 @@
+package com.example.mynumbercardidp.keycloak.authentication.application.procedures;
+
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
+import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
+import org.jboss.logging.Logger;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.authentication.authenticators.browser.AbstractUsernameFormAuthenticator;
+import org.keycloak.common.util.Time;
+import org.keycloak.forms.login.LoginFormsProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ThemeManager;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.theme.Theme;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+/**
+ * 認証画面の描画結果をキャッシュするクラスです。
+ *
+ * 認証画面のうちリクエストごとに変わる値はアクションURL、リフレッシュURL、Nonce、初期表示の4つのみです。
+ * 初回はこれらを目印の文字列に置き換えてKeycloakのフォームプロバイダーで描画し、目印の前後で画面を分割して保持します。
+ * 以降のリクエストではHTMLエスケープした値を分割した画面へ差し込み、テンプレートの処理を省略します。
+ *
+ * キャッシュはレルム、クライアント、テーマ、ロケール、SPI設定、エラーメッセージの組み合わせごとに作成します。
+ * 次の場合はキャッシュせず、毎回テンプレートを処理します。
+ * <ul>
+ * <li>Keycloakのテーマキャッシュが無効な場合（テーマの開発中を想定）</li>
+ * <li>転送されたメッセージ、ユーザー名の表示、ロケールの切り替えがある場合</li>
+ * <li>目印以外の部分に認証セッション固有の値が含まれる場合（ロケール選択のリンクなど）</li>
+ * </ul>
+ * レルムの表示名などの変更はキャッシュの有効期限が切れるまで反映されません。
+ */
+public final class ChallengePageCache {
+    private static Logger consoleLogger = Logger.getLogger(ChallengePageCache.class);
+    /** キャッシュの有効期限 */
+    private static final long ENTRY_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    /** キャッシュする画面の最大数 超えた場合は全て破棄する */
+    private static final int MAX_ENTRIES = 512;
+    /** HTMLエスケープの影響を受けないよう英数字のみで構成する */
+    private static final String SENTINEL_PREFIX = "mncslot" + UUID.randomUUID().toString().replace("-", "");
+    private static final ConcurrentMap<PageKey, Page> PAGES = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = false;
+
+    private ChallengePageCache() {
+    }
+
+    /**
+     * 認証画面のキャッシュを有効にします。
+     */
+    public static void enable() {
+        ChallengePageCache.enabled = true;
+    }
+
+    /**
+     * 認証画面のキャッシュを無効にし、キャッシュした画面を全て破棄します。
+     */
+    public static void disable() {
+        ChallengePageCache.enabled = false;
+        ChallengePageCache.PAGES.clear();
+    }
+
+    /**
+     * 認証画面のキャッシュが有効であるかを返します。
+     *
+     * @return 有効の場合はtrue、そうでない場合はfalse
+     */
+    public static boolean isEnabled() {
+        return ChallengePageCache.enabled;
+    }
+
+    /**
+     * キャッシュした画面の数を返します。
+     *
+     * @return 画面の数
+     */
+    public static int size() {
+        return ChallengePageCache.PAGES.size();
+    }
+
+    /**
+     * リクエストごとに変わる値の種類です。
+     */
+    enum Slot {
+        ACTION_URL("action"),
+        REFRESH_URL("refresh"),
+        NONCE("nonce"),
+        INITIAL_VIEW("view");
+
+        private String name;
+
+        private Slot(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * 描画した画面に現れる目印の文字列を返します。
+         *
+         * @return 目印の文字列
+         */
+        String getSentinel() {
+            if (this == Slot.ACTION_URL) {
+                return "https://" + ChallengePageCache.SENTINEL_PREFIX + this.name + ".invalid/";
+            }
+            return ChallengePageCache.SENTINEL_PREFIX + this.name;
+        }
+    }
+
+    /**
+     * 認証画面に差し込む値です。
+     */
+    static final class PageValues {
+        private final URI actionUrl;
+        private final String refreshUrl;
+        private final String nonce;
+        private final String initialView;
+        private final String accessCode;
+
+        PageValues(final URI actionUrl, final String refreshUrl, final String nonce, final String initialView,
+                final String accessCode) {
+            this.actionUrl = actionUrl;
+            this.refreshUrl = refreshUrl;
+            this.nonce = nonce;
+            this.initialView = Objects.toString(initialView, "");
+            this.accessCode = accessCode;
+        }
+
+        String get(final Slot slot) {
+            switch (slot) {
+                case ACTION_URL:
+                    return this.actionUrl.toString();
+                case REFRESH_URL:
+                    return this.refreshUrl;
+                case NONCE:
+                    return Objects.toString(this.nonce, "");
+                default:
+                    return this.initialView;
+            }
+        }
+    }
+
+    /**
+     * 認証画面のレスポンスを返します。
+     *
+     * キャッシュが無効、または対象外の場合はフォームプロバイダーで描画したレスポンスをそのまま返します。
+     *
+     * @param context 認証フローのコンテキスト
+     * @param form    アクションURLなどを設定したフォームプロバイダー
+     * @param error   エラーメッセージ
+     * @param field   エラーメッセージを表示するフィールド名
+     * @param values  認証画面に差し込む値
+     * @return HTTP レスポンス
+     */
+    static Response render(final AuthenticationFlowContext context, final LoginFormsProvider form,
+            final String error, final String field, final PageValues values) {
+        if (!ChallengePageCache.enabled || Objects.isNull(values.nonce)) {
+            return form.createLoginUsernamePassword();
+        }
+        PageKey key = ChallengePageCache.createKey(context, error, field);
+        if (Objects.isNull(key)) {
+            return form.createLoginUsernamePassword();
+        }
+
+        long now = Time.currentTimeMillis();
+        Page page = ChallengePageCache.PAGES.get(key);
+        if (Objects.nonNull(page) && page.expiresAt > now) {
+            return page.isCacheable() ? page.toResponse(values) : form.createLoginUsernamePassword();
+        }
+
+        page = ChallengePageCache.renderPage(context, form, values, now + ChallengePageCache.ENTRY_LIFETIME_MILLIS);
+        if (Objects.isNull(page)) {
+            return form.createLoginUsernamePassword();
+        }
+        if (ChallengePageCache.PAGES.size() >= ChallengePageCache.MAX_ENTRIES) {
+            ChallengePageCache.PAGES.clear();
+        }
+        ChallengePageCache.PAGES.put(key, page);
+        // 対象外と判定した場合も、この描画結果は値を差し込めば今回のリクエストの画面として正しい。
+        return page.toResponse(values);
+    }
+
+    private static PageKey createKey(final AuthenticationFlowContext context, final String error,
+            final String field) {
+        if (Objects.nonNull(context.getForwardedErrorMessage())
+                || Objects.nonNull(context.getForwardedSuccessMessage())
+                || Objects.nonNull(context.getForwardedInfoMessage())
+                || Objects.nonNull(context.getUser())) {
+            return null;
+        }
+        KeycloakSession session = context.getSession();
+        AuthenticationSessionModel authSession = context.getAuthenticationSession();
+        if (Objects.isNull(session) || Objects.isNull(context.getRealm()) || Objects.isNull(authSession)
+                || Objects.isNull(authSession.getClient())) {
+            return null;
+        }
+        if (Objects.nonNull(authSession.getAuthNote(AbstractUsernameFormAuthenticator.ATTEMPTED_USERNAME))) {
+            return null;
+        }
+        if (Objects.nonNull(context.getUriInfo())
+                && context.getUriInfo().getQueryParameters().containsKey("kc_locale")) {
+            return null;
+        }
+        ThemeManager themeManager = session.theme();
+        if (Objects.isNull(themeManager) || !themeManager.isCacheEnabled()) {
+            return null;
+        }
+        try {
+            Theme theme = themeManager.getTheme(Theme.Type.LOGIN);
+            Locale locale = session.getContext().resolveLocale(null);
+            if (Objects.isNull(theme) || Objects.isNull(locale)) {
+                return null;
+            }
+            return new PageKey(context.getRealm().getId(), authSession.getClient().getClientId(), theme, locale,
+                    CurrentConfig.getSnapshot(context), error, field);
+        } catch (IOException e) {
+            ChallengePageCache.consoleLogger.debug("Could not resolve the login theme. " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Page renderPage(final AuthenticationFlowContext context, final LoginFormsProvider form,
+            final PageValues values, final long expiresAt) {
+        form.setActionUri(URI.create(Slot.ACTION_URL.getSentinel()));
+        form.setAttribute("refreshUrl", Slot.REFRESH_URL.getSentinel());
+        form.setAttribute("nonce", Slot.NONCE.getSentinel());
+        form.setAttribute("initialView", Slot.INITIAL_VIEW.getSentinel());
+        Response rendered;
+        try {
+            rendered = form.createLoginUsernamePassword();
+        } finally {
+            // 同じリクエストで再度描画する場合に備え、実際の値へ戻す。
+            form.setActionUri(values.actionUrl);
+            form.setAttribute("refreshUrl", values.refreshUrl);
+            form.setAttribute("nonce", values.nonce);
+            form.setAttribute("initialView", values.initialView);
+        }
+        if (Objects.isNull(rendered) || rendered.getStatus() != Response.Status.OK.getStatusCode()
+                || !(rendered.getEntity() instanceof String)) {
+            return null;
+        }
+
+        AuthenticationSessionModel authSession = context.getAuthenticationSession();
+        List<String> sessionValues = new ArrayList<>();
+        sessionValues.add(values.accessCode);
+        sessionValues.add(authSession.getTabId());
+        if (Objects.nonNull(authSession.getParentSession())) {
+            sessionValues.add(authSession.getParentSession().getId());
+        }
+        Page page = Page.parse((String) rendered.getEntity(), rendered.getHeaders(), sessionValues, expiresAt);
+        if (!page.isCacheable()) {
+            ChallengePageCache.consoleLogger.debug("The challenge page contains session values and is not cached.");
+        }
+        return page;
+    }
+
+    /**
+     * 値をFreeMarkerのHTML出力形式と同じ規則でエスケープします。
+     *
+     * @param value エスケープする値
+     * @return エスケープした値
+     */
+    static String escapeHtml(final String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '\'':
+                    replacement = "&#39;";
+                    break;
+                default:
+                    replacement = null;
+                    break;
+            }
+            if (Objects.isNull(replacement)) {
+                if (Objects.nonNull(escaped)) {
+                    escaped.append(c);
+                }
+                continue;
+            }
+            if (Objects.isNull(escaped)) {
+                escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+            }
+            escaped.append(replacement);
+        }
+        return Objects.isNull(escaped) ? value : escaped.toString();
+    }
+
+    /**
+     * 目印で分割した認証画面です。
+     */
+    private static final class Page {
+        /** 差し込む値の間にある固定部分 要素数は slots の要素数より1つ多い */
+        private final String[] fragments;
+        private final Slot[] slots;
+        private final List<Map.Entry<String, Object>> headers;
+        private final int fixedLength;
+        private final long expiresAt;
+        private final boolean cacheable;
+
+        private Page(final String[] fragments, final Slot[] slots, final List<Map.Entry<String, Object>> headers,
+                final List<String> sessionValues, final long expiresAt) {
+            this.fragments = fragments;
+            this.slots = slots;
+            this.headers = headers;
+            this.expiresAt = expiresAt;
+            this.cacheable = isSessionIndependent(sessionValues);
+            int length = 0;
+            for (String fragment : fragments) {
+                length += fragment.length();
+            }
+            this.fixedLength = length;
+        }
+
+        private static Page parse(final String html, final Map<String, List<Object>> responseHeaders,
+                final List<String> sessionValues, final long expiresAt) {
+            List<String> fragments = new ArrayList<>();
+            List<Slot> slots = new ArrayList<>();
+            int position = 0;
+            while (true) {
+                int nextIndex = -1;
+                Slot nextSlot = null;
+                for (Slot slot : Slot.values()) {
+                    int index = html.indexOf(slot.getSentinel(), position);
+                    if (index >= 0 && (nextIndex < 0 || index < nextIndex)) {
+                        nextIndex = index;
+                        nextSlot = slot;
+                    }
+                }
+                if (Objects.isNull(nextSlot)) {
+                    break;
+                }
+                fragments.add(html.substring(position, nextIndex));
+                slots.add(nextSlot);
+                position = nextIndex + nextSlot.getSentinel().length();
+            }
+            fragments.add(html.substring(position));
+
+            List<Map.Entry<String, Object>> headers = new ArrayList<>();
+            responseHeaders.forEach((name, values) -> {
+                if (ResponseCreater.ACTION_URL_HEADER.equalsIgnoreCase(name)) {
+                    return;
+                }
+                values.forEach(value -> headers.add(new AbstractMap.SimpleImmutableEntry<>(name, value)));
+            });
+            return new Page(fragments.toArray(new String[0]), slots.toArray(new Slot[0]),
+                    Collections.unmodifiableList(headers), sessionValues, expiresAt);
+        }
+
+        private boolean isCacheable() {
+            return this.cacheable;
+        }
+
+        private boolean isSessionIndependent(final List<String> sessionValues) {
+            for (Map.Entry<String, Object> header : this.headers) {
+                if (HttpHeaders.SET_COOKIE.equalsIgnoreCase(header.getKey())) {
+                    return false;
+                }
+            }
+            for (String fragment : this.fragments) {
+                for (String value : sessionValues) {
+                    if (Objects.nonNull(value) && !value.isEmpty() && fragment.contains(value)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private Response toResponse(final PageValues values) {
+            String[] escaped = new String[Slot.values().length];
+            int length = this.fixedLength;
+            for (Slot slot : this.slots) {
+                if (Objects.isNull(escaped[slot.ordinal()])) {
+                    escaped[slot.ordinal()] = ChallengePageCache.escapeHtml(values.get(slot));
+                }
+                length += escaped[slot.ordinal()].length();
+            }
+            StringBuilder html = new StringBuilder(length);
+            for (int i = 0; i < this.slots.length; i++) {
+                html.append(this.fragments[i]).append(escaped[this.slots[i].ordinal()]);
+            }
+            html.append(this.fragments[this.fragments.length - 1]);
+
+            Response.ResponseBuilder builder = Response.ok(html.toString());
+            for (Map.Entry<String, Object> header : this.headers) {
+                builder.header(header.getKey(), header.getValue());
+            }
+            builder.header(ResponseCreater.ACTION_URL_HEADER, values.actionUrl.toString());
+            return builder.build();
+        }
+    }
+
+    /**
+     * キャッシュのキーです。
+     *
+     * テーマとSPI設定はインスタンスで比較します。
+     * Keycloakはテーマキャッシュを破棄した場合やSPI設定を更新した場合に別のインスタンスを返すため、描画し直します。
+     */
+    private static final class PageKey {
+        private final String realmId;
+        private final String clientId;
+        private final Theme theme;
+        private final Locale locale;
+        private final ConfigSnapshot config;
+        private final String error;
+        private final String field;
+
+        private PageKey(final String realmId, final String clientId, final Theme theme, final Locale locale,
+                final ConfigSnapshot config, final String error, final String field) {
+            this.realmId = realmId;
+            this.clientId = clientId;
+            this.theme = theme;
+            this.locale = locale;
+            this.config = config;
+            this.error = error;
+            this.field = field;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) obj;
+            return this.theme == other.theme && this.config == other.config
+                    && Objects.equals(this.realmId, other.realmId) && Objects.equals(this.clientId, other.clientId)
+                    && this.locale.equals(other.locale) && Objects.equals(this.error, other.error)
+                    && Objects.equals(this.field, other.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.realmId, this.clientId, System.identityHashCode(this.theme), this.locale,
+                    System.identityHashCode(this.config), this.error, this.field);
+        }
+    }
+}
@@ -1,17 +1,24 @@
 package com.example.mynumbercardidp.keycloak.authentication.application.procedures;
 
-import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.SpiConfigProperty;
+import com.example.mynumbercardidp.keycloak.util.IdGenerator;
 import com.example.mynumbercardidp.keycloak.util.StringUtil;
+import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
+import com.example.mynumbercardidp.keycloak.util.authentication.SignedNonce;
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics;
+import com.example.mynumbercardidp.keycloak.util.tracing.TraceSpan;
+import com.example.mynumbercardidp.keycloak.util.tracing.Tracing;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.authentication.AuthenticationFlowError;
 import org.keycloak.forms.login.LoginFormsProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
 import org.keycloak.models.utils.FormMessage;
 import org.keycloak.services.messages.Messages;
 import org.keycloak.sessions.AuthenticationSessionModel;
 
 import java.net.URI;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.UUID;
 import javax.ws.rs.core.Response;
 
 /**
@@ -20,6 +27,13 @@ import javax.ws.rs.core.Response;
  * このクラスはユーティリティです。
  */
 public final class ResponseCreater {
+    /** アクションURLを返すレスポンスヘッダー名 */
+    static final String ACTION_URL_HEADER = "X-Action-URL";
+    /** 画面へ差し込むNonceを同じリクエストの中で受け渡すセッション属性名 */
+    private static final String NONCE_ATTRIBUTE = ResponseCreater.class.getName() + ".nonce";
+    /** 要求数の上限を超えた場合のメッセージ名 */
+    static final String TOO_MANY_REQUESTS_MESSAGE = "tooManyRequestsMessage";
+
     private ResponseCreater() {
     }
 
@@ -53,18 +67,25 @@ public final class ResponseCreater {
         Optional<String> actionNameValue = Optional.ofNullable(actionName);
         context.getAuthenticationSession().setAuthNote("initialView", actionNameValue.orElse(""));
         form.setAttribute("initialView", actionNameValue.orElse(""));
-        return ResponseCreater.createChallengePage(context, null, null, status);
+        return ResponseCreater.createChallengePage(context, null, null, status, actionNameValue.orElse(""));
     }
 
     public static final Response createChallengePage(final AuthenticationFlowContext context, final String error,
             final String field, final Response.Status status) {
-        URI actionURLValue = context.getActionUrl(context.generateAccessCode());
+        return ResponseCreater.createChallengePage(context, error, field, status, null);
+    }
+
+    private static Response createChallengePage(final AuthenticationFlowContext context, final String error,
+            final String field, final Response.Status status, final String initialView) {
+        String accessCode = context.generateAccessCode();
+        URI actionURLValue = context.getActionUrl(accessCode);
         LoginFormsProvider form = context.form()
                 .setActionUri(actionURLValue)
                 .setExecution(context.getExecution().getId())
-                .setResponseHeader("X-Action-URL", actionURLValue.toString());
+                .setResponseHeader(ResponseCreater.ACTION_URL_HEADER, actionURLValue.toString());
 
-        form.setAttribute("refreshUrl", context.getRefreshUrl(true).toString());
+        String refreshUrl = context.getRefreshUrl(true).toString();
+        form.setAttribute("refreshUrl", refreshUrl);
         if (StringUtil.isNonEmpty(error)) {
             if (StringUtil.isNonEmpty(field)) {
                 form.addError(new FormMessage(field, error));
@@ -72,10 +93,25 @@ public final class ResponseCreater {
                 form.setError(error);
             }
         }
-        Response templateResponse = form.createLoginUsernamePassword();
-        return Response.fromResponse(templateResponse)
-                .status(status)
-                .build();
+        long startNanos = AuthenticatorMetrics.startTimer();
+        TraceSpan span = Tracing.startSpan("ResponseCreater.createChallengePage")
+                .setAttribute("mynumbercard.error", error)
+                .setAttribute("http.status_code", status.getStatusCode());
+        try {
+            // Nonceは setLoginFormAttributes で発行した値を画面へ差し込む。
+            ChallengePageCache.PageValues values = new ChallengePageCache.PageValues(actionURLValue, refreshUrl,
+                    ResponseCreater.getIssuedNonce(context), initialView, accessCode);
+            Response templateResponse = ChallengePageCache.render(context, form, error, field, values);
+            return Response.fromResponse(templateResponse)
+                    .status(status)
+                    .build();
+        } catch (RuntimeException e) {
+            span.recordException(e);
+            throw e;
+        } finally {
+            span.close();
+            AuthenticatorMetrics.recordLatency(AuthenticatorMetrics.Stage.PAGE_RENDER, startNanos);
+        }
     }
 
     /**
@@ -104,36 +140,93 @@ public final class ResponseCreater {
         context.failure(AuthenticationFlowError.INVALID_CREDENTIALS, context.form().createErrorPage(status));
     }
 
+    /**
+     * 要求数の上限を超えたことを認証画面で返します。
+     *
+     * @param context 認証フローのコンテキスト
+     */
+    public static final void sendTooManyRequestsResponse(final AuthenticationFlowContext context) {
+        ResponseCreater.setLoginFormAttributes(context);
+        Response response = ResponseCreater.createChallengePage(context, ResponseCreater.TOO_MANY_REQUESTS_MESSAGE,
+                null, Response.Status.TOO_MANY_REQUESTS);
+        context.challenge(response);
+    }
+
     /**
      * 共通で使うテンプレート変数をユーザーに表示する画面のテンプレートへ設定します。
      *
      * @param context 認証フローのコンテキスト
      */
     public static final void setLoginFormAttributes(final AuthenticationFlowContext context) {
-        boolean reuseNonceFlag = Boolean.valueOf(context.getAuthenticationSession().getAuthNote("reuseNonceFlag"));
-        String nonce = ResponseCreater.createNonceOrReuse(reuseNonceFlag, context.getAuthenticationSession());
+        AuthenticationSessionModel authSession = context.getAuthenticationSession();
+        boolean reuseNonceFlag = Boolean.valueOf(authSession.getAuthNote("reuseNonceFlag"));
+        String nonce;
+        if (!reuseNonceFlag && CurrentConfig.getSnapshot(context).isStatelessNonce()) {
+            // SPIオプション stateless-nonce をtrueにした場合のみ、認証セッションへ書き込まない署名付きNonceを発行する。
+            nonce = SignedNonce.issue(context.getSession(), context.getRealm(), authSession);
+            if (Objects.nonNull(authSession.getAuthNote("nonce"))) {
+                authSession.removeAuthNote("nonce");
+            }
+        } else {
+            nonce = ResponseCreater.createNonceOrReuse(reuseNonceFlag, context);
+        }
+        KeycloakSession session = context.getSession();
+        if (Objects.nonNull(session)) {
+            session.setAttribute(ResponseCreater.NONCE_ATTRIBUTE, nonce);
+        }
         LoginFormsProvider form = context.form();
         form.setAttribute("nonce", nonce);
-        SpiConfigProperty.getFreeMarkerJavaTemplateVariables().forEach((k, v) -> form.setAttribute(k, v));
+        RealmModel realm = context.getRealm();
+        if (Objects.nonNull(realm)) {
+            // 別の端末での認証の状態を確認し続ける期間を、画面のスクリプトへ渡す。
+            form.setAttribute("loginLifespan", realm.getAccessCodeLifespanLogin());
+        }
+        CurrentConfig.getSnapshot(context).getTemplateVariables().forEach((k, v) -> form.setAttribute(k, v));
     }
 
     /**
      * Nonceを返します。
      *
      * 認証フローのAuth noteにあるNonceの再利用フラグがtrueの場合、直前に発行したNonceの文字列を返します。
+     * 直前のNonceが署名付きNonceで認証セッションに無い場合は、同じリクエストで検証したNonceを認証セッションへ保存して返します。
      * そうでない場合はUUID文字列を返します。
      *
      * @param reuseNonceFlag Nonceの再利用フラグ
-     * @param session        認証フローのセッション情報
-     * @return UUID文字列
+     * @param context        認証フローのコンテキスト
+     * @return Nonce文字列
      */
-    private static String createNonceOrReuse(boolean reuseNonceFlag, final AuthenticationSessionModel session) {
+    private static String createNonceOrReuse(boolean reuseNonceFlag, final AuthenticationFlowContext context) {
+        AuthenticationSessionModel session = context.getAuthenticationSession();
         if (reuseNonceFlag) {
-            return session.getAuthNote("nonce");
+            String nonce = session.getAuthNote("nonce");
+            if (Objects.isNull(nonce) && Objects.nonNull(context.getSession())) {
+                nonce = SignedNonce.getVerified(context.getSession());
+                if (Objects.nonNull(nonce)) {
+                    session.setAuthNote("nonce", nonce);
+                }
+            }
+            return nonce;
         } else {
-            String nonce = UUID.randomUUID().toString();
+            String nonce = IdGenerator.randomUuid();
             session.setAuthNote("nonce", nonce);
             return nonce;
         }
     }
+
+    /**
+     * 同じリクエストの中で画面へ設定したNonceを返します。
+     *
+     * @param context 認証フローのコンテキスト
+     * @return Nonce文字列 設定していない場合は認証セッションのNonce
+     */
+    private static String getIssuedNonce(final AuthenticationFlowContext context) {
+        KeycloakSession session = context.getSession();
+        if (Objects.nonNull(session)) {
+            String nonce = session.getAttribute(ResponseCreater.NONCE_ATTRIBUTE, String.class);
+            if (Objects.nonNull(nonce)) {
+                return nonce;
+            }
+        }
+        return context.getAuthenticationSession().getAuthNote("nonce");
+    }
 }
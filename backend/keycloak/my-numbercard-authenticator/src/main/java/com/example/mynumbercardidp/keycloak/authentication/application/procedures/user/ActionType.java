@@ -3,7 +3,9 @@ package com.example.mynumbercardidp.keycloak.authentication.application.procedur
 public enum ActionType {
     LOGIN("login"),
     REGISTRATION("registration"),
-    REPLACEMENT("replacement");
+    REPLACEMENT("replacement"),
+    /** ログインを試み、ユーザーが見つからない場合は同じリクエストの署名用証明書で登録する */
+    AUTO("auto");
 
     private String name;
 
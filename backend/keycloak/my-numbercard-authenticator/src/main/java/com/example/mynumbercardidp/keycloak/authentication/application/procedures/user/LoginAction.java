@@ -2,6 +2,7 @@ package com.example.mynumbercardidp.keycloak.authentication.application.procedur
 
 import com.example.mynumbercardidp.keycloak.authentication.application.procedures.AbstractUserAction;
 import com.example.mynumbercardidp.keycloak.authentication.application.procedures.ResponseCreater;
+import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.UserActionContext;
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientInterface;
 import com.example.mynumbercardidp.keycloak.network.platform.PlatformAuthenticationResponse;
 import org.keycloak.authentication.AuthenticationFlowContext;
@@ -24,7 +25,27 @@ public class LoginAction extends AbstractUserAction {
      * @param platform プラットフォーム APIクライアントのインスタンス
      */
     public void authenticate(final AuthenticationFlowContext context, final PlatformApiClientInterface platform) {
-        if (!super.validateSignature(context, platform)) {
+        authenticate(context, platform, null);
+    }
+
+    /**
+     * 公的個人認証部分をプラットフォームへ送信し、その応答からユーザーを認証します。
+     *
+     * ユーザーが見つからない場合、未登録時の処理が指定されていれば登録画面を返さずにその処理を実行します。
+     *
+     * @param context        認証フローのコンテキスト
+     * @param platform       プラットフォーム APIクライアントのインスタンス
+     * @param notFoundAction ユーザーが見つからない場合の処理 nullの場合は登録画面を返す
+     */
+    public void authenticate(final AuthenticationFlowContext context, final PlatformApiClientInterface platform,
+            final Runnable notFoundAction) {
+        UserActionContext actionContext = UserActionContext.of(context);
+        Response.Status validation = super.validateSignature(actionContext, platform);
+        if (validation == Response.Status.TOO_MANY_REQUESTS) {
+            ResponseCreater.sendTooManyRequestsResponse(context);
+            return;
+        }
+        if (validation != Response.Status.OK) {
             ResponseCreater.setLoginFormAttributes(context);
             Response response = ResponseCreater.createChallengePage(context, Messages.INVALID_REQUEST, null,
                     Response.Status.BAD_REQUEST);
@@ -32,16 +53,23 @@ public class LoginAction extends AbstractUserAction {
             return;
         }
 
-        platform.sendRequest();
-        PlatformAuthenticationResponse response = (PlatformAuthenticationResponse) platform.getPlatformResponse();
-        if (!this.flowTransition.canExecuteAuthentication(context,
-                Response.Status.fromStatusCode(response.getHttpStatusCode()))) {
+        PlatformAuthenticationResponse response = (PlatformAuthenticationResponse) super.sendPlatformRequest(platform);
+        Response.Status status = Response.Status.fromStatusCode(response.getHttpStatusCode());
+        if (status == Response.Status.NOT_FOUND && Objects.nonNull(notFoundAction)) {
+            notFoundAction.run();
+            return;
+        }
+        if (!this.flowTransition.canExecuteAuthentication(context, status)) {
             return;
         }
 
         String uniqueId = super.tryExtractUniqueId(response);
-        UserModel user = super.findUser(context, uniqueId);
+        UserModel user = super.findUser(actionContext, uniqueId);
 
+        if (Objects.isNull(user) && Objects.nonNull(notFoundAction)) {
+            notFoundAction.run();
+            return;
+        }
         if (Objects.isNull(user)) {
             ResponseCreater.sendChallengeResponse(context, "registration", Response.Status.NOT_FOUND);
             return;
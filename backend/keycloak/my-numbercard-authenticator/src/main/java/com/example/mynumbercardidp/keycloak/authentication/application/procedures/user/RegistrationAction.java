@@ -2,6 +2,7 @@ package com.example.mynumbercardidp.keycloak.authentication.application.procedur
 
 import com.example.mynumbercardidp.keycloak.authentication.application.procedures.AbstractUserAction;
 import com.example.mynumbercardidp.keycloak.authentication.application.procedures.ResponseCreater;
+import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.UserActionContext;
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientInterface;
 import com.example.mynumbercardidp.keycloak.network.platform.PlatformAuthenticationResponse;
 import org.keycloak.authentication.AuthenticationFlowContext;
@@ -24,7 +25,13 @@ public class RegistrationAction extends AbstractUserAction {
      * @param platform プラットフォーム APIクライアントのインスタンス
      */
     public void register(AuthenticationFlowContext context, PlatformApiClientInterface platform) {
-        if (!super.validateSignature(context, platform)) {
+        UserActionContext actionContext = UserActionContext.of(context);
+        Response.Status validation = super.validateSignature(actionContext, platform);
+        if (validation == Response.Status.TOO_MANY_REQUESTS) {
+            ResponseCreater.sendTooManyRequestsResponse(context);
+            return;
+        }
+        if (validation != Response.Status.OK) {
             ResponseCreater.setLoginFormAttributes(context);
             Response response = ResponseCreater.createChallengePage(context, Messages.INVALID_REQUEST, null,
                     Response.Status.BAD_REQUEST);
@@ -32,15 +39,14 @@ public class RegistrationAction extends AbstractUserAction {
             return;
         }
 
-        platform.sendRequest();
-        PlatformAuthenticationResponse response = (PlatformAuthenticationResponse) platform.getPlatformResponse();
+        PlatformAuthenticationResponse response = (PlatformAuthenticationResponse) super.sendPlatformRequest(platform);
         if (!this.flowTransition.canExecuteRegistration(context,
                 Response.Status.fromStatusCode(response.getHttpStatusCode()))) {
             return;
         }
 
         String uniqueId = super.tryExtractUniqueId(response);
-        UserModel user = super.findUser(context, uniqueId);
+        UserModel user = super.findUser(actionContext, uniqueId);
         if (Objects.nonNull(user)) {
             ResponseCreater.sendChallengeResponse(context, ActionType.LOGIN.getName(), Response.Status.CONFLICT);
             return;
@@ -0,0 +1,157 @@
+package com.example.mynumbercardidp.keycloak.authentication.authenticators.browser;
+
+import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientResolver;
+import com.example.mynumbercardidp.keycloak.util.Encryption;
+import com.example.mynumbercardidp.keycloak.util.StringUtil;
+import org.jboss.logging.Logger;
+import org.keycloak.jose.jwe.JWE;
+import org.keycloak.jose.jwe.JWEHeader;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 起動時に認証SPIの初回リクエストで発生する処理を先に実行しておくクラスです。
+ *
+ * JCAプロバイダーの読み込み、RSA-OAEPとSHA256withRSAの初回実行、プラットフォームAPIクライアントのクラス読み込みと
+ * JSON変換器の構築、レルムごとのJWKSの取得を済ませます。
+ * 失敗した処理は警告を出力して読み飛ばし、起動を妨げません。
+ */
+final class AuthenticatorWarmUp {
+    private static Logger consoleLogger = Logger.getLogger(AuthenticatorWarmUp.class);
+    /** プラットフォームのJWKSのパス DataModelManagerと同じ */
+    private static final String JWKS_PATH = "/key/jwks.json";
+
+    private final PlatformApiClientResolver resolver;
+    private volatile boolean ready = false;
+
+    AuthenticatorWarmUp(final PlatformApiClientResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * ウォームアップが完了したかを返します。
+     *
+     * @return 完了した場合、またはウォームアップが無効の場合はtrue、そうでない場合はfalse
+     */
+    boolean isReady() {
+        return this.ready;
+    }
+
+    /**
+     * ウォームアップをせずに完了した状態にします。
+     */
+    void skip() {
+        this.ready = true;
+    }
+
+    /**
+     * ウォームアップを実行します。
+     *
+     * @param factory Keycloakのセッションファクトリー
+     */
+    void run(final KeycloakSessionFactory factory) {
+        long startNanos = System.nanoTime();
+        try {
+            warmUpCrypto();
+            KeycloakModelUtils.runJobInTransaction(factory, this::warmUpRealms);
+        } catch (RuntimeException e) {
+            AuthenticatorWarmUp.consoleLogger.warn("Caught exception at method run." + e.getMessage(), e);
+        } finally {
+            this.ready = true;
+            AuthenticatorWarmUp.consoleLogger.infof("My number card authenticator warm-up completed in %d ms.",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * 使い捨ての鍵でJWEの暗号化と復号、署名と検証を一度ずつ実行します。
+     */
+    void warmUpCrypto() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            KeyPair keyPair = generator.generateKeyPair();
+
+            JWE jwe = new JWE()
+                    .header(new JWEHeader("RSA-OAEP-256", "A128CBC-HS256", "DEF"))
+                    .content("{\"claim\":\"\"}".getBytes(StandardCharsets.UTF_8));
+            jwe.getKeyStorage().setEncryptionKey(keyPair.getPublic());
+            Encryption.decrypt(jwe.encodeJwe(), keyPair.getPrivate());
+
+            byte[] nonce = "warm-up".getBytes(StandardCharsets.UTF_8);
+            Signature signer = Signature.getInstance("SHA256withRSA");
+            signer.initSign(keyPair.getPrivate());
+            signer.update(nonce);
+            byte[] signature = signer.sign();
+            Signature verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(nonce);
+            verifier.verify(signature);
+
+            CertificateFactory.getInstance("X.509");
+        } catch (Exception e) {
+            // 報告された例外は全ての例外である。
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 全てのレルムの認証SPI設定から、プラットフォームAPIクライアントのクラスとJWKSを準備します。
+     *
+     * @param session Keycloakのセッション
+     */
+    void warmUpRealms(final KeycloakSession session) {
+        String rootUriName = SpiConfigProperty.CertificateValidatorRootUri.CONFIG.getName();
+        String platformClassName = SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName();
+        Set<String> platformClasses = new LinkedHashSet<>();
+        Set<String> jwksUrls = new LinkedHashSet<>();
+        session.realms().getRealmsStream()
+                .flatMap(RealmModel::getAuthenticatorConfigsStream)
+                .map(AuthenticatorConfigModel::getConfig)
+                .filter(config -> Objects.nonNull(config) && config.containsKey(rootUriName))
+                .forEach(config -> {
+                    platformClasses.add(AuthenticatorWarmUp.getValue(config, platformClassName,
+                            SpiConfigProperty.PlatformApiClientClassFqdn.DEFAULT_VALUE));
+                    String rootUri = AuthenticatorWarmUp.getValue(config, rootUriName, "");
+                    if (!StringUtil.isEmpty(rootUri)) {
+                        jwksUrls.add(rootUri + AuthenticatorWarmUp.JWKS_PATH);
+                    }
+                });
+
+        for (String platformClass : platformClasses) {
+            try {
+                this.resolver.warmUp(platformClass);
+            } catch (RuntimeException e) {
+                AuthenticatorWarmUp.consoleLogger.warnf("Could not warm up the platform API client %s. %s",
+                        platformClass, e.getMessage());
+            }
+        }
+        for (String jwksUrl : jwksUrls) {
+            try {
+                Encryption.prefetchPublicKey(session, jwksUrl);
+            } catch (RuntimeException e) {
+                AuthenticatorWarmUp.consoleLogger.warnf("Could not prefetch the JWKS %s. %s", jwksUrl,
+                        e.getMessage());
+            }
+        }
+    }
+
+    private static String getValue(final Map<String, String> config, final String name, final String defaultValue) {
+        String value = config.get(name);
+        return StringUtil.isEmpty(value) ? defaultValue : value;
+    }
+}
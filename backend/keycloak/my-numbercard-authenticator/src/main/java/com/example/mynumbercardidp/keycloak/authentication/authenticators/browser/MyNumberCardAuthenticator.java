@@ -4,6 +4,7 @@ import com.example.mynumbercardidp.keycloak.authentication.application.procedure
 import com.example.mynumbercardidp.keycloak.authentication.application.procedures.ResponseCreater;
 import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.ApplicationResolverInterface;
 import com.example.mynumbercardidp.keycloak.core.authentication.authenticators.browser.AbstractMyNumberCardAuthenticator;
+import com.example.mynumbercardidp.keycloak.util.ratelimit.ActionRateLimiter;
 import org.keycloak.authentication.AuthenticationFlowContext;
 
 import java.util.Optional;
@@ -23,12 +24,17 @@ public class MyNumberCardAuthenticator extends AbstractMyNumberCardAuthenticator
     /**
      * プラットフォームへ公的個人認証部分を送信し、その結果からログインや登録、登録情報の変更処理を呼び出します。
      *
+     * 要求数の上限を超えた場合は、証明書を復号せずに認証画面を返します。
+     *
      * @param context 認証フローのコンテキスト
      */
     @Override
     public void action(final AuthenticationFlowContext context) {
-        SpiConfigProperty.initFreeMarkerJavaTemplateVariables(context);
-        this.actionResolver.executeUserAction(context);
+        if (ActionRateLimiter.tryAcquire(context)) {
+            this.actionResolver.executeUserAction(context);
+        } else {
+            ResponseCreater.sendTooManyRequestsResponse(context);
+        }
         AbstractMyNumberCardAuthenticator.validateHasAuthFlowStatus(context);
     }
 
@@ -39,7 +45,6 @@ public class MyNumberCardAuthenticator extends AbstractMyNumberCardAuthenticator
      */
     @Override
     public void authenticate(final AuthenticationFlowContext context) {
-        SpiConfigProperty.initFreeMarkerJavaTemplateVariables(context);
         ResponseCreater.setLoginFormAttributes(context);
         String initialView = Optional.ofNullable(
                 context.getAuthenticationSession().getAuthNote("initialView")).orElse("");
@@ -1,5 +1,16 @@
 package com.example.mynumbercardidp.keycloak.authentication.authenticators.browser;
 
+import com.example.mynumbercardidp.keycloak.authentication.application.procedures.ChallengePageCache;
+import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientResolver;
+import com.example.mynumbercardidp.keycloak.network.platform.IdentityAttributeMapping;
+import com.example.mynumbercardidp.keycloak.util.Encryption;
+import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics;
+import com.example.mynumbercardidp.keycloak.util.ratelimit.ActionRateLimiter;
+import com.example.mynumbercardidp.keycloak.util.tracing.FileSpanExporter;
+import com.example.mynumbercardidp.keycloak.util.tracing.OtlpHttpSpanExporter;
+import com.example.mynumbercardidp.keycloak.util.tracing.Tracing;
+import io.micrometer.core.instrument.Metrics;
 import org.keycloak.Config.Scope;
 import org.keycloak.authentication.Authenticator;
 import org.keycloak.authentication.AuthenticatorFactory;
@@ -8,9 +19,13 @@ import org.keycloak.models.AuthenticationExecutionModel.Requirement;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.credential.PasswordCredentialModel;
+import org.keycloak.models.utils.PostMigrationEvent;
 import org.keycloak.provider.ProviderConfigProperty;
 
+import java.net.URI;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.Objects;
 
 public class MyNumberCardAuthenticatorFactory implements AuthenticatorFactory {
 
@@ -21,11 +36,23 @@ public class MyNumberCardAuthenticatorFactory implements AuthenticatorFactory {
             AuthenticationExecutionModel.Requirement.REQUIRED
     };
     private static final List<ProviderConfigProperty> CONFIG_PROPERTIES = SpiConfigProperty.getPropertis();
+    /** トレースに記録するサービス名 */
+    private static final String TRACING_SERVICE_NAME = "keycloak-my-number-card-authenticator";
+    /** トレースをファイルへ出力する場合の既定の出力先 */
+    private static final String DEFAULT_TRACING_FILE = "data/log/my-number-card-traces.jsonl";
     public static final MyNumberCardAuthenticator SINGLETON = new MyNumberCardAuthenticator();
 
+    private final AuthenticatorWarmUp warmUp = new AuthenticatorWarmUp(new PlatformApiClientResolver());
+    private boolean warmUpEnabled = false;
+
     @Override
     public void close() {
-        // Nothing to do
+        Tracing.disable();
+        PlatformApiClientResolver.invalidate();
+        CurrentConfig.invalidate();
+        ChallengePageCache.disable();
+        ActionRateLimiter.invalidate();
+        IdentityAttributeMapping.reset();
     }
 
     @Override
@@ -40,12 +67,65 @@ public class MyNumberCardAuthenticatorFactory implements AuthenticatorFactory {
 
     @Override
     public void init(Scope scope) {
-        // Nothing to do
+        // Keycloakのメトリクスエンドポイントを有効にした上で、SPIオプション metrics-enabled をtrueにした場合のみ計測する。
+        if (Boolean.TRUE.equals(scope.getBoolean("metricsEnabled", false))) {
+            AuthenticatorMetrics.enable(Metrics.globalRegistry);
+        }
+        // SPIオプション tracing-exporter に file または otlp を指定した場合のみトレースを記録する。
+        String tracingExporter = Objects.toString(scope.get("tracingExporter"), "").toLowerCase();
+        switch (tracingExporter) {
+            case "file":
+                Tracing.enable(new FileSpanExporter(
+                        Paths.get(Objects.toString(scope.get("tracingFile"), DEFAULT_TRACING_FILE)),
+                        TRACING_SERVICE_NAME));
+                break;
+            case "otlp":
+                Tracing.enable(new OtlpHttpSpanExporter(
+                        URI.create(Objects.toString(scope.get("tracingEndpoint"), OtlpHttpSpanExporter.DEFAULT_ENDPOINT)),
+                        TRACING_SERVICE_NAME));
+                break;
+            default:
+                break;
+        }
+        // SPIオプション warm-up-enabled をtrueにした場合のみ、起動時にウォームアップする。
+        this.warmUpEnabled = Boolean.TRUE.equals(scope.getBoolean("warmUpEnabled", false));
+        // SPIオプション challenge-page-cache-enabled をtrueにした場合のみ、認証画面の描画結果をキャッシュする。
+        if (Boolean.TRUE.equals(scope.getBoolean("challengePageCacheEnabled", false))) {
+            ChallengePageCache.enable();
+        }
+        // SPIオプション identity-attribute-mapping を指定した場合のみ、本人情報を設定するユーザー属性名を変更する。
+        String identityAttributeMapping = scope.get("identityAttributeMapping");
+        if (Objects.nonNull(identityAttributeMapping)) {
+            IdentityAttributeMapping.configure(identityAttributeMapping);
+        }
     }
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
-        // Nothing to do
+        // 準備完了の状態はSPIオプション metrics-enabled に関わらず公開する。
+        AuthenticatorMetrics.registerGauge(Metrics.globalRegistry, "warmup.ready", this.warmUp,
+                warmUp -> warmUp.isReady() ? 1.0 : 0.0);
+        // キャッシュの件数はSPIオプション metrics-enabled をtrueにした場合のみ公開する。
+        // ゲージは状態オブジェクトを弱参照で保持するため、アンロードされないクラスを状態オブジェクトとする。
+        AuthenticatorMetrics.registerGauge("cache.challenge_pages", ChallengePageCache.class,
+                c -> ChallengePageCache.size());
+        AuthenticatorMetrics.registerGauge("cache.config_snapshots", CurrentConfig.class, c -> CurrentConfig.size());
+        AuthenticatorMetrics.registerGauge("cache.public_keys", Encryption.class, c -> Encryption.publicKeyCacheSize());
+        AuthenticatorMetrics.registerGauge("cache.rate_limit_buckets", ActionRateLimiter.class,
+                c -> ActionRateLimiter.localBucketCount());
+        AuthenticatorMetrics.registerGauge("cache.platform_api_client_factories", PlatformApiClientResolver.class,
+                c -> PlatformApiClientResolver.size());
+        if (!this.warmUpEnabled) {
+            this.warmUp.skip();
+            return;
+        }
+        // レルムの設定を読むため、データベースの移行が終わってから実行する。
+        // 移行後のイベントは起動処理の中で同期的に発行されるため、ウォームアップが終わるまでKeycloakは準備完了にならない。
+        factory.register(event -> {
+            if (event instanceof PostMigrationEvent) {
+                this.warmUp.run(((PostMigrationEvent) event).getFactory());
+            }
+        });
     }
 
     @Override
@@ -1,12 +1,8 @@
 package com.example.mynumbercardidp.keycloak.authentication.authenticators.browser;
 
-import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
-import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.provider.ProviderConfigProperty;
 
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.LinkedHashMap;
 import java.util.List;
 
 /**
@@ -15,7 +11,6 @@ import java.util.List;
 public class SpiConfigProperty {
     private static final List<ProviderConfigProperty> CONFIG_PROPERTIES = new ArrayList<ProviderConfigProperty>();
     private static final String NAME_PREFIX = "my-num-cd-auth."; // [NOTE] Config名に文字数制限があるため省略形で表記する
-    private static final Map<String, String> FREE_MARKER_JAVA_TEMPLATE_VARIABLES = new LinkedHashMap<>();
 
     private SpiConfigProperty() {
     }
@@ -31,6 +26,11 @@ public class SpiConfigProperty {
         SpiConfigProperty.CONFIG_PROPERTIES.add(TermsOfUseDirURL.CONFIG);
         SpiConfigProperty.CONFIG_PROPERTIES.add(PrivacyPolicyDirURL.CONFIG);
         SpiConfigProperty.CONFIG_PROPERTIES.add(PersonalDataProtectionPolicyDirURL.CONFIG);
+        SpiConfigProperty.CONFIG_PROPERTIES.add(StatelessNonce.CONFIG);
+        SpiConfigProperty.CONFIG_PROPERTIES.add(RateLimitPerIp.CONFIG);
+        SpiConfigProperty.CONFIG_PROPERTIES.add(RateLimitPerCard.CONFIG);
+        SpiConfigProperty.CONFIG_PROPERTIES.add(RateLimitPerSession.CONFIG);
+        SpiConfigProperty.CONFIG_PROPERTIES.add(RateLimitCluster.CONFIG);
     }
 
     /**
@@ -42,35 +42,6 @@ public class SpiConfigProperty {
         return SpiConfigProperty.CONFIG_PROPERTIES;
     }
 
-    /**
-     * FTLファイルへ注入する変数を返します。
-     *
-     * @return FTL変数名とSPI設定値の組み合わせ
-     */
-    public static Map<String, String> getFreeMarkerJavaTemplateVariables() {
-        return FREE_MARKER_JAVA_TEMPLATE_VARIABLES;
-    }
-
-    // Authenticatorから実行され、FTLファイルへ注入する定数を作成する。
-    static void initFreeMarkerJavaTemplateVariables(AuthenticationFlowContext context) {
-        FREE_MARKER_JAVA_TEMPLATE_VARIABLES.put("androidAppUri",
-                CurrentConfig.getValue(context, SpiConfigProperty.RunUriOfAndroidApplication.CONFIG.getName()));
-        FREE_MARKER_JAVA_TEMPLATE_VARIABLES.put("iosAppUri",
-                CurrentConfig.getValue(context, SpiConfigProperty.RunUriOfiOSApplication.CONFIG.getName()));
-        FREE_MARKER_JAVA_TEMPLATE_VARIABLES.put("otherAppUri", CurrentConfig.getValue(context,
-                SpiConfigProperty.InstallationUriOfSmartPhoneApplication.CONFIG.getName()));
-        FREE_MARKER_JAVA_TEMPLATE_VARIABLES.put("termsOfUseDirUrl",
-                CurrentConfig.getValue(context, SpiConfigProperty.TermsOfUseDirURL.CONFIG.getName()));
-        FREE_MARKER_JAVA_TEMPLATE_VARIABLES.put("privacyPolicyDirUrl",
-                CurrentConfig.getValue(context, SpiConfigProperty.PrivacyPolicyDirURL.CONFIG.getName()));
-        FREE_MARKER_JAVA_TEMPLATE_VARIABLES.put("personalDataProtectionPolicyDirUrl",
-                CurrentConfig.getValue(context, SpiConfigProperty.PersonalDataProtectionPolicyDirURL.CONFIG.getName()));
-
-        String debugMode = SpiConfigProperty.DebugMode.CONFIG.getName();
-        String debugModeValue = Boolean.valueOf(CurrentConfig.getValue(context, debugMode)).toString();
-        SpiConfigProperty.FREE_MARKER_JAVA_TEMPLATE_VARIABLES.put("debug", debugModeValue.toLowerCase());
-    }
-
     // [NOTE] インナークラス内のクラス変数（定数）はインナークラスを増やす場合に流用しやすいよう、呼び出すときにクラス名をつけない。
     public static class DebugMode extends SpiConfigProperty {
         public static final ProviderConfigProperty CONFIG;
@@ -211,4 +182,74 @@ public class SpiConfigProperty {
                     DEFAULT_VALUE);
         }
     }
+
+    public static class StatelessNonce extends SpiConfigProperty {
+        public static final ProviderConfigProperty CONFIG;
+        public static final String NAME = "stateless-nonce";
+        public static final String LABEL = "Use stateless nonce";
+        public static final String HELP_TEXT = "Issue nonces signed with the realm HMAC key instead of storing them in the authentication session. Requires an active HS256 key.";
+        public static final String TYPE = ProviderConfigProperty.BOOLEAN_TYPE;
+        public static final boolean DEFAULT_VALUE = false;
+
+        static {
+            CONFIG = new ProviderConfigProperty(SpiConfigProperty.NAME_PREFIX + NAME, LABEL, HELP_TEXT, TYPE,
+                    DEFAULT_VALUE);
+        }
+    }
+
+    public static class RateLimitPerIp extends SpiConfigProperty {
+        public static final ProviderConfigProperty CONFIG;
+        public static final String NAME = "rate-limit-ip";
+        public static final String LABEL = "Action requests per minute per IP";
+        public static final String HELP_TEXT = "Maximum number of card submissions per minute from one client IP address. Requests over the limit are rejected before any decryption. 0 disables the limit.";
+        public static final String TYPE = ProviderConfigProperty.STRING_TYPE;
+        public static final String DEFAULT_VALUE = "0";
+
+        static {
+            CONFIG = new ProviderConfigProperty(SpiConfigProperty.NAME_PREFIX + NAME, LABEL, HELP_TEXT, TYPE,
+                    DEFAULT_VALUE);
+        }
+    }
+
+    public static class RateLimitPerCard extends SpiConfigProperty {
+        public static final ProviderConfigProperty CONFIG;
+        public static final String NAME = "rate-limit-card";
+        public static final String LABEL = "Action requests per minute per card";
+        public static final String HELP_TEXT = "Maximum number of card submissions per minute with the same certificate. Requests over the limit are rejected before the signature verification and the platform call. 0 disables the limit.";
+        public static final String TYPE = ProviderConfigProperty.STRING_TYPE;
+        public static final String DEFAULT_VALUE = "0";
+
+        static {
+            CONFIG = new ProviderConfigProperty(SpiConfigProperty.NAME_PREFIX + NAME, LABEL, HELP_TEXT, TYPE,
+                    DEFAULT_VALUE);
+        }
+    }
+
+    public static class RateLimitPerSession extends SpiConfigProperty {
+        public static final ProviderConfigProperty CONFIG;
+        public static final String NAME = "rate-limit-session";
+        public static final String LABEL = "Action requests per minute per session";
+        public static final String HELP_TEXT = "Maximum number of card submissions per minute in one authentication session. Requests over the limit are rejected before any decryption. 0 disables the limit.";
+        public static final String TYPE = ProviderConfigProperty.STRING_TYPE;
+        public static final String DEFAULT_VALUE = "0";
+
+        static {
+            CONFIG = new ProviderConfigProperty(SpiConfigProperty.NAME_PREFIX + NAME, LABEL, HELP_TEXT, TYPE,
+                    DEFAULT_VALUE);
+        }
+    }
+
+    public static class RateLimitCluster extends SpiConfigProperty {
+        public static final ProviderConfigProperty CONFIG;
+        public static final String NAME = "rate-limit-cluster";
+        public static final String LABEL = "Share rate limits in the cluster";
+        public static final String HELP_TEXT = "Share the rate limit state between Keycloak nodes through the single-use object store in addition to the node local limit.";
+        public static final String TYPE = ProviderConfigProperty.BOOLEAN_TYPE;
+        public static final boolean DEFAULT_VALUE = false;
+
+        static {
+            CONFIG = new ProviderConfigProperty(SpiConfigProperty.NAME_PREFIX + NAME, LABEL, HELP_TEXT, TYPE,
+                    DEFAULT_VALUE);
+        }
+    }
 }
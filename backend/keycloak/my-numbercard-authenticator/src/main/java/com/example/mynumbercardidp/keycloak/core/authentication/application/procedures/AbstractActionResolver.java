@@ -3,10 +3,13 @@ package com.example.mynumbercardidp.keycloak.core.authentication.application.pro
 import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.SpiConfigProperty;
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientInterface;
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientResolver;
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
 import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
 import com.example.mynumbercardidp.keycloak.util.StringUtil;
 import org.keycloak.authentication.AuthenticationFlowContext;
 
+import javax.ws.rs.core.MultivaluedMap;
+
 /**
  * ユーザーからKeycloakへのHTTPリクエストを元に実行する処理を呼び出す抽象クラスです。
  */
@@ -33,14 +36,30 @@ public abstract class AbstractActionResolver implements ApplicationResolverInter
      * @exception IllegalStateException プラットフォームAPIのURLが空値の場合
      */
     protected PlatformApiClientInterface createPlatform(final AuthenticationFlowContext context) {
-        String platformApiClassFqdn = CurrentConfig.getValue(context,
-                SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName());
+        ConfigSnapshot config = CurrentConfig.getSnapshot(context);
+        return this.platformResolver.createPlatform(AbstractActionResolver.getPlatformApiClassFqdn(config), context,
+                config.getCertificateValidatorRootUri(), config.getPlatformApiIdpSender());
+    }
+
+    /**
+     * HTMLフォームパラメータを指定して、プラットフォームAPIクライアントのインスタンスを作成します。
+     *
+     * @param context  認証フローのコンテキスト
+     * @param formData ユーザーが送信したHTMLフォームパラメータ
+     * @exception IllegalStateException プラットフォームAPIのURLが空値の場合
+     */
+    protected PlatformApiClientInterface createPlatform(final AuthenticationFlowContext context,
+            final MultivaluedMap<String, String> formData) {
+        ConfigSnapshot config = CurrentConfig.getSnapshot(context);
+        return this.platformResolver.createPlatformWithFormData(AbstractActionResolver.getPlatformApiClassFqdn(config),
+                formData, config.getCertificateValidatorRootUri(), config.getPlatformApiIdpSender());
+    }
+
+    private static String getPlatformApiClassFqdn(final ConfigSnapshot config) {
+        String platformApiClassFqdn = config.getPlatformApiClientClassFqdn();
         if (StringUtil.isEmpty(platformApiClassFqdn)) {
             throw new IllegalStateException(SpiConfigProperty.PlatformApiClientClassFqdn.LABEL + " is empty.");
         }
-        String platformRootApiUri = CurrentConfig.getValue(context,
-                SpiConfigProperty.CertificateValidatorRootUri.CONFIG.getName());
-        String idpSender = CurrentConfig.getValue(context, SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName());
-        return this.platformResolver.createPlatform(platformApiClassFqdn, context, platformRootApiUri, idpSender);
+        return platformApiClassFqdn;
     }
 }
@@ -0,0 +1,60 @@
+package com.example.mynumbercardidp.keycloak.core.authentication.application.procedures;
+
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
+import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import java.util.Objects;
+
+/**
+ * 認証フローのコンテキストへ委譲するユーザーの操作のコンテキストです。
+ *
+ * セッション、レルムと認証セッションは認証フローの中で変わらないため、作成時に一度だけ参照します。
+ */
+final class FlowUserActionContext implements UserActionContext {
+    private final AuthenticationFlowContext context;
+    private final KeycloakSession session;
+    private final RealmModel realm;
+    private final AuthenticationSessionModel authenticationSession;
+
+    FlowUserActionContext(final AuthenticationFlowContext context) {
+        this.context = Objects.requireNonNull(context);
+        this.session = context.getSession();
+        this.realm = context.getRealm();
+        this.authenticationSession = context.getAuthenticationSession();
+    }
+
+    @Override
+    public KeycloakSession getSession() {
+        return this.session;
+    }
+
+    @Override
+    public RealmModel getRealm() {
+        return this.realm;
+    }
+
+    @Override
+    public AuthenticationSessionModel getAuthenticationSession() {
+        return this.authenticationSession;
+    }
+
+    @Override
+    public ConfigSnapshot getConfig() {
+        return CurrentConfig.getSnapshot(this.context);
+    }
+
+    @Override
+    public UserModel getUser() {
+        return this.context.getUser();
+    }
+
+    @Override
+    public void setUser(final UserModel user) {
+        this.context.setUser(user);
+    }
+}
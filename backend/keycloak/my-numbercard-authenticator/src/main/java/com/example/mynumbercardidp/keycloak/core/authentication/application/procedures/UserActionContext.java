@@ -0,0 +1,68 @@
+package com.example.mynumbercardidp.keycloak.core.authentication.application.procedures;
+
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+/**
+ * 認証、登録、登録情報の変更などのユーザーの操作が参照するコンテキストのインタフェースです。
+ *
+ * 認証フローの外（RESTエンドポイント）からも操作を実行できるよう、操作に必要な値のみを公開します。
+ * 認証フローの中では {@link #of(AuthenticationFlowContext)} で認証フローのコンテキストを包みます。
+ */
+public interface UserActionContext {
+    /**
+     * Keycloakのセッションを返します。
+     *
+     * @return Keycloakのセッション
+     */
+    KeycloakSession getSession();
+
+    /**
+     * レルムを返します。
+     *
+     * @return レルム
+     */
+    RealmModel getRealm();
+
+    /**
+     * 認証ノートを保持する認証セッションを返します。
+     *
+     * @return 認証セッション
+     */
+    AuthenticationSessionModel getAuthenticationSession();
+
+    /**
+     * 個人番号カード認証SPI設定のスナップショットを返します。
+     *
+     * @return SPI設定のスナップショット 設定が無い場合は空のスナップショット
+     */
+    ConfigSnapshot getConfig();
+
+    /**
+     * 操作の対象のユーザーを返します。
+     *
+     * @return ユーザー 設定されていない場合はNull
+     */
+    UserModel getUser();
+
+    /**
+     * 操作の対象のユーザーを設定します。
+     *
+     * @param user ユーザー
+     */
+    void setUser(UserModel user);
+
+    /**
+     * 認証フローのコンテキストを包んだコンテキストを返します。
+     *
+     * @param context 認証フローのコンテキスト
+     * @return ユーザーの操作のコンテキスト
+     */
+    static UserActionContext of(final AuthenticationFlowContext context) {
+        return new FlowUserActionContext(context);
+    }
+}
@@ -9,6 +9,12 @@ import java.util.Objects;
  * Keycloakを利用してログインするユーザーが送信したHTTPリクエスト内容の構造体を表すクラスです。
  */
 public class AuthenticationRequest {
+    /** 暗号化された証明書データJWEの最大文字数 */
+    public static final int MAX_CERTIFICATE_LENGTH = 16384;
+    /** Nonce文字列の最大文字数 */
+    public static final int MAX_APPLICANT_DATA_LENGTH = 256;
+    /** 署名のBase64文字列の最大文字数 */
+    public static final int MAX_SIGN_LENGTH = 1024;
 
     private CertificateType certificateType;
     private String certificate;
@@ -17,6 +23,8 @@ public class AuthenticationRequest {
     private String sign;
     private String nonceSign;
     private String actionMode;
+    /** 復号した証明書 署名の検証とプラットフォームリクエストで共有し、復号を一度にする */
+    private String certificateContent;
 
     public CertificateType getCertificateType() {
         return this.certificateType;
@@ -80,6 +88,32 @@ public class AuthenticationRequest {
         this.actionMode = mode;
     }
 
+    public String getCertificateContent() {
+        return this.certificateContent;
+    }
+
+    public AuthenticationRequest setCertificateContent(final String certificateContent) {
+        this.certificateContent = certificateContent;
+        return this;
+    }
+
+    /**
+     * すべてのフィールドの値が最大文字数以下であることを検証します。
+     *
+     * @return 最大文字数以下の場合はtrue、そうでない場合はfalse
+     */
+    public boolean isWithinSizeLimits() {
+        return AuthenticationRequest.isWithin(this.certificate, MAX_CERTIFICATE_LENGTH) &&
+                AuthenticationRequest.isWithin(this.applicantData, MAX_APPLICANT_DATA_LENGTH) &&
+                AuthenticationRequest.isWithin(this.nonceData, MAX_APPLICANT_DATA_LENGTH) &&
+                AuthenticationRequest.isWithin(this.sign, MAX_SIGN_LENGTH) &&
+                AuthenticationRequest.isWithin(this.nonceSign, MAX_SIGN_LENGTH);
+    }
+
+    private static boolean isWithin(final String value, final int maxLength) {
+        return Objects.isNull(value) || value.length() <= maxLength;
+    }
+
     /**
      * すべてのフィールドに値が存在することを検証します。
      *
@@ -104,7 +138,9 @@ public class AuthenticationRequest {
         ENCRYPTED_USER_AUTHENTICATION_CERTIFICATE(CertificateType.ENCRYPTED_USER_AUTHENTICATION.getName()),
         ENCRYPTED_DIGITAL_SIGNATURE_CERTIFICATE(CertificateType.ENCRYPTED_DIGITAL_SIGNATURE.getName()),
         APPLICANT_DATA("applicantData"),
-        SIGN("sign");
+        SIGN("sign"),
+        /** 自動モードで送信される、署名用証明書の秘密鍵による署名 */
+        DIGITAL_SIGNATURE_SIGN("digitalSignatureSign");
 
         private String name;
 
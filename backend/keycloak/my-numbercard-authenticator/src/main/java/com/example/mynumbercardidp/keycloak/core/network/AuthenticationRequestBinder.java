@@ -0,0 +1,189 @@
+package com.example.mynumbercardidp.keycloak.core.network;
+
+import org.keycloak.protocol.oidc.OIDCLoginProtocol;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * 個人番号カードの公的個人認証部分を送信したHTMLフォームパラメータを検証し、ユーザーリクエストへ束縛するクラスです。
+ *
+ * 想定するパラメータのみを受け付け、パラメータごとの最大文字数とフォーム全体の最大文字数を超えた場合は拒否します。
+ * 証明書のような大きな値を、プラットフォームAPIクライアントの作成や秘密鍵の処理より前に拒否するために使います。
+ */
+public final class AuthenticationRequestBinder {
+    /** 処理の種類の最大文字数 */
+    public static final int MAX_ACTION_MODE_LENGTH = 32;
+    /** パラメータ名と値を合わせたフォーム全体の最大文字数 */
+    public static final int MAX_TOTAL_LENGTH = 2 * AuthenticationRequest.MAX_CERTIFICATE_LENGTH
+            + AuthenticationRequest.MAX_APPLICANT_DATA_LENGTH + 2 * AuthenticationRequest.MAX_SIGN_LENGTH + 1024;
+    /** ログに出力するパラメータ名の最大文字数 */
+    private static final int MAX_LOGGED_NAME_LENGTH = 64;
+    /** パラメータ名ごとの値の最大文字数 */
+    private static final Map<String, Integer> MAX_LENGTHS = AuthenticationRequestBinder.createMaxLengths();
+    /** Keycloakの認証フローが参照するパラメータ 受け付けるが、ユーザーリクエストへは束縛しない */
+    private static final Set<String> IGNORED_FIELDS = Set.of(OIDCLoginProtocol.RESPONSE_TYPE_PARAM);
+    /** 受け付ける全てのパラメータ名 */
+    private static final Set<String> FIELD_NAMES = AuthenticationRequestBinder.createFieldNames();
+
+    private AuthenticationRequestBinder() {
+    }
+
+    /**
+     * 受け付ける全てのパラメータ名を返します。
+     *
+     * @return 変更できないパラメータ名の集合
+     */
+    public static Set<String> getFieldNames() {
+        return AuthenticationRequestBinder.FIELD_NAMES;
+    }
+
+    /**
+     * HTMLフォームパラメータが受け付けられる内容であるかを検証します。
+     *
+     * @param formData ユーザーが送信したHTMLフォームパラメータ
+     * @return 受け付けられる場合はtrue、そうでない場合はfalse
+     */
+    public static boolean isAcceptable(final MultivaluedMap<String, String> formData) {
+        return Objects.isNull(AuthenticationRequestBinder.findViolation(formData));
+    }
+
+    /**
+     * HTMLフォームパラメータを検証し、処理の種類、Nonceと署名をユーザーリクエストへ束縛します。
+     *
+     * 証明書は処理の種類によってパラメータ名が異なるため、呼び出し元で設定します。
+     *
+     * @param formData ユーザーが送信したHTMLフォームパラメータ
+     * @return ユーザーリクエストのデータ構造
+     * @exception IllegalArgumentException 想定しないパラメータ、または最大文字数を超えたパラメータがあった場合
+     */
+    public static AuthenticationRequest bind(final MultivaluedMap<String, String> formData) {
+        String violation = AuthenticationRequestBinder.findViolation(formData);
+        if (Objects.nonNull(violation)) {
+            throw new IllegalArgumentException(violation);
+        }
+        AuthenticationRequest userRequest = new AuthenticationRequest();
+        userRequest.setActionMode(formData.getFirst(AuthenticationRequest.Filed.ACTION_MODE.getName()));
+        userRequest.setApplicantData(formData.getFirst(AuthenticationRequest.Filed.APPLICANT_DATA.getName()))
+                .setSign(formData.getFirst(AuthenticationRequest.Filed.SIGN.getName()));
+        return userRequest;
+    }
+
+    /**
+     * ログへ出力するためのHTMLフォームパラメータの表現を返します。
+     *
+     * 文字列への変換はログを出力する場合にのみ実行されます。処理の種類以外の値は文字数のみを出力し、
+     * 証明書、Nonceと署名の値は出力しません。
+     *
+     * @param formData ユーザーが送信したHTMLフォームパラメータ
+     * @return toString でマスクした文字列を返すオブジェクト
+     */
+    public static Object redact(final MultivaluedMap<String, String> formData) {
+        return new RedactedForm(formData);
+    }
+
+    /**
+     * HTMLフォームパラメータの違反内容を返します。
+     *
+     * @param formData ユーザーが送信したHTMLフォームパラメータ
+     * @return 違反内容 違反が無い場合はNull
+     */
+    private static String findViolation(final MultivaluedMap<String, String> formData) {
+        if (Objects.isNull(formData)) {
+            return "The form parameters were not sent.";
+        }
+        long totalLength = 0;
+        for (Map.Entry<String, List<String>> entry : formData.entrySet()) {
+            String name = entry.getKey();
+            if (Objects.isNull(name) || name.isEmpty()) {
+                continue;
+            }
+            Integer maxLength = AuthenticationRequestBinder.MAX_LENGTHS.get(name);
+            if (Objects.isNull(maxLength) && !AuthenticationRequestBinder.IGNORED_FIELDS.contains(name)) {
+                return "Unknown form parameter " + AuthenticationRequestBinder.truncate(name) + ".";
+            }
+            List<String> values = entry.getValue();
+            if (Objects.isNull(values) || values.isEmpty()) {
+                continue;
+            }
+            if (values.size() > 1) {
+                return "Form parameter " + name + " was sent more than once.";
+            }
+            String value = values.get(0);
+            int length = Objects.isNull(value) ? 0 : value.length();
+            if (Objects.nonNull(maxLength) && length > maxLength) {
+                return "Form parameter " + name + " exceeds " + maxLength + " characters.";
+            }
+            totalLength += name.length() + length;
+            if (totalLength > AuthenticationRequestBinder.MAX_TOTAL_LENGTH) {
+                return "The form parameters exceed " + AuthenticationRequestBinder.MAX_TOTAL_LENGTH + " characters.";
+            }
+        }
+        return null;
+    }
+
+    static String truncate(final String name) {
+        return name.length() <= AuthenticationRequestBinder.MAX_LOGGED_NAME_LENGTH ? name
+                : name.substring(0, AuthenticationRequestBinder.MAX_LOGGED_NAME_LENGTH) + "...";
+    }
+
+    private static Map<String, Integer> createMaxLengths() {
+        Map<String, Integer> maxLengths = new HashMap<>();
+        maxLengths.put(AuthenticationRequest.Filed.ACTION_MODE.getName(),
+                AuthenticationRequestBinder.MAX_ACTION_MODE_LENGTH);
+        maxLengths.put(AuthenticationRequest.Filed.ENCRYPTED_USER_AUTHENTICATION_CERTIFICATE.getName(),
+                AuthenticationRequest.MAX_CERTIFICATE_LENGTH);
+        maxLengths.put(AuthenticationRequest.Filed.ENCRYPTED_DIGITAL_SIGNATURE_CERTIFICATE.getName(),
+                AuthenticationRequest.MAX_CERTIFICATE_LENGTH);
+        maxLengths.put(AuthenticationRequest.Filed.APPLICANT_DATA.getName(),
+                AuthenticationRequest.MAX_APPLICANT_DATA_LENGTH);
+        maxLengths.put(AuthenticationRequest.Filed.SIGN.getName(), AuthenticationRequest.MAX_SIGN_LENGTH);
+        maxLengths.put(AuthenticationRequest.Filed.DIGITAL_SIGNATURE_SIGN.getName(),
+                AuthenticationRequest.MAX_SIGN_LENGTH);
+        return Map.copyOf(maxLengths);
+    }
+
+    private static Set<String> createFieldNames() {
+        Set<String> fieldNames = new HashSet<>(AuthenticationRequestBinder.MAX_LENGTHS.keySet());
+        fieldNames.addAll(AuthenticationRequestBinder.IGNORED_FIELDS);
+        return Set.copyOf(fieldNames);
+    }
+
+    /**
+     * ログを出力する場合にのみ、値をマスクした文字列へ変換するHTMLフォームパラメータの表現です。
+     */
+    private static final class RedactedForm {
+        private final MultivaluedMap<String, String> formData;
+
+        private RedactedForm(final MultivaluedMap<String, String> formData) {
+            this.formData = formData;
+        }
+
+        @Override
+        public String toString() {
+            if (Objects.isNull(this.formData)) {
+                return "{}";
+            }
+            StringBuilder builder = new StringBuilder("{");
+            this.formData.forEach((name, values) -> {
+                if (builder.length() > 1) {
+                    builder.append(", ");
+                }
+                builder.append(Objects.isNull(name) ? "null" : AuthenticationRequestBinder.truncate(name)).append('=');
+                String value = Objects.isNull(values) || values.isEmpty() ? null : values.get(0);
+                if (AuthenticationRequest.Filed.ACTION_MODE.getName().equals(name) && Objects.nonNull(value)
+                        && value.length() <= AuthenticationRequestBinder.MAX_ACTION_MODE_LENGTH) {
+                    builder.append(value);
+                } else {
+                    builder.append('<').append(Objects.isNull(value) ? 0 : value.length()).append(" chars>");
+                }
+            });
+            return builder.append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.mynumbercardidp.keycloak.core.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * application/x-www-form-urlencoded 形式のリクエストボディを復号するクラスです。
+ *
+ * 入力ストリームをバイト単位で1回だけ走査し、パーセントエンコーディングと + をスレッドごとに再利用するバッファへ復号します。
+ * {@link AuthenticationRequestBinder} と同じく、指定されたパラメータ名以外のパラメータは値を復号する前に拒否します。
+ * 名前が空のパラメータのみ、値を復号せずに読み飛ばします。
+ * HTMLエスケープされた区切り文字（&amp;amp;）で送信された場合に備え、パラメータ名の先頭の amp; は取り除きます。
+ */
+public final class FormUrlEncodedDecoder {
+    /** 入力ストリームから一度に読み込むバイト数 */
+    private static final int READ_BUFFER_SIZE = 8192;
+    /** 保持するパラメータ名の最大バイト数 これより長い名前は指定されたパラメータ名以外として拒否する */
+    private static final int MAX_NAME_LENGTH = 256;
+    /** スレッドに保持する値のバッファの最大バイト数 これより大きくなったバッファは次回の復号で作り直す */
+    private static final int MAX_RETAINED_VALUE_BUFFER_SIZE = 65536;
+    private static final String AMP_PREFIX = "amp;";
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private FormUrlEncodedDecoder() {
+    }
+
+    /**
+     * 入力ストリームからHTMLフォームパラメータを復号します。
+     *
+     * 入力ストリームは閉じません。
+     *
+     * @param requestBody リクエストボディの入力ストリーム
+     * @param fieldNames  保持するパラメータ名
+     * @param maxLength   リクエストボディの最大バイト数
+     * @return 復号したHTMLフォームパラメータ
+     * @exception IllegalArgumentException 最大バイト数を超えた場合、指定されたパラメータ名以外のパラメータがあった場合、
+     *                                     またはパラメータの値のパーセントエンコーディングが不正な場合
+     * @exception IOException              入力ストリームの読み込みに失敗した場合
+     */
+    public static MultivaluedMap<String, String> decode(final InputStream requestBody, final Set<String> fieldNames,
+            final long maxLength) throws IOException {
+        Objects.requireNonNull(requestBody, "The request body is null.");
+        Objects.requireNonNull(fieldNames, "The field names are null.");
+        Buffers buffers = FormUrlEncodedDecoder.BUFFERS.get();
+        if (buffers.value.length > FormUrlEncodedDecoder.MAX_RETAINED_VALUE_BUFFER_SIZE) {
+            buffers.value = new byte[FormUrlEncodedDecoder.READ_BUFFER_SIZE];
+        }
+        Decoder decoder = new Decoder(buffers, fieldNames);
+        byte[] chunk = buffers.chunk;
+        long totalLength = 0;
+        int read;
+        while ((read = requestBody.read(chunk, 0, chunk.length)) != -1) {
+            totalLength += read;
+            if (totalLength > maxLength) {
+                throw new IllegalArgumentException("The request body exceeds " + maxLength + " bytes.");
+            }
+            for (int i = 0; i < read;) {
+                i = decoder.accept(chunk, i, read);
+            }
+        }
+        return decoder.finish();
+    }
+
+    /**
+     * スレッドごとに再利用するバッファです。
+     */
+    private static final class Buffers {
+        private final byte[] chunk = new byte[FormUrlEncodedDecoder.READ_BUFFER_SIZE];
+        private final byte[] name = new byte[FormUrlEncodedDecoder.MAX_NAME_LENGTH];
+        private byte[] value = new byte[FormUrlEncodedDecoder.READ_BUFFER_SIZE];
+    }
+
+    /**
+     * 1回の復号の状態を保持します。
+     */
+    private static final class Decoder {
+        private final Buffers buffers;
+        private final Set<String> fieldNames;
+        private final MultivaluedMap<String, String> formData = new MultivaluedHashMap<>();
+        private int nameLength = 0;
+        private boolean nameOverflowed = false;
+        private boolean inValue = false;
+        /** 値を保持するパラメータ名 名前が空で値を読み飛ばす場合はNull */
+        private String fieldName = null;
+        private int valueLength = 0;
+        /** 読み込みを待っているパーセントエンコーディングの16進数の桁数 */
+        private int pendingHexDigits = 0;
+        private int escaped = 0;
+
+        private Decoder(final Buffers buffers, final Set<String> fieldNames) {
+            this.buffers = buffers;
+            this.fieldNames = fieldNames;
+        }
+
+        /**
+         * 値の途中では、区切り文字とエスケープ文字を含まない範囲をまとめて処理します。
+         *
+         * @param chunk 読み込んだバイト列
+         * @param from  処理を開始する位置
+         * @param to    読み込んだバイト列の終端
+         * @return 次に処理する位置
+         */
+        private int accept(final byte[] chunk, final int from, final int to) {
+            if (this.inValue && this.pendingHexDigits == 0) {
+                int end = from;
+                if (Objects.isNull(this.fieldName)) {
+                    while (end < to && chunk[end] != '&') {
+                        end++;
+                    }
+                } else {
+                    while (end < to && chunk[end] != '&' && chunk[end] != '%' && chunk[end] != '+') {
+                        end++;
+                    }
+                    this.append(chunk, from, end - from);
+                }
+                if (end > from) {
+                    return end;
+                }
+            }
+            this.accept(chunk[from]);
+            return from + 1;
+        }
+
+        private void accept(final byte b) {
+            if (this.pendingHexDigits > 0) {
+                int digit = Character.digit(b, 16);
+                if (digit < 0) {
+                    throw new IllegalArgumentException("Illegal hex characters in escape (%) pattern.");
+                }
+                this.escaped = (this.escaped << 4) | digit;
+                if (--this.pendingHexDigits == 0) {
+                    this.append((byte) this.escaped);
+                }
+                return;
+            }
+            if (b == '&') {
+                this.endPair();
+                return;
+            }
+            if (!this.inValue) {
+                if (b == '=') {
+                    this.fieldName = this.resolveName();
+                    this.inValue = true;
+                } else if (this.nameLength < this.buffers.name.length) {
+                    this.buffers.name[this.nameLength++] = b;
+                } else {
+                    this.nameOverflowed = true;
+                }
+                return;
+            }
+            if (Objects.isNull(this.fieldName)) {
+                return;
+            }
+            if (b == '+') {
+                this.append((byte) ' ');
+            } else if (b == '%') {
+                this.pendingHexDigits = 2;
+                this.escaped = 0;
+            } else {
+                this.append(b);
+            }
+        }
+
+        private MultivaluedMap<String, String> finish() {
+            if (this.pendingHexDigits > 0) {
+                throw new IllegalArgumentException("Incomplete trailing escape (%) pattern.");
+            }
+            this.endPair();
+            return this.formData;
+        }
+
+        private void endPair() {
+            if (!this.inValue) {
+                // = を含まないパラメータは空文字列の値として扱う。
+                String name = this.resolveName();
+                if (Objects.nonNull(name)) {
+                    this.formData.add(name, "");
+                }
+            } else if (Objects.nonNull(this.fieldName)) {
+                this.formData.add(this.fieldName,
+                        new String(this.buffers.value, 0, this.valueLength, StandardCharsets.UTF_8));
+            }
+            this.nameLength = 0;
+            this.nameOverflowed = false;
+            this.inValue = false;
+            this.fieldName = null;
+            this.valueLength = 0;
+        }
+
+        /**
+         * 読み込んだパラメータ名を返します。
+         *
+         * @return 保持するパラメータ名 名前が空の場合はNull
+         * @exception IllegalArgumentException 指定されたパラメータ名以外の場合
+         */
+        private String resolveName() {
+            if (this.nameLength == 0) {
+                return null;
+            }
+            if (this.nameOverflowed) {
+                throw new IllegalArgumentException(
+                        "Unknown form parameter longer than " + FormUrlEncodedDecoder.MAX_NAME_LENGTH + " bytes.");
+            }
+            String name = new String(this.buffers.name, 0, this.nameLength, StandardCharsets.UTF_8);
+            if (name.startsWith(FormUrlEncodedDecoder.AMP_PREFIX)) {
+                name = name.substring(FormUrlEncodedDecoder.AMP_PREFIX.length());
+            }
+            if (!this.fieldNames.contains(name)) {
+                throw new IllegalArgumentException(
+                        "Unknown form parameter " + AuthenticationRequestBinder.truncate(name) + ".");
+            }
+            return name;
+        }
+
+        private void append(final byte[] bytes, final int offset, final int length) {
+            if (this.valueLength + length > this.buffers.value.length) {
+                this.buffers.value = Arrays.copyOf(this.buffers.value,
+                        Math.max(this.buffers.value.length * 2, this.valueLength + length));
+            }
+            System.arraycopy(bytes, offset, this.buffers.value, this.valueLength, length);
+            this.valueLength += length;
+        }
+
+        private void append(final byte b) {
+            if (this.valueLength == this.buffers.value.length) {
+                this.buffers.value = Arrays.copyOf(this.buffers.value, this.buffers.value.length * 2);
+            }
+            this.buffers.value[this.valueLength++] = b;
+        }
+    }
+}
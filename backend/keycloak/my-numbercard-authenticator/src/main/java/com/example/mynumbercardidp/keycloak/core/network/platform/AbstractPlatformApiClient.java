@@ -1,6 +1,9 @@
 package com.example.mynumbercardidp.keycloak.core.network.platform;
 
 import com.example.mynumbercardidp.keycloak.core.network.AuthenticationRequest;
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics;
+import com.example.mynumbercardidp.keycloak.util.tracing.TraceSpan;
+import com.example.mynumbercardidp.keycloak.util.tracing.Tracing;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
@@ -79,6 +82,20 @@ public abstract class AbstractPlatformApiClient implements PlatformApiClientInte
     @Override
     public abstract void sendRequest();
 
+    /**
+     * プラットフォームとの通信と同じ設定の HTTP クライアントを一度構築し、TLS と HTTP クライアントのクラスを読み込みます。
+     */
+    @Override
+    public void warmUp() {
+        // 構築のみで通信はしない。
+        CloseableHttpClient httpClient = createHttpClient();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     protected long getEstablishConnectionTimeout() {
         return this.establishConnectionTimeout;
     }
@@ -149,24 +166,43 @@ public abstract class AbstractPlatformApiClient implements PlatformApiClientInte
         }
         httpPost.setEntity(entity);
 
-        try (CloseableHttpClient httpClient = new HttpClientBuilder().disableTrustManager()
-                .establishConnectionTimeout(this.establishConnectionTimeout, this.establishConnectionTimeoutUnit)
-                .maxConnectionIdleTime(this.maxConnectionIdleTime, this.maxConnectionIdleTimeUnit)
-                .socketTimeout(this.socketTimeout, this.socketTimeoutUnit)
-                .build()) {
+        long startNanos = AuthenticatorMetrics.startTimer();
+        TraceSpan span = Tracing.startSpan("AbstractPlatformApiClient.sendEntity")
+                .setAttribute("http.method", httpPost.getMethod())
+                .setAttribute("http.url", apiUri);
+        // プラットフォーム側のトレースへ繋げるため、W3C Trace Context のヘッダーを付与する。
+        Tracing.traceparent().ifPresent(value -> httpPost.setHeader(Tracing.TRACEPARENT_HEADER, value));
+        try (CloseableHttpClient httpClient = createHttpClient()) {
             try (CloseableHttpResponse httpResponse = httpClient.execute(httpPost)) {
                 this.dataManager.setPlatformResponseFromHttpResponse(httpResponse);
+                if (span.isRecording()) {
+                    span.setAttribute("http.status_code", this.dataManager.getPlatformResponse().getHttpStatusCode());
+                }
             } catch (HttpTimeoutException e) {
                 String message = "Connect timeout. Platform URL: " + apiUri.toString();
+                span.recordException(e);
                 throw new IllegalArgumentException(message, e);
             } catch (IOException e) {
+                span.recordException(e);
                 throw new UncheckedIOException(e);
             }
         } catch (IOException e) {
+            span.recordException(e);
             throw new UncheckedIOException(e);
+        } finally {
+            span.close();
+            AuthenticatorMetrics.recordLatency(AuthenticatorMetrics.Stage.PLATFORM_ROUND_TRIP, startNanos);
         }
     }
 
+    private CloseableHttpClient createHttpClient() {
+        return new HttpClientBuilder().disableTrustManager()
+                .establishConnectionTimeout(this.establishConnectionTimeout, this.establishConnectionTimeoutUnit)
+                .maxConnectionIdleTime(this.maxConnectionIdleTime, this.maxConnectionIdleTimeUnit)
+                .socketTimeout(this.socketTimeout, this.socketTimeoutUnit)
+                .build();
+    }
+
     /**
      * ユーザーリクエスト、プラットフォームリクエスト、レスポンス管理クラスのインスタンスを生成します。
      *
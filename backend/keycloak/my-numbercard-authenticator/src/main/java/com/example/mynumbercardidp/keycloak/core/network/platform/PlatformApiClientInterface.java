@@ -1,5 +1,6 @@
 package com.example.mynumbercardidp.keycloak.core.network.platform;
 
+import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.UserActionContext;
 import com.example.mynumbercardidp.keycloak.core.network.AuthenticationRequest;
 
 import javax.ws.rs.core.MultivaluedMap;
@@ -50,9 +51,27 @@ public interface PlatformApiClientInterface {
     PlatformAuthenticationResponseStructure getPlatformResponse();
 
     /**
-     * Keycloakのコンテキストを返します。
+     * データモデルマネージャーが参照する認証フローのコンテキストを設定します。
      *
-     * @return Keycloakのコンテキストインスタンス
+     * @param context 認証フローのコンテキスト
      */
-    void setContextForDataManager(AuthenticationFlowContext context);
+    default void setContextForDataManager(AuthenticationFlowContext context) {
+        setContextForDataManager(UserActionContext.of(context));
+    }
+
+    /**
+     * データモデルマネージャーが参照するユーザーの操作のコンテキストを設定します。
+     *
+     * @param context ユーザーの操作のコンテキスト
+     */
+    void setContextForDataManager(UserActionContext context);
+
+    /**
+     * 起動時に一度だけ実行され、初回リクエストで発生するクラスの読み込みや JSON 変換器の構築を済ませます。
+     *
+     * {@link #init(String, MultivaluedMap, String)}を実行する前に呼び出されます。
+     * 既定の実装は何もしません。
+     */
+    default void warmUp() {
+    }
 }
@@ -1,31 +1,129 @@
 package com.example.mynumbercardidp.keycloak.core.network.platform;
 
+import com.example.mynumbercardidp.keycloak.core.network.AuthenticationRequestBinder;
+import com.example.mynumbercardidp.keycloak.util.StringUtil;
+import com.example.mynumbercardidp.keycloak.util.tracing.TraceSpan;
+import com.example.mynumbercardidp.keycloak.util.tracing.Tracing;
 import org.jboss.logging.Logger;
 import org.keycloak.authentication.AuthenticationFlowContext;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 import javax.ws.rs.core.MultivaluedMap;
 
 /**
  * 個人番号カードの公的個人認証部分を受け付けるプラットフォームと通信するためのクラスインスタンスを作成します。
+ *
+ * クラスの検索とコンストラクターの解決はクラスの完全修飾名ごとに一度だけ実行し、
+ * 以降のリクエストではキャッシュしたコンストラクターの MethodHandle からインスタンスを生成します。
+ * クラスはこのクラスと同じクラスローダーで読み込みます。
+ * SPI設定でクラス名を変更した場合は別のキーとなるため、新しいクラスが解決されます。
+ * プロバイダーを再配置した場合は {@link #invalidate()} でキャッシュを破棄します。
  */
 public class PlatformApiClientResolver implements PlatformApiClientResolveClassLoader {
     private static Logger consoleLogger = Logger.getLogger(PlatformApiClientResolver.class);
+    /** クラスの完全修飾名ごとのインスタンス生成処理 */
+    private static final ConcurrentMap<String, Supplier<PlatformApiClientInterface>> FACTORIES = new ConcurrentHashMap<>();
+
+    /**
+     * プラットフォームAPIクライアントのクラスを読み込み、初期化前のインスタンスでウォームアップを実行します。
+     *
+     * @param platformClassFqdn プラットフォームAPIクライアントの完全修飾クラス名
+     * @exception IllegalArgumentException クラスが見つからない、またはインスタンスを生成できない場合
+     */
+    public void warmUp(final String platformClassFqdn) {
+        newInstance(platformClassFqdn).warmUp();
+    }
 
     @Override
     public PlatformApiClientInterface createPlatform(final String platformClassFqdn,
             final AuthenticationFlowContext context, final String apiRootUri, String idpSender) {
+        MultivaluedMap<String, String> formData = context.getHttpRequest().getDecodedFormParameters();
+        return createPlatformWithFormData(platformClassFqdn, formData, apiRootUri, idpSender);
+    }
+
+    /**
+     * クラスのFQDNからプラットフォームと通信するためのクラスインスタンスを作成し、フォームパラメータで初期化します。
+     *
+     * @param platformClassFqdn プラットフォームAPIクライアントの完全修飾クラス名
+     * @param formData          ユーザーが送信したHTMLフォームパラメータ
+     * @param apiRootUri        プラットフォームAPIのルートURI（処理による変更が無い共通URI部分）
+     * @param idpSender         プラットフォームへ送るIdP送信者の識別符号
+     * @return プラットフォームAPIクライアントインスタンス
+     * @exception IllegalArgumentException クラスが見つからない、またはインスタンスを生成できない場合
+     */
+    public PlatformApiClientInterface createPlatformWithFormData(final String platformClassFqdn,
+            final MultivaluedMap<String, String> formData, final String apiRootUri, final String idpSender) {
+        TraceSpan span = Tracing.startSpan("PlatformApiClientResolver.createPlatform")
+                .setAttribute("mynumbercard.platform_class", platformClassFqdn);
         try {
-            PlatformApiClientInterface platform = (PlatformApiClientInterface) Class.forName(platformClassFqdn)
-                    .getDeclaredConstructor()
-                    .newInstance();
+            PlatformApiClientInterface platform = newInstance(platformClassFqdn);
 
-            MultivaluedMap<String, String> formData = context.getHttpRequest().getDecodedFormParameters();
-            formData.forEach((k, v) -> PlatformApiClientResolver.consoleLogger.debug("Key " + k + " -> " + v));
+            PlatformApiClientResolver.consoleLogger.debugf("Form parameters: %s",
+                    AuthenticationRequestBinder.redact(formData));
             platform.init(apiRootUri, formData, idpSender);
             return platform;
-        } catch (ClassNotFoundException | ClassCastException | NoSuchMethodException | InstantiationException
-                | IllegalAccessException | InvocationTargetException e) {
+        } catch (IllegalArgumentException e) {
+            span.recordException(e);
+            throw e;
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * キャッシュしたインスタンス生成処理を全て破棄します。
+     *
+     * プロバイダーの再配置などでクラスを読み込み直す場合に実行します。
+     */
+    public static void invalidate() {
+        PlatformApiClientResolver.FACTORIES.clear();
+    }
+
+    /**
+     * キャッシュしたインスタンス生成処理の数を返します。
+     *
+     * @return インスタンス生成処理の数
+     */
+    public static int size() {
+        return PlatformApiClientResolver.FACTORIES.size();
+    }
+
+    private static PlatformApiClientInterface newInstance(final String platformClassFqdn) {
+        if (StringUtil.isEmpty(platformClassFqdn)) {
+            throw new IllegalArgumentException("The platform API client class name is empty.");
+        }
+        // 解決に失敗した場合は例外となり、キャッシュには登録されない。
+        return PlatformApiClientResolver.FACTORIES
+                .computeIfAbsent(platformClassFqdn, PlatformApiClientResolver::resolveFactory)
+                .get();
+    }
+
+    private static Supplier<PlatformApiClientInterface> resolveFactory(final String platformClassFqdn) {
+        try {
+            Class<?> platformClass = Class.forName(platformClassFqdn, true,
+                    PlatformApiClientResolver.class.getClassLoader());
+            if (!PlatformApiClientInterface.class.isAssignableFrom(platformClass)) {
+                throw new IllegalArgumentException(platformClassFqdn + " does not implement "
+                        + PlatformApiClientInterface.class.getName() + ".");
+            }
+            MethodHandle constructor = MethodHandles.publicLookup()
+                    .findConstructor(platformClass, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(PlatformApiClientInterface.class));
+            return () -> {
+                try {
+                    return (PlatformApiClientInterface) constructor.invokeExact();
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalArgumentException(e);
+                }
+            };
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
             throw new IllegalArgumentException(e);
         }
     }
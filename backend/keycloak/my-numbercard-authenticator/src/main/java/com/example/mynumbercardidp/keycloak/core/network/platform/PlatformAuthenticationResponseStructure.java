@@ -3,6 +3,9 @@ package com.example.mynumbercardidp.keycloak.core.network.platform;
 import org.keycloak.models.UserModel;
 
 public interface PlatformAuthenticationResponseStructure {
+    /** プラットフォームが返したユニークIDを保持するユーザー属性名 */
+    String UNIQUE_ID_ATTRIBUTE = "uniqueid";
+
     /**
      * プラットフォームのHTTPレスポンスコードを返します。
      *
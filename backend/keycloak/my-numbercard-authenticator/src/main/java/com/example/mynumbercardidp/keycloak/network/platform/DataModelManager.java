@@ -1,11 +1,13 @@
 package com.example.mynumbercardidp.keycloak.network.platform;
 
 import com.example.mynumbercardidp.keycloak.core.network.platform.CertificateType;
-import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.SpiConfigProperty;
 import com.example.mynumbercardidp.keycloak.core.network.AuthenticationRequest;
+import com.example.mynumbercardidp.keycloak.core.network.AuthenticationRequestBinder;
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformAuthenticationResponseStructure;
 import com.example.mynumbercardidp.keycloak.util.Encryption;
-import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
+import com.example.mynumbercardidp.keycloak.util.tracing.TraceSpan;
+import com.example.mynumbercardidp.keycloak.util.tracing.Tracing;
+import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.UserActionContext;
 import com.example.mynumbercardidp.keycloak.core.network.platform.AbstractDataModelManager;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
@@ -15,9 +17,9 @@ import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.jboss.logging.Logger;
-import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.crypto.KeyUse;
 import org.keycloak.models.RealmModel;
 
@@ -25,28 +27,38 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.security.Key;
+import java.util.Objects;
 import javax.ws.rs.core.MultivaluedMap;
 
 public class DataModelManager extends AbstractDataModelManager {
     private static Logger consoleLogger = Logger.getLogger(DataModelManager.class);
     private static ObjectMapper objectMapper = new ObjectMapper();
     private static JsonFactory jsonFactory = new JsonFactory();
-    private AuthenticationFlowContext context;
-    private String decryptedJWE = null;
+    // ObjectReader と ObjectWriter は生成時にルート型のシリアライザーを構築するため、リクエストごとに作らない。
+    private static final ObjectWriter REQUEST_WRITER = objectMapper.writerFor(PlatformAuthenticationRequest.class);
+    private static final ObjectReader REQUEST_READER = objectMapper.readerFor(PlatformAuthenticationRequest.class);
+    private static final ObjectReader RESPONSE_READER = objectMapper.readerFor(PlatformAuthenticationResponse.class);
+    private static final ObjectWriter TREE_WRITER = objectMapper.writer();
+    /** ウォームアップで解析するプラットフォームレスポンス */
+    private static final String WARM_UP_RESPONSE = "{\"applicantId\":\"\",\"responseInfo\":{},\"status\":{},\"identityInfo\":{}}";
+    private UserActionContext context;
 
-    void setContext(final AuthenticationFlowContext context) {
+    void setContext(final UserActionContext context) {
         this.context = context;
     }
 
     @Override
     protected AuthenticationRequest toUserRequest(final MultivaluedMap<String, String> formData) {
-        formData.forEach((k, v) -> DataModelManager.consoleLogger.debug("Key " + k + " -> " + v));
-        String actionMode = formData.getFirst(AuthenticationRequest.Filed.ACTION_MODE.getName());
-        DataModelManager.consoleLogger.debug("actionMode: " + actionMode);
-        AuthenticationRequest userRequest = new AuthenticationRequest();
-        userRequest.setActionMode(actionMode);
-        userRequest.setApplicantData(formData.getFirst(AuthenticationRequest.Filed.APPLICANT_DATA.getName()))
-                .setSign(formData.getFirst(AuthenticationRequest.Filed.SIGN.getName()));
+        try (TraceSpan span = Tracing.startSpan("DataModelManager.toUserRequest")) {
+            AuthenticationRequest userRequest = parseUserRequest(formData);
+            span.setAttribute("mynumbercard.action", userRequest.getActionMode());
+            return userRequest;
+        }
+    }
+
+    private AuthenticationRequest parseUserRequest(final MultivaluedMap<String, String> formData) {
+        DataModelManager.consoleLogger.debugf("Form parameters: %s", AuthenticationRequestBinder.redact(formData));
+        AuthenticationRequest userRequest = AuthenticationRequestBinder.bind(formData);
 
         switch (userRequest.getActionMode().toLowerCase()) {
             case "login":
@@ -60,14 +72,7 @@ public class DataModelManager extends AbstractDataModelManager {
                 break;
         }
         String certificateTypeName = userRequest.getCertificateType().getName();
-        // プラットフォーム通信時に証明書の元データを利用するため、decrypt済みのデータを別で保管しておく
-        try {
-            RealmModel realm = this.context.getRealm();
-            Key privateKey = context.getSession().keys().getActiveKey(realm, KeyUse.ENC, "RSA-OAEP-256").getPrivateKey();
-            this.decryptedJWE = Encryption.decrypt(formData.getFirst(certificateTypeName), privateKey).get("claim").asText();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        // 秘密鍵による復号は署名の検証で行う。不正なリクエストを復号より前に拒否するため、ここでは復号しない。
         userRequest.setCertificate(formData.getFirst(certificateTypeName));
         return userRequest;
     }
@@ -78,9 +83,7 @@ public class DataModelManager extends AbstractDataModelManager {
         PlatformAuthenticationRequest platform = new PlatformAuthenticationRequest(requestSender);
         String encryptedJWE = null;
         try {
-            String platformRootUrl = CurrentConfig.getValue(context, SpiConfigProperty.CertificateValidatorRootUri.CONFIG.getName());
-            String jwksUrl = platformRootUrl + "/key/jwks.json";
-            encryptedJWE = Encryption.encrypt(context.getSession(), this.decryptedJWE, jwksUrl);
+            encryptedJWE = Encryption.encrypt(context.getSession(), getCertificateContent(userRequest), getJwksUrl());
         }
         catch(Exception e) {
             e.printStackTrace();
@@ -99,14 +102,32 @@ public class DataModelManager extends AbstractDataModelManager {
         return (Object) platform;
     }
 
+    /**
+     * プラットフォームへ送信する証明書を返します。
+     *
+     * 署名の検証で復号した証明書を使い、検証されていない場合のみ復号します。
+     *
+     * @param userRequest ユーザーリクエストのデータ構造
+     * @return 復号した証明書
+     */
+    private String getCertificateContent(final AuthenticationRequest userRequest) throws Exception {
+        if (Objects.nonNull(userRequest.getCertificateContent())) {
+            return userRequest.getCertificateContent();
+        }
+        RealmModel realm = this.context.getRealm();
+        Key privateKey = context.getSession().keys().getActiveKey(realm, KeyUse.ENC, "RSA-OAEP-256").getPrivateKey();
+        String certificateContent = Encryption.decrypt(userRequest.getCertificate(), privateKey).get("claim").asText();
+        userRequest.setCertificateContent(certificateContent);
+        return certificateContent;
+    }
+
     @Override
     protected PlatformAuthenticationResponseStructure toPlatformResponse(final CloseableHttpResponse httpResponse) {
         PlatformAuthenticationResponse response = new PlatformAuthenticationResponse();
         try (InputStream inputStream = httpResponse.getEntity().getContent()) {
             String contentsBody = IOUtils.toString(inputStream, super.getRequestCharset());
-            ObjectReader objectReader = DataModelManager.objectMapper.readerFor(PlatformAuthenticationResponse.class);
             try (JsonParser parser = DataModelManager.jsonFactory.createParser(contentsBody)) {
-                response = objectReader.readValue(parser);
+                response = DataModelManager.RESPONSE_READER.readValue(parser);
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
@@ -114,20 +135,49 @@ public class DataModelManager extends AbstractDataModelManager {
             throw new UncheckedIOException(e);
         }
         response.setHttpStatusCode(httpResponse.getStatusLine().getStatusCode());
+        if (response.getHttpStatusCode() == HttpStatus.SC_BAD_REQUEST && Objects.nonNull(this.context)) {
+            // プラットフォームの鍵の更新後に更新前の公開鍵で暗号化した証明書は、リクエスト失敗として拒否される。
+            // 以降のリクエストが同じ公開鍵で失敗し続けないよう、キャッシュした公開鍵を破棄する。
+            Encryption.evictPublicKey(getJwksUrl());
+        }
         return (PlatformAuthenticationResponseStructure) response;
     }
 
+    /**
+     * 証明書の暗号化に使う公開鍵を公開するプラットフォームのJWKSのURLを返します。
+     *
+     * @return JSONWebKeySetのURL
+     */
+    private String getJwksUrl() {
+        return this.context.getConfig().getCertificateValidatorRootUri() + "/key/jwks.json";
+    }
+
     protected String convertPlatformRequestToJson() {
+        Object requestObj = super.getPlatformRequest();
+        return DataModelManager.toJson((PlatformAuthenticationRequest) requestObj);
+    }
+
+    /**
+     * プラットフォームリクエストとレスポンスの JSON 変換を一度ずつ実行し、Jackson のシリアライザーを構築しておきます。
+     */
+    static void warmUpJson() {
+        PlatformAuthenticationRequest request = new PlatformAuthenticationRequest("")
+                .setCertificateType(CertificateType.ENCRYPTED_USER_AUTHENTICATION_FOR_PLATFORM)
+                .setCertificate("");
+        DataModelManager.toJson(request);
+        try (JsonParser parser = DataModelManager.jsonFactory.createParser(DataModelManager.WARM_UP_RESPONSE)) {
+            DataModelManager.RESPONSE_READER.readValue(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String toJson(final PlatformAuthenticationRequest request) {
         try {
-            Object requestObj = super.getPlatformRequest();
-            PlatformAuthenticationRequest request = (PlatformAuthenticationRequest) requestObj;
-            ObjectWriter objectWriter = DataModelManager.objectMapper.writerFor(PlatformAuthenticationRequest.class);
-            String baseJson = objectWriter.writeValueAsString(request);
-            ObjectReader objectReader = DataModelManager.objectMapper.readerFor(PlatformAuthenticationRequest.class);
-            ObjectNode objectNode = objectReader.readTree(baseJson).deepCopy();
+            String baseJson = DataModelManager.REQUEST_WRITER.writeValueAsString(request);
+            ObjectNode objectNode = DataModelManager.REQUEST_READER.readTree(baseJson).deepCopy();
             objectNode.put(request.getCertificateType().getName(), request.getCertificate());
-            objectWriter = DataModelManager.objectMapper.writer();
-            return objectWriter.writeValueAsString(objectNode);
+            return DataModelManager.TREE_WRITER.writeValueAsString(objectNode);
         } catch (JsonProcessingException e) {
             throw new IllegalArgumentException(e);
         }
@@ -0,0 +1,121 @@
+package com.example.mynumbercardidp.keycloak.network.platform;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformAuthenticationResponseStructure;
+
+/**
+ * プラットフォームが返した本人情報の項目と、値を保持するユーザー属性名の対応を管理するユーティリティクラスです。
+ *
+ * 対応はSPIオプション identity-attribute-mapping に "項目名=ユーザー属性名" をカンマ区切りで指定して変更します。
+ * 指定しなかった項目は既定のユーザー属性名のままです。
+ * ユニークIDはユーザーの検索に使うため、ユーザー属性名を変更できません。
+ */
+public final class IdentityAttributeMapping {
+    /** ユニークIDの項目名 */
+    public static final String UNIQUE_ID = "uniqueId";
+    /** 氏名の項目名 */
+    public static final String NAME = "name";
+    /** 性別の項目名 */
+    public static final String GENDER = "gender";
+    /** 住所の項目名 */
+    public static final String ADDRESS = "address";
+    /** 生年月日の項目名 */
+    public static final String DATE_OF_BIRTH = "dateOfBirth";
+    private static final Map<String, Function<PlatformAuthenticationResponse.IdentityInfo, String>> FIELDS;
+    private static final Map<String, String> DEFAULT_MAPPING;
+    private static volatile Map<String, String> mapping;
+
+    static {
+        Map<String, Function<PlatformAuthenticationResponse.IdentityInfo, String>> fields = new LinkedHashMap<>();
+        fields.put(IdentityAttributeMapping.UNIQUE_ID, PlatformAuthenticationResponse.IdentityInfo::getUniqueId);
+        fields.put(IdentityAttributeMapping.NAME, PlatformAuthenticationResponse.IdentityInfo::getName);
+        fields.put(IdentityAttributeMapping.GENDER, PlatformAuthenticationResponse.IdentityInfo::getGender);
+        fields.put(IdentityAttributeMapping.ADDRESS, PlatformAuthenticationResponse.IdentityInfo::getAddress);
+        fields.put(IdentityAttributeMapping.DATE_OF_BIRTH, PlatformAuthenticationResponse.IdentityInfo::getDateOfBirth);
+        FIELDS = Collections.unmodifiableMap(fields);
+
+        Map<String, String> defaultMapping = new LinkedHashMap<>();
+        defaultMapping.put(IdentityAttributeMapping.UNIQUE_ID,
+                PlatformAuthenticationResponseStructure.UNIQUE_ID_ATTRIBUTE);
+        defaultMapping.put(IdentityAttributeMapping.NAME, "name");
+        defaultMapping.put(IdentityAttributeMapping.GENDER, "gender_code");
+        defaultMapping.put(IdentityAttributeMapping.ADDRESS, "user_address");
+        defaultMapping.put(IdentityAttributeMapping.DATE_OF_BIRTH, "birth_date");
+        DEFAULT_MAPPING = Collections.unmodifiableMap(defaultMapping);
+        mapping = DEFAULT_MAPPING;
+    }
+
+    private IdentityAttributeMapping() {
+    }
+
+    /**
+     * 項目とユーザー属性名の対応を変更します。
+     *
+     * @param value "項目名=ユーザー属性名" をカンマ区切りで並べた文字列
+     * @exception IllegalArgumentException 項目名が不明な場合、ユニークIDを指定した場合、
+     *                                     ユーザー属性名が空または重複する場合
+     */
+    public static void configure(final String value) {
+        Map<String, String> configured = new LinkedHashMap<>(IdentityAttributeMapping.DEFAULT_MAPPING);
+        for (String pair : Objects.requireNonNull(value).split(",")) {
+            if (pair.isBlank()) {
+                continue;
+            }
+            int separator = pair.indexOf('=');
+            String field = separator < 0 ? pair.trim() : pair.substring(0, separator).trim();
+            String attributeName = separator < 0 ? "" : pair.substring(separator + 1).trim();
+            if (!IdentityAttributeMapping.FIELDS.containsKey(field)) {
+                throw new IllegalArgumentException("Unknown identity field: " + field);
+            }
+            if (IdentityAttributeMapping.UNIQUE_ID.equals(field)) {
+                throw new IllegalArgumentException("The unique id attribute cannot be remapped.");
+            }
+            if (attributeName.isEmpty()) {
+                throw new IllegalArgumentException("The attribute name for " + field + " is empty.");
+            }
+            configured.put(field, attributeName);
+        }
+        Set<String> attributeNames = new HashSet<>(configured.values());
+        if (attributeNames.size() != configured.size()) {
+            throw new IllegalArgumentException("The identity attribute names must be unique.");
+        }
+        IdentityAttributeMapping.mapping = Collections.unmodifiableMap(configured);
+    }
+
+    /**
+     * 項目とユーザー属性名の対応を既定に戻します。
+     */
+    public static void reset() {
+        IdentityAttributeMapping.mapping = IdentityAttributeMapping.DEFAULT_MAPPING;
+    }
+
+    /**
+     * 項目名をキー、ユーザー属性名を値とした現在の対応を返します。
+     *
+     * @return 項目とユーザー属性名の対応
+     */
+    public static Map<String, String> getMapping() {
+        return IdentityAttributeMapping.mapping;
+    }
+
+    /**
+     * 本人情報をユーザー属性名と値の組に変換します。
+     *
+     * @param identityInfo 本人情報
+     * @return ユーザー属性名をキー、本人情報の値を値とした組 値がない項目はNull
+     */
+    static Map<String, String> toAttributes(final PlatformAuthenticationResponse.IdentityInfo identityInfo) {
+        Map<String, String> current = IdentityAttributeMapping.mapping;
+        Map<String, String> attributes = new LinkedHashMap<>(current.size() * 2);
+        current.forEach((field, attributeName) -> attributes.put(attributeName,
+                IdentityAttributeMapping.FIELDS.get(field).apply(identityInfo)));
+        return attributes;
+    }
+}
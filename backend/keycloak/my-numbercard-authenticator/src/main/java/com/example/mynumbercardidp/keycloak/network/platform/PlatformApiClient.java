@@ -1,14 +1,15 @@
 package com.example.mynumbercardidp.keycloak.network.platform;
 
+import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.UserActionContext;
 import com.example.mynumbercardidp.keycloak.core.network.platform.AbstractPlatformApiClient;
 import com.example.mynumbercardidp.keycloak.core.network.platform.RequestAndResponseDataManager;
+import com.example.mynumbercardidp.keycloak.util.tracing.Tracing;
 
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.jboss.logging.Logger;
-import org.keycloak.authentication.AuthenticationFlowContext;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -28,15 +29,24 @@ public class PlatformApiClient extends AbstractPlatformApiClient {
     @Override
     public void sendRequest() {
         DataModelManager data = (DataModelManager) super.getDataModelManager();
+        PlatformAuthenticationRequest platformRequest = (PlatformAuthenticationRequest) data.getPlatformRequest();
+        Tracing.setTraceAttribute(Tracing.TRANSACTION_ID_ATTRIBUTE,
+                platformRequest.getRequestInfo().getTransactionId());
         HttpEntity requsetEntity = new ByteArrayEntity(
                 data.convertPlatformRequestToJson().getBytes(super.getDefaultCharset()),
                 PlatformApiClient.REQUEST_CONTENT_TYPE);
         URI apiUri = createApiUri();
         Header[] headers = {};
-        PlatformApiClient.consoleLogger.debug("Platform API URI: " + apiUri);
+        PlatformApiClient.consoleLogger.debugf("Platform API URI: %s", apiUri);
         super.sendEntity(apiUri, headers, requsetEntity);
     }
 
+    @Override
+    public void warmUp() {
+        super.warmUp();
+        DataModelManager.warmUpJson();
+    }
+
     @Override
     protected RequestAndResponseDataManager createDataManager(final MultivaluedMap<String, String> formData) {
         RequestAndResponseDataManager data = new DataModelManager();
@@ -54,7 +64,8 @@ public class PlatformApiClient extends AbstractPlatformApiClient {
         }
     }
 
-    public void setContextForDataManager(AuthenticationFlowContext context) {
+    @Override
+    public void setContextForDataManager(UserActionContext context) {
         DataModelManager dataModelManager = (DataModelManager) super.getDataModelManager();
         dataModelManager.setContext(context);
     }
@@ -1,15 +1,12 @@
 package com.example.mynumbercardidp.keycloak.network.platform;
 
 import com.example.mynumbercardidp.keycloak.core.network.platform.CertificateType;
+import com.example.mynumbercardidp.keycloak.util.IdGenerator;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.UUID;
-
 /**
  * プラットフォームAPIへ送信するリクエスト内容の構造体を表すクラスです。
  */
@@ -95,11 +92,11 @@ public class PlatformAuthenticationRequest {
 
     @JsonAutoDetect(fieldVisibility = Visibility.ANY)
     public static class RequestInfo {
-        private String transactionId = UUID.randomUUID().toString();
+        private String transactionId = IdGenerator.timeOrderedUuid();
         private String recipient = "JPKI";
         private String sender;
         @JsonProperty("ts")
-        private String timeStamp = new SimpleDateFormat("yyyy-MM-dd HH:MM:ss.SSS").format(new Date());
+        private String timeStamp = IdGenerator.timestamp();
 
         protected RequestInfo(final String sender) {
             this.sender = sender;
@@ -8,6 +8,11 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.keycloak.models.UserModel;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
 /**
  * プラットフォームのレスポンス構造体です。
  *
@@ -29,17 +34,39 @@ public class PlatformAuthenticationResponse implements PlatformAuthenticationRes
         return this.httpStatusCode;
     }
 
+    /**
+     * 本人情報をユーザー属性に設定します。
+     *
+     * 現在のユーザー属性は1回だけ読み込み、値が異なる項目のみを設定します。
+     * ユーザーキャッシュは最初の設定で無効化されるため、全ての項目が同じ場合はキャッシュを無効化しません。
+     * 2つ目以降の項目は最初の設定で取得した永続化層のユーザーへ反映され、トランザクションの確定時にまとめて書き込まれます。
+     */
     @Override
     @JsonIgnore
     public UserModel toUserModelAttributes(final UserModel user) {
-        user.setSingleAttribute("uniqueid", this.identityInfo.getUniqueId());
-        user.setSingleAttribute("name", this.identityInfo.getName());
-        user.setSingleAttribute("gender_code", this.identityInfo.getGender());
-        user.setSingleAttribute("user_address", this.identityInfo.getAddress());
-        user.setSingleAttribute("birth_date", this.identityInfo.getDateOfBirth());
+        Map<String, List<String>> current = user.getAttributes();
+        Map<String, String> changed = new LinkedHashMap<>();
+        IdentityAttributeMapping.toAttributes(this.identityInfo).forEach((name, value) -> {
+            if (!PlatformAuthenticationResponse.hasSingleValue(current.get(name), value)) {
+                changed.put(name, value);
+            }
+        });
+        changed.forEach(user::setSingleAttribute);
         return user;
     }
 
+    /**
+     * ユーザー属性の値が指定した値のみかを返します。
+     *
+     * 値がNullの場合は、ユーザー属性が設定されていないかを返します。
+     */
+    private static boolean hasSingleValue(final List<String> current, final String value) {
+        if (Objects.isNull(current) || current.isEmpty()) {
+            return Objects.isNull(value);
+        }
+        return current.size() == 1 && current.get(0).equals(value);
+    }
+
     protected void setHttpStatusCode(final int status) {
         this.httpStatusCode = status;
     }
@@ -0,0 +1,323 @@
+package com.example.mynumbercardidp.keycloak.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformAuthenticationResponseStructure;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * 複数のユーザーへユーザー属性をまとめて設定し、結果を書き出すレスポンスボディです。
+ *
+ * リクエストボディのJSON配列を先頭から読み込み、{@link #CHUNK_SIZE} 件ごとに別のトランザクションで設定します。
+ * 設定した結果はトランザクションごとにJSON配列の要素として書き出すため、全ての要素を読み込むまで待たずにレスポンスを返します。
+ * トランザクションはリクエストのセッションとは別に作成するため、レスポンスの書き出し中にリクエストのセッションを参照しません。
+ * 個別の設定と同じく、ユーザーの行をロックしてから書き込みます。
+ *
+ * 要素は {"user_id": ユーザーID, "user_attributes": {...}} または {"uniqueid": ユニークID, "user_attributes": {...}} の形式です。
+ * 両方を指定した場合はユーザーIDで検索します。
+ */
+final class CustomAttributeBatch implements StreamingOutput {
+    /** 1つのトランザクションで設定する要素数 */
+    static final int CHUNK_SIZE = 100;
+    private static final Logger CONSOLE_LOGGER = Logger.getLogger(CustomAttributeBatch.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static volatile boolean enabled = false;
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final String realmId;
+    private final String attributeName;
+    private final int maxBytes;
+    private final InputStream requestBody;
+
+    /**
+     * @param sessionFactory Keycloakのセッションファクトリー
+     * @param realmId        レルムID
+     * @param attributeName  値を設定するユーザー属性名
+     * @param maxBytes       値の上限のバイト数
+     * @param requestBody    リクエストボディの入力ストリーム
+     */
+    CustomAttributeBatch(final KeycloakSessionFactory sessionFactory, final String realmId,
+            final String attributeName, final int maxBytes, final InputStream requestBody) {
+        this.sessionFactory = Objects.requireNonNull(sessionFactory);
+        this.realmId = Objects.requireNonNull(realmId);
+        this.attributeName = Objects.requireNonNull(attributeName);
+        this.maxBytes = maxBytes;
+        this.requestBody = Objects.requireNonNull(requestBody);
+    }
+
+    /**
+     * 一括設定のエンドポイントを有効または無効にします。
+     *
+     * @param value 有効にする場合はtrue
+     */
+    static void setEnabled(final boolean value) {
+        CustomAttributeBatch.enabled = value;
+    }
+
+    static boolean isEnabled() {
+        return CustomAttributeBatch.enabled;
+    }
+
+    /**
+     * リクエストボディの要素を順に設定し、要素ごとの結果をJSON配列で書き出します。
+     *
+     * JSON配列の途中で構文が不正になった場合は、それまでの要素を設定し、不正な位置の結果を書き出して終了します。
+     *
+     * @param output レスポンスボディの出力ストリーム
+     * @exception IOException 入出力に失敗した場合
+     */
+    @Override
+    public void write(final OutputStream output) throws IOException {
+        try (JsonParser parser = CustomAttributeBatch.JSON_FACTORY.createParser(this.requestBody);
+                JsonGenerator generator = CustomAttributeBatch.JSON_FACTORY.createGenerator(output)) {
+            generator.writeStartArray();
+            List<Item> chunk = new ArrayList<>(CustomAttributeBatch.CHUNK_SIZE);
+            int index = 0;
+            try {
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new JsonParseException(parser, "The request body is not a JSON array.");
+                }
+                JsonToken token;
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (Objects.isNull(token)) {
+                        throw new JsonParseException(parser, "Unexpected end of the request body.");
+                    }
+                    chunk.add(CustomAttributeBatch.readItem(parser, index));
+                    index++;
+                    if (chunk.size() == CustomAttributeBatch.CHUNK_SIZE) {
+                        this.applyAndWrite(chunk, generator);
+                    }
+                }
+                this.applyAndWrite(chunk, generator);
+            } catch (JsonProcessingException e) {
+                CustomAttributeBatch.CONSOLE_LOGGER.debugf("Malformed batch request at index %d.", index);
+                this.applyAndWrite(chunk, generator);
+                CustomAttributeBatch.writeResult(generator, new Result(index, Status.MALFORMED, null));
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * 要素を1つのトランザクションで設定し、結果を書き出します。
+     *
+     * トランザクションが失敗した場合は、全ての要素の設定を取り消して失敗として書き出します。
+     *
+     * @param chunk     設定する要素 書き出した後に空にする
+     * @param generator レスポンスボディの書き出し先
+     * @exception IOException 書き出しに失敗した場合
+     */
+    private void applyAndWrite(final List<Item> chunk, final JsonGenerator generator) throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<Result> results;
+        try {
+            results = KeycloakModelUtils.runJobInTransactionWithResult(this.sessionFactory,
+                    session -> this.apply(session, chunk));
+        } catch (RuntimeException e) {
+            CustomAttributeBatch.CONSOLE_LOGGER.warnf(e, "Failed to assign the user attributes from index %d.",
+                    chunk.get(0).index);
+            results = chunk.stream()
+                    .map(item -> new Result(item.index, item.isValid() ? Status.FAILED : Status.INVALID, null))
+                    .collect(Collectors.toList());
+        }
+        for (Result result : results) {
+            CustomAttributeBatch.writeResult(generator, result);
+        }
+        generator.flush();
+        chunk.clear();
+    }
+
+    private List<Result> apply(final KeycloakSession session, final List<Item> chunk) {
+        RealmModel realm = session.realms().getRealm(this.realmId);
+        if (Objects.isNull(realm)) {
+            throw new IllegalStateException("The realm is not found.");
+        }
+        session.getContext().setRealm(realm);
+        List<Result> results = new ArrayList<>(chunk.size());
+        for (Item item : chunk) {
+            if (!item.isValid() || CustomAttributeStorage.isReserved(item.userAttributes)) {
+                results.add(new Result(item.index, Status.INVALID, null));
+                continue;
+            }
+            if (CustomAttributeStorage.exceedsQuota(item.userAttributes, this.maxBytes)) {
+                results.add(new Result(item.index, Status.TOO_LARGE, null));
+                continue;
+            }
+            List<UserModel> users = Objects.nonNull(item.userId)
+                    ? CustomAttributeBatch.listOf(session.users().getUserById(realm, item.userId))
+                    : session.users()
+                            .searchForUserByUserAttributeStream(realm,
+                                    PlatformAuthenticationResponseStructure.UNIQUE_ID_ATTRIBUTE, item.uniqueId)
+                            .limit(2)
+                            .collect(Collectors.toList());
+            if (users.isEmpty()) {
+                results.add(new Result(item.index, Status.NOT_FOUND, null));
+            } else if (users.size() > 1) {
+                results.add(new Result(item.index, Status.CONFLICT, null));
+            } else {
+                UserModel user = users.get(0);
+                // 個別の設定と同時に同じユーザーへ書き込まないよう、ユーザーの行をロックしてから書き込む
+                // ロックはチャンクのトランザクションが終わるまで保持する
+                CustomAttributeLock.acquire(session, user, this.attributeName);
+                // 個別の設定や読み込みで使うエンティティタグも合わせて更新する
+                CustomAttributeStorage.write(session, realm, user, this.attributeName, item.userAttributes);
+                results.add(new Result(item.index, Status.UPDATED, user.getId()));
+            }
+        }
+        return results;
+    }
+
+    private static List<UserModel> listOf(final UserModel user) {
+        return Objects.isNull(user) ? List.of() : List.of(user);
+    }
+
+    /**
+     * JSON配列の要素を読み込みます。
+     *
+     * 要素がJSONオブジェクトでない場合や、項目の型が異なる場合は、不正な要素として返します。
+     *
+     * @param parser 要素の先頭を指すパーサー
+     * @param index  要素の位置
+     * @return 要素
+     * @exception IOException 構文が不正な場合
+     */
+    private static Item readItem(final JsonParser parser, final int index) throws IOException {
+        Item item = new Item(index);
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            item.valid = false;
+            return item;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (fieldName) {
+                case "user_id":
+                    item.userId = CustomAttributeBatch.readString(parser, value, item);
+                    break;
+                // ユニークIDはユーザー属性名と同じフィールド名で受け付ける。
+                case PlatformAuthenticationResponseStructure.UNIQUE_ID_ATTRIBUTE:
+                    item.uniqueId = CustomAttributeBatch.readString(parser, value, item);
+                    break;
+                case CustomAttributeJson.USER_ATTRIBUTES_FIELD:
+                    if (value == JsonToken.START_OBJECT) {
+                        item.userAttributes = CustomAttributeJson.copyCurrentStructure(parser);
+                    } else {
+                        parser.skipChildren();
+                        item.valid = false;
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return item;
+    }
+
+    private static String readString(final JsonParser parser, final JsonToken value, final Item item)
+            throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        item.valid = false;
+        return null;
+    }
+
+    private static void writeResult(final JsonGenerator generator, final Result result) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("index", result.index);
+        generator.writeStringField("status", result.status.getName());
+        if (Objects.nonNull(result.userId)) {
+            generator.writeStringField("user_id", result.userId);
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * 要素ごとの設定結果の状態です。
+     */
+    enum Status {
+        /** ユーザー属性を設定した */
+        UPDATED("updated"),
+        /** ユーザーが見つからない */
+        NOT_FOUND("not_found"),
+        /** ユニークIDに一致するユーザーが複数ある */
+        CONFLICT("conflict"),
+        /** 要素の形式が不正 */
+        INVALID("invalid"),
+        /** ユーザー属性が上限のサイズを超える */
+        TOO_LARGE("too_large"),
+        /** トランザクションが失敗し、設定を取り消した */
+        FAILED("failed"),
+        /** リクエストボディの構文が不正で、以降の要素を読み込めない */
+        MALFORMED("malformed");
+
+        private final String name;
+
+        Status(final String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return this.name;
+        }
+    }
+
+    /**
+     * リクエストボディの要素です。
+     */
+    private static final class Item {
+        private final int index;
+        private boolean valid = true;
+        private String userId;
+        private String uniqueId;
+        private String userAttributes;
+
+        private Item(final int index) {
+            this.index = index;
+        }
+
+        /**
+         * ユーザーIDまたはユニークIDと、ユーザー属性のJSONオブジェクトを持つ場合に有効です。
+         */
+        private boolean isValid() {
+            return this.valid && (Objects.nonNull(this.userId) || Objects.nonNull(this.uniqueId))
+                    && Objects.nonNull(this.userAttributes);
+        }
+    }
+
+    private static final class Result {
+        private final int index;
+        private final Status status;
+        private final String userId;
+
+        private Result(final int index, final Status status, final String userId) {
+            this.index = index;
+            this.status = status;
+            this.userId = userId;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.mynumbercardidp.keycloak.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Objects;
+
+import org.keycloak.models.UserModel;
+
+/**
+ * ユーザー属性のエンティティタグを読み書きするユーティリティクラスです。
+ *
+ * エンティティタグはユーザー属性の値のSHA-256ハッシュで、値を書き込むときに計算して別の属性として保持します。
+ * 読み込むときは保持したエンティティタグを返すため、値のハッシュを計算し直しません。
+ */
+final class CustomAttributeEntityTag {
+    /** エンティティタグを保持するユーザー属性名の接尾辞 ユーザー属性名に付ける */
+    static final String ENTITY_TAG_SUFFIX = "_etag";
+    private static final String ANY = "*";
+    private static final String WEAK_PREFIX = "W/";
+
+    private CustomAttributeEntityTag() {
+    }
+
+    /**
+     * 現在のエンティティタグを返します。
+     *
+     * エンティティタグを保持する前に書き込んだ値は、その場でハッシュを計算します。
+     *
+     * @param user          ユーザー
+     * @param attributeName ユーザー属性名
+     * @return エンティティタグ ユーザー属性が設定されていない場合はNull
+     */
+    static String current(final UserModel user, final String attributeName) {
+        return CustomAttributeEntityTag.current(user, attributeName, user.getFirstAttribute(attributeName));
+    }
+
+    /**
+     * 読み込み済みのユーザー属性の値に対応する、現在のエンティティタグを返します。
+     *
+     * @param user          ユーザー
+     * @param attributeName ユーザー属性名
+     * @param value         読み込み済みのユーザー属性の値
+     * @return エンティティタグ ユーザー属性が設定されていない場合はNull
+     */
+    static String current(final UserModel user, final String attributeName, final String value) {
+        if (Objects.isNull(value)) {
+            return null;
+        }
+        String entityTag = user.getFirstAttribute(attributeName + CustomAttributeEntityTag.ENTITY_TAG_SUFFIX);
+        return Objects.nonNull(entityTag) ? entityTag : CustomAttributeEntityTag.compute(value);
+    }
+
+    /**
+     * ユーザー属性の値とエンティティタグを書き込みます。
+     *
+     * @param user          ユーザー
+     * @param attributeName ユーザー属性名
+     * @param value         ユーザー属性の値
+     * @return 書き込んだ値のエンティティタグ
+     */
+    static String store(final UserModel user, final String attributeName, final String value) {
+        user.setSingleAttribute(attributeName, value);
+        return CustomAttributeEntityTag.storeEntityTag(user, attributeName, value);
+    }
+
+    /**
+     * ユーザー属性とは別に保持した値のエンティティタグを書き込みます。
+     *
+     * @param user          ユーザー
+     * @param attributeName ユーザー属性名
+     * @param value         ユーザー属性の値
+     * @return 書き込んだエンティティタグ
+     */
+    static String storeEntityTag(final UserModel user, final String attributeName, final String value) {
+        String entityTag = CustomAttributeEntityTag.compute(value);
+        user.setSingleAttribute(attributeName + CustomAttributeEntityTag.ENTITY_TAG_SUFFIX, entityTag);
+        return entityTag;
+    }
+
+    /**
+     * 値のSHA-256ハッシュから強いエンティティタグを作成します。
+     *
+     * @param value ユーザー属性の値
+     * @return 二重引用符で囲んだエンティティタグ
+     */
+    static String compute(final String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * If-Matchヘッダーの条件を満たすかを返します。
+     *
+     * RFC 9110 に従って強い比較を行うため、弱いエンティティタグは一致しません。
+     *
+     * @param ifMatch   If-Matchヘッダーの値
+     * @param entityTag 現在のエンティティタグ ユーザー属性が設定されていない場合はNull
+     * @return ヘッダーがない場合、または一致するエンティティタグを含む場合はtrue
+     */
+    static boolean matchesIfMatch(final String ifMatch, final String entityTag) {
+        if (Objects.isNull(ifMatch) || ifMatch.isBlank()) {
+            return true;
+        }
+        if (Objects.isNull(entityTag)) {
+            return false;
+        }
+        for (String candidate : ifMatch.split(",")) {
+            String value = candidate.trim();
+            if (CustomAttributeEntityTag.ANY.equals(value) || value.equals(entityTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * If-None-Matchヘッダーのいずれかのエンティティタグに一致するかを返します。
+     *
+     * RFC 9110 に従って弱い比較を行うため、弱いエンティティタグも一致します。
+     *
+     * @param ifNoneMatch If-None-Matchヘッダーの値
+     * @param entityTag   現在のエンティティタグ ユーザー属性が設定されていない場合はNull
+     * @return 一致するエンティティタグを含む場合はtrue
+     */
+    static boolean matchesIfNoneMatch(final String ifNoneMatch, final String entityTag) {
+        if (Objects.isNull(ifNoneMatch) || ifNoneMatch.isBlank() || Objects.isNull(entityTag)) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith(CustomAttributeEntityTag.WEAK_PREFIX)) {
+                value = value.substring(CustomAttributeEntityTag.WEAK_PREFIX.length());
+            }
+            if (CustomAttributeEntityTag.ANY.equals(value) || value.equals(entityTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.mynumbercardidp.keycloak.rest;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+import org.keycloak.representations.AccessTokenResponse;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * ユーザー属性を設定するRESTエンドポイントのJSONを読み書きするユーティリティクラスです。
+ *
+ * リクエストボディはJSONツリーを構築せずに1回だけ走査し、構文の検証とユーザー属性の切り出しを同時に行います。
+ * トークンレスポンスは、エラー項目を除いて直接書き出すように設定したライターを共有します。
+ * 部分更新は保存済みの値とマージパッチの両方を読み込む必要があるため、JSONツリーを使います。
+ */
+final class CustomAttributeJson {
+    /** ユーザー属性を保持するリクエストボディの項目名 */
+    static final String USER_ATTRIBUTES_FIELD = "user_attributes";
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    /** マージパッチの適用に使うマッパー スレッドセーフのため共有する */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    /** エラー項目を除いたトークンレスポンスのライター スレッドセーフのため共有する */
+    private static final ObjectWriter TOKEN_RESPONSE_WRITER = new ObjectMapper()
+            .addMixIn(AccessTokenResponse.class, TokenResponseMixIn.class)
+            .writerFor(AccessTokenResponse.class);
+
+    private CustomAttributeJson() {
+    }
+
+    /**
+     * リクエストボディからユーザー属性のJSONオブジェクトを切り出します。
+     *
+     * リクエストボディの先頭のJSON値を最後まで走査するため、ユーザー属性以外の項目の構文も検証されます。
+     * 同じ項目名が複数ある場合は、最後の値を使います。
+     *
+     * @param requestBody リクエストボディ
+     * @return 空白を除いたユーザー属性のJSONオブジェクト リクエストボディが不正な場合、またはユーザー属性がJSONオブジェクトでない場合はNull
+     */
+    static String readUserAttributes(final String requestBody) {
+        if (Objects.isNull(requestBody)) {
+            return null;
+        }
+        try (JsonParser parser = CustomAttributeJson.JSON_FACTORY.createParser(requestBody)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            String userAttributes = null;
+            boolean isObject = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!CustomAttributeJson.USER_ATTRIBUTES_FIELD.equals(fieldName)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                isObject = value == JsonToken.START_OBJECT;
+                if (isObject) {
+                    userAttributes = CustomAttributeJson.copyCurrentStructure(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return isObject ? userAttributes : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 保存済みのユーザー属性に RFC 7386 のマージパッチを適用します。
+     *
+     * パッチの値がNullの項目は削除し、JSONオブジェクトの項目は再帰的にマージし、それ以外の項目は置き換えます。
+     * 保存済みの値がない場合、またはJSONオブジェクトとして読み込めない場合は、空のJSONオブジェクトに適用します。
+     *
+     * @param target 保存済みのユーザー属性
+     * @param patch  {@link #readUserAttributes(String)} で切り出したマージパッチのJSONオブジェクト
+     * @return 空白を除いた適用後のユーザー属性のJSONオブジェクト
+     * @exception JsonProcessingException マージパッチの構文が不正な場合
+     */
+    static String mergePatch(final String target, final String patch) throws JsonProcessingException {
+        JsonNode patchNode = CustomAttributeJson.OBJECT_MAPPER.readTree(patch);
+        if (Objects.isNull(patchNode) || !patchNode.isObject()) {
+            throw new IllegalArgumentException("The merge patch is not a JSON object.");
+        }
+        JsonNode targetNode = null;
+        if (Objects.nonNull(target)) {
+            try {
+                targetNode = CustomAttributeJson.OBJECT_MAPPER.readTree(target);
+            } catch (JsonProcessingException e) {
+                targetNode = null;
+            }
+        }
+        return CustomAttributeJson.merge(targetNode, patchNode).toString();
+    }
+
+    private static JsonNode merge(final JsonNode target, final JsonNode patch) {
+        if (!patch.isObject()) {
+            return patch;
+        }
+        ObjectNode result = Objects.nonNull(target) && target.isObject() ? (ObjectNode) target
+                : CustomAttributeJson.OBJECT_MAPPER.createObjectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getValue().isNull()) {
+                result.remove(field.getKey());
+            } else {
+                result.set(field.getKey(), CustomAttributeJson.merge(result.get(field.getKey()), field.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * トークンレスポンスからエラー項目を除いたJSONを返します。
+     *
+     * @param tokenResponse トークンレスポンス
+     * @return トークンレスポンスのJSON
+     * @exception JsonProcessingException JSONへの変換に失敗した場合
+     */
+    static String writeTokenResponse(final AccessTokenResponse tokenResponse) throws JsonProcessingException {
+        return CustomAttributeJson.TOKEN_RESPONSE_WRITER.writeValueAsString(tokenResponse);
+    }
+
+    /**
+     * パーサーが指すJSON値を、空白を除いた文字列として返します。
+     *
+     * @param parser JSON値の先頭を指すパーサー
+     * @return JSON値の文字列
+     * @exception IOException 構文が不正な場合
+     */
+    static String copyCurrentStructure(final JsonParser parser) throws IOException {
+        StringWriter writer = new StringWriter(128);
+        try (JsonGenerator generator = CustomAttributeJson.JSON_FACTORY.createGenerator(writer)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * トークンレスポンスから除くエラー項目の定義です。
+     */
+    @JsonIgnoreProperties({ "error", "error_description", "error_uri" })
+    private abstract static class TokenResponseMixIn {
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.mynumbercardidp.keycloak.rest;
+
+import java.util.List;
+import java.util.Objects;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.jpa.entities.UserEntity;
+
+/**
+ * ユーザー属性を書き換える前にユーザーの行をロックし、コミット済みの値とエンティティタグを保持するクラスです。
+ *
+ * ロックはリクエストのトランザクションが終わるまで保持するため、同じユーザーへの書き込みは1つずつ処理されます。
+ * 後から処理される要求は先の要求がコミットした値とエンティティタグでIf-Matchヘッダーを確認するため、
+ * 先の要求の書き込みを上書きせずに412を返します。
+ * ユーザーのキャッシュは他の要求がコミットする前の値を保持している場合があるため、値はテーブルから読み込みます。
+ */
+final class CustomAttributeLock {
+    private static final String FIND_ATTRIBUTES = "select attr.name, attr.value from UserAttributeEntity attr "
+            + "where attr.user.id = :userId and attr.name in (:names)";
+    private final String value;
+    private final String entityTag;
+
+    private CustomAttributeLock(final String value, final String entityTag) {
+        this.value = value;
+        this.entityTag = entityTag;
+    }
+
+    /**
+     * ユーザーの行をロックし、ユーザー属性のコミット済みの値とエンティティタグを読み込みます。
+     *
+     * ユーザーがKeycloakのテーブルにない場合は、ロックせずにユーザーから読み込みます。
+     *
+     * @param session       Keycloakのセッション
+     * @param user          ユーザー
+     * @param attributeName ユーザー属性名
+     * @return ロックした時点のユーザー属性
+     */
+    static CustomAttributeLock acquire(final KeycloakSession session, final UserModel user,
+            final String attributeName) {
+        EntityManager entityManager = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+        if (Objects.isNull(entityManager.find(UserEntity.class, user.getId(), LockModeType.PESSIMISTIC_WRITE))) {
+            return new CustomAttributeLock(user.getFirstAttribute(attributeName),
+                    CustomAttributeEntityTag.current(user, attributeName));
+        }
+
+        String entityTagName = attributeName + CustomAttributeEntityTag.ENTITY_TAG_SUFFIX;
+        List<Object[]> rows = entityManager.createQuery(CustomAttributeLock.FIND_ATTRIBUTES, Object[].class)
+                .setParameter("userId", user.getId())
+                .setParameter("names", List.of(attributeName, entityTagName))
+                .getResultList();
+        String value = null;
+        String entityTag = null;
+        for (Object[] row : rows) {
+            if (attributeName.equals(row[0])) {
+                value = (String) row[1];
+            } else {
+                entityTag = (String) row[1];
+            }
+        }
+        if (Objects.isNull(value)) {
+            return new CustomAttributeLock(null, null);
+        }
+        // エンティティタグを保持する前に書き込んだ値は、その場でハッシュを計算する
+        return new CustomAttributeLock(value,
+                Objects.nonNull(entityTag) ? entityTag : CustomAttributeEntityTag.compute(value));
+    }
+
+    /**
+     * ロックした時点のユーザー属性の値を返します。
+     *
+     * @return ユーザー属性の値 テーブルに値を保持している場合は参照 設定されていない場合はNull
+     */
+    String getValue() {
+        return this.value;
+    }
+
+    /**
+     * ロックした時点のエンティティタグを返します。
+     *
+     * @return エンティティタグ ユーザー属性が設定されていない場合はNull
+     */
+    String getEntityTag() {
+        return this.entityTag;
+    }
+}
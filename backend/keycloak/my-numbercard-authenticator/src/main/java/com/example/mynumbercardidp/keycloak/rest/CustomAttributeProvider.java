@@ -1,37 +1,35 @@
 package com.example.mynumbercardidp.keycloak.rest;
 
-import com.fasterxml.jackson.core.JsonParseException;
+import com.example.mynumbercardidp.keycloak.util.token.BearerTokenVerifier;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.IOException;
-import java.util.Arrays;
-import java.util.Collection;
+import java.io.InputStream;
 import java.util.Collections;
-import java.util.ResourceBundle;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.PATCH;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.HttpHeaders;
-import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.StreamingOutput;
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.annotations.cache.NoCache;
 import org.keycloak.common.ClientConnection;
 import org.keycloak.common.util.Time;
 import org.keycloak.events.EventBuilder;
-import org.keycloak.jose.jws.JWSInput;
-import org.keycloak.jose.jws.JWSInputException;
 import org.keycloak.models.AuthenticatedClientSessionModel;
 import org.keycloak.models.ClientModel;
 import org.keycloak.models.ClientSessionContext;
 import org.keycloak.models.KeycloakContext;
 import org.keycloak.models.KeycloakSession;
-import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
 import org.keycloak.models.SingleUseObjectProvider;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.UserSessionModel;
@@ -39,8 +37,6 @@ import org.keycloak.protocol.oidc.TokenManager;
 import org.keycloak.representations.AccessToken;
 import org.keycloak.representations.AccessTokenResponse;
 import org.keycloak.services.managers.AppAuthManager;
-import org.keycloak.services.managers.AuthenticationManager;
-import org.keycloak.services.managers.RealmManager;
 import org.keycloak.services.resource.RealmResourceProvider;
 import org.keycloak.services.util.DefaultClientSessionContext;
 
@@ -53,6 +49,12 @@ public class CustomAttributeProvider implements RealmResourceProvider {
     private String sessionId;
     private static final String ATTRIBUTE_SUFFIX = "_user_attributes";
     private static final Integer MAX_SECONDS = 10;
+    /** RFC 7386 のマージパッチのメディアタイプ */
+    static final String MERGE_PATCH_JSON = "application/merge-patch+json";
+    /** 一括設定を許可するクライアントロール名 */
+    static final String BATCH_ROLE = "custom-attribute-batch";
+    /** エラーレスポンスのJSON変換に使うマッパー スレッドセーフのため共有する */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
     public CustomAttributeProvider(KeycloakSession session) {
         this.session = session;
@@ -82,27 +84,141 @@ public class CustomAttributeProvider implements RealmResourceProvider {
             return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.UNAUTHORIZED);
         }
 
-        // 送られてきたデータをJSON形式へ変換する
-        JsonNode requestData = null;
-        ObjectMapper objectMapper = new ObjectMapper();
-        try {
-            requestData = objectMapper.readTree(requestBody);
-        } catch (IOException e) {
+        // 送られてきたデータを解析し、user_attributesの値がJSONオブジェクトであるかを確認する
+        String jsonValue = CustomAttributeJson.readUserAttributes(requestBody);
+        if (jsonValue == null) {
             return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.BAD_REQUEST);
         }
 
-        // user_attributesの値がJSONオブジェクトであるかを確認する
-        String jsonValue = requestData.get("user_attributes").toString();
-        if (!verifyJsonFormat(jsonValue)) {
+        // クライアント名はアクセストークンから取得する。
+        String attributeName = client.getClientId() + ATTRIBUTE_SUFFIX;
+
+        // If-Matchヘッダーがある場合は、エンティティタグが一致する場合のみ書き込む
+        // 確認から書き込みまでの間に他の要求が書き込まないよう、ユーザーの行をロックしてから確認する
+        CustomAttributeLock lock = CustomAttributeLock.acquire(session, user, attributeName);
+        Response preconditionFailed = checkIfMatch(context, lock.getEntityTag());
+        if (preconditionFailed != null) {
+            return preconditionFailed;
+        }
+
+        // ユーザー属性へ値とエンティティタグを書き込む
+        Response rejected = checkStorable(jsonValue);
+        if (rejected != null) {
+            return rejected;
+        }
+        String etag = CustomAttributeStorage.write(session, context.getRealm(), user, attributeName, jsonValue);
+
+        return reissueTokens(context, etag);
+    }
+
+    @PATCH
+    @Consumes({ MERGE_PATCH_JSON, MediaType.APPLICATION_JSON })
+    @Path("/assign")
+    @NoCache
+    // RP側のユーザーに関連した情報のうち、送られてきた項目のみをIdP側のユーザーに反映する
+    public Response patchAttributes(String requestBody) {
+        KeycloakContext context = session.getContext();
+
+        // ユーザー認証を実施する
+        this.user = authorization(context.getRequestHeaders());
+        if (user == null) {
+            return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.UNAUTHORIZED);
+        }
+
+        // user_attributesの値をマージパッチとして切り出す
+        String patch = CustomAttributeJson.readUserAttributes(requestBody);
+        if (patch == null) {
             return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.BAD_REQUEST);
         }
 
-        // クライアント名はアクセストークンから取得する。
-        String clientId = client.getClientId();
+        // 確認からマージパッチの適用と書き込みまでの間に他の要求が書き込まないよう、ユーザーの行をロックする
+        String attributeName = client.getClientId() + ATTRIBUTE_SUFFIX;
+        CustomAttributeLock lock = CustomAttributeLock.acquire(session, user, attributeName);
+        Response preconditionFailed = checkIfMatch(context, lock.getEntityTag());
+        if (preconditionFailed != null) {
+            return preconditionFailed;
+        }
 
-        // ユーザー属性へ値を書き込む
-        user.setSingleAttribute(clientId + ATTRIBUTE_SUFFIX, jsonValue);
+        // 保存済みの値にマージパッチを適用して、値とエンティティタグを書き込む
+        String jsonValue;
+        try {
+            jsonValue = CustomAttributeJson.mergePatch(
+                    CustomAttributeStorage.resolve(session, user, attributeName, lock.getValue()), patch);
+        } catch (JsonProcessingException e) {
+            return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.BAD_REQUEST);
+        }
+        Response rejected = checkStorable(jsonValue);
+        if (rejected != null) {
+            return rejected;
+        }
+        String etag = CustomAttributeStorage.write(session, context.getRealm(), user, attributeName, jsonValue);
+
+        return reissueTokens(context, etag);
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/{clientId}")
+    @NoCache
+    // RP側のユーザーに関連した情報を、トークンを再発行せずに読み込む
+    // If-None-Matchヘッダーが現在のエンティティタグと一致する場合は、本文を返さずに304を返す
+    public Response getAttributes(@PathParam("clientId") String clientId) {
+        KeycloakContext context = session.getContext();
+
+        // ユーザー認証を実施する
+        this.user = authorization(context.getRequestHeaders());
+        if (user == null || client == null) {
+            return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.UNAUTHORIZED);
+        }
+
+        // トークンを発行したクライアントのユーザー属性のみ読み込める
+        if (!client.getClientId().equals(clientId)) {
+            return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.FORBIDDEN);
+        }
+
+        String attributeName = clientId + ATTRIBUTE_SUFFIX;
+        String jsonValue = user.getFirstAttribute(attributeName);
+        if (jsonValue == null) {
+            return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.NOT_FOUND);
+        }
 
+        // エンティティタグは書き込み時に保持した値を使うため、テーブルに保持した値は一致しない場合のみ読み込む
+        String etag = CustomAttributeEntityTag.current(user, attributeName, jsonValue);
+        String ifNoneMatch = context.getRequestHeaders().getHeaderString(HttpHeaders.IF_NONE_MATCH);
+        if (CustomAttributeEntityTag.matchesIfNoneMatch(ifNoneMatch, etag)) {
+            return Response.status(Response.Status.NOT_MODIFIED).header(HttpHeaders.ETAG, etag).build();
+        }
+        jsonValue = CustomAttributeStorage.resolve(session, user, attributeName, jsonValue);
+        if (jsonValue == null) {
+            return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.NOT_FOUND);
+        }
+        return Response.ok(jsonValue, MediaType.APPLICATION_JSON_TYPE).header(HttpHeaders.ETAG, etag).build();
+    }
+
+    // 参照と同じ値や、クライアントごとの上限を超える値は書き込まない
+    private Response checkStorable(String jsonValue) {
+        if (CustomAttributeStorage.isReserved(jsonValue)) {
+            return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.BAD_REQUEST);
+        }
+        if (CustomAttributeStorage.exceedsQuota(jsonValue, CustomAttributeStorage.getMaxBytes(client))) {
+            return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.PAYLOAD_TOO_LARGE);
+        }
+        return null;
+    }
+
+    // If-Matchヘッダーが現在のエンティティタグと一致しない場合は、現在のエンティティタグを付けた412を返す
+    private Response checkIfMatch(KeycloakContext context, String etag) {
+        String ifMatch = context.getRequestHeaders().getHeaderString(HttpHeaders.IF_MATCH);
+        if (CustomAttributeEntityTag.matchesIfMatch(ifMatch, etag)) {
+            return null;
+        }
+        return Response.fromResponse(ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.PRECONDITION_FAILED))
+                   .header(HttpHeaders.ETAG, etag)
+                   .build();
+    }
+
+    // ユーザー属性を反映したトークンを再発行し、古いアクセストークンを失効させる
+    private Response reissueTokens(KeycloakContext context, String etag) {
         // アクセストークンの再発行
         UserSessionModel userSession = session.sessions().getUserSession(context.getRealm(), sessionId);
         AuthenticatedClientSessionModel clientSession = userSession.getAuthenticatedClientSessionByClient(client.getId());
@@ -117,15 +233,8 @@ public class CustomAttributeProvider implements RealmResourceProvider {
 
         String newTokens = null;
         try {
-            String[] strRemoveKeys = {
-                "error",
-                "error_description",
-                "error_uri"
-            };
-            Collection<String> removeKeys = Arrays.asList(strRemoveKeys);
-
-            ObjectNode tokens = (ObjectNode)objectMapper.readTree(objectMapper.writeValueAsString(accessTokenResponseBuilder));
-            newTokens = objectMapper.writeValueAsString(tokens.remove(removeKeys));
+            // エラー項目を除いてトークンレスポンスを直接書き出す
+            newTokens = CustomAttributeJson.writeTokenResponse(accessTokenResponseBuilder);
         } catch (JsonProcessingException e) {
             return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.INTERNAL_SERVER_ERROR);
         }
@@ -133,80 +242,58 @@ public class CustomAttributeProvider implements RealmResourceProvider {
         // 古いアクセストークンを失効させる
         revokeAccessToken(token);
 
-        return Response.ok(newTokens, MediaType.APPLICATION_JSON_TYPE).build();
+        return Response.ok(newTokens, MediaType.APPLICATION_JSON_TYPE).header(HttpHeaders.ETAG, etag).build();
     }
 
-    @Override
-    public void close() {
-    }
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/assign/batch")
+    @NoCache
+    // RP側の複数のユーザーに関連した情報をIdP側のユーザーへまとめて紐づける
+    // SPIオプション batch-assign-enabled をtrueにした場合のみ受け付ける
+    public Response setAttributesInBatch(InputStream requestBody) {
+        if (!CustomAttributeBatch.isEnabled()) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
 
-    // 送られてきたデータが正しいJSON形式になっているか確認
-    private boolean verifyJsonFormat(String content) {
-        JsonNode jsonNode = null;
-        try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            jsonNode = objectMapper.readTree(content);
+        // サービスアカウントのアクセストークンを認証する
+        UserModel serviceAccount = authorization(session.getContext().getRequestHeaders());
+        if (serviceAccount == null || client == null) {
+            return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.UNAUTHORIZED);
+        }
 
-            return jsonNode.isObject();
-        } catch (Exception e) {
-            return false;
+        // トークンを発行したクライアント自身のサービスアカウントで、一括設定のロールを持つ場合のみ許可する
+        RoleModel batchRole = client.getRole(BATCH_ROLE);
+        if (!client.getId().equals(serviceAccount.getServiceAccountClientLink()) || batchRole == null
+                || !serviceAccount.hasRole(batchRole)) {
+            return ResponseMessage.getErrorResponse(ResponseMessage.ERROR_TYPE.FORBIDDEN);
         }
+
+        // 要素の設定と結果の書き出しは、レスポンスボディの書き出し中に行う
+        StreamingOutput output = new CustomAttributeBatch(session.getKeycloakSessionFactory(),
+                client.getRealm().getId(), client.getClientId() + ATTRIBUTE_SUFFIX,
+                CustomAttributeStorage.getMaxBytes(client), requestBody);
+        return Response.ok(output, MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    @Override
+    public void close() {
     }
 
     // アクセストークン認証
     private UserModel authorization(HttpHeaders headers) {
         String tokenString = AppAuthManager.extractAuthorizationHeaderToken(headers);
-        
-        try {
-            JWSInput input = new JWSInput(tokenString);
-            this.token = input.readJsonContent(AccessToken.class);
-        } catch (JWSInputException e) {
-            return null;
-        }
-
-        String realmName = token.getIssuer().substring(token.getIssuer().lastIndexOf('/') + 1);
-        RealmManager realmManager = new RealmManager(session);
-        RealmModel realm = realmManager.getRealmByName(realmName);
-
-        if (realm == null) {
-            return null;
-        }
-
-        ClientConnection connection = session.getContext().getConnection();
-        AuthenticationManager.AuthResult authResult =
-            authenticateBearerToken(
-                tokenString,
-                session,
-                realm,
-                session.getContext().getUri(),
-                connection,
-                headers
-           );
-
-        if (authResult == null) {
+        BearerTokenVerifier.VerifiedToken verified = BearerTokenVerifier.verify(session, tokenString);
+        if (verified == null) {
             return null;
         }
 
-        this.client = realm.getClientByClientId(token.getIssuedFor());
+        this.token = verified.getToken();
+        this.client = verified.getRealm().getClientByClientId(token.getIssuedFor());
         this.sessionId = token.getSessionId();
 
-        return authResult.getUser();
-    }
-
-    private AuthenticationManager.AuthResult authenticateBearerToken(
-        String tokenString,
-        KeycloakSession session,
-        RealmModel realm,
-        UriInfo uriInfo,
-        ClientConnection connection,
-        HttpHeaders headers) {
-      return new AppAuthManager.BearerTokenAuthenticator(session)
-          .setRealm(realm)
-          .setUriInfo(uriInfo)
-          .setTokenString(tokenString)
-          .setConnection(connection)
-          .setHeaders(headers)
-          .authenticate();
+        return verified.getUser();
     }
 
     // 古いアクセストークンを失効させる
@@ -220,32 +307,34 @@ public class CustomAttributeProvider implements RealmResourceProvider {
     // エラー情報定義
     private static class ResponseMessage {
 
+        // レスポンスボディはエラーの種類ごとに固定のため、初回の使用時に一度だけ作成する
         static enum ERROR_TYPE {
-            BAD_REQUEST,
-            UNAUTHORIZED,
-            INTERNAL_SERVER_ERROR
+            BAD_REQUEST("リクエストに問題が発生しました。", Response.Status.BAD_REQUEST),
+            UNAUTHORIZED("トークン認証に問題が発生しました。", Response.Status.UNAUTHORIZED),
+            FORBIDDEN("操作が許可されていません。", Response.Status.FORBIDDEN),
+            NOT_FOUND("ユーザー属性が設定されていません。", Response.Status.NOT_FOUND),
+            PAYLOAD_TOO_LARGE("ユーザー属性が上限のサイズを超えています。", Response.Status.REQUEST_ENTITY_TOO_LARGE),
+            PRECONDITION_FAILED("ユーザー属性が他の要求で更新されています。", Response.Status.PRECONDITION_FAILED),
+            INTERNAL_SERVER_ERROR("内部サーバーエラーが発生しました。", Response.Status.INTERNAL_SERVER_ERROR);
+
+            private final Response.Status status;
+            private final String responseBody;
+
+            ERROR_TYPE(String message, Response.Status status) {
+                ObjectNode body = OBJECT_MAPPER.createObjectNode();
+                body.put("error", status.getStatusCode() + " " + status);
+                body.put("error_description", message);
+                this.status = status;
+                this.responseBody = body.toString();
+            }
         }
 
         public static Response getErrorResponse(ERROR_TYPE type) {
-            switch (type) {
-                case BAD_REQUEST:
-                    return error("リクエストに問題が発生しました。", Response.Status.BAD_REQUEST);
-                case UNAUTHORIZED:
-                    return error("トークン認証に問題が発生しました。", Response.Status.UNAUTHORIZED);
-                case INTERNAL_SERVER_ERROR:
-                    return error("内部サーバーエラーが発生しました。", Response.Status.INTERNAL_SERVER_ERROR);
-                default:
-                    throw new IllegalArgumentException("エラーが発生しました。");
+            if (type == null) {
+                throw new IllegalArgumentException("エラーが発生しました。");
             }
-        }
-
-        private static Response error(String message, Response.Status status) {
-            ObjectMapper objectMapper = new ObjectMapper();
-            ObjectNode responseBody = objectMapper.createObjectNode();
-            responseBody.put("error", status.getStatusCode() + " " + status);
-            responseBody.put("error_description", message);
-            return Response.status(status).type(MediaType.APPLICATION_JSON)
-                       .entity(responseBody.toString())
+            return Response.status(type.status).type(MediaType.APPLICATION_JSON)
+                       .entity(type.responseBody)
                        .build();
         }
 
@@ -1,5 +1,6 @@
 package com.example.mynumbercardidp.keycloak.rest;
 
+import com.example.mynumbercardidp.keycloak.util.token.BearerTokenVerifier;
 import org.keycloak.Config.Scope;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
@@ -22,6 +23,21 @@ public class CustomAttributeProviderFactory implements RealmResourceProviderFact
 
     @Override
     public void init(Scope config) {
+        // SPIオプション token-cache-enabled をtrueにした場合のみ、検証済みのアクセストークンをキャッシュする。
+        if (Boolean.TRUE.equals(config.getBoolean("tokenCacheEnabled", false))) {
+            BearerTokenVerifier.enable();
+        }
+        // SPIオプション batch-assign-enabled をtrueにした場合のみ、ユーザー属性の一括設定を受け付ける。
+        CustomAttributeBatch.setEnabled(Boolean.TRUE.equals(config.getBoolean("batchAssignEnabled", false)));
+        // SPIオプション blob-storage-enabled をtrueにした場合のみ、ユーザー属性の値をテーブルに圧縮して保持する。
+        // 上限のバイト数は blob-max-bytes で指定し、クライアント属性 custom-attribute.max-bytes で上書きできる。
+        // blob-threshold-bytes 未満の値はテーブルに保持せず、ユーザー属性へ直接書き込む。
+        Integer maxBytes = config.getInt("blobMaxBytes", CustomAttributeStorage.DEFAULT_MAX_BYTES);
+        Integer thresholdBytes = config.getInt("blobThresholdBytes", CustomAttributeStorage.DEFAULT_BLOB_THRESHOLD_BYTES);
+        CustomAttributeStorage.configure(Boolean.TRUE.equals(config.getBoolean("blobStorageEnabled", false)),
+                maxBytes == null || maxBytes <= 0 ? CustomAttributeStorage.DEFAULT_MAX_BYTES : maxBytes,
+                thresholdBytes == null || thresholdBytes < 0 ? CustomAttributeStorage.DEFAULT_BLOB_THRESHOLD_BYTES
+                        : thresholdBytes);
     }
 
     @Override
@@ -30,6 +46,10 @@ public class CustomAttributeProviderFactory implements RealmResourceProviderFact
 
     @Override
     public void close() {
+        BearerTokenVerifier.invalidate();
+        CustomAttributeBatch.setEnabled(false);
+        CustomAttributeStorage.configure(false, CustomAttributeStorage.DEFAULT_MAX_BYTES,
+                CustomAttributeStorage.DEFAULT_BLOB_THRESHOLD_BYTES);
     }
 
 }
@@ -0,0 +1,169 @@
+package com.example.mynumbercardidp.keycloak.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import com.example.mynumbercardidp.keycloak.rest.blob.CustomAttributeBlobStore;
+
+/**
+ * ユーザー属性の値の保存先を切り替えるユーティリティクラスです。
+ *
+ * テーブルへの保存を有効にした場合は、しきい値以上のバイト数の値を圧縮してテーブルに保持し、ユーザー属性には小さな参照だけを書き込みます。
+ * この場合、ユーザーのキャッシュやトークンには参照だけが含まれ、値はRESTエンドポイントで読み込んだ時点で展開します。
+ * しきい値未満の値は、テーブルへの保存を無効にした場合と同じくユーザー属性へ直接書き込むため、トークンにも値が含まれます。
+ * テーブルへの保存を無効にした後も、既にテーブルに保持している値は読み込めます。
+ */
+final class CustomAttributeStorage {
+    /** テーブルに値を保持していることを示すユーザー属性の値 */
+    static final String BLOB_REFERENCE = "{\"$blob\":true}";
+    /** クライアントごとの上限のバイト数を指定するクライアント属性名 */
+    static final String MAX_BYTES_ATTRIBUTE = "custom-attribute.max-bytes";
+    /** クライアント属性で指定していない場合の上限のバイト数 */
+    static final int DEFAULT_MAX_BYTES = 65536;
+    /** テーブルへ保存する値の既定のしきい値のバイト数 Keycloakのユーザー属性の値の列に収まる長さとする */
+    static final int DEFAULT_BLOB_THRESHOLD_BYTES = 256;
+    private static volatile boolean blobEnabled = false;
+    private static volatile int defaultMaxBytes = CustomAttributeStorage.DEFAULT_MAX_BYTES;
+    private static volatile int blobThresholdBytes = CustomAttributeStorage.DEFAULT_BLOB_THRESHOLD_BYTES;
+
+    private CustomAttributeStorage() {
+    }
+
+    /**
+     * テーブルへの保存を設定します。
+     *
+     * @param enabled        テーブルへ保存する場合はtrue
+     * @param maxBytes       クライアント属性で指定していない場合の上限のバイト数
+     * @param thresholdBytes テーブルへ保存する値のしきい値のバイト数 これ未満の値はユーザー属性へ直接書き込む
+     */
+    static void configure(final boolean enabled, final int maxBytes, final int thresholdBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The maximum size of user attributes must be positive.");
+        }
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("The blob threshold of user attributes must not be negative.");
+        }
+        CustomAttributeStorage.defaultMaxBytes = maxBytes;
+        CustomAttributeStorage.blobThresholdBytes = thresholdBytes;
+        CustomAttributeStorage.blobEnabled = enabled;
+    }
+
+    static boolean isBlobEnabled() {
+        return CustomAttributeStorage.blobEnabled;
+    }
+
+    /**
+     * 値をテーブルへ保存するかを返します。
+     *
+     * @param value 値
+     * @return テーブルへの保存が有効で、値がしきい値以上のバイト数の場合はtrue
+     */
+    private static boolean storesInBlob(final String value) {
+        return CustomAttributeStorage.blobEnabled
+                && value.getBytes(StandardCharsets.UTF_8).length >= CustomAttributeStorage.blobThresholdBytes;
+    }
+
+    /**
+     * クライアントが書き込める値の上限のバイト数を返します。
+     *
+     * @param client クライアント
+     * @return クライアント属性の値 指定していない場合、または値が不正な場合は既定の上限
+     */
+    static int getMaxBytes(final ClientModel client) {
+        String value = client.getAttribute(CustomAttributeStorage.MAX_BYTES_ATTRIBUTE);
+        if (Objects.nonNull(value)) {
+            try {
+                int maxBytes = Integer.parseInt(value.trim());
+                if (maxBytes > 0) {
+                    return maxBytes;
+                }
+            } catch (NumberFormatException e) {
+                // 既定の上限を使う
+            }
+        }
+        return CustomAttributeStorage.defaultMaxBytes;
+    }
+
+    /**
+     * 値が上限のバイト数を超えるかを返します。上限はテーブルへの保存を有効にした場合のみ適用します。
+     *
+     * @param value    値
+     * @param maxBytes 上限のバイト数
+     * @return 上限を超える場合はtrue
+     */
+    static boolean exceedsQuota(final String value, final int maxBytes) {
+        return CustomAttributeStorage.blobEnabled && value.getBytes(StandardCharsets.UTF_8).length > maxBytes;
+    }
+
+    /**
+     * 値が参照と同じで、ユーザー属性へ直接書き込めないかを返します。
+     *
+     * @param value 値
+     * @return 書き込めない場合はtrue
+     */
+    static boolean isReserved(final String value) {
+        return CustomAttributeStorage.BLOB_REFERENCE.equals(value) && !CustomAttributeStorage.storesInBlob(value);
+    }
+
+    /**
+     * 値を読み込みます。
+     *
+     * @param session       Keycloakのセッション
+     * @param user          ユーザー
+     * @param attributeName ユーザー属性名
+     * @return 値 設定されていない場合はNull
+     */
+    static String read(final KeycloakSession session, final UserModel user, final String attributeName) {
+        return CustomAttributeStorage.resolve(session, user, attributeName, user.getFirstAttribute(attributeName));
+    }
+
+    /**
+     * 読み込み済みのユーザー属性の値が参照の場合は、テーブルから値を読み込みます。
+     *
+     * @param session       Keycloakのセッション
+     * @param user          ユーザー
+     * @param attributeName ユーザー属性名
+     * @param value         読み込み済みのユーザー属性の値
+     * @return 値 設定されていない場合はNull
+     */
+    static String resolve(final KeycloakSession session, final UserModel user, final String attributeName,
+            final String value) {
+        if (!CustomAttributeStorage.BLOB_REFERENCE.equals(value)) {
+            return value;
+        }
+        return CustomAttributeBlobStore.read(session, user, attributeName);
+    }
+
+    /**
+     * 値とエンティティタグを書き込みます。
+     *
+     * @param session       Keycloakのセッション
+     * @param realm         ユーザーが属するレルム
+     * @param user          ユーザー
+     * @param attributeName ユーザー属性名
+     * @param value         値
+     * @return 書き込んだ値のエンティティタグ
+     */
+    static String write(final KeycloakSession session, final RealmModel realm, final UserModel user,
+            final String attributeName, final String value) {
+        boolean referenced = CustomAttributeStorage.BLOB_REFERENCE.equals(user.getFirstAttribute(attributeName));
+        if (CustomAttributeStorage.storesInBlob(value)) {
+            CustomAttributeBlobStore.write(session, realm, user, attributeName, value);
+            // 参照を書き込み済みの場合は、ユーザー属性の値を書き換えない
+            if (!referenced) {
+                user.setSingleAttribute(attributeName, CustomAttributeStorage.BLOB_REFERENCE);
+            }
+            return CustomAttributeEntityTag.storeEntityTag(user, attributeName, value);
+        }
+        // しきい値未満の値やテーブルへの保存を無効にした場合は、テーブルに保持していた値を削除して直接書き込む
+        if (referenced) {
+            CustomAttributeBlobStore.delete(session, user, attributeName);
+        }
+        return CustomAttributeEntityTag.store(user, attributeName, value);
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.mynumbercardidp.keycloak.rest.blob;
+
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * ユーザー属性の値を圧縮して保持するエンティティです。
+ *
+ * ユーザーとユーザー属性名の組ごとに1行を保持します。
+ * ユーザーのキャッシュには含めず、値が必要になった時点で読み込みます。
+ */
+@Entity
+@Table(name = "MNC_CUSTOM_ATTRIBUTE_BLOB",
+        uniqueConstraints = @UniqueConstraint(columnNames = { "USER_ID", "ATTRIBUTE_NAME" }))
+@NamedQueries({
+    @NamedQuery(name = "findCustomAttributeBlob",
+            query = "select b from CustomAttributeBlobEntity b"
+                    + " where b.userId = :userId and b.attributeName = :attributeName"),
+    @NamedQuery(name = "deleteCustomAttributeBlobsByUser",
+            query = "delete from CustomAttributeBlobEntity b where b.userId = :userId"),
+    @NamedQuery(name = "deleteCustomAttributeBlobsByRealm",
+            query = "delete from CustomAttributeBlobEntity b where b.realmId = :realmId")
+})
+public class CustomAttributeBlobEntity {
+    @Id
+    @Column(name = "ID", length = 36)
+    private String id;
+
+    @Column(name = "REALM_ID", length = 36, nullable = false)
+    private String realmId;
+
+    @Column(name = "USER_ID", length = 36, nullable = false)
+    private String userId;
+
+    @Column(name = "ATTRIBUTE_NAME", length = 255, nullable = false)
+    private String attributeName;
+
+    /** Deflateで圧縮したUTF-8のJSON */
+    @Column(name = "CONTENT", nullable = false)
+    private byte[] content;
+
+    /** 圧縮前のバイト数 */
+    @Column(name = "CONTENT_LENGTH", nullable = false)
+    private int contentLength;
+
+    public String getId() {
+        return this.id;
+    }
+
+    public void setId(final String id) {
+        this.id = id;
+    }
+
+    public String getRealmId() {
+        return this.realmId;
+    }
+
+    public void setRealmId(final String realmId) {
+        this.realmId = realmId;
+    }
+
+    public String getUserId() {
+        return this.userId;
+    }
+
+    public void setUserId(final String userId) {
+        this.userId = userId;
+    }
+
+    public String getAttributeName() {
+        return this.attributeName;
+    }
+
+    public void setAttributeName(final String attributeName) {
+        this.attributeName = attributeName;
+    }
+
+    public byte[] getContent() {
+        return this.content;
+    }
+
+    public void setContent(final byte[] content) {
+        this.content = content;
+    }
+
+    public int getContentLength() {
+        return this.contentLength;
+    }
+
+    public void setContentLength(final int contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CustomAttributeBlobEntity)) {
+            return false;
+        }
+        return Objects.equals(this.id, ((CustomAttributeBlobEntity) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(this.id);
+    }
+}
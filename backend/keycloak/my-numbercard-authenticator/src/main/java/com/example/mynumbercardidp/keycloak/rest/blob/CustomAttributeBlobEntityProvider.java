@@ -0,0 +1,32 @@
+package com.example.mynumbercardidp.keycloak.rest.blob;
+
+import java.util.List;
+
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+
+/**
+ * ユーザー属性の値を保持するエンティティとテーブル定義をKeycloakへ登録するプロバイダーです。
+ */
+public class CustomAttributeBlobEntityProvider implements JpaEntityProvider {
+    /** テーブルを作成するLiquibaseのチェンジログ */
+    static final String CHANGELOG_LOCATION = "META-INF/custom-attribute-blob-changelog.xml";
+
+    @Override
+    public List<Class<?>> getEntities() {
+        return List.of(CustomAttributeBlobEntity.class);
+    }
+
+    @Override
+    public String getChangelogLocation() {
+        return CustomAttributeBlobEntityProvider.CHANGELOG_LOCATION;
+    }
+
+    @Override
+    public String getFactoryId() {
+        return CustomAttributeBlobEntityProviderFactory.ID;
+    }
+
+    @Override
+    public void close() {
+    }
+}
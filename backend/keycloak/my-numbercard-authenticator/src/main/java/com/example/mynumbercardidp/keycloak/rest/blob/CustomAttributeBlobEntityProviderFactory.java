@@ -0,0 +1,50 @@
+package com.example.mynumbercardidp.keycloak.rest.blob;
+
+import org.keycloak.Config.Scope;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * ユーザー属性の値を保持するエンティティのプロバイダーを作成するファクトリーです。
+ *
+ * ユーザーまたはレルムを削除した場合は、保持している値も削除します。
+ */
+public class CustomAttributeBlobEntityProviderFactory implements JpaEntityProviderFactory {
+    public static final String ID = "custom-attribute-blob";
+    private static final JpaEntityProvider PROVIDER = new CustomAttributeBlobEntityProvider();
+
+    @Override
+    public JpaEntityProvider create(final KeycloakSession session) {
+        return CustomAttributeBlobEntityProviderFactory.PROVIDER;
+    }
+
+    @Override
+    public String getId() {
+        return CustomAttributeBlobEntityProviderFactory.ID;
+    }
+
+    @Override
+    public void init(final Scope config) {
+    }
+
+    @Override
+    public void postInit(final KeycloakSessionFactory factory) {
+        factory.register(event -> {
+            if (event instanceof UserModel.UserRemovedEvent) {
+                UserModel.UserRemovedEvent removed = (UserModel.UserRemovedEvent) event;
+                CustomAttributeBlobStore.deleteByUser(removed.getKeycloakSession(), removed.getUser());
+            } else if (event instanceof RealmModel.RealmRemovedEvent) {
+                RealmModel.RealmRemovedEvent removed = (RealmModel.RealmRemovedEvent) event;
+                CustomAttributeBlobStore.deleteByRealm(removed.getKeycloakSession(), removed.getRealm());
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+    }
+}
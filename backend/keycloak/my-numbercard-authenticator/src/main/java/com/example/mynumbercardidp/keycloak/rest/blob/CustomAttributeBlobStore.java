@@ -0,0 +1,185 @@
+package com.example.mynumbercardidp.keycloak.rest.blob;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.persistence.EntityManager;
+
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * ユーザー属性の値を圧縮してテーブルに読み書きするユーティリティクラスです。
+ *
+ * 値はUTF-8のバイト列をDeflateで圧縮して保持します。
+ * 読み書きはKeycloakのJPA接続を使うため、リクエストと同じトランザクションで確定または取り消されます。
+ */
+public final class CustomAttributeBlobStore {
+
+    private CustomAttributeBlobStore() {
+    }
+
+    /**
+     * 保持している値を読み込みます。
+     *
+     * @param session       Keycloakのセッション
+     * @param user          ユーザー
+     * @param attributeName ユーザー属性名
+     * @return 値 保持していない場合はNull
+     */
+    public static String read(final KeycloakSession session, final UserModel user, final String attributeName) {
+        CustomAttributeBlobEntity entity = CustomAttributeBlobStore.find(
+                CustomAttributeBlobStore.getEntityManager(session), user.getId(), attributeName);
+        if (Objects.isNull(entity)) {
+            return null;
+        }
+        return CustomAttributeBlobStore.decompress(entity.getContent(), entity.getContentLength());
+    }
+
+    /**
+     * 値を圧縮して書き込みます。既に保持している場合は置き換えます。
+     *
+     * @param session       Keycloakのセッション
+     * @param realm         ユーザーが属するレルム
+     * @param user          ユーザー
+     * @param attributeName ユーザー属性名
+     * @param value         値
+     */
+    public static void write(final KeycloakSession session, final RealmModel realm, final UserModel user,
+            final String attributeName, final String value) {
+        EntityManager entityManager = CustomAttributeBlobStore.getEntityManager(session);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        CustomAttributeBlobEntity entity = CustomAttributeBlobStore.find(entityManager, user.getId(), attributeName);
+        if (Objects.isNull(entity)) {
+            entity = new CustomAttributeBlobEntity();
+            entity.setId(KeycloakModelUtils.generateId());
+            entity.setRealmId(realm.getId());
+            entity.setUserId(user.getId());
+            entity.setAttributeName(attributeName);
+            entity.setContent(CustomAttributeBlobStore.compress(bytes));
+            entity.setContentLength(bytes.length);
+            entityManager.persist(entity);
+            return;
+        }
+        entity.setContent(CustomAttributeBlobStore.compress(bytes));
+        entity.setContentLength(bytes.length);
+    }
+
+    /**
+     * 保持している値を削除します。
+     *
+     * @param session       Keycloakのセッション
+     * @param user          ユーザー
+     * @param attributeName ユーザー属性名
+     */
+    public static void delete(final KeycloakSession session, final UserModel user, final String attributeName) {
+        EntityManager entityManager = CustomAttributeBlobStore.getEntityManager(session);
+        CustomAttributeBlobEntity entity = CustomAttributeBlobStore.find(entityManager, user.getId(), attributeName);
+        if (Objects.nonNull(entity)) {
+            entityManager.remove(entity);
+        }
+    }
+
+    /**
+     * ユーザーについて保持している全ての値を削除します。
+     *
+     * @param session Keycloakのセッション
+     * @param user    削除したユーザー
+     */
+    public static void deleteByUser(final KeycloakSession session, final UserModel user) {
+        CustomAttributeBlobStore.getEntityManager(session)
+                .createNamedQuery("deleteCustomAttributeBlobsByUser")
+                .setParameter("userId", user.getId())
+                .executeUpdate();
+    }
+
+    /**
+     * レルムについて保持している全ての値を削除します。
+     *
+     * @param session Keycloakのセッション
+     * @param realm   削除したレルム
+     */
+    public static void deleteByRealm(final KeycloakSession session, final RealmModel realm) {
+        CustomAttributeBlobStore.getEntityManager(session)
+                .createNamedQuery("deleteCustomAttributeBlobsByRealm")
+                .setParameter("realmId", realm.getId())
+                .executeUpdate();
+    }
+
+    /**
+     * バイト列をDeflateで圧縮します。
+     *
+     * @param bytes 圧縮前のバイト列
+     * @return 圧縮したバイト列
+     */
+    static byte[] compress(final byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Deflateで圧縮したバイト列を展開し、UTF-8の文字列として返します。
+     *
+     * @param content 圧縮したバイト列
+     * @param length  圧縮前のバイト数
+     * @return 展開した文字列
+     * @exception IllegalStateException 圧縮したバイト列が壊れている場合
+     */
+    static String decompress(final byte[] content, final int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(content);
+            // 圧縮前のバイト数より長く展開できる場合を検出するため、1バイト多く確保する
+            byte[] bytes = new byte[length + 1];
+            int inflated = 0;
+            while (!inflater.finished() && inflated < bytes.length) {
+                int count = inflater.inflate(bytes, inflated, bytes.length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != length || !inflater.finished()) {
+                throw new IllegalStateException("The stored user attribute is corrupted.");
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("The stored user attribute is corrupted.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static CustomAttributeBlobEntity find(final EntityManager entityManager, final String userId,
+            final String attributeName) {
+        List<CustomAttributeBlobEntity> entities = entityManager
+                .createNamedQuery("findCustomAttributeBlob", CustomAttributeBlobEntity.class)
+                .setParameter("userId", userId)
+                .setParameter("attributeName", attributeName)
+                .getResultList();
+        return entities.isEmpty() ? null : entities.get(0);
+    }
+
+    private static EntityManager getEntityManager(final KeycloakSession session) {
+        return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * ユーザー属性の大きな値を、ユーザー属性とは別のテーブルに圧縮して保持するクラスを定義します。
+ */
+package com.example.mynumbercardidp.keycloak.rest.blob;
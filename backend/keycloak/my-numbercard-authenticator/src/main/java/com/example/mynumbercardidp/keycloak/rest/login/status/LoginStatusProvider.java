@@ -0,0 +1,115 @@
+package com.example.mynumbercardidp.keycloak.rest.login.status;
+
+import java.util.Map;
+import java.util.Objects;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.jboss.resteasy.annotations.cache.NoCache;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.managers.AuthenticationSessionManager;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.sessions.CommonClientSessionModel.ExecutionStatus;
+import org.keycloak.sessions.RootAuthenticationSessionModel;
+
+/**
+ * 認証フローの状態を返すリソースです。
+ *
+ * PCで開始したログインをスマートフォンで完了する場合、ブラウザーはこのリソースで状態を短い間隔で確認し、
+ * 状態が変わったときだけ認証画面を再読み込みします。確認中は認証画面の描画を行いません。
+ * リクエストのスレッドとトランザクションを保持しないよう、状態の変化を待たずに現在の状態を返します。
+ * 認証セッションはブラウザーのCookieから特定するため、他のブラウザーの認証フローの状態は返しません。
+ */
+public class LoginStatusProvider implements RealmResourceProvider {
+    private final KeycloakSession session;
+
+    public LoginStatusProvider(KeycloakSession session) {
+        this.session = Objects.requireNonNull(session);
+    }
+
+    @Override
+    public Object getResource() {
+        return this;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * 認証フローの現在の状態を返します。
+     *
+     * @param clientId クライアントID
+     * @param tabId    認証セッションのタブID
+     * @return 状態を表すJSONのレスポンス
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @NoCache
+    public Response getStatus(@QueryParam("client_id") final String clientId, @QueryParam("tab_id") final String tabId) {
+        RealmModel realm = this.session.getContext().getRealm();
+        if (Objects.isNull(clientId) || Objects.isNull(tabId)) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        ClientModel client = realm.getClientByClientId(clientId);
+        if (Objects.isNull(client)) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        RootAuthenticationSessionModel rootSession = new AuthenticationSessionManager(this.session)
+                .getCurrentRootAuthenticationSession(realm);
+        if (Objects.isNull(rootSession)) {
+            return LoginStatusProvider.createResponse(Status.COMPLETED);
+        }
+        return LoginStatusProvider.createResponse(
+                LoginStatusProvider.evaluate(rootSession.getAuthenticationSession(client, tabId)));
+    }
+
+    /**
+     * 認証セッションから認証フローの状態を判定します。
+     *
+     * 認証セッションが無い場合は、認証フローが終了または期限切れになったものとして完了を返します。
+     * どちらの場合もブラウザーが認証画面を再読み込みすると、Keycloakが次の画面を返します。
+     *
+     * @param authSession 認証セッション
+     * @return 認証フローの状態
+     */
+    static Status evaluate(final AuthenticationSessionModel authSession) {
+        if (Objects.isNull(authSession) || Objects.nonNull(authSession.getAuthenticatedUser())) {
+            return Status.COMPLETED;
+        }
+        if (authSession.getExecutionStatus().containsValue(ExecutionStatus.FAILED)) {
+            return Status.ERROR;
+        }
+        return Status.PENDING;
+    }
+
+    private static Response createResponse(final Status status) {
+        return Response.ok(Map.of("status", status.getName()), MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    /**
+     * 認証フローの状態です。
+     */
+    enum Status {
+        PENDING("pending"),
+        COMPLETED("completed"),
+        ERROR("error");
+
+        private final String name;
+
+        private Status(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * 別の端末で個人番号カードの認証を行うブラウザーへ、認証フローの状態を返すクラスを定義します。
+ */
+package com.example.mynumbercardidp.keycloak.rest.login.status;
@@ -1,27 +1,145 @@
 package com.example.mynumbercardidp.keycloak.rest.userinfo.replacement;
 
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticationFlowModel;
 import org.keycloak.models.ClientModel;
 import org.keycloak.models.RealmModel;
 
+/**
+ * クライアントのブラウザーフローから認証器の実行設定を検索するユーティリティクラスです。
+ *
+ * サブフローも含め、Keycloakが認証器を実行する順にフローを走査します。
+ * 検索結果はレルム、フローと認証器の組ごとにキャッシュします。Keycloakのレルムキャッシュは、
+ * フローや実行設定が更新されるまで同じフローのインスタンスを返すため、フローのインスタンスが変わった場合は検索し直します。
+ */
 public class AuthenticationUtil {
+    /** キャッシュする検索結果の最大数 超えた場合は全て破棄する */
+    static final int MAX_ENTRIES = 1024;
+    /** レルムID、フローIDと認証器IDの組ごとの検索結果 */
+    private static final ConcurrentMap<List<String>, CachedExecution> EXECUTIONS = new ConcurrentHashMap<>();
+
     private AuthenticationUtil() {
     }
 
+    /**
+     * クライアントのブラウザーフローから、最初に実行される認証器の実行設定を返します。
+     *
+     * クライアントにブラウザーフローの上書きが設定されている場合は、そのフローを検索します。
+     *
+     * @param realm           レルム
+     * @param client          クライアント
+     * @param authenticaterId 認証器のID
+     * @return 認証器の実行設定 見つからない場合は空
+     */
     public static Optional<AuthenticationExecutionModel> findAuthenticationExecutionModel(RealmModel realm,
-                    ClientModel client, String authenticaterId) {
-            String authenticationFlowId = Optional
-                            .ofNullable(Objects.requireNonNull(client).getAuthenticationFlowBindingOverride("browser"))
-                            .orElseGet(() -> {
-                                    return Objects.requireNonNull(realm).getBrowserFlow().getId();
-                            });
-            Stream<AuthenticationExecutionModel> authenticationExecutionStream = Objects.requireNonNull(realm)
-                .getAuthenticationExecutionsStream(authenticationFlowId);
-        return Optional.ofNullable(authenticationExecutionStream
-                        .filter(execution -> execution.getAuthenticator().equals(authenticaterId)).findFirst().get());
+            ClientModel client, String authenticaterId) {
+        Objects.requireNonNull(realm);
+        String authenticationFlowId = Optional
+                .ofNullable(Objects.requireNonNull(client).getAuthenticationFlowBindingOverride("browser"))
+                .orElseGet(() -> realm.getBrowserFlow().getId());
+        AuthenticationFlowModel flow = realm.getAuthenticationFlowById(authenticationFlowId);
+        String realmId = realm.getId();
+        if (Objects.isNull(realmId) || Objects.isNull(flow)) {
+            return Optional.ofNullable(AuthenticationUtil.search(realm, authenticationFlowId, authenticaterId));
+        }
+
+        List<String> key = List.of(realmId, authenticationFlowId, authenticaterId);
+        CachedExecution cached = AuthenticationUtil.EXECUTIONS.get(key);
+        if (Objects.nonNull(cached) && cached.flow == flow) {
+            return Optional.of(cached.execution);
+        }
+        AuthenticationExecutionModel execution = AuthenticationUtil.search(realm, authenticationFlowId,
+                authenticaterId);
+        if (Objects.isNull(execution)) {
+            AuthenticationUtil.EXECUTIONS.remove(key);
+            return Optional.empty();
+        }
+        if (AuthenticationUtil.EXECUTIONS.size() >= AuthenticationUtil.MAX_ENTRIES) {
+            AuthenticationUtil.EXECUTIONS.clear();
+        }
+        AuthenticationUtil.EXECUTIONS.put(key, new CachedExecution(flow, execution));
+        return Optional.of(execution);
+    }
+
+    /**
+     * レルムの検索結果を破棄します。
+     *
+     * @param realmId レルムID
+     */
+    static void invalidate(final String realmId) {
+        if (Objects.nonNull(realmId)) {
+            AuthenticationUtil.EXECUTIONS.keySet().removeIf(key -> key.get(0).equals(realmId));
+        }
+    }
+
+    /**
+     * 全ての検索結果を破棄します。
+     */
+    static void invalidateAll() {
+        AuthenticationUtil.EXECUTIONS.clear();
+    }
+
+    static int size() {
+        return AuthenticationUtil.EXECUTIONS.size();
+    }
+
+    /**
+     * フローを深さ優先で走査し、認証器の実行設定を返します。
+     *
+     * @param realm           レルム
+     * @param flowId          走査するフローのID
+     * @param authenticaterId 認証器のID
+     * @return 認証器の実行設定 見つからない場合はNull
+     */
+    private static AuthenticationExecutionModel search(final RealmModel realm, final String flowId,
+            final String authenticaterId) {
+        return AuthenticationUtil.search(realm, flowId, authenticaterId, new HashSet<>());
+    }
+
+    private static AuthenticationExecutionModel search(final RealmModel realm, final String flowId,
+            final String authenticaterId, final Set<String> visitedFlowIds) {
+        // 不正な設定でフローが循環している場合に備え、走査済みのフローは再び走査しない。
+        if (Objects.isNull(flowId) || !visitedFlowIds.add(flowId)) {
+            return null;
+        }
+        Iterator<AuthenticationExecutionModel> executions = realm.getAuthenticationExecutionsStream(flowId)
+                .iterator();
+        while (executions.hasNext()) {
+            AuthenticationExecutionModel execution = executions.next();
+            if (Objects.equals(authenticaterId, execution.getAuthenticator())) {
+                return execution;
+            }
+            if (execution.isAuthenticatorFlow()) {
+                AuthenticationExecutionModel found = AuthenticationUtil.search(realm, execution.getFlowId(),
+                        authenticaterId, visitedFlowIds);
+                if (Objects.nonNull(found)) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * キャッシュした検索結果です。
+     */
+    private static final class CachedExecution {
+        /** 検索したときのフローのインスタンス */
+        private final AuthenticationFlowModel flow;
+        private final AuthenticationExecutionModel execution;
+
+        private CachedExecution(final AuthenticationFlowModel flow, final AuthenticationExecutionModel execution) {
+            this.flow = flow;
+            this.execution = execution;
+        }
     }
 }
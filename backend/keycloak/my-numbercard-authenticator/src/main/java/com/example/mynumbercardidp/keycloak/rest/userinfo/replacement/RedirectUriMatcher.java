@@ -0,0 +1,140 @@
+package com.example.mynumbercardidp.keycloak.rest.userinfo.replacement;
+
+import org.keycloak.models.ClientModel;
+
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * クライアントに登録されたリダイレクトURIとの一致を判定するクラスです。
+ *
+ * 登録されたリダイレクトURIのうち、ワイルドカード（*）を含まないものは集合で保持し、定数時間で判定します。
+ * ワイルドカードを含むものは、* 以外の文字をリテラルとして扱う1つの正規表現にまとめて一度だけコンパイルします。
+ * 判定処理はクライアントごとにキャッシュし、クライアントの更新イベントを受け取った場合、
+ * またはクライアントが返すリダイレクトURIの集合が変わった場合に作り直します。
+ */
+final class RedirectUriMatcher {
+    /** キャッシュするクライアントの最大数 超えた場合は全て破棄する */
+    static final int MAX_CLIENTS = 1024;
+    /** クライアントの内部IDごとの判定処理 */
+    private static final ConcurrentMap<String, RedirectUriMatcher> MATCHERS = new ConcurrentHashMap<>();
+
+    /** 作成に使ったリダイレクトURIの集合 キャッシュしたクライアントは同じインスタンスを返すため、同一性で比較する */
+    private final Set<String> source;
+    private final Set<String> redirectUris;
+    private final Set<String> exactUris;
+    private final Pattern wildcardPattern;
+
+    private RedirectUriMatcher(final Set<String> source) {
+        this.source = source;
+        this.redirectUris = Set.copyOf(source);
+        Set<String> exactUris = new HashSet<>();
+        StringBuilder wildcards = new StringBuilder();
+        for (String redirectUri : this.redirectUris) {
+            if (redirectUri.indexOf('*') < 0) {
+                exactUris.add(redirectUri);
+                continue;
+            }
+            if (wildcards.length() > 0) {
+                wildcards.append('|');
+            }
+            wildcards.append("(?:").append(RedirectUriMatcher.toRegex(redirectUri)).append(')');
+        }
+        this.exactUris = Set.copyOf(exactUris);
+        this.wildcardPattern = wildcards.length() == 0 ? null : Pattern.compile(wildcards.toString());
+    }
+
+    /**
+     * リダイレクトURIがクライアントに登録されたリダイレクトURIと一致するかを返します。
+     *
+     * @param client      クライアント
+     * @param redirectUri リダイレクトURI
+     * @return 一致する場合はtrue、そうでない場合はfalse
+     */
+    static boolean isAllowed(final ClientModel client, final String redirectUri) {
+        return RedirectUriMatcher.get(client).matches(redirectUri);
+    }
+
+    /**
+     * クライアントの判定処理を破棄します。
+     *
+     * @param clientId クライアントの内部ID
+     */
+    static void invalidate(final String clientId) {
+        if (Objects.nonNull(clientId)) {
+            RedirectUriMatcher.MATCHERS.remove(clientId);
+        }
+    }
+
+    /**
+     * 全てのクライアントの判定処理を破棄します。
+     */
+    static void invalidateAll() {
+        RedirectUriMatcher.MATCHERS.clear();
+    }
+
+    static int size() {
+        return RedirectUriMatcher.MATCHERS.size();
+    }
+
+    private static RedirectUriMatcher get(final ClientModel client) {
+        Set<String> redirectUris = Objects.requireNonNullElse(client.getRedirectUris(), Set.of());
+        String clientId = client.getId();
+        if (Objects.isNull(clientId)) {
+            return new RedirectUriMatcher(redirectUris);
+        }
+        RedirectUriMatcher matcher = RedirectUriMatcher.MATCHERS.get(clientId);
+        if (Objects.nonNull(matcher) && matcher.isBuiltFrom(redirectUris)) {
+            return matcher;
+        }
+        matcher = new RedirectUriMatcher(redirectUris);
+        if (RedirectUriMatcher.MATCHERS.size() >= RedirectUriMatcher.MAX_CLIENTS) {
+            RedirectUriMatcher.MATCHERS.clear();
+        }
+        RedirectUriMatcher.MATCHERS.put(clientId, matcher);
+        return matcher;
+    }
+
+    /**
+     * 他のノードでクライアントが更新された場合は更新イベントを受け取れないため、リダイレクトURIの集合を比較します。
+     */
+    private boolean isBuiltFrom(final Set<String> redirectUris) {
+        return this.source == redirectUris || this.redirectUris.equals(redirectUris);
+    }
+
+    private boolean matches(final String redirectUri) {
+        if (this.exactUris.contains(redirectUri)) {
+            return true;
+        }
+        return Objects.nonNull(this.wildcardPattern) && this.wildcardPattern.matcher(redirectUri).matches();
+    }
+
+    /**
+     * ワイルドカードを含むリダイレクトURIを正規表現へ変換します。
+     *
+     * * は任意の文字列に一致し、それ以外の文字はリテラルとして扱います。
+     *
+     * @param redirectUri ワイルドカードを含むリダイレクトURI
+     * @return 正規表現
+     */
+    private static String toRegex(final String redirectUri) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        int index;
+        while ((index = redirectUri.indexOf('*', start)) >= 0) {
+            if (index > start) {
+                regex.append(Pattern.quote(redirectUri.substring(start, index)));
+            }
+            regex.append(".*?");
+            start = index + 1;
+        }
+        if (start < redirectUri.length()) {
+            regex.append(Pattern.quote(redirectUri.substring(start)));
+        }
+        return regex.toString();
+    }
+}
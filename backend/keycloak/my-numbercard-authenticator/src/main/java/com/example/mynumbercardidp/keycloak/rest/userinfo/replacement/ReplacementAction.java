@@ -6,7 +6,6 @@ import javax.ws.rs.core.Response;
 
 import org.jboss.logging.Logger;
 import org.keycloak.OAuth2Constants;
-import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.common.ClientConnection;
 import org.keycloak.events.EventBuilder;
 import org.keycloak.models.AuthenticatedClientSessionModel;
@@ -21,28 +20,26 @@ import org.keycloak.representations.AccessToken;
 import org.keycloak.services.util.DefaultClientSessionContext;
 
 import com.example.mynumbercardidp.keycloak.authentication.application.procedures.AbstractUserAction;
-import com.example.mynumbercardidp.keycloak.authentication.application.procedures.ResponseCreater;
 import com.example.mynumbercardidp.keycloak.authentication.application.procedures.user.ActionType;
+import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.UserActionContext;
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientInterface;
 import com.example.mynumbercardidp.keycloak.network.platform.PlatformAuthenticationResponse;
 
 public class ReplacementAction extends AbstractUserAction {
-    public Response replace(AuthenticationFlowContext context, PlatformApiClientInterface platform) {
+    public Response replace(UserActionContext context, PlatformApiClientInterface platform) {
         try {
-            if (!super.validateSignature(context, platform)) {
-                return Response.status(Response.Status.BAD_REQUEST).build();
+            Response.Status validation = super.validateSignature(context, platform);
+            if (validation != Response.Status.OK) {
+                return Response.status(validation).build();
             }
 
-            platform.sendRequest();
-            PlatformAuthenticationResponse response = (PlatformAuthenticationResponse) platform.getPlatformResponse();
+            PlatformAuthenticationResponse response = (PlatformAuthenticationResponse) super.sendPlatformRequest(platform);
             ReplacementAction.FlowTransition
                     .validatePlatformStatusCode(Response.Status.fromStatusCode(response.getHttpStatusCode()));
 
             String uniqueId = super.tryExtractUniqueId(response);
             UserModel user = super.findUser(context, uniqueId);
             if (Objects.isNull(user)) {
-                ResponseCreater.sendChallengeResponse(context, ActionType.REGISTRATION.getName(),
-                        Response.Status.NOT_FOUND);
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
 
@@ -54,7 +51,7 @@ public class ReplacementAction extends AbstractUserAction {
         }
     }
 
-    private Response createAuthorizationCodeResponse(AuthenticationFlowContext authContext) {
+    private Response createAuthorizationCodeResponse(UserActionContext authContext) {
         KeycloakSession session = authContext.getSession();
         UserSessionModel userSession = session.sessions().getUserSession(authContext.getRealm(),
                 authContext.getAuthenticationSession().getAuthNote("userSessionId"));
@@ -6,75 +6,101 @@ import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 
 import org.jboss.logging.Logger;
-import org.keycloak.authentication.AuthenticationFlowContext;
-import org.keycloak.authentication.AuthenticationProcessor;
-import org.keycloak.authentication.Authenticator;
-import org.keycloak.authentication.AuthenticatorFactory;
 import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticatorConfigModel;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
 import org.keycloak.protocol.oidc.OIDCLoginProtocol;
+import org.keycloak.sessions.AuthenticationSessionModel;
 
+import com.example.mynumbercardidp.keycloak.authentication.application.procedures.user.ActionType;
 import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.MyNumberCardAuthenticatorFactory;
-import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.SpiConfigProperty;
+import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.UserActionContext;
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientInterface;
+import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientResolver;
+import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformAuthenticationResponseStructure;
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
 import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics;
+import com.example.mynumbercardidp.keycloak.util.tracing.TraceSpan;
+import com.example.mynumbercardidp.keycloak.util.tracing.Tracing;
 
 public class ReplacementActionAdapter {
     private final Logger CONSOLE_LOGGER = Logger.getLogger(ReplacementActionAdapter.class);
-    private AuthenticationFlowContext authContext;
+    private static final PlatformApiClientResolver PLATFORM_RESOLVER = new PlatformApiClientResolver();
+    private static final String AUTHENTICATOR_ID = new MyNumberCardAuthenticatorFactory().getId();
+    private final MultivaluedMap<String, String> formData;
+    private UserActionContext actionContext;
 
-    public ReplacementActionAdapter(KeycloakSession session) {
-        this.authContext = createAuthenticationFlowContext(Objects.requireNonNull(session));
+    /**
+     * @param session  Keycloakのセッション
+     * @param formData 復号済みのリクエストボディ リクエストボディのストリームは読み込み済みのため、HTTPリクエストから読み込み直さない
+     */
+    public ReplacementActionAdapter(KeycloakSession session, MultivaluedMap<String, String> formData) {
+        this.formData = Objects.requireNonNull(formData);
+        this.actionContext = createUserActionContext(Objects.requireNonNull(session));
     }
 
-    public Response replace(MultivaluedMap<String, String> formData) throws Exception {
-        String platformApiClientClassFqdn = CurrentConfig.getValue(this.authContext,
-                SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName());
+    public Response replace() throws Exception {
+        TraceSpan span = Tracing.startSpan("ReplacementActionAdapter.replace");
+        try {
+            Response response = replaceUser(this.formData);
+            span.setAttribute("http.status_code", response.getStatus());
+            return response;
+        } catch (Exception e) {
+            span.recordException(e);
+            throw e;
+        } finally {
+            span.close();
+        }
+    }
+
+    private Response replaceUser(final MultivaluedMap<String, String> formData) throws Exception {
+        ConfigSnapshot config = this.actionContext.getConfig();
+        String platformApiClientClassFqdn = config.getPlatformApiClientClassFqdn();
         this.CONSOLE_LOGGER.debugf("platformApiClientClassFqdn: %s", platformApiClientClassFqdn);
-        PlatformApiClientInterface platform = createPlatform(
+        PlatformApiClientInterface platform = ReplacementActionAdapter.PLATFORM_RESOLVER.createPlatformWithFormData(
                 platformApiClientClassFqdn,
                 formData,
-                this.authContext,
-                CurrentConfig.getValue(this.authContext,
-                        SpiConfigProperty.CertificateValidatorRootUri.CONFIG.getName()),
-                CurrentConfig.getValue(this.authContext, SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName()));
-        platform.setContextForDataManager(this.authContext);
-        return new ReplacementAction().replace(this.authContext, platform);
-    }
-
-    private PlatformApiClientInterface createPlatform(final String platformClassFqdn,
-            final MultivaluedMap<String, String> formData, final AuthenticationFlowContext context,
-            final String apiRootUri, String idpSender) throws Exception {
-        PlatformApiClientInterface platform = (PlatformApiClientInterface) Class.forName(platformClassFqdn)
-                .getDeclaredConstructor()
-                .newInstance();
-        platform.init(apiRootUri, formData, idpSender);
-        return platform;
+                config.getCertificateValidatorRootUri(),
+                config.getPlatformApiIdpSender());
+        platform.setContextForDataManager(this.actionContext);
+        AuthenticatorMetrics.countAttempt(ActionType.REPLACEMENT.getName());
+        Response response = null;
+        try {
+            response = new ReplacementAction().replace(this.actionContext, platform);
+            return response;
+        } finally {
+            if (AuthenticatorMetrics.isEnabled()) {
+                PlatformAuthenticationResponseStructure platformResponse = platform.getPlatformResponse();
+                AuthenticatorMetrics.countResult(ActionType.REPLACEMENT.getName(),
+                        Objects.nonNull(response) && response.getStatus() < Response.Status.BAD_REQUEST.getStatusCode(),
+                        Objects.isNull(platformResponse) ? null : platformResponse.getHttpStatusCode());
+            }
+        }
     }
 
-    private AuthenticationFlowContext createAuthenticationFlowContext(KeycloakSession session) {
-        AuthenticationProcessor authenticationProcessor = new AuthenticationProcessor().setSession(session);
-        authenticationProcessor.setRealm(session.getContext().getRealm());
-        authenticationProcessor.setClient(session.getContext().getClient());
-        authenticationProcessor.setBrowserFlow(true);
-        authenticationProcessor.setRequest(session.getContext().getHttpRequest());
-        authenticationProcessor.setAuthenticationSession(session.getContext().getAuthenticationSession());
-        authenticationProcessor.setUriInfo(session.getContext().getUri());
-        authenticationProcessor.setFlowPath(
-                "/realms/" + session.getContext().getRealm().getName() + "/" + UserInfoReplacementProviderFactory.ID
-                        + "/replace");
-
-        AuthenticatorFactory authenticatorFactory = new MyNumberCardAuthenticatorFactory();
-        Authenticator authenticator = authenticatorFactory.create(session);
+    /**
+     * 登録情報の変更のコンテキストを作成します。
+     *
+     * Keycloakの認証フローの処理（AuthenticationProcessor）は構築せず、個人番号カード認証SPI設定のみを実行設定から参照します。
+     *
+     * @param session Keycloakのセッション
+     * @return ユーザーの操作のコンテキスト
+     */
+    private UserActionContext createUserActionContext(KeycloakSession session) {
+        RealmModel realm = session.getContext().getRealm();
         AuthenticationExecutionModel authenticationExecution = AuthenticationUtil
-                        .findAuthenticationExecutionModel(session.getContext().getRealm(),
-                                        session.getContext().getClient(), authenticatorFactory.getId())
-                        .orElseThrow();
-        authenticationProcessor.setFlowId(authenticationExecution.getFlowId());
-        authenticationProcessor.getAuthenticationSession().setClientNote(OIDCLoginProtocol.RESPONSE_TYPE_PARAM,
-                session.getContext().getHttpRequest().getDecodedFormParameters().getFirst("response_type"));
-        authenticationProcessor.getAuthenticationSession().setClientNote(OIDCLoginProtocol.RESPONSE_MODE_PARAM,
-                "query");
-        return authenticationProcessor.createAuthenticatorContext(authenticationExecution, authenticator, null);
+                .findAuthenticationExecutionModel(realm, session.getContext().getClient(),
+                        ReplacementActionAdapter.AUTHENTICATOR_ID)
+                .orElseThrow();
+        AuthenticatorConfigModel configModel = Objects.isNull(authenticationExecution.getAuthenticatorConfig()) ? null
+                : realm.getAuthenticatorConfigById(authenticationExecution.getAuthenticatorConfig());
+
+        AuthenticationSessionModel authenticationSession = session.getContext().getAuthenticationSession();
+        authenticationSession.setClientNote(OIDCLoginProtocol.RESPONSE_TYPE_PARAM,
+                this.formData.getFirst(OIDCLoginProtocol.RESPONSE_TYPE_PARAM));
+        authenticationSession.setClientNote(OIDCLoginProtocol.RESPONSE_MODE_PARAM, "query");
+        return new RestUserActionContext(session, CurrentConfig.getSnapshot(configModel));
     }
 }
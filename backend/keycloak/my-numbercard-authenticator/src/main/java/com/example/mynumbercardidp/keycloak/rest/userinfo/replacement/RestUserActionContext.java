@@ -0,0 +1,81 @@
+package com.example.mynumbercardidp.keycloak.rest.userinfo.replacement;
+
+import java.util.Objects;
+
+import org.keycloak.authentication.AuthenticationFlowError;
+import org.keycloak.authentication.AuthenticationFlowException;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.UserActionContext;
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
+
+/**
+ * 登録情報の変更のRESTエンドポイントで使用するユーザーの操作のコンテキストです。
+ *
+ * Keycloakの認証フローの処理（AuthenticationProcessor）を構築せず、Keycloakのセッションから必要な値のみを参照します。
+ * ユーザーを設定するときは、認証フローのコンテキストと同じく、認証済みのユーザーとの一致とユーザーの状態を検証します。
+ */
+final class RestUserActionContext implements UserActionContext {
+    private final KeycloakSession session;
+    private final RealmModel realm;
+    private final AuthenticationSessionModel authenticationSession;
+    private final ConfigSnapshot config;
+
+    RestUserActionContext(final KeycloakSession session, final ConfigSnapshot config) {
+        this.session = Objects.requireNonNull(session);
+        this.realm = session.getContext().getRealm();
+        this.authenticationSession = session.getContext().getAuthenticationSession();
+        this.config = Objects.requireNonNull(config);
+    }
+
+    @Override
+    public KeycloakSession getSession() {
+        return this.session;
+    }
+
+    @Override
+    public RealmModel getRealm() {
+        return this.realm;
+    }
+
+    @Override
+    public AuthenticationSessionModel getAuthenticationSession() {
+        return this.authenticationSession;
+    }
+
+    @Override
+    public ConfigSnapshot getConfig() {
+        return this.config;
+    }
+
+    @Override
+    public UserModel getUser() {
+        return this.authenticationSession.getAuthenticatedUser();
+    }
+
+    /**
+     * 操作の対象のユーザーを設定します。
+     *
+     * @param user ユーザー
+     * @exception AuthenticationFlowException 認証済みのユーザーと異なる場合、無効なユーザーの場合、またはサービスアカウントの場合
+     */
+    @Override
+    public void setUser(final UserModel user) {
+        UserModel previousUser = this.getUser();
+        if (Objects.nonNull(previousUser) && !user.getId().equals(previousUser.getId())) {
+            throw new AuthenticationFlowException(AuthenticationFlowError.USER_CONFLICT);
+        }
+        if (Objects.nonNull(user)) {
+            if (!user.isEnabled()) {
+                throw new AuthenticationFlowException(AuthenticationFlowError.USER_DISABLED);
+            }
+            if (Objects.nonNull(user.getServiceAccountClientLink())) {
+                throw new AuthenticationFlowException(AuthenticationFlowError.UNKNOWN_USER);
+            }
+        }
+        this.authenticationSession.setAuthenticatedUser(user);
+    }
+}
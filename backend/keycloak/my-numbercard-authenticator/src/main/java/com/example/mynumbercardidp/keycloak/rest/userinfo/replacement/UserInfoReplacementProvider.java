@@ -1,31 +1,25 @@
 package com.example.mynumbercardidp.keycloak.rest.userinfo.replacement;
 
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
-import java.util.UUID;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.annotations.cache.NoCache;
-import org.keycloak.common.ClientConnection;
 import org.keycloak.common.util.Time;
 import org.keycloak.jose.jws.JWSInput;
-import org.keycloak.jose.jws.JWSInputException;
 import org.keycloak.models.AuthenticationExecutionModel;
 import org.keycloak.models.AuthenticatorConfigModel;
 import org.keycloak.models.ClientModel;
@@ -36,17 +30,21 @@ import org.keycloak.models.SingleUseObjectProvider;
 import org.keycloak.protocol.oidc.OIDCLoginProtocol;
 import org.keycloak.representations.AccessToken;
 import org.keycloak.services.managers.AppAuthManager;
-import org.keycloak.services.managers.AuthenticationManager;
-import org.keycloak.services.managers.RealmManager;
 import org.keycloak.services.resource.RealmResourceProvider;
 import org.keycloak.sessions.AuthenticationSessionModel;
 import org.keycloak.sessions.RootAuthenticationSessionModel;
 
 import com.example.mynumbercardidp.keycloak.authentication.application.procedures.user.ActionType;
 import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.MyNumberCardAuthenticatorFactory;
-import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.SpiConfigProperty;
+import com.example.mynumbercardidp.keycloak.core.network.AuthenticationRequestBinder;
+import com.example.mynumbercardidp.keycloak.core.network.FormUrlEncodedDecoder;
+import com.example.mynumbercardidp.keycloak.util.IdGenerator;
+import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
+import com.example.mynumbercardidp.keycloak.util.token.BearerTokenVerifier;
 
 public class UserInfoReplacementProvider implements RealmResourceProvider {
+    /** 置き換えリクエストのボディの最大バイト数 パーセントエンコーディングで最大3倍になるため、フォーム全体の最大文字数の3倍とする */
+    private static final long MAX_REQUEST_BODY_LENGTH = 3L * AuthenticationRequestBinder.MAX_TOTAL_LENGTH;
     private final Logger CONSOLE_LOGGER = Logger.getLogger(UserInfoReplacementProvider.class);
     private KeycloakSession session;
 
@@ -91,7 +89,7 @@ public class UserInfoReplacementProvider implements RealmResourceProvider {
                     + createQueryParameters(authenticatorConfigModel, authenticationSessionId,
                             this.session.getContext()));
             return Response.status(Response.Status.FOUND).location(replacementPostUrl).build();
-        } catch (IllegalArgumentException | JWSInputException | NullPointerException e) {
+        } catch (IllegalArgumentException | NullPointerException e) {
             // クライアントから必須の値を渡されなかった場合にBad requestの応答を返すため、NullPointerExceptionも補足する。
             this.CONSOLE_LOGGER.warnf("Bad request: %s", e.getMessage());
             return Response.status(Response.Status.BAD_REQUEST).build();
@@ -106,12 +104,14 @@ public class UserInfoReplacementProvider implements RealmResourceProvider {
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
     @Path("/replace")
     @NoCache
-    public Response replace(String requestBody) {
+    public Response replace(InputStream requestBody) {
         try {
             setKeycloakContextFromQueryParameters(this.session,
                     this.session.getContext().getHttpRequest().getUri().getQueryParameters());
-            Response response = new ReplacementActionAdapter(session)
-                    .replace(decodeFormURLEncodedParameters(requestBody));
+            // アダプターの作成より前に復号し、リクエストボディのストリームを読み込むのはこの1回だけにする
+            MultivaluedMap<String, String> formData = FormUrlEncodedDecoder.decode(requestBody,
+                    AuthenticationRequestBinder.getFieldNames(), UserInfoReplacementProvider.MAX_REQUEST_BODY_LENGTH);
+            Response response = new ReplacementActionAdapter(session, formData).replace();
             JWSInput accessTokeninput = new JWSInput(
                     session.getContext().getAuthenticationSession().getAuthNote("accessToken"));
             revokeAccessToken(accessTokeninput.readJsonContent(AccessToken.class));
@@ -127,17 +127,15 @@ public class UserInfoReplacementProvider implements RealmResourceProvider {
         }
     }
 
-    private String createAuthSession(KeycloakSession session) throws JWSInputException {
+    private String createAuthSession(KeycloakSession session) {
         String tokenString = AppAuthManager.extractAuthorizationHeaderToken(session.getContext().getRequestHeaders());
-        JWSInput input = new JWSInput(tokenString);
-        AccessToken token = input.readJsonContent(AccessToken.class);
-        String realmName = token.getIssuer().substring(token.getIssuer().lastIndexOf('/') + 1);
-        RealmManager realmManager = new RealmManager(session);
-        RealmModel realm = realmManager.getRealmByName(realmName);
-        session.getContext().setRealm(realm);
-        if (Objects.isNull(realm)) {
+        BearerTokenVerifier.VerifiedToken verified = BearerTokenVerifier.verify(session, tokenString);
+        if (Objects.isNull(verified)) {
             throw new IllegalArgumentException("Invalid token.");
         }
+        AccessToken token = verified.getToken();
+        RealmModel realm = verified.getRealm();
+        session.getContext().setRealm(realm);
 
         ClientModel client = realm.getClientByClientId(token.getIssuedFor());
         if (Objects.isNull(client)) {
@@ -151,19 +149,7 @@ public class UserInfoReplacementProvider implements RealmResourceProvider {
         session.getContext().setAuthenticationSession(authSession);
         session.getContext().getAuthenticationSession().setAuthNote("accessToken", tokenString);
         session.getContext().getAuthenticationSession().setAuthNote("userSessionId", token.getSessionId());
-
-        ClientConnection clientConnection = session.getContext().getConnection();
-        AuthenticationManager.AuthResult authResult = new AppAuthManager.BearerTokenAuthenticator(session)
-                .setRealm(realm)
-                .setUriInfo(session.getContext().getUri())
-                .setTokenString(tokenString)
-                .setConnection(clientConnection)
-                .setHeaders(session.getContext().getRequestHeaders())
-                .authenticate();
-        if (Objects.isNull(authResult)) {
-            throw new IllegalArgumentException("Invalid token.");
-        }
-        authSession.setAuthenticatedUser(authResult.getUser());
+        authSession.setAuthenticatedUser(verified.getUser());
         return rootAuthSession.getId();
     }
 
@@ -181,12 +167,11 @@ public class UserInfoReplacementProvider implements RealmResourceProvider {
     private String getConfigRunUriOfApplication(AuthenticatorConfigModel authConfig, HttpHeaders headers) {
         String userAgent = headers.getRequestHeaders().getFirst(HttpHeaders.USER_AGENT.toString());
         if (userAgent.contains("Android")) {
-            return authConfig.getConfig().get(SpiConfigProperty.RunUriOfAndroidApplication.CONFIG.getName());
+            return CurrentConfig.getSnapshot(authConfig).getRunUriOfAndroidApplication();
         } else if (userAgent.contains("iPad") || userAgent.contains("iPhone") || userAgent.contains("iPod")) {
-            return authConfig.getConfig().get(SpiConfigProperty.RunUriOfiOSApplication.CONFIG.getName());
+            return CurrentConfig.getSnapshot(authConfig).getRunUriOfiOSApplication();
         } else {
-            return authConfig.getConfig()
-                    .get(SpiConfigProperty.InstallationUriOfSmartPhoneApplication.CONFIG.getName());
+            return CurrentConfig.getSnapshot(authConfig).getInstallationUriOfSmartPhoneApplication();
         }
     }
 
@@ -196,7 +181,7 @@ public class UserInfoReplacementProvider implements RealmResourceProvider {
                 this.session.getContext());
         this.CONSOLE_LOGGER.debugf("ActionUrl: %s", actionUrl);
         StringBuffer queryParameters = new StringBuffer("?action_url=" + URLEncoder.encode(actionUrl, "UTF-8"));
-        String nonce = UUID.randomUUID().toString();
+        String nonce = IdGenerator.randomUuid();
         context.getAuthenticationSession().setAuthNote("nonce", nonce);
         this.CONSOLE_LOGGER.debugf("nonce: %s",
                 context.getAuthenticationSession().getAuthNote("nonce"));
@@ -218,54 +203,6 @@ public class UserInfoReplacementProvider implements RealmResourceProvider {
         return actionUrl.toString();
     }
 
-    private MultivaluedMap<String, String> decodeFormURLEncodedParameters(String requestBody)
-            throws UnsupportedEncodingException {
-        try {
-            MultivaluedMap<String, String> decordedFormData = new MultivaluedHashMap<>();
-            Arrays.asList(requestBody.split("&")).forEach(formDataOnePair -> {
-                try {
-                    Map<String, String> decodedParameter = decodeFromURLEncodedParameter(formDataOnePair);
-                    if (decodedParameter.size() == 0) {
-                        return;
-                    }
-                    decordedFormData.add(decodedParameter.get("name"), decodedParameter.get("value"));
-                } catch (UnsupportedEncodingException e) {
-                    // ラムダ式の中では検査例外を補足する必要があるため、非検査例外として送出する。
-                    throw new InternalError(e);
-                }
-            });
-            return decordedFormData;
-        } catch (InternalError e) {
-            // 呼び出し元へ本来の検査例外を送出するため、ラムダ式で送出した例外から検査例外を取り出す。
-            throw (UnsupportedEncodingException) e.getCause();
-        }
-    }
-
-    private Map<String, String> decodeFromURLEncodedParameter(String formDataOnePair)
-            throws UnsupportedEncodingException {
-        String[] encodedParameterArray = formDataOnePair.split("=", 2);
-        if (encodedParameterArray.length == 0) {
-            return new HashMap<>(0);
-        }
-
-        Map<String, String> encodedParameter = new HashMap<>(2);
-        encodedParameter.put("name", encodedParameterArray[0]);
-        if (encodedParameterArray.length == 1) {
-            encodedParameter.put("value", "");
-        } else {
-            encodedParameter.put("value", encodedParameterArray[1]);
-        }
-
-        Map<String, String> decordedParameter = new HashMap<>(2);
-        if (encodedParameter.get("name").startsWith("amp;")) {
-            decordedParameter.put("name", encodedParameter.get("name").replaceFirst("amp;", ""));
-        } else {
-            decordedParameter.put("name", encodedParameter.get("name"));
-        }
-        decordedParameter.put("value", URLDecoder.decode(encodedParameter.get("value"), "UTF-8"));
-        return decordedParameter;
-    }
-
     private String getRedirectURIFromQueryParameters(MultivaluedMap<String, String> queryParameters)
             throws UnsupportedEncodingException {
         if (Objects.isNull(queryParameters.getFirst("redirect_uri"))) {
@@ -274,13 +211,7 @@ public class UserInfoReplacementProvider implements RealmResourceProvider {
             throw new IllegalArgumentException("Query parameter redirect_uri is empty");
         }
         String clientRedirectURI = URLDecoder.decode(queryParameters.getFirst("redirect_uri"), "UTF-8");
-        boolean allowedClientRedirectURIFlag = false;
-        for (String redirectUri : this.session.getContext().getClient().getRedirectUris()) {
-            if (!allowedClientRedirectURIFlag) {
-                allowedClientRedirectURIFlag = clientRedirectURI.matches(redirectUri.replace("*", ".*?"));
-            }
-        }
-        if (!allowedClientRedirectURIFlag) {
+        if (!RedirectUriMatcher.isAllowed(this.session.getContext().getClient(), clientRedirectURI)) {
             this.session.getContext().getClient().getRedirectUris().forEach(value -> {
                 this.CONSOLE_LOGGER.debugf("Allowed client redirect URI: %s", value);
             });
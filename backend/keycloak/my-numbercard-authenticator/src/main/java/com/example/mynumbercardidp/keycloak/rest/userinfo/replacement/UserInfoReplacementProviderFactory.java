@@ -1,8 +1,12 @@
 package com.example.mynumbercardidp.keycloak.rest.userinfo.replacement;
 
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics;
+import com.example.mynumbercardidp.keycloak.util.token.BearerTokenVerifier;
 import org.keycloak.Config.Scope;
+import org.keycloak.models.ClientModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
 import org.keycloak.services.resource.RealmResourceProvider;
 import org.keycloak.services.resource.RealmResourceProviderFactory;
 
@@ -21,13 +25,41 @@ public class UserInfoReplacementProviderFactory implements RealmResourceProvider
 
     @Override
     public void init(Scope config) {
+        // SPIオプション token-cache-enabled をtrueにした場合のみ、検証済みのアクセストークンをキャッシュする。
+        if (Boolean.TRUE.equals(config.getBoolean("tokenCacheEnabled", false))) {
+            BearerTokenVerifier.enable();
+        }
     }
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
+        // キャッシュの件数は認証器のSPIオプション metrics-enabled をtrueにした場合のみ公開する。
+        // 認証器の初期化は全てのファクトリーのpostInitより前に終わっている。
+        AuthenticatorMetrics.registerGauge("cache.bearer_tokens", BearerTokenVerifier.class,
+                c -> BearerTokenVerifier.size());
+        AuthenticatorMetrics.registerGauge("cache.token_issuers", BearerTokenVerifier.class,
+                c -> BearerTokenVerifier.issuerCount());
+        AuthenticatorMetrics.registerGauge("cache.redirect_uri_matchers", RedirectUriMatcher.class,
+                c -> RedirectUriMatcher.size());
+        AuthenticatorMetrics.registerGauge("cache.authenticator_executions", AuthenticationUtil.class,
+                c -> AuthenticationUtil.size());
+        // 管理コンソールなどでクライアントが更新、削除された場合は、リダイレクトURIの判定処理を作り直す。
+        // レルムが削除された場合は、認証器の実行設定の検索結果を破棄する。フローの更新はフローのインスタンスの比較で検出する。
+        factory.register(event -> {
+            if (event instanceof ClientModel.ClientUpdatedEvent) {
+                RedirectUriMatcher.invalidate(((ClientModel.ClientUpdatedEvent) event).getUpdatedClient().getId());
+            } else if (event instanceof ClientModel.ClientRemovedEvent) {
+                RedirectUriMatcher.invalidate(((ClientModel.ClientRemovedEvent) event).getClient().getId());
+            } else if (event instanceof RealmModel.RealmRemovedEvent) {
+                AuthenticationUtil.invalidate(((RealmModel.RealmRemovedEvent) event).getRealm().getId());
+            }
+        });
     }
 
     @Override
     public void close() {
+        BearerTokenVerifier.invalidate();
+        RedirectUriMatcher.invalidateAll();
+        AuthenticationUtil.invalidateAll();
     }
 }
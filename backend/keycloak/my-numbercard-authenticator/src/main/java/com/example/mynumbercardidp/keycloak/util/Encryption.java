@@ -1,7 +1,17 @@
 package com.example.mynumbercardidp.keycloak.util;
 
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.Key;
 import java.security.PublicKey;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jboss.logging.Logger;
+import org.keycloak.common.util.Time;
 import org.keycloak.jose.jwk.JSONWebKeySet;
 import org.keycloak.jose.jwe.JWE;
 import org.keycloak.jose.jwe.JWEHeader;
@@ -17,6 +27,17 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  *  証明書データのJWE暗号化・復号化するユーティリティクラスです。
  */
 public class Encryption {
+    private static Logger consoleLogger = Logger.getLogger(Encryption.class);
+    /** 復号した証明書データの読み込みに使うJSONパーサー スレッドセーフのため共有する */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    /** 暗号化に使う公開鍵をJWKSから取得し直すまでの時間（ミリ秒） */
+    private static final long PUBLIC_KEY_CACHE_MILLIS = 5L * 60L * 1000L;
+    /** 復号できるJWEの鍵管理アルゴリズム */
+    private static final String KEY_MANAGEMENT_ALGORITHM = "RSA-OAEP-256";
+    /** JWEのコンパクトシリアライゼーションを構成する要素の数 */
+    private static final int JWE_PARTS = 5;
+    /** JWKSのURLごとの暗号化に使う公開鍵 */
+    private static final ConcurrentMap<String, CachedPublicKey> PUBLIC_KEYS = new ConcurrentHashMap<>();
 
     /**
      * 証明書のコンテンツをJWE暗号化します。
@@ -27,6 +48,29 @@ public class Encryption {
      * @return 暗号化された証明書データJWE
      */
     public static String encrypt(KeycloakSession session, String content, String jwksUrl) throws Exception {
+        long startNanos = AuthenticatorMetrics.startTimer();
+        try {
+            CachedPublicKey cached = Encryption.getCachedPublicKey(jwksUrl);
+            if (Objects.nonNull(cached)) {
+                try {
+                    return Encryption.encrypt(content, cached.publicKey);
+                } catch (Exception e) {
+                    // 鍵の種類が変わり、キャッシュした公開鍵でRSA-OAEPの暗号化ができない場合は、
+                    // キャッシュを破棄してJWKSから一度だけ取得し直す。
+                    // 同じ種類の鍵への更新では暗号化は失敗しないため、プラットフォームが証明書を拒否した時点で
+                    // evictPublicKey によりキャッシュを破棄する。
+                    Encryption.consoleLogger.debugf("Refetching the JWKS %s after an encryption failure. %s", jwksUrl,
+                            e.getMessage());
+                    Encryption.PUBLIC_KEYS.remove(jwksUrl, cached);
+                }
+            }
+            return Encryption.encrypt(content, Encryption.fetchPublicKey(session, jwksUrl));
+        } finally {
+            AuthenticatorMetrics.recordLatency(AuthenticatorMetrics.Stage.JWE_ENCRYPT, startNanos);
+        }
+    }
+
+    private static String encrypt(String content, PublicKey publicKey) throws Exception {
         // ヘッダー定義
         JWE jwe = new JWE();
         JWEHeader header = new JWEHeader("RSA-OAEP-256", "A128CBC-HS256", "DEF");
@@ -35,10 +79,6 @@ public class Encryption {
         // コンテンツ定義
         jwe.content(content.getBytes());
 
-        // 暗号化に利用されるRSA公開鍵を取得
-        JSONWebKeySet jwks = JWKSHttpUtils.sendJwksRequest(session, jwksUrl);
-        PublicKey publicKey = new JWKParser(jwks.getKeys()[0]).toPublicKey();
-
         // 暗号化鍵定義
         JWEKeyStorage keyStorage = jwe.getKeyStorage();
         keyStorage.setEncryptionKey(publicKey);
@@ -47,6 +87,66 @@ public class Encryption {
         return jwe.encodeJwe();
     }
 
+    /**
+     * JWKSから暗号化に使う公開鍵を取得し、キャッシュします。
+     *
+     * 起動時のウォームアップから呼び出され、初回の暗号化でJWKSの取得を待たないようにします。
+     *
+     * @param session Keycloakのセッション
+     * @param jwksUrl JSONWebKeySetのURL
+     */
+    public static void prefetchPublicKey(KeycloakSession session, String jwksUrl) {
+        Encryption.fetchPublicKey(session, jwksUrl);
+    }
+
+    /**
+     * JWKSのURLについてキャッシュした公開鍵を破棄し、次回の暗号化でJWKSから取得し直します。
+     *
+     * プラットフォームの鍵の更新後も、更新前の公開鍵による暗号化は失敗しません。
+     * プラットフォームが暗号化した証明書を拒否した場合に呼び出し、キャッシュの有効期限を待たずに新しい公開鍵へ切り替えます。
+     *
+     * @param jwksUrl JSONWebKeySetのURL
+     */
+    public static void evictPublicKey(String jwksUrl) {
+        if (Objects.nonNull(Encryption.PUBLIC_KEYS.remove(jwksUrl))) {
+            Encryption.consoleLogger.debugf("Evicted the cached public key of the JWKS %s.", jwksUrl);
+        }
+    }
+
+    /**
+     * 公開鍵のキャッシュを破棄します。
+     */
+    static void clearPublicKeyCache() {
+        Encryption.PUBLIC_KEYS.clear();
+    }
+
+    /**
+     * キャッシュした公開鍵の数を返します。
+     *
+     * @return 公開鍵の数
+     */
+    public static int publicKeyCacheSize() {
+        return Encryption.PUBLIC_KEYS.size();
+    }
+
+    private static CachedPublicKey getCachedPublicKey(String jwksUrl) {
+        CachedPublicKey cached = Encryption.PUBLIC_KEYS.get(jwksUrl);
+        return Objects.nonNull(cached) && Time.currentTimeMillis() < cached.expiresAt ? cached : null;
+    }
+
+    private static PublicKey fetchPublicKey(KeycloakSession session, String jwksUrl) {
+        JSONWebKeySet jwks;
+        try {
+            jwks = JWKSHttpUtils.sendJwksRequest(session, jwksUrl);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        PublicKey publicKey = new JWKParser(jwks.getKeys()[0]).toPublicKey();
+        Encryption.PUBLIC_KEYS.put(jwksUrl,
+                new CachedPublicKey(publicKey, Time.currentTimeMillis() + Encryption.PUBLIC_KEY_CACHE_MILLIS));
+        return publicKey;
+    }
+
     /**
      * 暗号化された証明書データを復号します。
      *
@@ -55,16 +155,79 @@ public class Encryption {
      * @return 復号化された証明書データJSONオブジェクト
      */
      public static JsonNode decrypt(String encryptedJWE, Key privateKey) throws Exception {
-        JWE jwe = new JWE(encryptedJWE);
+        long startNanos = AuthenticatorMetrics.startTimer();
+        try {
+            JWE jwe = new JWE(encryptedJWE);
 
-        // 復号用の鍵を定義
-        JWEKeyStorage keyStorage = jwe.getKeyStorage();
-        keyStorage.setDecryptionKey(privateKey);
+            // 復号用の鍵を定義
+            JWEKeyStorage keyStorage = jwe.getKeyStorage();
+            keyStorage.setDecryptionKey(privateKey);
+
+            return Encryption.OBJECT_MAPPER.readTree(jwe.verifyAndDecodeJwe().getContent());
+        } finally {
+            AuthenticatorMetrics.recordLatency(AuthenticatorMetrics.Stage.JWE_DECRYPT, startNanos);
+        }
+    }
+
+    /**
+     * 復号せずにJWEの形式を検証します。
+     *
+     * 5つの要素がすべてBase64URLの文字だけで構成され、ヘッダーの鍵管理アルゴリズムが
+     * RSA-OAEP-256であることを確認します。秘密鍵の処理より前に不正なデータを拒否するために使います。
+     *
+     * @param encryptedJWE 暗号化された証明書データJWE
+     * @return 復号を試みる形式の場合はtrue、そうでない場合はfalse
+     */
+    public static boolean isWellFormed(final String encryptedJWE) {
+        if (Objects.isNull(encryptedJWE)) {
+            return false;
+        }
+        int parts = 1;
+        int headerEnd = -1;
+        int partStart = 0;
+        for (int i = 0; i < encryptedJWE.length(); i++) {
+            char c = encryptedJWE.charAt(i);
+            if (c == '.') {
+                if (i == partStart) {
+                    // ヘッダー、暗号化された鍵、初期化ベクトル、暗号文と認証タグはいずれも空にならない。
+                    return false;
+                }
+                if (headerEnd < 0) {
+                    headerEnd = i;
+                }
+                parts++;
+                partStart = i + 1;
+            } else if (!Encryption.isBase64UrlChar(c)) {
+                return false;
+            }
+        }
+        if (parts != Encryption.JWE_PARTS || partStart == encryptedJWE.length()) {
+            return false;
+        }
+        try {
+            JsonNode header = Encryption.OBJECT_MAPPER
+                    .readTree(Base64.getUrlDecoder().decode(encryptedJWE.substring(0, headerEnd)));
+            return Encryption.KEY_MANAGEMENT_ALGORITHM.equals(header.path("alg").asText(null))
+                    && !header.path("enc").asText("").isEmpty();
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean isBase64UrlChar(final char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+    }
 
-        //JsonNode jweData = null;
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode jweData = objectMapper.readTree(new String(jwe.verifyAndDecodeJwe().getContent()));
+    /**
+     * 有効期限付きの公開鍵です。
+     */
+    private static class CachedPublicKey {
+        private final PublicKey publicKey;
+        private final long expiresAt;
 
-        return jweData;
+        private CachedPublicKey(final PublicKey publicKey, final long expiresAt) {
+            this.publicKey = publicKey;
+            this.expiresAt = expiresAt;
+        }
     }
 }
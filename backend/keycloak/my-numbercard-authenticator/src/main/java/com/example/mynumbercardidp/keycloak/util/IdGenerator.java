@@ -0,0 +1,166 @@
+package com.example.mynumbercardidp.keycloak.util;
+
+import java.nio.ByteBuffer;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Nonce、トランザクションIDとタイムスタンプを生成するユーティリティクラスです。
+ *
+ * 乱数はスレッドごとのDRBGから取得し、共有のSecureRandomでスレッドが競合しないようにします。
+ * DRBGは一定回数の生成ごとにエントロピー源から再シードします。
+ */
+public final class IdGenerator {
+    /** 再シードするまでの乱数の生成回数 */
+    private static final int RESEED_INTERVAL = 1 << 12;
+    /** UUIDのバリアント（RFC 4122）を表す上位2ビット */
+    private static final long VARIANT_MASK = 0x3fffffffffffffffL;
+    private static final long VARIANT_BITS = 0x8000000000000000L;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /** プラットフォームへ送信するタイムスタンプの書式 */
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+    private static final ThreadLocal<Drbg> DRBG = ThreadLocal.withInitial(Drbg::new);
+
+    private static volatile Clock clock = Clock.systemDefaultZone();
+    /** 直前に書式化したタイムスタンプ 同じミリ秒の要求では書式化しない */
+    private static volatile FormattedTime lastTimestamp = new FormattedTime(Long.MIN_VALUE, "");
+
+    private IdGenerator() {
+    }
+
+    /**
+     * ランダムなUUID（バージョン4）の文字列を返します。
+     *
+     * @return UUID文字列
+     */
+    public static String randomUuid() {
+        Drbg drbg = IdGenerator.DRBG.get();
+        long mostSigBits = (drbg.nextLong() & 0xffffffffffff0fffL) | 0x0000000000004000L;
+        long leastSigBits = (drbg.nextLong() & IdGenerator.VARIANT_MASK) | IdGenerator.VARIANT_BITS;
+        return IdGenerator.format(mostSigBits, leastSigBits);
+    }
+
+    /**
+     * 時刻順に並ぶUUID（バージョン7）の文字列を返します。
+     *
+     * 上位48ビットがエポックミリ秒であるため、プラットフォームのログと発行時刻で突き合わせられます。
+     *
+     * @return UUID文字列
+     */
+    public static String timeOrderedUuid() {
+        Drbg drbg = IdGenerator.DRBG.get();
+        long millis = IdGenerator.clock.millis();
+        long mostSigBits = (millis << 16) | 0x7000L | (drbg.nextLong() & 0x0fffL);
+        long leastSigBits = (drbg.nextLong() & IdGenerator.VARIANT_MASK) | IdGenerator.VARIANT_BITS;
+        return IdGenerator.format(mostSigBits, leastSigBits);
+    }
+
+    /**
+     * 現在時刻のタイムスタンプ文字列を返します。
+     *
+     * @return yyyy-MM-dd HH:mm:ss.SSS 形式の文字列
+     */
+    public static String timestamp() {
+        long millis = IdGenerator.clock.millis();
+        FormattedTime last = IdGenerator.lastTimestamp;
+        if (last.millis == millis) {
+            return last.text;
+        }
+        String text = IdGenerator.TIMESTAMP_FORMATTER.format(Instant.ofEpochMilli(millis));
+        IdGenerator.lastTimestamp = new FormattedTime(millis, text);
+        return text;
+    }
+
+    /**
+     * 時刻の取得元を設定します。
+     *
+     * @param clock 時刻の取得元
+     */
+    static void setClock(final Clock clock) {
+        IdGenerator.clock = clock;
+        IdGenerator.lastTimestamp = new FormattedTime(Long.MIN_VALUE, "");
+    }
+
+    private static String format(final long mostSigBits, final long leastSigBits) {
+        char[] chars = new char[36];
+        IdGenerator.writeHex(chars, 0, mostSigBits >>> 32, 8);
+        chars[8] = '-';
+        IdGenerator.writeHex(chars, 9, mostSigBits >>> 16, 4);
+        chars[13] = '-';
+        IdGenerator.writeHex(chars, 14, mostSigBits, 4);
+        chars[18] = '-';
+        IdGenerator.writeHex(chars, 19, leastSigBits >>> 48, 4);
+        chars[23] = '-';
+        IdGenerator.writeHex(chars, 24, leastSigBits, 12);
+        return new String(chars);
+    }
+
+    private static void writeHex(final char[] chars, final int offset, final long value, final int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[offset + digits - 1 - i] = IdGenerator.HEX[(int) (value >>> (i * 4)) & 0xf];
+        }
+    }
+
+    /**
+     * スレッドごとのDRBGです。
+     *
+     * DRBGの生成処理は呼び出しごとの固定費用が大きいため、まとめて生成した乱数を先頭から消費します。
+     */
+    private static final class Drbg {
+        /** 一度に生成する乱数のバイト数 */
+        private static final int BUFFER_SIZE = 1024;
+        private final SecureRandom random;
+        private final ByteBuffer buffer = ByteBuffer.allocate(Drbg.BUFFER_SIZE);
+        private int count;
+
+        private Drbg() {
+            SecureRandom instance;
+            try {
+                instance = SecureRandom.getInstance("DRBG",
+                        DrbgParameters.instantiation(256, DrbgParameters.Capability.RESEED_ONLY, null));
+            } catch (NoSuchAlgorithmException e) {
+                // DRBGを提供しないセキュリティプロバイダー構成では既定の実装を使う。
+                instance = new SecureRandom();
+            }
+            this.random = instance;
+            this.buffer.position(Drbg.BUFFER_SIZE);
+        }
+
+        private long nextLong() {
+            if (!this.buffer.hasRemaining()) {
+                refill();
+            }
+            return this.buffer.getLong();
+        }
+
+        private void refill() {
+            if (++this.count >= IdGenerator.RESEED_INTERVAL) {
+                this.count = 0;
+                try {
+                    this.random.reseed();
+                } catch (UnsupportedOperationException e) {
+                    // 既定の実装は再シードに対応しない場合がある。
+                }
+            }
+            this.random.nextBytes(this.buffer.array());
+            this.buffer.clear();
+        }
+    }
+
+    private static final class FormattedTime {
+        private final long millis;
+        private final String text;
+
+        private FormattedTime(final long millis, final String text) {
+            this.millis = millis;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.mynumbercardidp.keycloak.util.authentication;
+
+import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.SpiConfigProperty;
+import org.keycloak.models.AuthenticatorConfigModel;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 認証SPI設定の不変なスナップショットです。
+ *
+ * 認証SPI設定ごとに一度だけ作成し、リクエストやスレッドの間で共有します。
+ * 値が設定されていない項目は空文字列を返します。
+ */
+public final class ConfigSnapshot {
+    /** 認証SPI設定が無い場合のスナップショット */
+    public static final ConfigSnapshot EMPTY = new ConfigSnapshot(null, Collections.emptyMap());
+
+    /** 作成元の認証SPI設定 Keycloakのレルムキャッシュは設定を更新すると別のインスタンスを返す */
+    private final AuthenticatorConfigModel source;
+    private final Map<String, String> values;
+    private final boolean debugMode;
+    private final boolean statelessNonce;
+    private final int rateLimitPerIp;
+    private final int rateLimitPerCard;
+    private final int rateLimitPerSession;
+    private final boolean rateLimitCluster;
+    private final Map<String, String> templateVariables;
+
+    /**
+     * SPI設定名と値の組み合わせからスナップショットを作成します。
+     *
+     * @param config SPI設定名と値の組み合わせ
+     */
+    public ConfigSnapshot(final Map<String, String> config) {
+        this(null, config);
+    }
+
+    ConfigSnapshot(final AuthenticatorConfigModel source, final Map<String, String> config) {
+        this.source = source;
+        this.values = ConfigSnapshot.copyOf(config);
+        this.debugMode = Boolean.parseBoolean(getValue(SpiConfigProperty.DebugMode.CONFIG.getName()).toLowerCase());
+        this.statelessNonce = Boolean.parseBoolean(
+                getValue(SpiConfigProperty.StatelessNonce.CONFIG.getName()).toLowerCase());
+        this.rateLimitPerIp = ConfigSnapshot.parseLimit(getValue(SpiConfigProperty.RateLimitPerIp.CONFIG.getName()));
+        this.rateLimitPerCard = ConfigSnapshot.parseLimit(
+                getValue(SpiConfigProperty.RateLimitPerCard.CONFIG.getName()));
+        this.rateLimitPerSession = ConfigSnapshot.parseLimit(
+                getValue(SpiConfigProperty.RateLimitPerSession.CONFIG.getName()));
+        this.rateLimitCluster = Boolean.parseBoolean(
+                getValue(SpiConfigProperty.RateLimitCluster.CONFIG.getName()).toLowerCase());
+
+        Map<String, String> variables = new LinkedHashMap<>();
+        variables.put("androidAppUri", getRunUriOfAndroidApplication());
+        variables.put("iosAppUri", getRunUriOfiOSApplication());
+        variables.put("otherAppUri", getInstallationUriOfSmartPhoneApplication());
+        variables.put("termsOfUseDirUrl", getValue(SpiConfigProperty.TermsOfUseDirURL.CONFIG.getName()));
+        variables.put("privacyPolicyDirUrl", getValue(SpiConfigProperty.PrivacyPolicyDirURL.CONFIG.getName()));
+        variables.put("personalDataProtectionPolicyDirUrl",
+                getValue(SpiConfigProperty.PersonalDataProtectionPolicyDirURL.CONFIG.getName()));
+        variables.put("debug", Boolean.toString(this.debugMode));
+        this.templateVariables = Collections.unmodifiableMap(variables);
+    }
+
+    /**
+     * SPI設定の値を返します。
+     *
+     * @param configName SPI設定名
+     * @return SPI設定の値 設定されていない場合は空文字列
+     */
+    public String getValue(final String configName) {
+        return this.values.getOrDefault(configName, "");
+    }
+
+    /**
+     * デバッグモードの状態を返します。
+     *
+     * @return 有効の場合はtrue、そうでない場合はfalse
+     */
+    public boolean isDebugMode() {
+        return this.debugMode;
+    }
+
+    /**
+     * 認証セッションへ保存しないNonceを使用するかを返します。
+     *
+     * @return 使用する場合はtrue、そうでない場合はfalse
+     */
+    public boolean isStatelessNonce() {
+        return this.statelessNonce;
+    }
+
+    /**
+     * クライアントのIPアドレスごとの1分あたりの要求数の上限を返します。
+     *
+     * @return 要求数の上限 0の場合は制限しない
+     */
+    public int getRateLimitPerIp() {
+        return this.rateLimitPerIp;
+    }
+
+    /**
+     * 証明書ごとの1分あたりの要求数の上限を返します。
+     *
+     * @return 要求数の上限 0の場合は制限しない
+     */
+    public int getRateLimitPerCard() {
+        return this.rateLimitPerCard;
+    }
+
+    /**
+     * 認証セッションごとの1分あたりの要求数の上限を返します。
+     *
+     * @return 要求数の上限 0の場合は制限しない
+     */
+    public int getRateLimitPerSession() {
+        return this.rateLimitPerSession;
+    }
+
+    /**
+     * 要求数の制限をKeycloakのクラスターで共有するかを返します。
+     *
+     * @return 共有する場合はtrue、そうでない場合はfalse
+     */
+    public boolean isRateLimitCluster() {
+        return this.rateLimitCluster;
+    }
+
+    public String getCertificateValidatorRootUri() {
+        return getValue(SpiConfigProperty.CertificateValidatorRootUri.CONFIG.getName());
+    }
+
+    public String getPlatformApiClientClassFqdn() {
+        return getValue(SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName());
+    }
+
+    public String getPlatformApiIdpSender() {
+        return getValue(SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName());
+    }
+
+    public String getRunUriOfAndroidApplication() {
+        return getValue(SpiConfigProperty.RunUriOfAndroidApplication.CONFIG.getName());
+    }
+
+    public String getRunUriOfiOSApplication() {
+        return getValue(SpiConfigProperty.RunUriOfiOSApplication.CONFIG.getName());
+    }
+
+    public String getInstallationUriOfSmartPhoneApplication() {
+        return getValue(SpiConfigProperty.InstallationUriOfSmartPhoneApplication.CONFIG.getName());
+    }
+
+    /**
+     * FTLファイルへ注入する変数を返します。
+     *
+     * @return FTL変数名とSPI設定値の組み合わせ（変更できません）
+     */
+    public Map<String, String> getTemplateVariables() {
+        return this.templateVariables;
+    }
+
+    /**
+     * 認証SPI設定から作成したスナップショットであるかを返します。
+     *
+     * @param model 認証SPI設定
+     * @return 同じ設定から作成した場合はtrue、設定が更新された場合はfalse
+     */
+    boolean isSnapshotOf(final AuthenticatorConfigModel model) {
+        if (this.source == model) {
+            return true;
+        }
+        // レルムキャッシュが無効な場合など、同じ内容の設定が別のインスタンスで返される場合に備える。
+        // リクエストごとに実行されうるため、設定を複製せずに値を直接比較する。
+        Map<String, String> config = model.getConfig();
+        if (Objects.isNull(config)) {
+            return this.values.isEmpty();
+        }
+        if (config.size() != this.values.size()) {
+            return false;
+        }
+        for (Map.Entry<String, String> entry : config.entrySet()) {
+            String value = this.values.get(entry.getKey());
+            if (Objects.isNull(value) || !value.equals(Objects.toString(entry.getValue(), ""))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseLimit(final String value) {
+        try {
+            return Math.max(Integer.parseInt(value.trim()), 0);
+        } catch (NumberFormatException e) {
+            // 未設定や数値ではない値は制限しないものとして扱う。
+            return 0;
+        }
+    }
+
+    private static Map<String, String> copyOf(final Map<String, String> config) {
+        Map<String, String> copy = new LinkedHashMap<>();
+        if (Objects.nonNull(config)) {
+            // Map.copyOfはnullの値を受け付けないため、空文字列として保持する。
+            config.forEach((name, value) -> copy.put(name, Objects.toString(value, "")));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+}
@@ -1,13 +1,23 @@
 package com.example.mynumbercardidp.keycloak.util.authentication;
 
 import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.AuthenticatorConfigModel;
 
-import java.util.Optional;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * 現在のSPI設定を取得するユーティリティクラスです。
+ *
+ * SPI設定は認証SPI設定のIDごとに不変なスナップショットとしてキャッシュします。
+ * 管理コンソールで設定を更新するとKeycloakのレルムキャッシュが別のインスタンスを返すため、
+ * 次のリクエストでスナップショットを作り直します。
  */
 public class CurrentConfig {
+    /** 認証SPI設定のIDごとのスナップショット */
+    private static final ConcurrentMap<String, ConfigSnapshot> SNAPSHOTS = new ConcurrentHashMap<>();
+
     private CurrentConfig() {
     }
 
@@ -19,9 +29,55 @@ public class CurrentConfig {
      * @return SPI設定の値
      */
     public static String getValue(final AuthenticationFlowContext context, final String configName) {
-        String config = context.getAuthenticatorConfig()
-                .getConfig()
-                .get(configName);
-        return Optional.ofNullable(config).orElse("");
+        return CurrentConfig.getSnapshot(context).getValue(configName);
+    }
+
+    /**
+     * 現在のSPI設定のスナップショットを返します。
+     *
+     * @param context 認証フローのコンテキスト
+     * @return SPI設定のスナップショット
+     */
+    public static ConfigSnapshot getSnapshot(final AuthenticationFlowContext context) {
+        return CurrentConfig.getSnapshot(context.getAuthenticatorConfig());
+    }
+
+    /**
+     * 認証SPI設定のスナップショットを返します。
+     *
+     * @param model 認証SPI設定
+     * @return SPI設定のスナップショット 認証SPI設定が無い場合は空のスナップショット
+     */
+    public static ConfigSnapshot getSnapshot(final AuthenticatorConfigModel model) {
+        if (Objects.isNull(model)) {
+            return ConfigSnapshot.EMPTY;
+        }
+        if (Objects.isNull(model.getId())) {
+            return new ConfigSnapshot(model, model.getConfig());
+        }
+        ConfigSnapshot snapshot = CurrentConfig.SNAPSHOTS.get(model.getId());
+        if (Objects.nonNull(snapshot) && snapshot.isSnapshotOf(model)) {
+            return snapshot;
+        }
+        // 同時に作り直した場合はいずれかのスナップショットが残るが、どちらも同じ内容である。
+        ConfigSnapshot created = new ConfigSnapshot(model, model.getConfig());
+        CurrentConfig.SNAPSHOTS.put(model.getId(), created);
+        return created;
+    }
+
+    /**
+     * キャッシュしたスナップショットを全て破棄します。
+     */
+    public static void invalidate() {
+        CurrentConfig.SNAPSHOTS.clear();
+    }
+
+    /**
+     * キャッシュしたスナップショットの数を返します。
+     *
+     * @return スナップショットの数
+     */
+    public static int size() {
+        return CurrentConfig.SNAPSHOTS.size();
     }
 }
@@ -0,0 +1,171 @@
+package com.example.mynumbercardidp.keycloak.util.authentication;
+
+import org.keycloak.common.util.Time;
+import org.keycloak.crypto.Algorithm;
+import org.keycloak.crypto.KeyUse;
+import org.keycloak.crypto.KeyWrapper;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.SingleUseObjectProvider;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Objects;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * 認証セッションへ保存しない、レルムのHMAC鍵で署名したNonceを発行、検証するユーティリティクラスです。
+ *
+ * Nonceは「乱数.有効期限.署名」の形式で、署名は乱数、有効期限（エポック秒）、認証セッションのIDとタブIDに対する
+ * HMAC-SHA256です。検証に成功したNonceはKeycloakの使い捨てオブジェクトストアへ有効期限まで登録し、再利用を拒否します。
+ */
+public final class SignedNonce {
+    /** レルム鍵のアルゴリズム */
+    private static final String KEY_ALGORITHM = Algorithm.HS256;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int RANDOM_BYTES = 16;
+    /** ログインの有効期限が設定されていない場合の有効期間（秒） */
+    private static final int DEFAULT_LIFESPAN_SECONDS = 1800;
+    private static final String SEPARATOR = ".";
+    private static final String USED_KEY_PREFIX = "mynumbercard.nonce.";
+    /** 同じリクエストの中で検証済みのNonceを受け渡すセッション属性名 */
+    private static final String VERIFIED_ATTRIBUTE = SignedNonce.class.getName() + ".verified";
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private SignedNonce() {
+    }
+
+    /**
+     * Nonceを発行します。
+     *
+     * @param session     Keycloakのセッション
+     * @param realm       レルム
+     * @param authSession 認証セッション
+     * @return Nonce文字列
+     * @exception IllegalStateException レルムに有効なHMAC鍵が無い場合
+     */
+    public static String issue(final KeycloakSession session, final RealmModel realm,
+            final AuthenticationSessionModel authSession) {
+        KeyWrapper key = session.keys().getActiveKey(realm, KeyUse.SIG, SignedNonce.KEY_ALGORITHM);
+        if (Objects.isNull(key) || Objects.isNull(key.getSecretKey())) {
+            throw new IllegalStateException("The realm has no active " + SignedNonce.KEY_ALGORITHM + " key.");
+        }
+        byte[] random = new byte[SignedNonce.RANDOM_BYTES];
+        SignedNonce.RANDOM.nextBytes(random);
+        int lifespan = realm.getAccessCodeLifespanLogin() > 0 ? realm.getAccessCodeLifespanLogin()
+                : SignedNonce.DEFAULT_LIFESPAN_SECONDS;
+        String payload = SignedNonce.ENCODER.encodeToString(random) + SignedNonce.SEPARATOR
+                + (Time.currentTime() + lifespan);
+        return payload + SignedNonce.SEPARATOR
+                + SignedNonce.ENCODER.encodeToString(SignedNonce.sign(key.getSecretKey(), payload, authSession));
+    }
+
+    /**
+     * Nonceの署名と有効期限を検証します。
+     *
+     * 鍵のローテーションに備え、レルムの全てのHMAC鍵で検証します。
+     *
+     * @param session     Keycloakのセッション
+     * @param realm       レルム
+     * @param authSession 認証セッション
+     * @param nonce       Nonce文字列
+     * @return 検証された場合はtrue、そうでない場合はfalse
+     */
+    public static boolean verify(final KeycloakSession session, final RealmModel realm,
+            final AuthenticationSessionModel authSession, final String nonce) {
+        if (Objects.isNull(nonce)) {
+            return false;
+        }
+        int signatureIndex = nonce.lastIndexOf(SignedNonce.SEPARATOR);
+        int expiryIndex = nonce.indexOf(SignedNonce.SEPARATOR);
+        if (expiryIndex <= 0 || signatureIndex <= expiryIndex) {
+            return false;
+        }
+        String payload = nonce.substring(0, signatureIndex);
+        byte[] signature;
+        long expiresAt;
+        try {
+            signature = SignedNonce.DECODER.decode(nonce.substring(signatureIndex + 1));
+            expiresAt = Long.parseLong(nonce.substring(expiryIndex + 1, signatureIndex));
+        } catch (IllegalArgumentException e) {
+            // NumberFormatExceptionを含む。
+            return false;
+        }
+        if (expiresAt < Time.currentTime()) {
+            return false;
+        }
+        return session.keys().getKeysStream(realm, KeyUse.SIG, SignedNonce.KEY_ALGORITHM)
+                .map(KeyWrapper::getSecretKey)
+                .filter(Objects::nonNull)
+                .anyMatch(key -> MessageDigest.isEqual(signature, SignedNonce.sign(key, payload, authSession)));
+    }
+
+    /**
+     * Nonceを使用済みとして登録します。
+     *
+     * 登録はNonceの有効期限まで保持され、クラスター内の他のノードにも共有されます。
+     *
+     * @param session Keycloakのセッション
+     * @param nonce   検証済みのNonce文字列
+     * @return 初めて使用された場合はtrue、既に使用されていた場合はfalse
+     */
+    public static boolean markUsed(final KeycloakSession session, final String nonce) {
+        int expiryIndex = nonce.indexOf(SignedNonce.SEPARATOR);
+        long expiresAt = Long.parseLong(nonce.substring(expiryIndex + 1, nonce.lastIndexOf(SignedNonce.SEPARATOR)));
+        long lifespan = Math.max(expiresAt - Time.currentTime(), 1L);
+        boolean firstUse = session.getProvider(SingleUseObjectProvider.class)
+                .putIfAbsent(SignedNonce.usedKey(nonce), lifespan);
+        if (firstUse) {
+            session.setAttribute(SignedNonce.VERIFIED_ATTRIBUTE, nonce);
+        }
+        return firstUse;
+    }
+
+    /**
+     * Nonceが使用済みとして登録されているか確認します。
+     *
+     * 秘密鍵による復号より前に再利用を拒否するための確認で、登録は行いません。
+     * 同時に届いた要求の競合は、署名の検証後の {@link #markUsed(KeycloakSession, String)} で拒否します。
+     *
+     * @param session Keycloakのセッション
+     * @param nonce   検証済みのNonce文字列
+     * @return 使用済みの場合はtrue、そうでない場合はfalse
+     */
+    public static boolean isUsed(final KeycloakSession session, final String nonce) {
+        return session.getProvider(SingleUseObjectProvider.class).contains(SignedNonce.usedKey(nonce));
+    }
+
+    /**
+     * 同じリクエストの中で使用済みとして登録したNonceを返します。
+     *
+     * @param session Keycloakのセッション
+     * @return Nonce文字列 登録していない場合はnull
+     */
+    public static String getVerified(final KeycloakSession session) {
+        return session.getAttribute(SignedNonce.VERIFIED_ATTRIBUTE, String.class);
+    }
+
+    private static String usedKey(final String nonce) {
+        return SignedNonce.USED_KEY_PREFIX + nonce.substring(0, nonce.indexOf(SignedNonce.SEPARATOR));
+    }
+
+    private static byte[] sign(final SecretKey key, final String payload,
+            final AuthenticationSessionModel authSession) {
+        String data = payload + SignedNonce.SEPARATOR + authSession.getParentSession().getId()
+                + SignedNonce.SEPARATOR + authSession.getTabId();
+        try {
+            Mac mac = Mac.getInstance(SignedNonce.MAC_ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.mynumbercardidp.keycloak.util.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 認証SPIの計測値を記録するユーティリティクラスです。
+ *
+ * 計測値はMicrometerのレジストリへ登録され、Keycloakのメトリクスエンドポイントから Prometheus 形式で出力されます。
+ * 無効な場合は時刻の取得やメーターの検索をせず、呼び出し元へすぐに戻ります。
+ */
+public final class AuthenticatorMetrics {
+    private static final String PREFIX = "mynumbercard.";
+    /** プラットフォームの応答が無い場合のステータスタグ値 */
+    private static final String NO_PLATFORM_STATUS = "none";
+
+    /** 計測値の登録先 nullの場合は無効 */
+    private static volatile MeterRegistry registry = null;
+    /** 処理段階ごとのタイマー */
+    private static volatile Map<Stage, Timer> timers = Collections.emptyMap();
+
+    private AuthenticatorMetrics() {
+    }
+
+    /**
+     * 計測を有効にします。
+     *
+     * @param meterRegistry 計測値の登録先
+     */
+    public static synchronized void enable(final MeterRegistry meterRegistry) {
+        Objects.requireNonNull(meterRegistry);
+        Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder(PREFIX + "latency")
+                    .description("Latency of the My Number Card authenticator stages.")
+                    .tag("stage", stage.getName())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1L))
+                    .maximumExpectedValue(Duration.ofSeconds(30L))
+                    .register(meterRegistry));
+        }
+        AuthenticatorMetrics.timers = stageTimers;
+        AuthenticatorMetrics.registry = meterRegistry;
+    }
+
+    /**
+     * 計測を無効にします。
+     */
+    public static synchronized void disable() {
+        AuthenticatorMetrics.registry = null;
+        AuthenticatorMetrics.timers = Collections.emptyMap();
+    }
+
+    /**
+     * 計測が有効であるかを返します。
+     *
+     * @return 有効の場合はtrue、そうでない場合はfalse
+     */
+    public static boolean isEnabled() {
+        return Objects.nonNull(AuthenticatorMetrics.registry);
+    }
+
+    /**
+     * 処理時間の計測を開始します。
+     *
+     * @return 計測開始時刻のナノ秒値 無効の場合は0
+     */
+    public static long startTimer() {
+        if (!AuthenticatorMetrics.isEnabled()) {
+            return 0L;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * 処理段階の処理時間を記録します。
+     *
+     * @param stage      処理段階
+     * @param startNanos {@link #startTimer()}が返した計測開始時刻
+     */
+    public static void recordLatency(final Stage stage, final long startNanos) {
+        if (startNanos == 0L) {
+            return;
+        }
+        Timer timer = AuthenticatorMetrics.timers.get(stage);
+        if (Objects.nonNull(timer)) {
+            timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * ユーザーが希望する処理の試行回数を加算します。
+     *
+     * @param actionName ユーザーが希望する処理の種類
+     */
+    public static void countAttempt(final String actionName) {
+        MeterRegistry meterRegistry = AuthenticatorMetrics.registry;
+        if (Objects.isNull(meterRegistry)) {
+            return;
+        }
+        Counter.builder(PREFIX + "action.attempts")
+                .description("Number of My Number Card actions requested by users.")
+                .tag("action", actionName)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * ユーザーが希望する処理の結果をプラットフォームのステータスコード別に加算します。
+     *
+     * @param actionName     ユーザーが希望する処理の種類
+     * @param success        処理が成功した場合はtrue、そうでない場合はfalse
+     * @param platformStatus プラットフォームのHTTPステータスコード 応答が無い場合はnull
+     */
+    public static void countResult(final String actionName, final boolean success, final Integer platformStatus) {
+        MeterRegistry meterRegistry = AuthenticatorMetrics.registry;
+        if (Objects.isNull(meterRegistry)) {
+            return;
+        }
+        String status = Objects.isNull(platformStatus) ? NO_PLATFORM_STATUS : platformStatus.toString();
+        Counter.builder(PREFIX + (success ? "action.successes" : "action.failures"))
+                .description("Number of My Number Card action results by platform status.")
+                .tag("action", actionName)
+                .tag("platform_status", status)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * ユーザーリクエストの検証段階ごとに、通過または拒否した回数を加算します。
+     *
+     * @param stage  検証段階
+     * @param passed 通過した場合はtrue、拒否した場合はfalse
+     */
+    public static void countValidation(final ValidationStage stage, final boolean passed) {
+        MeterRegistry meterRegistry = AuthenticatorMetrics.registry;
+        if (Objects.isNull(meterRegistry)) {
+            return;
+        }
+        Counter.builder(PREFIX + "validation")
+                .description("Number of user requests passed or rejected by each validation stage.")
+                .tag("stage", stage.getName())
+                .tag("result", passed ? "passed" : "rejected")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 要求数の上限を超えて拒否した回数を加算します。
+     *
+     * @param keyName 要求数を数えるキーの種類
+     */
+    public static void countRateLimited(final String keyName) {
+        MeterRegistry meterRegistry = AuthenticatorMetrics.registry;
+        if (Objects.isNull(meterRegistry)) {
+            return;
+        }
+        Counter.builder(PREFIX + "rate_limit.rejections")
+                .description("Number of My Number Card actions rejected by the rate limit.")
+                .tag("key", keyName)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 接続プールやキャッシュの状態を表すゲージを登録します。
+     *
+     * 無効の場合は何もしません。
+     *
+     * @param name          ゲージ名（接頭辞を除く）
+     * @param stateObject   状態を保持するオブジェクト
+     * @param valueFunction 状態オブジェクトから値を取り出す関数
+     */
+    public static <T> void registerGauge(final String name, final T stateObject,
+            final ToDoubleFunction<T> valueFunction) {
+        MeterRegistry meterRegistry = AuthenticatorMetrics.registry;
+        if (Objects.isNull(meterRegistry)) {
+            return;
+        }
+        AuthenticatorMetrics.registerGauge(meterRegistry, name, stateObject, valueFunction);
+    }
+
+    /**
+     * 計測の有効、無効に関わらず、指定したレジストリへゲージを登録します。
+     *
+     * 準備完了の状態など、SPIオプション metrics-enabled に関わらず公開するゲージに使います。
+     *
+     * @param meterRegistry 登録先
+     * @param name          ゲージ名（接頭辞を除く）
+     * @param stateObject   状態を保持するオブジェクト
+     * @param valueFunction 状態オブジェクトから値を取り出す関数
+     */
+    public static <T> void registerGauge(final MeterRegistry meterRegistry, final String name, final T stateObject,
+            final ToDoubleFunction<T> valueFunction) {
+        Gauge.builder(PREFIX + name, stateObject, valueFunction).register(Objects.requireNonNull(meterRegistry));
+    }
+
+    /**
+     * 処理時間を計測する処理段階を表します。
+     */
+    public static enum Stage {
+        JWE_DECRYPT("jwe_decrypt"),
+        SIGNATURE_VERIFY("signature_verify"),
+        JWE_ENCRYPT("jwe_encrypt"),
+        PLATFORM_ROUND_TRIP("platform_round_trip"),
+        USER_LOOKUP("user_lookup"),
+        PAGE_RENDER("page_render");
+
+        private String name;
+
+        private Stage(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+    }
+
+    /**
+     * ユーザーリクエストの検証段階を処理の軽い順に表します。
+     */
+    public static enum ValidationStage {
+        /** 値の有無と文字数 */
+        FIELDS("fields"),
+        /** Nonceの一致と有効期限 */
+        NONCE("nonce"),
+        /** Base64とJWEヘッダーの形式 */
+        FORMAT("format"),
+        /** 秘密鍵による証明書の復号 */
+        DECRYPT("decrypt"),
+        /** 署名の検証 */
+        SIGNATURE("signature"),
+        /** プラットフォームの呼び出し */
+        PLATFORM("platform");
+
+        private String name;
+
+        private ValidationStage(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * 認証SPIの計測値を記録するユーティリティクラスを定義します。
+ */
+package com.example.mynumbercardidp.keycloak.util.metrics;
@@ -0,0 +1,201 @@
+package com.example.mynumbercardidp.keycloak.util.ratelimit;
+
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
+import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics;
+import org.jboss.logging.Logger;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.common.util.Time;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.SingleUseObjectProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * 個人番号カードの公的個人認証部分を送信する要求の数を制限するユーティリティクラスです。
+ *
+ * クライアントのIPアドレス、認証セッション、証明書ごとに、レルムの認証SPI設定で指定された1分あたりの要求数まで受け付けます。
+ * 上限が0の項目は制限しません。ノード内の制限に加え、認証SPI設定で有効にした場合はクラスターのノード間でも制限を共有します。
+ */
+public final class ActionRateLimiter {
+    private static final Logger CONSOLE_LOGGER = Logger.getLogger(ActionRateLimiter.class);
+    /** 使い捨てオブジェクトストアのキーの接頭辞 */
+    private static final String CLUSTER_KEY_PREFIX = "mynumbercard.ratelimit.";
+    private static final TokenBuckets LOCAL_BUCKETS = new TokenBuckets();
+
+    private static volatile LongSupplier nanoClock = System::nanoTime;
+
+    private ActionRateLimiter() {
+    }
+
+    /**
+     * クライアントのIPアドレスと認証セッションの要求数を確認します。
+     *
+     * 証明書を復号する前に呼び出します。
+     *
+     * @param context 認証フローのコンテキスト
+     * @return 受け付ける場合はtrue、上限を超えた場合はfalse
+     */
+    public static boolean tryAcquire(final AuthenticationFlowContext context) {
+        ConfigSnapshot config = CurrentConfig.getSnapshot(context);
+        boolean limitIp = config.getRateLimitPerIp() > 0;
+        String remoteAddr = limitIp ? context.getConnection().getRemoteAddr() : null;
+        if (limitIp && !ActionRateLimiter.tryAcquire(context.getSession(), context.getRealm(), config, Kind.IP,
+                remoteAddr, config.getRateLimitPerIp())) {
+            return false;
+        }
+        if (config.getRateLimitPerSession() <= 0 || ActionRateLimiter.tryAcquire(context.getSession(),
+                context.getRealm(), config, Kind.SESSION,
+                context.getAuthenticationSession().getParentSession().getId(), config.getRateLimitPerSession())) {
+            return true;
+        }
+        // 認証セッションの上限で拒否した要求は、同じIPアドレスの他の認証セッションの要求数に数えない。
+        if (limitIp) {
+            ActionRateLimiter.release(context.getSession(), context.getRealm(), config, Kind.IP, remoteAddr,
+                    config.getRateLimitPerIp());
+        }
+        return false;
+    }
+
+    /**
+     * 証明書の要求数を確認します。
+     *
+     * 証明書は暗号化のたびに異なるJWEになるため、復号した後、署名の検証とプラットフォームの呼び出しより前に呼び出します。
+     *
+     * @param context            認証フローのコンテキスト
+     * @param certificateContent 復号した証明書
+     * @return 受け付ける場合はtrue、上限を超えた場合はfalse
+     */
+    public static boolean tryAcquireCard(final AuthenticationFlowContext context, final String certificateContent) {
+        return ActionRateLimiter.tryAcquireCard(context.getSession(), context.getRealm(),
+                CurrentConfig.getSnapshot(context), certificateContent);
+    }
+
+    /**
+     * 証明書の要求数を確認します。
+     *
+     * 認証フローの外から呼び出す場合に使います。
+     *
+     * @param session            Keycloakのセッション
+     * @param realm              レルム
+     * @param config             SPI設定のスナップショット
+     * @param certificateContent 復号した証明書
+     * @return 受け付ける場合はtrue、上限を超えた場合はfalse
+     */
+    public static boolean tryAcquireCard(final KeycloakSession session, final RealmModel realm,
+            final ConfigSnapshot config, final String certificateContent) {
+        return config.getRateLimitPerCard() <= 0 || ActionRateLimiter.tryAcquire(session, realm, config, Kind.CARD,
+                ActionRateLimiter.fingerprint(certificateContent), config.getRateLimitPerCard());
+    }
+
+    /**
+     * ノード内のすべてのバケットを削除します。
+     */
+    public static void invalidate() {
+        ActionRateLimiter.LOCAL_BUCKETS.clear();
+    }
+
+    /**
+     * ノード内のバケットの数を返します。
+     *
+     * @return バケットの数
+     */
+    public static int localBucketCount() {
+        return ActionRateLimiter.LOCAL_BUCKETS.size();
+    }
+
+    /**
+     * ノード内の制限に使う時刻の取得元を設定します。
+     *
+     * @param clock ナノ秒値を返す時刻の取得元
+     */
+    static void setClock(final LongSupplier clock) {
+        ActionRateLimiter.nanoClock = clock;
+    }
+
+    private static boolean tryAcquire(final KeycloakSession session, final RealmModel realm,
+            final ConfigSnapshot config, final Kind kind, final String value, final int limitPerMinute) {
+        String key = ActionRateLimiter.toKey(realm, kind, value);
+        boolean acquired = ActionRateLimiter.LOCAL_BUCKETS.tryAcquire(key, limitPerMinute,
+                ActionRateLimiter.nanoClock.getAsLong());
+        // SPIオプション rate-limit-cluster をtrueにした場合のみ、ノード内の制限を通過した要求をクラスターで制限する。
+        if (acquired && config.isRateLimitCluster()) {
+            acquired = ActionRateLimiter.tryAcquireInCluster(session, key, limitPerMinute);
+        }
+        if (!acquired) {
+            ActionRateLimiter.CONSOLE_LOGGER.debugf("Rate limit exceeded. Key: %s", kind.getName());
+            AuthenticatorMetrics.countRateLimited(kind.getName());
+        }
+        return acquired;
+    }
+
+    /**
+     * 取り出したトークンをノード内とクラスターのバケットへ戻します。
+     */
+    private static void release(final KeycloakSession session, final RealmModel realm, final ConfigSnapshot config,
+            final Kind kind, final String value, final int limitPerMinute) {
+        String key = ActionRateLimiter.toKey(realm, kind, value);
+        ActionRateLimiter.LOCAL_BUCKETS.release(key, limitPerMinute);
+        if (!config.isRateLimitCluster()) {
+            return;
+        }
+        try {
+            ClusterTokenBucket.release(session.getProvider(SingleUseObjectProvider.class),
+                    ActionRateLimiter.CLUSTER_KEY_PREFIX + key, limitPerMinute, Time.currentTimeMillis());
+        } catch (RuntimeException e) {
+            ActionRateLimiter.CONSOLE_LOGGER.warn("Failed to release the cluster rate limit. " + e.getMessage(), e);
+        }
+    }
+
+    private static String toKey(final RealmModel realm, final Kind kind, final String value) {
+        return realm.getId() + "." + kind.getName() + "." + Objects.toString(value, "");
+    }
+
+    private static boolean tryAcquireInCluster(final KeycloakSession session, final String key,
+            final int limitPerMinute) {
+        try {
+            SingleUseObjectProvider store = session.getProvider(SingleUseObjectProvider.class);
+            return ClusterTokenBucket.tryAcquire(store, ActionRateLimiter.CLUSTER_KEY_PREFIX + key, limitPerMinute,
+                    Time.currentTimeMillis());
+        } catch (RuntimeException e) {
+            // ストアに接続できない場合は、ノード内の制限だけで受け付ける。
+            ActionRateLimiter.CONSOLE_LOGGER.warn("Failed to check the cluster rate limit. " + e.getMessage(), e);
+            return true;
+        }
+    }
+
+    private static String fingerprint(final String certificateContent) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(certificateContent.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 要求数を数えるキーの種類です。
+     */
+    public static enum Kind {
+        IP("ip"),
+        CARD("card"),
+        SESSION("session");
+
+        private String name;
+
+        private Kind(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+    }
+}
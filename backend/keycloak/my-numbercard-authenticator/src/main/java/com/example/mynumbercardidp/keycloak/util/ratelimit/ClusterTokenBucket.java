@@ -0,0 +1,73 @@
+package com.example.mynumbercardidp.keycloak.util.ratelimit;
+
+import org.keycloak.models.SingleUseObjectProvider;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keycloakの使い捨てオブジェクトストアでクラスターのノード間に共有するトークンバケットです。
+ *
+ * {@link TokenBuckets}と同じく、次にトークンが満たされる理論上の時刻をエポックミリ秒で保存します。
+ * ストアには比較交換の操作が無いため、別々のノードで同じキーの要求を同時に処理した場合は上限をわずかに超えることがあります。
+ */
+final class ClusterTokenBucket {
+    /** 理論上の時刻を保存する項目名 */
+    private static final String TAT_NOTE = "tat";
+    private static final long MINUTE_MILLIS = 60_000L;
+
+    private ClusterTokenBucket() {
+    }
+
+    /**
+     * キーのバケットからトークンを1つ取り出します。
+     *
+     * @param store          使い捨てオブジェクトストア
+     * @param key            バケットのキー
+     * @param limitPerMinute 1分あたりの要求数の上限
+     * @param nowMillis      現在時刻のエポックミリ秒
+     * @return 取り出せた場合はtrue、バケットが空の場合はfalse
+     */
+    static boolean tryAcquire(final SingleUseObjectProvider store, final String key, final int limitPerMinute,
+            final long nowMillis) {
+        long interval = Math.max(ClusterTokenBucket.MINUTE_MILLIS / limitPerMinute, 1L);
+        long tolerance = interval * (limitPerMinute - 1);
+        Map<String, String> notes = store.get(key);
+        long base = nowMillis;
+        if (Objects.nonNull(notes) && Objects.nonNull(notes.get(ClusterTokenBucket.TAT_NOTE))) {
+            base = Math.max(Long.parseLong(notes.get(ClusterTokenBucket.TAT_NOTE)), nowMillis);
+        }
+        if (base - nowMillis > tolerance) {
+            return false;
+        }
+        long next = base + interval;
+        // バケットが満杯に戻った後は削除されても判定が変わらないため、その時刻までを有効期間とする。
+        long lifespanSeconds = (next - nowMillis + 999L) / 1000L;
+        store.put(key, lifespanSeconds, Map.of(ClusterTokenBucket.TAT_NOTE, Long.toString(next)));
+        return true;
+    }
+
+    /**
+     * {@link #tryAcquire(SingleUseObjectProvider, String, int, long)}で取り出したトークンをキーのバケットへ戻します。
+     *
+     * @param store          使い捨てオブジェクトストア
+     * @param key            バケットのキー
+     * @param limitPerMinute 1分あたりの要求数の上限
+     * @param nowMillis      現在時刻のエポックミリ秒
+     */
+    static void release(final SingleUseObjectProvider store, final String key, final int limitPerMinute,
+            final long nowMillis) {
+        Map<String, String> notes = store.get(key);
+        if (Objects.isNull(notes) || Objects.isNull(notes.get(ClusterTokenBucket.TAT_NOTE))) {
+            return;
+        }
+        long interval = Math.max(ClusterTokenBucket.MINUTE_MILLIS / limitPerMinute, 1L);
+        long next = Long.parseLong(notes.get(ClusterTokenBucket.TAT_NOTE)) - interval;
+        if (next - nowMillis <= 0) {
+            // 満杯に戻ったバケットは削除されても判定が変わらない
+            store.remove(key);
+            return;
+        }
+        store.put(key, (next - nowMillis + 999L) / 1000L, Map.of(ClusterTokenBucket.TAT_NOTE, Long.toString(next)));
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.mynumbercardidp.keycloak.util.ratelimit;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * キーごとのトークンバケットを管理するクラスです。
+ *
+ * バケットは次にトークンが満たされる理論上の時刻（GCRA）を1つのlong値で表します。
+ * キーはハッシュ値で分割したマップへ格納し、分割したマップごとにロックして更新します。
+ * マップは使われた順にキーを並べ、キーの数が上限に達した場合は古い方から満杯のバケットを削除します。
+ * 満杯のバケットは削除しても判定が変わらないため、この削除は要求数の制限を緩めません。
+ * それでも上限を超える場合は最も長く使われていないバケットを削除し、メモリの使用量を上限内に保ちます。
+ *
+ * バケットごとのAtomicLongの比較交換にしないのは、使われた順を保つためです。
+ * 使われた順のマップは読み込みのたびに順序を書き換えるため、比較交換にしてもマップの更新にロックが必要です。
+ * 順序を持たないマップでは、使われ続けているバケットを削除せずにキーの数を上限内に保つことができません。
+ * ロックしている間の処理は数回のフィールドの読み書きのみで、ロックはマップの分割数だけ分散します。
+ */
+final class TokenBuckets {
+    /** 分割するマップの数 2の累乗とする */
+    private static final int STRIPES = 16;
+    /** 分割したマップごとのキーの数の上限 */
+    private static final int MAX_ENTRIES_PER_STRIPE = 4096;
+    /** 1分のナノ秒値 */
+    private static final long MINUTE_NANOS = 60_000_000_000L;
+
+    private final Stripe[] stripes;
+
+    TokenBuckets() {
+        this(TokenBuckets.MAX_ENTRIES_PER_STRIPE);
+    }
+
+    /**
+     * @param maxEntriesPerStripe 分割したマップごとのキーの数の上限
+     */
+    TokenBuckets(final int maxEntriesPerStripe) {
+        this.stripes = new Stripe[TokenBuckets.STRIPES];
+        for (int i = 0; i < TokenBuckets.STRIPES; i++) {
+            this.stripes[i] = new Stripe(maxEntriesPerStripe);
+        }
+    }
+
+    /**
+     * キーのバケットからトークンを1つ取り出します。
+     *
+     * バケットの容量は1分あたりの要求数と同じで、1分で空から満杯まで補充されます。
+     *
+     * @param key            バケットのキー
+     * @param limitPerMinute 1分あたりの要求数の上限
+     * @param nowNanos       現在時刻のナノ秒値
+     * @return 取り出せた場合はtrue、バケットが空の場合はfalse
+     */
+    boolean tryAcquire(final String key, final int limitPerMinute, final long nowNanos) {
+        long interval = Math.max(TokenBuckets.MINUTE_NANOS / limitPerMinute, 1L);
+        long tolerance = interval * (limitPerMinute - 1);
+        int hash = key.hashCode();
+        Stripe stripe = this.stripes[(hash ^ (hash >>> 16)) & (TokenBuckets.STRIPES - 1)];
+        synchronized (stripe) {
+            long[] bucket = stripe.get(key);
+            if (bucket == null) {
+                if (stripe.size() >= stripe.maxEntries) {
+                    stripe.removeFullBuckets(nowNanos);
+                }
+                bucket = new long[] { nowNanos };
+                stripe.put(key, bucket);
+            }
+            long base = bucket[0] - nowNanos > 0 ? bucket[0] : nowNanos;
+            if (base - nowNanos > tolerance) {
+                return false;
+            }
+            bucket[0] = base + interval;
+            return true;
+        }
+    }
+
+    /**
+     * {@link #tryAcquire(String, int, long)}で取り出したトークンをキーのバケットへ戻します。
+     *
+     * 後の確認で要求を拒否した場合に、取り出したトークンを要求数に数えないよう呼び出します。
+     *
+     * @param key            バケットのキー
+     * @param limitPerMinute 1分あたりの要求数の上限
+     */
+    void release(final String key, final int limitPerMinute) {
+        long interval = Math.max(TokenBuckets.MINUTE_NANOS / limitPerMinute, 1L);
+        int hash = key.hashCode();
+        Stripe stripe = this.stripes[(hash ^ (hash >>> 16)) & (TokenBuckets.STRIPES - 1)];
+        synchronized (stripe) {
+            long[] bucket = stripe.get(key);
+            if (bucket != null) {
+                bucket[0] -= interval;
+            }
+        }
+    }
+
+    /**
+     * すべてのバケットを削除します。
+     */
+    void clear() {
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * 管理しているバケットの数を返します。
+     *
+     * @return バケットの数
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 使われた順にバケットを並べ、キーの数が上限を超えた場合に最も長く使われていないバケットを削除するマップです。
+     */
+    private static final class Stripe extends LinkedHashMap<String, long[]> {
+        private static final long serialVersionUID = 1L;
+        private final int maxEntries;
+
+        Stripe(final int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        /**
+         * 最も長く使われていないバケットから順に、満杯のバケットを削除します。
+         *
+         * 満杯ではないバケットが現れた時点で終了するため、削除したバケットの数に比例した時間で終わります。
+         *
+         * @param nowNanos 現在時刻のナノ秒値
+         */
+        void removeFullBuckets(final long nowNanos) {
+            Iterator<long[]> iterator = this.values().iterator();
+            while (iterator.hasNext() && iterator.next()[0] - nowNanos <= 0) {
+                iterator.remove();
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, long[]> eldest) {
+            return this.size() > this.maxEntries;
+        }
+    }
+}
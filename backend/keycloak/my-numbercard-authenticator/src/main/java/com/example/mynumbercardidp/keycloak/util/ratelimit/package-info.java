@@ -0,0 +1,4 @@
+/**
+ * 認証SPIへの要求数を制限するユーティリティクラスを定義します。
+ */
+package com.example.mynumbercardidp.keycloak.util.ratelimit;
@@ -0,0 +1,273 @@
+package com.example.mynumbercardidp.keycloak.util.token;
+
+import org.jboss.logging.Logger;
+import org.keycloak.common.util.Time;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.SingleUseObjectProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.managers.AuthenticationManager;
+import org.keycloak.services.managers.RealmManager;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * カスタムRESTエンドポイントへ送信されたアクセストークンを検証するユーティリティクラスです。
+ *
+ * アクセストークンの発行者からレルムを特定し、KeycloakのBearerTokenAuthenticatorで署名とユーザーセッションを検証します。
+ * キャッシュを有効にした場合は、検証済みのアクセストークンを有効期限まで保持し、同じトークンの再送では署名の検証を省略します。
+ * キャッシュから返す場合も、使い捨てオブジェクトストアの失効登録、レルムの失効日時、ユーザーセッションとユーザーの状態は毎回確認します。
+ * 発行者とレルムの対応もキャッシュし、レルム名による検索を省略します。
+ */
+public final class BearerTokenVerifier {
+    private static final Logger CONSOLE_LOGGER = Logger.getLogger(BearerTokenVerifier.class);
+    /** キャッシュするアクセストークンの最大数 超えた場合は期限切れを破棄し、それでも超える場合は全て破棄する */
+    static final int MAX_TOKENS = 4096;
+    /** キャッシュする発行者の最大数 超えた場合は全て破棄する */
+    static final int MAX_ISSUERS = 256;
+    /** アクセストークンのSHA-256ハッシュ値ごとの検証結果 */
+    private static final ConcurrentMap<String, VerifiedEntry> TOKENS = new ConcurrentHashMap<>();
+    /** 発行者ごとのレルムID */
+    private static final ConcurrentMap<String, String> ISSUERS = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = false;
+
+    private BearerTokenVerifier() {
+    }
+
+    /**
+     * 検証結果のキャッシュを有効にします。
+     */
+    public static void enable() {
+        BearerTokenVerifier.enabled = true;
+    }
+
+    /**
+     * 検証結果のキャッシュを無効にし、キャッシュした検証結果を全て破棄します。
+     */
+    public static void disable() {
+        BearerTokenVerifier.enabled = false;
+        BearerTokenVerifier.invalidate();
+    }
+
+    /**
+     * キャッシュした検証結果と発行者の対応を全て破棄します。
+     */
+    public static void invalidate() {
+        BearerTokenVerifier.TOKENS.clear();
+        BearerTokenVerifier.ISSUERS.clear();
+    }
+
+    /**
+     * アクセストークンを検証します。
+     *
+     * @param session     Keycloakのセッション
+     * @param tokenString Authorizationヘッダーから取り出したアクセストークン
+     * @return 検証されたアクセストークン 検証できなかった場合はNull
+     */
+    public static VerifiedToken verify(final KeycloakSession session, final String tokenString) {
+        String tokenHash = null;
+        if (BearerTokenVerifier.enabled && Objects.nonNull(tokenString)) {
+            tokenHash = BearerTokenVerifier.hash(tokenString);
+            VerifiedEntry entry = BearerTokenVerifier.TOKENS.get(tokenHash);
+            if (Objects.nonNull(entry)) {
+                VerifiedToken verified = BearerTokenVerifier.revalidate(session, entry);
+                if (Objects.isNull(verified)) {
+                    BearerTokenVerifier.TOKENS.remove(tokenHash, entry);
+                }
+                return verified;
+            }
+        }
+
+        AccessToken token;
+        try {
+            token = new JWSInput(tokenString).readJsonContent(AccessToken.class);
+        } catch (JWSInputException e) {
+            BearerTokenVerifier.CONSOLE_LOGGER.debugf("Invalid access token: %s", e.getMessage());
+            return null;
+        }
+        RealmModel realm = BearerTokenVerifier.resolveRealm(session, token.getIssuer());
+        if (Objects.isNull(realm)) {
+            return null;
+        }
+        AuthenticationManager.AuthResult authResult = new AppAuthManager.BearerTokenAuthenticator(session)
+                .setRealm(realm)
+                .setUriInfo(session.getContext().getUri())
+                .setTokenString(tokenString)
+                .setConnection(session.getContext().getConnection())
+                .setHeaders(session.getContext().getRequestHeaders())
+                .authenticate();
+        if (Objects.isNull(authResult)) {
+            return null;
+        }
+        // 失効の登録とユーザーセッションを確認できるトークンのみキャッシュする。
+        if (Objects.nonNull(tokenHash) && Objects.nonNull(token.getId()) && Objects.nonNull(token.getExp())
+                && Objects.nonNull(token.getSessionId())) {
+            BearerTokenVerifier.store(tokenHash, new VerifiedEntry(token, realm.getId()));
+        }
+        return new VerifiedToken(token, realm, authResult.getUser());
+    }
+
+    /**
+     * キャッシュした検証結果が現在も有効であるかを確認します。
+     *
+     * 署名は検証済みのため、有効期限、失効の登録、ユーザーセッションとユーザーの状態のみを確認します。
+     *
+     * @param session Keycloakのセッション
+     * @param entry   キャッシュした検証結果
+     * @return 検証されたアクセストークン 有効でない場合はNull
+     */
+    private static VerifiedToken revalidate(final KeycloakSession session, final VerifiedEntry entry) {
+        AccessToken token = entry.token;
+        if (token.getExp() <= Time.currentTime()) {
+            return null;
+        }
+        RealmModel realm = session.realms().getRealm(entry.realmId);
+        if (Objects.isNull(realm) || (Objects.nonNull(token.getIat()) && token.getIat() < realm.getNotBefore())) {
+            return null;
+        }
+        SingleUseObjectProvider singleUseStore = session.getProvider(SingleUseObjectProvider.class);
+        if (singleUseStore.contains(token.getId() + SingleUseObjectProvider.REVOKED_KEY)) {
+            return null;
+        }
+        UserSessionModel userSession = session.sessions().getUserSession(realm, token.getSessionId());
+        if (Objects.isNull(userSession) || !AuthenticationManager.isSessionValid(realm, userSession)) {
+            return null;
+        }
+        UserModel user = userSession.getUser();
+        if (Objects.isNull(user) || !user.isEnabled()
+                || (Objects.nonNull(token.getSubject()) && !user.getId().equals(token.getSubject()))) {
+            return null;
+        }
+        return new VerifiedToken(token, realm, user);
+    }
+
+    /**
+     * アクセストークンの発行者からレルムを返します。
+     *
+     * @param session Keycloakのセッション
+     * @param issuer  アクセストークンの発行者
+     * @return レルム 見つからない場合はNull
+     */
+    private static RealmModel resolveRealm(final KeycloakSession session, final String issuer) {
+        if (Objects.isNull(issuer)) {
+            return null;
+        }
+        String realmName = issuer.substring(issuer.lastIndexOf('/') + 1);
+        if (BearerTokenVerifier.enabled) {
+            String realmId = BearerTokenVerifier.ISSUERS.get(issuer);
+            if (Objects.nonNull(realmId)) {
+                RealmModel realm = session.realms().getRealm(realmId);
+                // レルムの削除や名前の変更があった場合は、レルム名で検索し直す。
+                if (Objects.nonNull(realm) && realmName.equals(realm.getName())) {
+                    return realm;
+                }
+                BearerTokenVerifier.ISSUERS.remove(issuer, realmId);
+            }
+        }
+        RealmModel realm = new RealmManager(session).getRealmByName(realmName);
+        if (BearerTokenVerifier.enabled && Objects.nonNull(realm)) {
+            if (BearerTokenVerifier.ISSUERS.size() >= BearerTokenVerifier.MAX_ISSUERS) {
+                BearerTokenVerifier.ISSUERS.clear();
+            }
+            BearerTokenVerifier.ISSUERS.put(issuer, realm.getId());
+        }
+        return realm;
+    }
+
+    private static void store(final String tokenHash, final VerifiedEntry entry) {
+        if (BearerTokenVerifier.TOKENS.size() >= BearerTokenVerifier.MAX_TOKENS) {
+            int now = Time.currentTime();
+            BearerTokenVerifier.TOKENS.values().removeIf(cached -> cached.token.getExp() <= now);
+            if (BearerTokenVerifier.TOKENS.size() >= BearerTokenVerifier.MAX_TOKENS) {
+                BearerTokenVerifier.TOKENS.clear();
+            }
+        }
+        BearerTokenVerifier.TOKENS.put(tokenHash, entry);
+    }
+
+    /**
+     * アクセストークン全体のハッシュ値を返します。
+     *
+     * 署名が異なるトークンを同じトークンとして扱わないよう、トークンIDではなくトークン全体をキーにします。
+     *
+     * @param tokenString アクセストークン
+     * @return SHA-256ハッシュ値のBase64URL文字列
+     */
+    private static String hash(final String tokenString) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(tokenString.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * キャッシュした検証済みのアクセストークンの数を返します。
+     *
+     * @return アクセストークンの数
+     */
+    public static int size() {
+        return BearerTokenVerifier.TOKENS.size();
+    }
+
+    /**
+     * キャッシュした発行者とレルムの対応の数を返します。
+     *
+     * @return 発行者の数
+     */
+    public static int issuerCount() {
+        return BearerTokenVerifier.ISSUERS.size();
+    }
+
+    /**
+     * 検証されたアクセストークンです。
+     */
+    public static final class VerifiedToken {
+        private final AccessToken token;
+        private final RealmModel realm;
+        private final UserModel user;
+
+        private VerifiedToken(final AccessToken token, final RealmModel realm, final UserModel user) {
+            this.token = token;
+            this.realm = realm;
+            this.user = user;
+        }
+
+        public AccessToken getToken() {
+            return this.token;
+        }
+
+        public RealmModel getRealm() {
+            return this.realm;
+        }
+
+        public UserModel getUser() {
+            return this.user;
+        }
+    }
+
+    /**
+     * キャッシュした検証結果です。
+     */
+    private static final class VerifiedEntry {
+        private final AccessToken token;
+        private final String realmId;
+
+        private VerifiedEntry(final AccessToken token, final String realmId) {
+            this.token = token;
+            this.realmId = realmId;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * カスタムRESTエンドポイントのアクセストークンを検証するユーティリティクラスを定義します。
+ */
+package com.example.mynumbercardidp.keycloak.util.token;
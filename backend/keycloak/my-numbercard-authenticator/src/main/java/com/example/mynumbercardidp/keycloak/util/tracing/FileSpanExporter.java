@@ -0,0 +1,152 @@
+package com.example.mynumbercardidp.keycloak.util.tracing;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * スパンを OTLP JSON 形式でファイルへ追記する出力先です。
+ *
+ * 1トレースを1行として出力します。ネットワークに接続できない環境での確認に利用します。
+ * 書き込みは上限付きのキューを介して専用のスレッドで行い、認証処理のスレッドをディスクの入出力で待たせません。
+ * キューが一杯の場合はトレースを破棄します。
+ */
+public class FileSpanExporter implements SpanExporter {
+    /** 書き込みを待つトレースの既定の最大数 */
+    static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static Logger consoleLogger = Logger.getLogger(FileSpanExporter.class);
+    /** 出力先を閉じるときに、キューに残ったトレースの書き込みを待つ時間 */
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000L;
+    /** 終了を書き込みスレッドへ伝える目印 */
+    private static final List<TraceSpan> END_OF_QUEUE = List.of();
+
+    private final Path path;
+    private final OtlpJsonEncoder encoder;
+    private final BlockingQueue<List<TraceSpan>> queue;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * @param path        出力先ファイルのパス
+     * @param serviceName リソース属性 service.name の値
+     */
+    public FileSpanExporter(final Path path, final String serviceName) {
+        this(path, serviceName, FileSpanExporter.DEFAULT_QUEUE_CAPACITY);
+        this.start();
+    }
+
+    /**
+     * 書き込みスレッドを開始せずに作成します。
+     *
+     * @param path          出力先ファイルのパス
+     * @param serviceName   リソース属性 service.name の値
+     * @param queueCapacity 書き込みを待つトレースの最大数
+     */
+    FileSpanExporter(final Path path, final String serviceName, final int queueCapacity) {
+        this.path = Objects.requireNonNull(path);
+        this.encoder = new OtlpJsonEncoder(serviceName);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        Path directory = path.toAbsolutePath().getParent();
+        try {
+            if (Objects.nonNull(directory)) {
+                Files.createDirectories(directory);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.writer = new Thread(this::writeLoop, "my-number-card-trace-writer");
+        this.writer.setDaemon(true);
+    }
+
+    void start() {
+        this.writer.start();
+    }
+
+    @Override
+    public void export(final List<TraceSpan> spans) {
+        if (this.closed || !this.queue.offer(spans)) {
+            long dropped = this.droppedCount.incrementAndGet();
+            FileSpanExporter.consoleLogger.debugf("Trace spans were dropped. Total dropped traces: %d", dropped);
+        }
+    }
+
+    /**
+     * キューに残ったトレースを書き込んでから出力先を閉じます。
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            // キューが一杯の場合でも目印を入れられるよう、書き込みスレッドが空きを作るまで待つ。
+            if (!this.queue.offer(FileSpanExporter.END_OF_QUEUE, FileSpanExporter.CLOSE_TIMEOUT_MILLIS,
+                    TimeUnit.MILLISECONDS)) {
+                this.writer.interrupt();
+            }
+            this.writer.join(FileSpanExporter.CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * キューが一杯のため、または閉じた後に破棄したトレースの数を返します。
+     *
+     * @return 破棄したトレースの数
+     */
+    long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    private void writeLoop() {
+        List<List<TraceSpan>> batch = new ArrayList<>();
+        try (OutputStream output = Files.newOutputStream(this.path, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND)) {
+            while (true) {
+                batch.add(this.queue.take());
+                this.queue.drainTo(batch);
+                for (List<TraceSpan> spans : batch) {
+                    if (spans == FileSpanExporter.END_OF_QUEUE) {
+                        output.flush();
+                        return;
+                    }
+                    this.write(output, spans);
+                }
+                batch.clear();
+                output.flush();
+            }
+        } catch (IOException e) {
+            FileSpanExporter.consoleLogger.warn("Failed to write trace spans. " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.closed = true;
+            this.queue.clear();
+        }
+    }
+
+    private void write(final OutputStream output, final List<TraceSpan> spans) throws IOException {
+        try {
+            output.write((this.encoder.encode(spans) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            // 1つのトレースを変換できない場合でも、以降のトレースは書き込む。
+            FileSpanExporter.consoleLogger.warn("Failed to encode trace spans. " + e.getMessage());
+        }
+    }
+}
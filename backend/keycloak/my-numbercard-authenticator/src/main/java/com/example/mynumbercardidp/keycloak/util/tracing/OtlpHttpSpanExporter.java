@@ -0,0 +1,57 @@
+package com.example.mynumbercardidp.keycloak.util.tracing;
+
+import org.jboss.logging.Logger;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * スパンを OTLP/HTTP の JSON 形式で OpenTelemetry Collector へ送信する出力先です。
+ *
+ * 送信は非同期で行い、認証処理の応答を待たせません。送信に失敗したトレースは破棄します。
+ */
+public class OtlpHttpSpanExporter implements SpanExporter {
+    /** ローカルの Collector が待ち受ける既定のエンドポイント */
+    public static final String DEFAULT_ENDPOINT = "http://localhost:4318/v1/traces";
+
+    private static Logger consoleLogger = Logger.getLogger(OtlpHttpSpanExporter.class);
+    private static final Duration TIMEOUT = Duration.ofSeconds(5L);
+
+    private final URI endpoint;
+    private final OtlpJsonEncoder encoder;
+    private final HttpClient httpClient;
+
+    /**
+     * @param endpoint    Collector の traces エンドポイント
+     * @param serviceName リソース属性 service.name の値
+     */
+    public OtlpHttpSpanExporter(final URI endpoint, final String serviceName) {
+        this.endpoint = Objects.requireNonNull(endpoint);
+        this.encoder = new OtlpJsonEncoder(serviceName);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(OtlpHttpSpanExporter.TIMEOUT)
+                .build();
+    }
+
+    @Override
+    public void export(final List<TraceSpan> spans) {
+        HttpRequest request = HttpRequest.newBuilder(this.endpoint)
+                .timeout(OtlpHttpSpanExporter.TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(this.encoder.encode(spans)))
+                .build();
+        this.httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, throwable) -> {
+                    if (Objects.nonNull(throwable)) {
+                        OtlpHttpSpanExporter.consoleLogger.debug("Failed to send trace spans. " + throwable.getMessage());
+                    } else if (300 <= response.statusCode()) {
+                        OtlpHttpSpanExporter.consoleLogger.debug("Collector returned status " + response.statusCode());
+                    }
+                });
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.mynumbercardidp.keycloak.util.tracing;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * スパンを OpenTelemetry Protocol (OTLP) の JSON 形式へ変換します。
+ *
+ * 出力は OTLP/HTTP の JSON リクエストボディと同じ形式のため、
+ * OpenTelemetry Collector の otlp レシーバー、otlpjsonfile レシーバーのどちらでも読み込めます。
+ */
+final class OtlpJsonEncoder {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    /** OTLP の SPAN_KIND_INTERNAL */
+    private static final int SPAN_KIND_INTERNAL = 1;
+    /** OTLP の STATUS_CODE_ERROR */
+    private static final int STATUS_CODE_ERROR = 2;
+    private static final String SCOPE_NAME = "com.example.mynumbercardidp.keycloak";
+
+    private final String serviceName;
+
+    OtlpJsonEncoder(final String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * スパンのリストを ExportTraceServiceRequest 形式の JSON 文字列へ変換します。
+     *
+     * @param spans スパンのリスト
+     * @return JSON 文字列（改行を含みません）
+     */
+    String encode(final List<TraceSpan> spans) {
+        ObjectNode root = OtlpJsonEncoder.MAPPER.createObjectNode();
+        ObjectNode resourceSpans = root.putArray("resourceSpans").addObject();
+        ArrayNode resourceAttributes = resourceSpans.putObject("resource").putArray("attributes");
+        OtlpJsonEncoder.addAttribute(resourceAttributes, "service.name", this.serviceName);
+        ObjectNode scopeSpans = resourceSpans.putArray("scopeSpans").addObject();
+        scopeSpans.putObject("scope").put("name", OtlpJsonEncoder.SCOPE_NAME);
+        ArrayNode spanArray = scopeSpans.putArray("spans");
+        for (TraceSpan span : spans) {
+            ObjectNode node = spanArray.addObject();
+            node.put("traceId", span.getTraceId());
+            node.put("spanId", span.getSpanId());
+            if (!span.getParentSpanId().isEmpty()) {
+                node.put("parentSpanId", span.getParentSpanId());
+            }
+            node.put("name", span.getName());
+            node.put("kind", OtlpJsonEncoder.SPAN_KIND_INTERNAL);
+            // OTLP/JSON では 64bit 整数を文字列で表す。
+            node.put("startTimeUnixNano", Long.toString(span.getStartEpochNanos()));
+            node.put("endTimeUnixNano", Long.toString(span.getEndEpochNanos()));
+            ArrayNode attributes = node.putArray("attributes");
+            for (Map.Entry<String, String> attribute : span.getAttributes().entrySet()) {
+                OtlpJsonEncoder.addAttribute(attributes, attribute.getKey(), attribute.getValue());
+            }
+            if (span.isError()) {
+                ObjectNode status = node.putObject("status");
+                status.put("code", OtlpJsonEncoder.STATUS_CODE_ERROR);
+                status.put("message", span.getErrorMessage());
+            }
+        }
+        try {
+            return OtlpJsonEncoder.MAPPER.writeValueAsString(root);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void addAttribute(final ArrayNode attributes, final String key, final String value) {
+        ObjectNode attribute = attributes.addObject();
+        attribute.put("key", key);
+        attribute.putObject("value").put("stringValue", value);
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.mynumbercardidp.keycloak.util.tracing;
+
+import java.util.List;
+
+/**
+ * 終了したトレースのスパンを出力する機能を定義します。
+ */
+public interface SpanExporter {
+
+    /**
+     * 一つのトレースに属するスパンを出力します。
+     *
+     * @param spans 終了したスパンのリスト
+     */
+    void export(List<TraceSpan> spans);
+
+    /**
+     * 出力先を閉じます。
+     */
+    default void close() {
+    }
+}
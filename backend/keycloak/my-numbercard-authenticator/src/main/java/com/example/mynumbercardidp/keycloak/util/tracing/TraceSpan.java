@@ -0,0 +1,199 @@
+package com.example.mynumbercardidp.keycloak.util.tracing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 処理の一段階を表すトレースのスパンです。
+ *
+ * スパンは{@link Tracing#startSpan(String)}で開始し、try-with-resources文で閉じます。
+ * ルートスパンが閉じられた時点で、同じトレースに属する全てのスパンが出力先へ渡されます。
+ */
+public final class TraceSpan implements AutoCloseable {
+    /** 計測が無効な場合に返す何もしないスパン */
+    static final TraceSpan NOOP = new TraceSpan();
+
+    private final Trace trace;
+    private final TraceSpan parent;
+    private final String name;
+    private final String spanId;
+    private final long startEpochNanos;
+    private final long startNanos;
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+    private long endEpochNanos;
+    private boolean error = false;
+    private String errorMessage;
+    private boolean ended = false;
+
+    private TraceSpan() {
+        this.trace = null;
+        this.parent = null;
+        this.name = "";
+        this.spanId = "";
+        this.startEpochNanos = 0L;
+        this.startNanos = 0L;
+        this.ended = true;
+    }
+
+    TraceSpan(final Trace trace, final TraceSpan parent, final String name, final String spanId) {
+        this.trace = trace;
+        this.parent = parent;
+        this.name = name;
+        this.spanId = spanId;
+        this.startEpochNanos = Tracing.currentEpochNanos();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * スパンに属性を設定します。
+     *
+     * @param key   属性名
+     * @param value 属性値 nullの場合は設定しません
+     * @return このスパン
+     */
+    public TraceSpan setAttribute(final String key, final Object value) {
+        if (this.ended || Objects.isNull(value)) {
+            return this;
+        }
+        this.attributes.put(key, value.toString());
+        return this;
+    }
+
+    /**
+     * スパンに処理の失敗を記録します。
+     *
+     * @param throwable 発生した例外
+     * @return このスパン
+     */
+    public TraceSpan recordException(final Throwable throwable) {
+        if (this.ended) {
+            return this;
+        }
+        this.error = true;
+        this.errorMessage = throwable.getClass().getName() + ": " + throwable.getMessage();
+        return this;
+    }
+
+    /**
+     * スパンを終了します。
+     *
+     * ルートスパンの場合はトレースを出力先へ渡します。
+     */
+    @Override
+    public void close() {
+        if (this.ended) {
+            return;
+        }
+        this.ended = true;
+        this.endEpochNanos = this.startEpochNanos + (System.nanoTime() - this.startNanos);
+        this.trace.finished(this);
+        Tracing.restoreCurrentSpan(this, this.parent);
+        if (Objects.isNull(this.parent)) {
+            Tracing.export(this.trace.getSpans());
+        }
+    }
+
+    /**
+     * W3C Trace Context 形式の traceparent ヘッダー値を返します。
+     *
+     * @return traceparent ヘッダー値
+     */
+    public String toTraceparent() {
+        return "00-" + this.trace.getTraceId() + "-" + this.spanId + "-01";
+    }
+
+    public boolean isRecording() {
+        return !this.ended;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getTraceId() {
+        return Objects.isNull(this.trace) ? "" : this.trace.getTraceId();
+    }
+
+    public String getSpanId() {
+        return this.spanId;
+    }
+
+    public String getParentSpanId() {
+        return Objects.isNull(this.parent) ? "" : this.parent.spanId;
+    }
+
+    public long getStartEpochNanos() {
+        return this.startEpochNanos;
+    }
+
+    public long getEndEpochNanos() {
+        return this.endEpochNanos;
+    }
+
+    public boolean isError() {
+        return this.error;
+    }
+
+    public String getErrorMessage() {
+        return this.errorMessage;
+    }
+
+    /**
+     * スパン固有の属性と、トレース全体に設定された属性を合わせて返します。
+     *
+     * @return 属性名と属性値の組み合わせ
+     */
+    public Map<String, String> getAttributes() {
+        Map<String, String> merged = new LinkedHashMap<>();
+        if (Objects.nonNull(this.trace)) {
+            merged.putAll(this.trace.getAttributes());
+        }
+        merged.putAll(this.attributes);
+        return Collections.unmodifiableMap(merged);
+    }
+
+    Trace getTrace() {
+        return this.trace;
+    }
+
+    /**
+     * 一つのルートスパンから始まるスパンの集まりです。
+     */
+    static final class Trace {
+        private final String traceId;
+        private final List<TraceSpan> spans = Collections.synchronizedList(new ArrayList<>());
+        private final Map<String, String> attributes = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        Trace(final String traceId) {
+            this.traceId = traceId;
+        }
+
+        String getTraceId() {
+            return this.traceId;
+        }
+
+        void finished(final TraceSpan span) {
+            this.spans.add(span);
+        }
+
+        List<TraceSpan> getSpans() {
+            synchronized (this.spans) {
+                return new ArrayList<>(this.spans);
+            }
+        }
+
+        void setAttribute(final String key, final String value) {
+            this.attributes.put(key, value);
+        }
+
+        Map<String, String> getAttributes() {
+            synchronized (this.attributes) {
+                return new LinkedHashMap<>(this.attributes);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.mynumbercardidp.keycloak.util.tracing;
+
+import org.jboss.logging.Logger;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 認証処理のトレースを記録するユーティリティクラスです。
+ *
+ * 実行中のスパンはスレッドごとに保持され、同じスレッドで開始したスパンは実行中のスパンの子になります。
+ * 無効な場合は何もしないスパンを返し、乱数の生成や時刻の取得をしません。
+ */
+public final class Tracing {
+    /** W3C Trace Context のヘッダー名 */
+    public static final String TRACEPARENT_HEADER = "traceparent";
+    /** プラットフォームのトランザクションIDを表す属性名 */
+    public static final String TRANSACTION_ID_ATTRIBUTE = "mynumbercard.transaction_id";
+
+    private static Logger consoleLogger = Logger.getLogger(Tracing.class);
+    /** スパンの出力先 nullの場合は無効 */
+    private static volatile SpanExporter exporter = null;
+    private static final ThreadLocal<TraceSpan> CURRENT_SPAN = new ThreadLocal<>();
+
+    private Tracing() {
+    }
+
+    /**
+     * トレースの記録を有効にします。
+     *
+     * @param spanExporter スパンの出力先
+     */
+    public static synchronized void enable(final SpanExporter spanExporter) {
+        Objects.requireNonNull(spanExporter);
+        Tracing.disable();
+        Tracing.exporter = spanExporter;
+    }
+
+    /**
+     * トレースの記録を無効にし、出力先を閉じます。
+     */
+    public static synchronized void disable() {
+        SpanExporter previous = Tracing.exporter;
+        Tracing.exporter = null;
+        if (Objects.nonNull(previous)) {
+            previous.close();
+        }
+    }
+
+    /**
+     * トレースの記録が有効であるかを返します。
+     *
+     * @return 有効の場合はtrue、そうでない場合はfalse
+     */
+    public static boolean isEnabled() {
+        return Objects.nonNull(Tracing.exporter);
+    }
+
+    /**
+     * スパンを開始し、実行中のスパンにします。
+     *
+     * 実行中のスパンがある場合は、その子スパンになります。
+     *
+     * @param name スパン名
+     * @return 開始したスパン 無効の場合は何もしないスパン
+     */
+    public static TraceSpan startSpan(final String name) {
+        if (!Tracing.isEnabled()) {
+            return TraceSpan.NOOP;
+        }
+        TraceSpan parent = Tracing.CURRENT_SPAN.get();
+        TraceSpan.Trace trace = Objects.isNull(parent) ? new TraceSpan.Trace(Tracing.randomHex(16))
+                : parent.getTrace();
+        TraceSpan span = new TraceSpan(trace, parent, name, Tracing.randomHex(8));
+        Tracing.CURRENT_SPAN.set(span);
+        return span;
+    }
+
+    /**
+     * 実行中のスパンを返します。
+     *
+     * @return 実行中のスパン
+     */
+    public static Optional<TraceSpan> currentSpan() {
+        return Optional.ofNullable(Tracing.CURRENT_SPAN.get());
+    }
+
+    /**
+     * 実行中のスパンを親とする W3C Trace Context 形式の traceparent ヘッダー値を返します。
+     *
+     * @return traceparent ヘッダー値 実行中のスパンが無い場合は空
+     */
+    public static Optional<String> traceparent() {
+        return Tracing.currentSpan().map(TraceSpan::toTraceparent);
+    }
+
+    /**
+     * 実行中のトレースに属する全てのスパンへ属性を設定します。
+     *
+     * 属性を設定する前に終了したスパンにも、出力時に同じ属性が付与されます。
+     *
+     * @param key   属性名
+     * @param value 属性値 nullの場合は設定しません
+     */
+    public static void setTraceAttribute(final String key, final Object value) {
+        TraceSpan span = Tracing.CURRENT_SPAN.get();
+        if (Objects.isNull(span) || Objects.isNull(value)) {
+            return;
+        }
+        span.getTrace().setAttribute(key, value.toString());
+    }
+
+    static void restoreCurrentSpan(final TraceSpan closed, final TraceSpan parent) {
+        if (Tracing.CURRENT_SPAN.get() != closed) {
+            // 子スパンを閉じずに親スパンを閉じた場合でも、スレッドに古いスパンを残さない。
+            Tracing.consoleLogger.debugf("Span %s was closed out of order.", closed.getName());
+        }
+        if (Objects.isNull(parent)) {
+            Tracing.CURRENT_SPAN.remove();
+        } else {
+            Tracing.CURRENT_SPAN.set(parent);
+        }
+    }
+
+    static void export(final List<TraceSpan> spans) {
+        SpanExporter spanExporter = Tracing.exporter;
+        if (Objects.isNull(spanExporter) || spans.isEmpty()) {
+            return;
+        }
+        try {
+            spanExporter.export(spans);
+        } catch (RuntimeException e) {
+            // トレースの出力失敗で認証処理を止めない。
+            Tracing.consoleLogger.warn("Failed to export trace spans. " + e.getMessage());
+        }
+    }
+
+    static long currentEpochNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    private static String randomHex(final int bytes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder builder = new StringBuilder(bytes * 2);
+        for (int i = 0; i < bytes; i++) {
+            String hex = Integer.toHexString(random.nextInt(256));
+            if (hex.length() == 1) {
+                builder.append('0');
+            }
+            builder.append(hex);
+        }
+        return builder.toString();
+    }
+}
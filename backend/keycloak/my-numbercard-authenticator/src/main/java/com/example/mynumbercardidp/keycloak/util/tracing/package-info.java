@@ -0,0 +1,4 @@
+/**
+ * 認証処理の各段階を計測するトレースのスパンと、その出力先を定義します。
+ */
+package com.example.mynumbercardidp.keycloak.util.tracing;
@@ -39,7 +39,11 @@
                 }
                 refreshUrl = encodeURIComponent(refreshUrl);
                 app_uri += '&error_url=' + refreshUrl;
-            
+
+                // 別の端末で認証する場合は、アプリでの認証を始めてから認証フローの状態の確認を始める。
+                if (getMobileOS() == 'other') {
+                    watchLoginStatus('${refreshUrl}'.replace(/\&amp;/gi,'&'), ${(loginLifespan!0)?c} * 1000);
+                }
                 location.href = app_uri;
             }
 
@@ -48,3 +48,79 @@ function addEventListeners() {
     let registrationButton = document.querySelector('input[name="registration"][type="button"]');
     registrationButton.addEventListener('click', () => { onClickActionButton('registration'); });
 }
+
+/**
+ * 認証画面の再読み込みURLから、認証フローの状態を返すリソースのURLを作成します。
+ */
+function createLoginStatusUrl(refreshUrl) {
+    let url = new URL(refreshUrl, location.href);
+    let statusUrl = new URL(url.pathname.replace(/\/login-actions\/.*$/, '/mynumbercard-status'), url.origin);
+    statusUrl.searchParams.set('client_id', url.searchParams.get('client_id'));
+    statusUrl.searchParams.set('tab_id', url.searchParams.get('tab_id'));
+    return statusUrl.toString();
+}
+
+/** 認証フローの状態を最初に確認するまでの間隔（ミリ秒） */
+const LOGIN_STATUS_INITIAL_INTERVAL_MILLIS = 2000;
+/** 認証フローの状態を確認する間隔の上限（ミリ秒） */
+const LOGIN_STATUS_MAX_INTERVAL_MILLIS = 16000;
+/** 認証フローの状態を確認し続ける期間が渡されない場合の期間（ミリ秒） Keycloakのログインの有効期限の既定値と同じ */
+const LOGIN_STATUS_DEFAULT_LIFESPAN_MILLIS = 1800000;
+
+/** 認証フローの状態を確認中であるか */
+let loginStatusWatching = false;
+
+/**
+ * 認証フローの状態を次に確認するまでの間隔を返します。確認するたびに間隔を倍にし、上限で止めます。
+ */
+function nextLoginStatusInterval(interval) {
+    return Math.min(interval * 2, LOGIN_STATUS_MAX_INTERVAL_MILLIS);
+}
+
+/**
+ * 別の端末での認証が終わるまで認証フローの状態を確認し、状態が変わったときだけ認証画面を再読み込みします。
+ *
+ * 確認は利用者がアプリでの認証を始めてから行い、間隔を徐々に広げます。
+ * 認証セッションの有効期間を過ぎた場合と、リソースが4xxを返した場合は確認をやめます。
+ */
+function watchLoginStatus(refreshUrl, lifespanMillis) {
+    if (loginStatusWatching) {
+        return;
+    }
+    loginStatusWatching = true;
+    let statusUrl = createLoginStatusUrl(refreshUrl);
+    let deadline = Date.now() + (lifespanMillis > 0 ? lifespanMillis : LOGIN_STATUS_DEFAULT_LIFESPAN_MILLIS);
+    let interval = LOGIN_STATUS_INITIAL_INTERVAL_MILLIS;
+    let stop = () => { loginStatusWatching = false; };
+    let schedule = () => {
+        if (Date.now() + interval > deadline) {
+            stop();
+            return;
+        }
+        setTimeout(poll, interval);
+        interval = nextLoginStatusInterval(interval);
+    };
+    let poll = () => {
+        fetch(statusUrl, { credentials: 'same-origin', cache: 'no-store' })
+            .then((response) => {
+                if (response.status >= 400 && response.status < 500) {
+                    // 要求が不正な場合は再試行しても結果が変わらないため、確認をやめる。
+                    return null;
+                }
+                return response.ok ? response.json() : Promise.reject(response.status);
+            })
+            .then((body) => {
+                if (body === null) {
+                    stop();
+                    return;
+                }
+                if (body.status === 'pending') {
+                    schedule();
+                    return;
+                }
+                location.href = refreshUrl;
+            })
+            .catch(() => { schedule(); });
+    };
+    schedule();
+}
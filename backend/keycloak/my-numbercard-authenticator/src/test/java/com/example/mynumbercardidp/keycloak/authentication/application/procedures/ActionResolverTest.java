@@ -2,15 +2,18 @@ package com.example.mynumbercardidp.keycloak.authentication.application.procedur
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.util.Map;
 
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 import org.keycloak.authentication.AuthenticationFlowContext;
@@ -28,6 +31,7 @@ public class ActionResolverTest {
     private AutoCloseable closeable;
     private String certificateStr;
     private String signStr;
+    private MultivaluedMap<String, String> decodedParams;
 
     @InjectMocks
     ActionResolver actionResolver;
@@ -62,7 +66,7 @@ public class ActionResolverTest {
             "my-num-cd-auth.platform-sender", "PlatformApiIdpSender"
         );
         
-        MultivaluedMap<String, String> decodedParams = new MultivaluedHashMap<>() {
+        decodedParams = new MultivaluedHashMap<>() {
             {
             putSingle("mode", "login");
             putSingle("encryptedUserAuthenticationCertificate", certificateStr);
@@ -112,7 +116,7 @@ public class ActionResolverTest {
                                                         });
             MockedConstruction<PlatformApiClient> platformApiClient = mockConstruction(PlatformApiClient.class,
                                                         (mock, ctx) -> {
-                                                            doNothing().when(mock).setContextForDataManager(any());
+                                                            doNothing().when(mock).setContextForDataManager(any(AuthenticationFlowContext.class));
                                                             doReturn(authenticationRequest).when(mock).getUserRequest();
                                                         });
         ) {
@@ -128,8 +132,8 @@ public class ActionResolverTest {
                 verify(platformApiClientMock, times(1)).setContextForDataManager(context);
                 verify(platformApiClientMock, times(1)).getUserRequest();
                 verify(context, times(1)).getHttpRequest();
-                verify(context, times(3)).getAuthenticatorConfig();
-                verify(authenticatorConfigModel, times(3)).getConfig();
+                verify(context, times(1)).getAuthenticatorConfig();
+                verify(authenticatorConfigModel, times(1)).getConfig();
                 verify(httpRequest, times(1)).getDecodedFormParameters();
 
                 if (userActionMode.equals("login")) {
@@ -145,4 +149,69 @@ public class ActionResolverTest {
             }
         }
     }
+
+    @Test
+    public void testExecuteUserActionAutoFallsBackToRegistration() throws Exception {
+        decodedParams.putSingle("mode", "auto");
+        decodedParams.putSingle("encryptedDigitalSignatureCertificate", certificateStr);
+        decodedParams.putSingle("digitalSignatureSign", "DigitalSignatureSign");
+
+        try(
+            MockedConstruction<LoginAction> loginAction = mockConstruction(LoginAction.class,
+                                                        (mock, ctx) -> {
+                                                            // ユーザーが見つからなかったものとして未登録時の処理を実行する。
+                                                            doAnswer(invocation -> {
+                                                                ((Runnable) invocation.getArgument(2)).run();
+                                                                return null;
+                                                            }).when(mock).authenticate(any(), any(), any());
+                                                        });
+            MockedConstruction<RegistrationAction> registrationAction = mockConstruction(RegistrationAction.class,
+                                                        (mock, ctx) -> {
+                                                            doNothing().when(mock).register(any(), any());
+                                                        });
+            MockedConstruction<PlatformApiClient> platformApiClient = mockConstruction(PlatformApiClient.class,
+                                                        (mock, ctx) -> {
+                                                            doNothing().when(mock).setContextForDataManager(any(AuthenticationFlowContext.class));
+                                                        });
+        ) {
+            actionResolver.executeUserAction(context);
+
+            assertEquals(2, platformApiClient.constructed().size());
+            PlatformApiClient loginPlatform = platformApiClient.constructed().get(0);
+            PlatformApiClient registrationPlatform = platformApiClient.constructed().get(1);
+            verify(loginPlatform, times(1)).setContextForDataManager(context);
+            verify(registrationPlatform, times(1)).setContextForDataManager(context);
+            verify(loginAction.constructed().get(0), times(1)).authenticate(eq(context), eq(loginPlatform), any());
+            verify(registrationAction.constructed().get(0), times(1)).register(context, registrationPlatform);
+            verify(httpRequest, times(1)).getDecodedFormParameters();
+            // 受信したHTMLフォームパラメータは書き換えない。
+            assertEquals("auto", decodedParams.getFirst("mode"));
+            assertEquals(signStr, decodedParams.getFirst("sign"));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"unknown", "oversized", "duplicated"})
+    public void testExecuteUserActionRejectsInvalidForm(String violation) throws Exception {
+        if (violation.equals("unknown")) {
+            decodedParams.putSingle("password", "password");
+        } else if (violation.equals("oversized")) {
+            decodedParams.putSingle("sign", "A".repeat(AuthenticationRequest.MAX_SIGN_LENGTH + 1));
+        } else {
+            decodedParams.add("applicantData", "752bb712-055a-4091-b35e-45973c475dcc");
+        }
+
+        try(
+            MockedStatic<ResponseCreater> responseCreater = mockStatic(ResponseCreater.class);
+            MockedConstruction<PlatformApiClient> platformApiClient = mockConstruction(PlatformApiClient.class);
+        ) {
+            actionResolver.executeUserAction(context);
+
+            // プラットフォームAPIクライアントを作成する前に拒否する。
+            assertEquals(0, platformApiClient.constructed().size());
+            responseCreater.verify(() -> ResponseCreater.createChallengePage(eq(context), any(), any(),
+                    eq(Response.Status.BAD_REQUEST)));
+            verify(context, times(1)).challenge(any());
+        }
+    }
 }
@@ -0,0 +1,214 @@
+package com.example.mynumbercardidp.keycloak.authentication.application.procedures;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.forms.login.LoginFormsProvider;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.ThemeManager;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.sessions.RootAuthenticationSessionModel;
+import org.keycloak.theme.Theme;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.ws.rs.core.Response;
+
+public class ChallengePageCacheTest {
+    private AutoCloseable closeable;
+    private final Map<String, Object> attributes = new HashMap<>();
+    private String pageSuffix = "";
+
+    @Mock
+    AuthenticationFlowContext context;
+    @Mock
+    KeycloakSession session;
+    @Mock
+    KeycloakContext keycloakContext;
+    @Mock
+    ThemeManager themeManager;
+    @Mock
+    Theme theme;
+    @Mock
+    RealmModel realm;
+    @Mock
+    ClientModel client;
+    @Mock
+    AuthenticationSessionModel authenticationSession;
+    @Mock
+    RootAuthenticationSessionModel rootAuthenticationSession;
+    @Mock
+    LoginFormsProvider form;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        closeable = MockitoAnnotations.openMocks(this);
+        ChallengePageCache.enable();
+
+        doReturn(session).when(context).getSession();
+        doReturn(realm).when(context).getRealm();
+        doReturn(authenticationSession).when(context).getAuthenticationSession();
+        doReturn(themeManager).when(session).theme();
+        doReturn(keycloakContext).when(session).getContext();
+        doReturn(true).when(themeManager).isCacheEnabled();
+        doReturn(theme).when(themeManager).getTheme(Theme.Type.LOGIN);
+        doReturn(Locale.JAPANESE).when(keycloakContext).resolveLocale(any());
+        doReturn("realm-id").when(realm).getId();
+        doReturn(client).when(authenticationSession).getClient();
+        doReturn("sample-client").when(client).getClientId();
+        doReturn("n2zdEv2oWSQ").when(authenticationSession).getTabId();
+        doReturn(rootAuthenticationSession).when(authenticationSession).getParentSession();
+        doReturn("df4fafea-fc51-4037-999e-2546c66ff913").when(rootAuthenticationSession).getId();
+
+        // FreeMarkerのHTML出力形式と同じく、差し込む値をHTMLエスケープして描画する。
+        doAnswer(invocation -> {
+            attributes.put("actionUri", invocation.getArgument(0));
+            return form;
+        }).when(form).setActionUri(any());
+        doAnswer(invocation -> {
+            attributes.put(invocation.getArgument(0), invocation.getArgument(1));
+            return form;
+        }).when(form).setAttribute(anyString(), any());
+        doAnswer(invocation -> {
+            String html = "<form action=\"" + escape(attributes.get("actionUri")) + "\">"
+                    + "<input id=\"nonce\" value=\"" + escape(attributes.get("nonce")) + "\"/>"
+                    + "<script>let refreshUrl = '" + escape(attributes.get("refreshUrl")) + "';"
+                    + "let initialView = '" + escape(attributes.get("initialView")) + "';</script>"
+                    + pageSuffix + "</form>";
+            return Response.ok(html).header("Content-Language", "ja").build();
+        }).when(form).createLoginUsernamePassword();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        ChallengePageCache.disable();
+        closeable.close();
+    }
+
+    @Test
+    public void testRenderUsesCachedPage() {
+        Response first = ChallengePageCache.render(context, form, null, null, createValues("nonce-1", "code-1"));
+        Response second = ChallengePageCache.render(context, form, null, null, createValues("nonce-2", "code-2"));
+
+        verify(form, times(1)).createLoginUsernamePassword();
+        assertEquals(render("nonce-1", "code-1"), first.getEntity());
+        assertEquals(render("nonce-2", "code-2"), second.getEntity());
+        assertEquals("ja", second.getHeaderString("Content-Language"));
+        assertEquals(createActionUrl("code-2").toString(), second.getHeaderString(ResponseCreater.ACTION_URL_HEADER));
+    }
+
+    @Test
+    public void testRenderRestoresFormAttributes() {
+        ChallengePageCache.render(context, form, null, null, createValues("nonce-1", "code-1"));
+
+        assertEquals(createActionUrl("code-1"), attributes.get("actionUri"));
+        assertEquals("nonce-1", attributes.get("nonce"));
+        assertEquals("login", attributes.get("initialView"));
+    }
+
+    @Test
+    public void testRenderPerError() {
+        ChallengePageCache.render(context, form, null, null, createValues("nonce-1", "code-1"));
+        ChallengePageCache.render(context, form, "invalidRequestMessage", null, createValues("nonce-2", "code-2"));
+        ChallengePageCache.render(context, form, "invalidRequestMessage", null, createValues("nonce-3", "code-3"));
+
+        verify(form, times(2)).createLoginUsernamePassword();
+    }
+
+    @Test
+    public void testRenderWithSessionValues() {
+        // ロケール選択のリンクなど、目印以外の部分にタブIDが含まれる画面はキャッシュしない。
+        pageSuffix = "<a href=\"?kc_locale=en&amp;tab_id=n2zdEv2oWSQ\">English</a>";
+        Response first = ChallengePageCache.render(context, form, null, null, createValues("nonce-1", "code-1"));
+        Response second = ChallengePageCache.render(context, form, null, null, createValues("nonce-2", "code-2"));
+
+        verify(form, times(2)).createLoginUsernamePassword();
+        assertEquals(render("nonce-1", "code-1"), first.getEntity());
+        assertEquals(render("nonce-2", "code-2"), second.getEntity());
+    }
+
+    @Test
+    public void testRenderWithoutThemeCache() {
+        doReturn(false).when(themeManager).isCacheEnabled();
+        ChallengePageCache.render(context, form, null, null, createValues("nonce-1", "code-1"));
+        ChallengePageCache.render(context, form, null, null, createValues("nonce-2", "code-2"));
+
+        verify(form, times(2)).createLoginUsernamePassword();
+    }
+
+    @Test
+    public void testRenderAfterThemeChange() throws Exception {
+        ChallengePageCache.render(context, form, null, null, createValues("nonce-1", "code-1"));
+        doReturn(org.mockito.Mockito.mock(Theme.class)).when(themeManager).getTheme(Theme.Type.LOGIN);
+        ChallengePageCache.render(context, form, null, null, createValues("nonce-2", "code-2"));
+
+        verify(form, times(2)).createLoginUsernamePassword();
+    }
+
+    @Test
+    public void testRenderWhenDisabled() {
+        ChallengePageCache.disable();
+        assertFalse(ChallengePageCache.isEnabled());
+        ChallengePageCache.render(context, form, null, null, createValues("nonce-1", "code-1"));
+        ChallengePageCache.render(context, form, null, null, createValues("nonce-2", "code-2"));
+
+        verify(form, times(2)).createLoginUsernamePassword();
+    }
+
+    @Test
+    public void testEscapeHtml() {
+        assertEquals("plain", ChallengePageCache.escapeHtml("plain"));
+        assertEquals("a&amp;b&lt;c&gt;&quot;d&#39;", ChallengePageCache.escapeHtml("a&b<c>\"d'"));
+        assertTrue(ChallengePageCache.escapeHtml("").isEmpty());
+    }
+
+    private ChallengePageCache.PageValues createValues(final String nonce, final String accessCode) {
+        attributes.put("actionUri", createActionUrl(accessCode));
+        attributes.put("refreshUrl", createRefreshUrl(accessCode));
+        attributes.put("nonce", nonce);
+        attributes.put("initialView", "login");
+        return new ChallengePageCache.PageValues(createActionUrl(accessCode), createRefreshUrl(accessCode), nonce,
+                "login", accessCode);
+    }
+
+    private String render(final String nonce, final String accessCode) {
+        return "<form action=\"" + escape(createActionUrl(accessCode)) + "\">"
+                + "<input id=\"nonce\" value=\"" + nonce + "\"/>"
+                + "<script>let refreshUrl = '" + escape(createRefreshUrl(accessCode)) + "';"
+                + "let initialView = 'login';</script>"
+                + pageSuffix + "</form>";
+    }
+
+    private static URI createActionUrl(final String accessCode) {
+        return URI.create("https://idp.example.com/realms/OIdp/login-actions/authenticate?session_code=" + accessCode
+                + "&execution=19ca82cd-d3ab-44ab-8732-ac3af3656c6a&client_id=sample-client&tab_id=n2zdEv2oWSQ");
+    }
+
+    private static String createRefreshUrl(final String accessCode) {
+        return "https://idp.example.com/realms/OIdp/login-actions/authenticate?client_id=sample-client&tab_id=n2zdEv2oWSQ&code="
+                + accessCode;
+    }
+
+    private static String escape(final Object value) {
+        return ChallengePageCache.escapeHtml(String.valueOf(value));
+    }
+}
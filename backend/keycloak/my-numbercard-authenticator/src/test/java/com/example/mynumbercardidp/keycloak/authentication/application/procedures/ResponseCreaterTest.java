@@ -1,6 +1,9 @@
 package com.example.mynumbercardidp.keycloak.authentication.application.procedures;
 
 import com.example.mynumbercardidp.keycloak.authentication.application.procedures.user.ActionType;
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
+import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
+import com.example.mynumbercardidp.keycloak.util.authentication.SignedNonce;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -8,9 +11,11 @@ import org.junit.jupiter.api.Test;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.forms.login.LoginFormsProvider;
 import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.RealmModel;
 import org.keycloak.sessions.AuthenticationSessionModel;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
@@ -19,6 +24,8 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import java.net.URI;
 
 import javax.ws.rs.core.Response;
@@ -126,6 +133,23 @@ public final class ResponseCreaterTest {
         });
     }
 
+    @Test
+    public void testSetLoginFormAttributesWithStatelessNonce() {
+        Mockito.when(context.getAuthenticationSession().getAuthNote("reuseNonceFlag")).thenReturn(null);
+        ConfigSnapshot snapshot = Mockito.mock(ConfigSnapshot.class);
+        doReturn(true).when(snapshot).isStatelessNonce();
+        try (MockedStatic<CurrentConfig> currentConfig = Mockito.mockStatic(CurrentConfig.class);
+                MockedStatic<SignedNonce> signedNonce = Mockito.mockStatic(SignedNonce.class)) {
+            currentConfig.when(() -> CurrentConfig.getSnapshot(context)).thenReturn(snapshot);
+            signedNonce.when(() -> SignedNonce.issue(any(), any(), any())).thenReturn("signed-nonce");
+
+            ResponseCreater.setLoginFormAttributes(context);
+
+            verify(form).setAttribute("nonce", "signed-nonce");
+            verify(authenticationSessionModel, never()).setAuthNote(anyString(), anyString());
+        }
+    }
+
     @Test
     public void testSendInvalidRequestResponse() {
         assertDoesNotThrow(() -> {
@@ -139,4 +163,15 @@ public final class ResponseCreaterTest {
             ResponseCreater.setLoginFormAttributes(context);
         });
     }
+
+    @Test
+    public void testSetLoginFormAttributesWithLoginLifespan() {
+        RealmModel realm = Mockito.mock(RealmModel.class);
+        doReturn(realm).when(context).getRealm();
+        doReturn(600).when(realm).getAccessCodeLifespanLogin();
+
+        ResponseCreater.setLoginFormAttributes(context);
+
+        verify(form).setAttribute("loginLifespan", 600);
+    }
 }
@@ -1,25 +1,31 @@
 package com.example.mynumbercardidp.keycloak.authentication.application.procedures.user;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import java.lang.reflect.Field;
 
+import java.util.stream.Stream;
+
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.keycloak.authentication.AuthenticationFlowContext;
-import org.keycloak.authentication.authenticators.x509.UserIdentityToModelMapper;
 import org.keycloak.crypto.KeyUse;
 import org.keycloak.crypto.KeyWrapper;
 import org.keycloak.models.KeyManager;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
 import org.keycloak.sessions.AuthenticationSessionModel;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -33,6 +39,10 @@ import com.example.mynumbercardidp.keycloak.core.network.platform.CertificateTyp
 import com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient;
 import com.example.mynumbercardidp.keycloak.network.platform.PlatformAuthenticationResponse;
 import com.example.mynumbercardidp.keycloak.util.Encryption;
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
+import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
+import com.example.mynumbercardidp.keycloak.util.authentication.SignedNonce;
+import com.example.mynumbercardidp.keycloak.util.ratelimit.ActionRateLimiter;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -64,11 +74,11 @@ public class LoginActionTest {
 	@Mock
 	UserModel userModel;
 	@Mock
+	UserProvider userProvider;
+	@Mock
 	PlatformApiClient platform;
 	@Mock
 	PlatformAuthenticationResponse platformAuthenticationResponse;
-	@Mock
-	UserIdentityToModelMapper userIdentityToModelMapper;
 
 	@BeforeEach
 	public void setUp() throws Exception {
@@ -175,6 +185,7 @@ public class LoginActionTest {
 
 		doReturn(keycloakSession).when(context).getSession();
 		doReturn(keyManager).when(keycloakSession).keys();
+		doReturn(userProvider).when(keycloakSession).users();
 		doReturn(keyWrapper).when(keyManager).getActiveKey(realmModel, KeyUse.ENC, "RSA-OAEP-256");
 		doReturn(authenticationSessionModel).when(context).getAuthenticationSession();
 		doReturn("752bb712-055a-4091-b35e-45973c475dcc").when(authenticationSessionModel).getAuthNote("nonce");
@@ -204,7 +215,6 @@ public class LoginActionTest {
 
 		try(
 			MockedStatic<ResponseCreater> responseCreaterStatic = mockStatic(ResponseCreater.class);
-			MockedStatic<UserIdentityToModelMapper> userIdentityToModelMapperStatic = mockStatic(UserIdentityToModelMapper.class);
 			MockedStatic<Encryption> encryptionStatic = mockStatic(Encryption.class);
 		) {
 
@@ -221,13 +231,13 @@ public class LoginActionTest {
 				userModel = null;
 			}
 
-			doReturn(userModel).when(userIdentityToModelMapper).find(any(), any());
+			doAnswer(invocation -> Stream.ofNullable(userModel)).when(userProvider).searchForUserByUserAttributeStream(any(), any(), any());
 
-			userIdentityToModelMapperStatic.when(() -> UserIdentityToModelMapper.getUserIdentityToCustomAttributeMapper(any())).thenReturn(userIdentityToModelMapper);
 			responseCreaterStatic.when(() -> ResponseCreater.setLoginFormAttributes(any())).thenAnswer((Answer<Void>) invocation -> null);
 			responseCreaterStatic.when(() -> ResponseCreater.createChallengePage(any(), any(), any(), any())).thenReturn(null);
 			responseCreaterStatic.when(() -> ResponseCreater.sendChallengeResponse(any(), any(), any())).thenAnswer((Answer<Void>) invocation -> null);
 			encryptionStatic.when(() -> Encryption.decrypt(any(), any())).thenReturn(toJsonNode(certificateJsonStr));
+			encryptionStatic.when(() -> Encryption.isWellFormed(any())).thenReturn(true);
 
 			// 実行結果
 			loginAction.authenticate(context, platform);
@@ -240,7 +250,7 @@ public class LoginActionTest {
 				verify(context, times(1)).getSession();
 				verify(context, times(1)).getAuthenticationSession();
 				verify(context, times(1)).getRealm();
-				verify(platform, times(3)).getUserRequest();
+				verify(platform, times(1)).getUserRequest();
 				verify(platform, times(1)).getPlatformResponse();
 				verify(platform, times(1)).sendRequest();
 				verify(flowTransition, times(1)).canExecuteAuthentication(any(), any());
@@ -249,13 +259,12 @@ public class LoginActionTest {
 				verify(context, times(1)).getSession();
 				verify(context, times(1)).getAuthenticationSession();
 				verify(context, times(1)).getRealm();
-				verify(platform, times(3)).getUserRequest();
+				verify(platform, times(1)).getUserRequest();
 				verify(platform, times(1)).getPlatformResponse();
 				verify(platform, times(1)).sendRequest();
 				verify(flowTransition, times(1)).canExecuteAuthentication(any(), any());
 				verify(platformAuthenticationResponse, times(1)).getUniqueId();
-				verify(userIdentityToModelMapper, times(1)).find(any(), any());
-				userIdentityToModelMapperStatic.verify(() -> UserIdentityToModelMapper.getUserIdentityToCustomAttributeMapper(any()), times(1));
+				verify(userProvider, times(1)).searchForUserByUserAttributeStream(any(), any(), any());
 				encryptionStatic.verify(() -> Encryption.decrypt(any(), any()), times(1));
 				responseCreaterStatic.verify(() -> ResponseCreater.sendChallengeResponse(any(), any(), any()), times(1));
 			} else {
@@ -264,18 +273,129 @@ public class LoginActionTest {
 				verify(context, times(1)).getRealm();
 				verify(context, times(1)).setUser(userModel);
 				verify(context, times(1)).success();
-				verify(platform, times(3)).getUserRequest();
+				verify(platform, times(1)).getUserRequest();
 				verify(platform, times(1)).getPlatformResponse();
 				verify(platform, times(1)).sendRequest();
 				verify(flowTransition, times(1)).canExecuteAuthentication(any(), any());
 				verify(platformAuthenticationResponse, times(1)).getUniqueId();
-				verify(userIdentityToModelMapper, times(1)).find(any(), any());
-				userIdentityToModelMapperStatic.verify(() -> UserIdentityToModelMapper.getUserIdentityToCustomAttributeMapper(any()), times(1));
+				verify(userProvider, times(1)).searchForUserByUserAttributeStream(any(), any(), any());
 				encryptionStatic.verify(() -> Encryption.decrypt(any(), any()), times(1));
 			}
 		}
 	}
 
+	@ParameterizedTest
+	@CsvSource({
+		"404",    // プラットフォームでユーザーが見つからない
+		"200",    // Keycloakにユーザーが登録されていない
+	})
+	public void testAuthenticateWithNotFoundAction(int httpStatusCode) throws Exception {
+
+		try(
+			MockedStatic<ResponseCreater> responseCreaterStatic = mockStatic(ResponseCreater.class);
+			MockedStatic<Encryption> encryptionStatic = mockStatic(Encryption.class);
+		) {
+			Field loginActionField = loginAction.getClass().getDeclaredField("flowTransition");
+			loginActionField.setAccessible(true);
+			loginActionField.set(loginAction, flowTransition);
+
+			Runnable notFoundAction = mock(Runnable.class);
+			doReturn(httpStatusCode).when(platformAuthenticationResponse).getHttpStatusCode();
+			doReturn(true).when(flowTransition).canExecuteAuthentication(any(), any());
+			doAnswer(invocation -> Stream.empty()).when(userProvider).searchForUserByUserAttributeStream(any(), any(), any());
+
+			encryptionStatic.when(() -> Encryption.decrypt(any(), any())).thenReturn(toJsonNode(certificateJsonStr));
+			encryptionStatic.when(() -> Encryption.isWellFormed(any())).thenReturn(true);
+
+			// 実行結果
+			loginAction.authenticate(context, platform, notFoundAction);
+
+			verify(notFoundAction, times(1)).run();
+			verify(context, never()).setUser(any());
+			verify(context, never()).success();
+			verify(flowTransition, times(httpStatusCode == 404 ? 0 : 1)).canExecuteAuthentication(any(), any());
+			responseCreaterStatic.verify(() -> ResponseCreater.sendChallengeResponse(any(), any(), any()), never());
+		}
+	}
+
+	@ParameterizedTest
+	@CsvSource({
+		"false, 752bb712-055a-4091-b35e-45973c475dcc, true",    // 証明書JWEの形式が不正
+		"true, dummy, true",                                    // nonce値不一致
+		"true, 752bb712-055a-4091-b35e-45973c475dcc, false",    // 署名がBase64として不正
+	})
+	public void testAuthenticateRejectsBeforeDecryption(Boolean isWellFormed, String applicantData, Boolean isBase64Sign) throws Exception {
+
+		try(
+			MockedStatic<ResponseCreater> responseCreaterStatic = mockStatic(ResponseCreater.class);
+			MockedStatic<Encryption> encryptionStatic = mockStatic(Encryption.class);
+		) {
+			authenticationRequest.setApplicantData(applicantData);
+			if (!isBase64Sign) {
+				authenticationRequest.setSign("not base64!");
+			}
+			encryptionStatic.when(() -> Encryption.isWellFormed(any())).thenReturn(isWellFormed);
+
+			// 実行結果
+			loginAction.authenticate(context, platform);
+
+			verify(context, times(1)).challenge(any());
+			verify(platform, never()).sendRequest();
+			verify(keycloakSession, never()).keys();
+			encryptionStatic.verify(() -> Encryption.decrypt(any(), any()), never());
+		}
+	}
+
+	@Test
+	public void testAuthenticateRejectsReplayedSignedNonceBeforeDecryption() throws Exception {
+		ConfigSnapshot snapshot = mock(ConfigSnapshot.class);
+		doReturn(true).when(snapshot).isStatelessNonce();
+		doReturn(null).when(authenticationSessionModel).getAuthNote("nonce");
+
+		try(
+			MockedStatic<ResponseCreater> responseCreaterStatic = mockStatic(ResponseCreater.class);
+			MockedStatic<Encryption> encryptionStatic = mockStatic(Encryption.class);
+			MockedStatic<CurrentConfig> currentConfigStatic = mockStatic(CurrentConfig.class);
+			MockedStatic<SignedNonce> signedNonceStatic = mockStatic(SignedNonce.class);
+		) {
+			currentConfigStatic.when(() -> CurrentConfig.getSnapshot(context)).thenReturn(snapshot);
+			signedNonceStatic.when(() -> SignedNonce.verify(any(), any(), any(), any())).thenReturn(true);
+			signedNonceStatic.when(() -> SignedNonce.isUsed(any(), any())).thenReturn(true);
+			encryptionStatic.when(() -> Encryption.isWellFormed(any())).thenReturn(true);
+
+			// 実行結果
+			loginAction.authenticate(context, platform);
+
+			// 他のリクエストで使用済みの署名付きNonceは、秘密鍵による復号より前に拒否する。
+			verify(context, times(1)).challenge(any());
+			verify(platform, never()).sendRequest();
+			encryptionStatic.verify(() -> Encryption.decrypt(any(), any()), never());
+			signedNonceStatic.verify(() -> SignedNonce.markUsed(any(), any()), never());
+		}
+	}
+
+	@Test
+	public void testAuthenticateRejectsCardOverRateLimit() throws Exception {
+
+		try(
+			MockedStatic<ResponseCreater> responseCreaterStatic = mockStatic(ResponseCreater.class);
+			MockedStatic<Encryption> encryptionStatic = mockStatic(Encryption.class);
+			MockedStatic<ActionRateLimiter> rateLimiterStatic = mockStatic(ActionRateLimiter.class);
+		) {
+			encryptionStatic.when(() -> Encryption.decrypt(any(), any())).thenReturn(toJsonNode(certificateJsonStr));
+			encryptionStatic.when(() -> Encryption.isWellFormed(any())).thenReturn(true);
+			rateLimiterStatic.when(() -> ActionRateLimiter.tryAcquireCard(any(), any(), any(), any())).thenReturn(false);
+
+			// 実行結果
+			loginAction.authenticate(context, platform);
+
+			// 証明書ごとの要求数の上限を超えた場合は、無効な要求ではなく要求数の超過を返す。
+			responseCreaterStatic.verify(() -> ResponseCreater.sendTooManyRequestsResponse(context), times(1));
+			responseCreaterStatic.verify(() -> ResponseCreater.createChallengePage(any(), any(), any(), any()), never());
+			verify(platform, never()).sendRequest();
+		}
+	}
+
 	private JsonNode toJsonNode(String jsonStr) throws Exception {
 		ObjectMapper mapper = new ObjectMapper();
 		return mapper.readTree(jsonStr);
@@ -2,6 +2,7 @@ package com.example.mynumbercardidp.keycloak.authentication.application.procedur
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mockStatic;
@@ -9,12 +10,13 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import java.lang.reflect.Field;
 
+import java.util.stream.Stream;
+
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.keycloak.authentication.AuthenticationFlowContext;
-import org.keycloak.authentication.authenticators.x509.UserIdentityToModelMapper;
 import org.keycloak.crypto.KeyUse;
 import org.keycloak.crypto.KeyWrapper;
 import org.keycloak.models.KeyManager;
@@ -71,8 +73,6 @@ public class RegistrationActionTest {
 	PlatformApiClient platform;
 	@Mock
 	PlatformAuthenticationResponse platformAuthenticationResponse;
-	@Mock
-	UserIdentityToModelMapper userIdentityToModelMapper;
 
 	@BeforeEach
 	public void setUp() throws Exception {
@@ -212,7 +212,6 @@ public class RegistrationActionTest {
 
 		try(
 			MockedStatic<ResponseCreater> responseCreaterStatic = mockStatic(ResponseCreater.class);
-			MockedStatic<UserIdentityToModelMapper> userIdentityToModelMapperStatic = mockStatic(UserIdentityToModelMapper.class);
 			MockedStatic<Encryption> encryptionStatic = mockStatic(Encryption.class);
 		) {
 
@@ -230,13 +229,14 @@ public class RegistrationActionTest {
 				returnedUserModel = null;
 			}
 
-			doReturn(returnedUserModel).when(userIdentityToModelMapper).find(any(), any());
+			UserModel foundUserModel = returnedUserModel;
+			doAnswer(invocation -> Stream.ofNullable(foundUserModel)).when(userpProvider).searchForUserByUserAttributeStream(any(), any(), any());
 
-			userIdentityToModelMapperStatic.when(() -> UserIdentityToModelMapper.getUserIdentityToCustomAttributeMapper(any())).thenReturn(userIdentityToModelMapper);
 			responseCreaterStatic.when(() -> ResponseCreater.setLoginFormAttributes(any())).thenAnswer((Answer<Void>) invocation -> null);
 			responseCreaterStatic.when(() -> ResponseCreater.createChallengePage(any(), any(), any(), any())).thenReturn(null);
 			responseCreaterStatic.when(() -> ResponseCreater.sendChallengeResponse(any(), any(), any())).thenAnswer((Answer<Void>) invocation -> null);
 			encryptionStatic.when(() -> Encryption.decrypt(any(), any())).thenReturn(toJsonNode(certificateJsonStr));
+			encryptionStatic.when(() -> Encryption.isWellFormed(any())).thenReturn(true);
 
 			// 実行結果
 			registrationAction.register(context, platform);
@@ -249,7 +249,7 @@ public class RegistrationActionTest {
 				verify(context, times(1)).getSession();
 				verify(context, times(1)).getAuthenticationSession();
 				verify(context, times(1)).getRealm();
-				verify(platform, times(3)).getUserRequest();
+				verify(platform, times(1)).getUserRequest();
 				verify(platform, times(1)).getPlatformResponse();
 				verify(platform, times(1)).sendRequest();
 				verify(flowTransition, times(1)).canExecuteRegistration(any(), any());
@@ -262,26 +262,24 @@ public class RegistrationActionTest {
 				verify(context, times(1)).success();
 				verify(userpProvider, times(1)).addUser(any(), any());
 				verify(userModel, times(1)).setEnabled(anyBoolean());
-				verify(platform, times(3)).getUserRequest();
+				verify(platform, times(1)).getUserRequest();
 				verify(platform, times(1)).getPlatformResponse();
 				verify(platform, times(1)).sendRequest();
 				verify(flowTransition, times(1)).canExecuteRegistration(any(), any());
 				verify(platformAuthenticationResponse, times(1)).getUniqueId();
 				verify(platformAuthenticationResponse, times(1)).toUserModelAttributes(userModel);
-				verify(userIdentityToModelMapper, times(1)).find(any(), any());
-				userIdentityToModelMapperStatic.verify(() -> UserIdentityToModelMapper.getUserIdentityToCustomAttributeMapper(any()), times(1));
+				verify(userpProvider, times(1)).searchForUserByUserAttributeStream(any(), any(), any());
 				encryptionStatic.verify(() -> Encryption.decrypt(any(), any()), times(1));
 			} else {
 				verify(context, times(1)).getSession();
 				verify(context, times(1)).getAuthenticationSession();
 				verify(context, times(1)).getRealm();
-				verify(platform, times(3)).getUserRequest();
+				verify(platform, times(1)).getUserRequest();
 				verify(platform, times(1)).getPlatformResponse();
 				verify(platform, times(1)).sendRequest();
 				verify(flowTransition, times(1)).canExecuteRegistration(any(), any());
 				verify(platformAuthenticationResponse, times(1)).getUniqueId();
-				verify(userIdentityToModelMapper, times(1)).find(any(), any());
-				userIdentityToModelMapperStatic.verify(() -> UserIdentityToModelMapper.getUserIdentityToCustomAttributeMapper(any()), times(1));
+				verify(userpProvider, times(1)).searchForUserByUserAttributeStream(any(), any(), any());
 				encryptionStatic.verify(() -> Encryption.decrypt(any(), any()), times(1));
 				responseCreaterStatic.verify(() -> ResponseCreater.sendChallengeResponse(any(), any(), any()), times(1));
 			}
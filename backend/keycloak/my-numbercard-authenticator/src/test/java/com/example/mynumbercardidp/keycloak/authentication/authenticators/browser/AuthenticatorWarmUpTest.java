@@ -0,0 +1,134 @@
+package com.example.mynumbercardidp.keycloak.authentication.authenticators.browser;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.common.crypto.CryptoIntegration;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.MockitoAnnotations;
+
+import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientResolver;
+import com.example.mynumbercardidp.keycloak.util.Encryption;
+
+public class AuthenticatorWarmUpTest {
+    private AutoCloseable closeable;
+    private AuthenticatorWarmUp warmUp;
+
+    @Mock
+    PlatformApiClientResolver resolver;
+    @Mock
+    KeycloakSessionFactory factory;
+    @Mock
+    KeycloakSession session;
+    @Mock
+    RealmProvider realmProvider;
+    @Mock
+    RealmModel realm;
+    @Mock
+    RealmModel otherRealm;
+
+    @BeforeAll
+    public static void setUpCrypto() {
+        CryptoIntegration.init(AuthenticatorWarmUpTest.class.getClassLoader());
+    }
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        warmUp = new AuthenticatorWarmUp(resolver);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    @Test
+    public void testWarmUpCrypto() {
+        assertDoesNotThrow(() -> {
+            warmUp.warmUpCrypto();
+        });
+    }
+
+    @Test
+    public void testWarmUpRealms() {
+        AuthenticatorConfigModel config = new AuthenticatorConfigModel();
+        config.setConfig(Map.of("my-num-cd-auth.certificate-validator-uri", "https://platform.example.com"));
+        AuthenticatorConfigModel sameConfig = new AuthenticatorConfigModel();
+        sameConfig.setConfig(Map.of("my-num-cd-auth.certificate-validator-uri", "https://platform.example.com",
+                "my-num-cd-auth.platform-class", SpiConfigProperty.PlatformApiClientClassFqdn.DEFAULT_VALUE));
+        AuthenticatorConfigModel otherAuthenticatorConfig = new AuthenticatorConfigModel();
+        otherAuthenticatorConfig.setConfig(Map.of("otp-policy", "totp"));
+
+        doReturn(realmProvider).when(session).realms();
+        doReturn(Stream.of(realm, otherRealm)).when(realmProvider).getRealmsStream();
+        doReturn(Stream.of(config, otherAuthenticatorConfig)).when(realm).getAuthenticatorConfigsStream();
+        doReturn(Stream.of(sameConfig)).when(otherRealm).getAuthenticatorConfigsStream();
+
+        try (MockedStatic<Encryption> encryption = mockStatic(Encryption.class)) {
+            warmUp.warmUpRealms(session);
+
+            verify(resolver, times(1)).warmUp(SpiConfigProperty.PlatformApiClientClassFqdn.DEFAULT_VALUE);
+            encryption.verify(() -> Encryption.prefetchPublicKey(session,
+                    "https://platform.example.com/key/jwks.json"), times(1));
+        }
+    }
+
+    @Test
+    public void testWarmUpRealmsIgnoresFailures() {
+        AuthenticatorConfigModel config = new AuthenticatorConfigModel();
+        config.setConfig(Map.of("my-num-cd-auth.certificate-validator-uri", "https://platform.example.com",
+                "my-num-cd-auth.platform-class", "com.example.Missing"));
+
+        doReturn(realmProvider).when(session).realms();
+        doReturn(Stream.of(realm)).when(realmProvider).getRealmsStream();
+        doReturn(Stream.of(config)).when(realm).getAuthenticatorConfigsStream();
+        doThrow(new IllegalArgumentException("missing")).when(resolver).warmUp(anyString());
+
+        try (MockedStatic<Encryption> encryption = mockStatic(Encryption.class)) {
+            encryption.when(() -> Encryption.prefetchPublicKey(any(), any()))
+                    .thenThrow(new IllegalStateException("unreachable"));
+
+            assertDoesNotThrow(() -> {
+                warmUp.warmUpRealms(session);
+            });
+        }
+    }
+
+    @Test
+    public void testRunMarksReady() {
+        // トランザクションを開始できない場合も起動を妨げず、準備完了にする。
+        assertFalse(warmUp.isReady());
+        warmUp.run(factory);
+        assertTrue(warmUp.isReady());
+        verify(resolver, never()).warmUp(anyString());
+    }
+
+    @Test
+    public void testSkip() {
+        warmUp.skip();
+        assertTrue(warmUp.isReady());
+    }
+}
@@ -1,5 +1,10 @@
 package com.example.mynumbercardidp.keycloak.authentication.authenticators.browser;
 
+import com.example.mynumbercardidp.keycloak.authentication.application.procedures.ChallengePageCache;
+import com.example.mynumbercardidp.keycloak.network.platform.IdentityAttributeMapping;
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.keycloak.Config.Scope;
@@ -13,6 +18,12 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import org.junit.jupiter.api.AfterEach;
 
@@ -70,6 +81,77 @@ public class MyNumberCardAuthenticatorFactoryTest {
         });
     }
 
+    @Test
+    public void testPostInitRegistersReadinessWithoutMetrics() {
+        myNumberCardAuthenticatorFactory.init(config);
+        myNumberCardAuthenticatorFactory.postInit(factory);
+
+        // 準備完了のゲージはSPIオプション metrics-enabled に関わらず登録する。
+        assertNotNull(Metrics.globalRegistry.find("mynumbercard.warmup.ready").gauge());
+    }
+
+    @Test
+    public void testPostInitRegistersCacheGauges() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AuthenticatorMetrics.enable(registry);
+        try {
+            myNumberCardAuthenticatorFactory.postInit(factory);
+
+            assertNotNull(registry.find("mynumbercard.cache.challenge_pages").gauge());
+            assertNotNull(registry.find("mynumbercard.cache.config_snapshots").gauge());
+            assertNotNull(registry.find("mynumbercard.cache.public_keys").gauge());
+            assertNotNull(registry.find("mynumbercard.cache.rate_limit_buckets").gauge());
+            assertNotNull(registry.find("mynumbercard.cache.platform_api_client_factories").gauge());
+        } finally {
+            AuthenticatorMetrics.disable();
+        }
+    }
+
+    @Test
+    public void testPostInitWithoutMetricsSkipsCacheGauges() {
+        myNumberCardAuthenticatorFactory.postInit(factory);
+
+        // キャッシュの件数はSPIオプション metrics-enabled をtrueにした場合のみ登録する。
+        assertEquals(null, Metrics.globalRegistry.find("mynumbercard.cache.challenge_pages").gauge());
+    }
+
+    @Test
+    public void testPostInitWithWarmUp() {
+        doReturn(true).when(config).getBoolean("warmUpEnabled", false);
+        myNumberCardAuthenticatorFactory.init(config);
+        myNumberCardAuthenticatorFactory.postInit(factory);
+
+        verify(factory, times(1)).register(any());
+    }
+
+    @Test
+    public void testPostInitWithoutWarmUp() {
+        myNumberCardAuthenticatorFactory.init(config);
+        myNumberCardAuthenticatorFactory.postInit(factory);
+
+        verify(factory, never()).register(any());
+    }
+
+    @Test
+    public void testInitWithChallengePageCache() {
+        doReturn(true).when(config).getBoolean("challengePageCacheEnabled", false);
+        myNumberCardAuthenticatorFactory.init(config);
+        assertTrue(ChallengePageCache.isEnabled());
+
+        myNumberCardAuthenticatorFactory.close();
+        assertFalse(ChallengePageCache.isEnabled());
+    }
+
+    @Test
+    public void testInitWithIdentityAttributeMapping() {
+        doReturn("name=full_name").when(config).get("identityAttributeMapping");
+        myNumberCardAuthenticatorFactory.init(config);
+        assertEquals("full_name", IdentityAttributeMapping.getMapping().get(IdentityAttributeMapping.NAME));
+
+        myNumberCardAuthenticatorFactory.close();
+        assertEquals("name", IdentityAttributeMapping.getMapping().get(IdentityAttributeMapping.NAME));
+    }
+
     @Test
     public void testGetDisplayType() {
         assertNotNull(myNumberCardAuthenticatorFactory.getDisplayType());
@@ -13,9 +13,10 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockedStatic;
 import org.mockito.MockitoAnnotations;
-import org.mockito.stubbing.Answer;
 
 import com.example.mynumbercardidp.keycloak.authentication.application.procedures.ActionResolver;
+import com.example.mynumbercardidp.keycloak.authentication.application.procedures.ResponseCreater;
+import com.example.mynumbercardidp.keycloak.util.ratelimit.ActionRateLimiter;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.mockito.ArgumentMatchers.any;
@@ -24,6 +25,7 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import java.lang.reflect.Field;
@@ -88,19 +90,33 @@ public class MyNumberCardAuthenticatorTest {
 
     @Test
     public void testAction() throws Exception {
+        Field actionResolverField = myNumberCardAuthenticator.getClass().getDeclaredField("actionResolver");
+        actionResolverField.setAccessible(true);
+        actionResolverField.set(myNumberCardAuthenticator, actionResolver);
+
+        myNumberCardAuthenticator.action(context);
+
+        verify(actionResolver, times(1)).executeUserAction(any());
+        verify(context, times(1)).getStatus();
+    }
+
+    @Test
+    public void testActionRateLimited() throws Exception {
+        Field actionResolverField = myNumberCardAuthenticator.getClass().getDeclaredField("actionResolver");
+        actionResolverField.setAccessible(true);
+        actionResolverField.set(myNumberCardAuthenticator, actionResolver);
+
         try (
-            MockedStatic<SpiConfigProperty> spiConfigPropertyStatic = mockStatic(SpiConfigProperty.class);
+            MockedStatic<ActionRateLimiter> rateLimiterStatic = mockStatic(ActionRateLimiter.class);
+            MockedStatic<ResponseCreater> responseCreaterStatic = mockStatic(ResponseCreater.class);
         ) {
-            Field actionResolverField = myNumberCardAuthenticator.getClass().getDeclaredField("actionResolver");
-            actionResolverField.setAccessible(true);
-            actionResolverField.set(myNumberCardAuthenticator, actionResolver);
-            spiConfigPropertyStatic.when(() -> SpiConfigProperty.initFreeMarkerJavaTemplateVariables(any())).thenAnswer((Answer<Void>) invocation -> null);
+            rateLimiterStatic.when(() -> ActionRateLimiter.tryAcquire(any())).thenReturn(false);
 
             myNumberCardAuthenticator.action(context);
 
-            verify(actionResolver, times(1)).executeUserAction(any());
+            verify(actionResolver, never()).executeUserAction(any());
+            responseCreaterStatic.verify(() -> ResponseCreater.sendTooManyRequestsResponse(context), times(1));
             verify(context, times(1)).getStatus();
-            spiConfigPropertyStatic.verify(() -> SpiConfigProperty.initFreeMarkerJavaTemplateVariables(any()), times(1));
         }
     }
 
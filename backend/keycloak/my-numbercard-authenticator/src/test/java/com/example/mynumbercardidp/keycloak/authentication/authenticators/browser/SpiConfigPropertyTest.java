@@ -5,7 +5,6 @@ import org.keycloak.models.AuthenticatorConfigModel;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.Mockito.doReturn;
 import java.util.Map;
@@ -48,12 +47,7 @@ public class SpiConfigPropertyTest {
     }
 
     @Test
-    public void testGetFreeMarkerJavaTemplateVariables() {
-        assertNotNull(SpiConfigProperty.getFreeMarkerJavaTemplateVariables());
-    }
-
-    @Test
-    public void testInitFreeMarkerJavaTemplateVariables() {
+    public void testConfigClasses() {
         assertNotNull(new SpiConfigProperty.DebugMode());
         assertNotNull(new SpiConfigProperty.CertificateValidatorRootUri());
         assertNotNull(new SpiConfigProperty.RunUriOfAndroidApplication());
@@ -64,8 +58,9 @@ public class SpiConfigPropertyTest {
         assertNotNull(new SpiConfigProperty.TermsOfUseDirURL());
         assertNotNull(new SpiConfigProperty.PrivacyPolicyDirURL());
         assertNotNull(new SpiConfigProperty.PersonalDataProtectionPolicyDirURL());
-        assertDoesNotThrow(() -> {
-            SpiConfigProperty.initFreeMarkerJavaTemplateVariables(context);
-        });
+        assertNotNull(new SpiConfigProperty.RateLimitPerIp());
+        assertNotNull(new SpiConfigProperty.RateLimitPerCard());
+        assertNotNull(new SpiConfigProperty.RateLimitPerSession());
+        assertNotNull(new SpiConfigProperty.RateLimitCluster());
     }
 }
@@ -10,6 +10,7 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.lang.reflect.Field;
+import java.util.Map;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -22,6 +23,7 @@ import org.mockito.MockitoAnnotations;
 
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientInterface;
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientResolver;
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
 import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
 
 public class AbstractActionResolverTest {
@@ -64,9 +66,12 @@ public class AbstractActionResolverTest {
         try (
             MockedStatic<CurrentConfig> currentConfigMock = mockStatic(CurrentConfig.class);
         ) {
-            currentConfigMock.when(() -> CurrentConfig.getValue(any(), eq("my-num-cd-auth.platform-class"))).thenReturn("com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient");
-            currentConfigMock.when(() -> CurrentConfig.getValue(any(), eq("my-num-cd-auth.certificate-validator-uri"))).thenReturn("CertificateValidatorRootUri");
-            currentConfigMock.when(() -> CurrentConfig.getValue(any(), eq("my-num-cd-auth.platform-sender"))).thenReturn("PlatformApiIdpSender");
+            ConfigSnapshot config = new ConfigSnapshot(Map.of(
+                "my-num-cd-auth.platform-class", "com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient",
+                "my-num-cd-auth.certificate-validator-uri", "CertificateValidatorRootUri",
+                "my-num-cd-auth.platform-sender", "PlatformApiIdpSender"
+            ));
+            currentConfigMock.when(() -> CurrentConfig.getSnapshot(any(AuthenticationFlowContext.class))).thenReturn(config);
 
             PlatformApiClientInterface platform = (PlatformApiClientInterface) Class.forName("com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient").getDeclaredConstructor().newInstance();
 
@@ -82,8 +87,9 @@ public class AbstractActionResolverTest {
             PlatformApiClientInterface result = concreteImpl.createPlatform(context);
 
             // 検証
-            currentConfigMock.verify(() -> CurrentConfig.getValue(any(), any()), times(3));
-            verify(platformResolver, times(1)).createPlatform(any(), any(), any(), any());
+            currentConfigMock.verify(() -> CurrentConfig.getSnapshot(any(AuthenticationFlowContext.class)), times(1));
+            verify(platformResolver, times(1)).createPlatform(eq("com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient"),
+                    any(), eq("CertificateValidatorRootUri"), eq("PlatformApiIdpSender"));
             assertEquals(expected, result);
 
         }
@@ -100,7 +106,7 @@ public class AbstractActionResolverTest {
         try (
             MockedStatic<CurrentConfig> currentConfigMock = mockStatic(CurrentConfig.class);
         ) {
-            currentConfigMock.when(() -> CurrentConfig.getValue(any(), any())).thenReturn("");
+            currentConfigMock.when(() -> CurrentConfig.getSnapshot(any(AuthenticationFlowContext.class))).thenReturn(ConfigSnapshot.EMPTY);
 
             // 検証(IllegalStateException発生)
             assertThrows(IllegalStateException.class, () -> {
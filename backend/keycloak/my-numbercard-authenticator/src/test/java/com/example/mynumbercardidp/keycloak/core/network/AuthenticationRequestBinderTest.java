@@ -0,0 +1,91 @@
+package com.example.mynumbercardidp.keycloak.core.network;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AuthenticationRequestBinderTest {
+    private MultivaluedMap<String, String> formData;
+
+    @BeforeEach
+    public void setUp() {
+        formData = new MultivaluedHashMap<>();
+        formData.putSingle("mode", "login");
+        formData.putSingle("encryptedUserAuthenticationCertificate", "a.b.c.d.e");
+        formData.putSingle("applicantData", "752bb712-055a-4091-b35e-45973c475dcc");
+        formData.putSingle("sign", "c2lnbg==");
+    }
+
+    @Test
+    public void testBind() {
+        formData.putSingle("response_type", "code");
+        assertTrue(AuthenticationRequestBinder.isAcceptable(formData));
+
+        AuthenticationRequest userRequest = AuthenticationRequestBinder.bind(formData);
+        assertEquals("login", userRequest.getActionMode());
+        assertEquals("752bb712-055a-4091-b35e-45973c475dcc", userRequest.getApplicantData());
+        assertEquals("c2lnbg==", userRequest.getSign());
+        // 証明書は処理の種類に応じて呼び出し元で設定する。
+        assertNull(userRequest.getCertificate());
+    }
+
+    @Test
+    public void testRejectUnknownField() {
+        formData.putSingle("password", "password");
+        assertFalse(AuthenticationRequestBinder.isAcceptable(formData));
+        assertThrows(IllegalArgumentException.class, () -> AuthenticationRequestBinder.bind(formData));
+    }
+
+    @Test
+    public void testRejectOversizedField() {
+        formData.putSingle("applicantData", "n".repeat(AuthenticationRequest.MAX_APPLICANT_DATA_LENGTH));
+        assertTrue(AuthenticationRequestBinder.isAcceptable(formData));
+
+        formData.putSingle("applicantData", "n".repeat(AuthenticationRequest.MAX_APPLICANT_DATA_LENGTH + 1));
+        assertFalse(AuthenticationRequestBinder.isAcceptable(formData));
+        assertThrows(IllegalArgumentException.class, () -> AuthenticationRequestBinder.bind(formData));
+    }
+
+    @Test
+    public void testRejectDuplicatedField() {
+        formData.add("sign", "c2lnbg==");
+        assertFalse(AuthenticationRequestBinder.isAcceptable(formData));
+    }
+
+    @Test
+    public void testRejectOversizedForm() {
+        // 個々のパラメータは最大文字数以下でも、フォーム全体の最大文字数を超えた場合は拒否する。
+        String certificate = "c".repeat(AuthenticationRequest.MAX_CERTIFICATE_LENGTH);
+        formData.putSingle("encryptedUserAuthenticationCertificate", certificate);
+        formData.putSingle("encryptedDigitalSignatureCertificate", certificate);
+        formData.putSingle("response_type", "r".repeat(AuthenticationRequestBinder.MAX_TOTAL_LENGTH));
+        assertFalse(AuthenticationRequestBinder.isAcceptable(formData));
+    }
+
+    @Test
+    public void testRejectNullForm() {
+        assertFalse(AuthenticationRequestBinder.isAcceptable(null));
+    }
+
+    @Test
+    public void testRedact() {
+        formData.putSingle("x".repeat(100), "unknown");
+        String redacted = AuthenticationRequestBinder.redact(formData).toString();
+
+        assertTrue(redacted.contains("mode=login"));
+        assertTrue(redacted.contains("encryptedUserAuthenticationCertificate=<9 chars>"));
+        assertTrue(redacted.contains("applicantData=<36 chars>"));
+        assertTrue(redacted.contains("sign=<8 chars>"));
+        assertTrue(redacted.contains("x".repeat(64) + "...=<7 chars>"));
+        assertFalse(redacted.contains("a.b.c.d.e"));
+        assertFalse(redacted.contains("752bb712"));
+    }
+}
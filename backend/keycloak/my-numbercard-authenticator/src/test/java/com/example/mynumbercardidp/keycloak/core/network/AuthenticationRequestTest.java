@@ -315,6 +315,21 @@ public class AuthenticationRequestTest {
         });
     }
 
+    @Test
+    public void testIsWithinSizeLimits() {
+        authenticationRequest.setCertificate("a".repeat(AuthenticationRequest.MAX_CERTIFICATE_LENGTH));
+        authenticationRequest.setApplicantData("752bb712-055a-4091-b35e-45973c475dcc");
+        authenticationRequest.setSign("a".repeat(AuthenticationRequest.MAX_SIGN_LENGTH));
+        assertEquals(true, authenticationRequest.isWithinSizeLimits());
+
+        authenticationRequest.setCertificate("a".repeat(AuthenticationRequest.MAX_CERTIFICATE_LENGTH + 1));
+        assertEquals(false, authenticationRequest.isWithinSizeLimits());
+
+        authenticationRequest.setCertificate("certificate");
+        authenticationRequest.setNonceSign("a".repeat(AuthenticationRequest.MAX_SIGN_LENGTH + 1));
+        assertEquals(false, authenticationRequest.isWithinSizeLimits());
+    }
+
     @Test
     public void testGetName() {
         assertEquals("mode", Filed.ACTION_MODE.getName());
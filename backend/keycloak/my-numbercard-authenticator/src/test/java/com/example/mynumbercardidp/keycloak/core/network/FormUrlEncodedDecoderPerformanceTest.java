@@ -0,0 +1,75 @@
+package com.example.mynumbercardidp.keycloak.core.network;
+
+import java.io.ByteArrayInputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import com.example.mynumbercardidp.keycloak.util.PerformanceComparison;
+
+/**
+ * 証明書を含む置き換えリクエストのボディを復号し、String.split、HashMap と URLDecoder を使う従来の実装とスループットを比較します。
+ *
+ * mvn -B test -Pperformance で実行します。
+ */
+@Tag("performance")
+public class FormUrlEncodedDecoderPerformanceTest {
+    private static final Set<String> FIELD_NAMES = AuthenticationRequestBinder.getFieldNames();
+
+    @Test
+    public void testThroughput(final TestReporter reporter) throws Exception {
+        byte[] requestBody = createRequestBody().getBytes(StandardCharsets.UTF_8);
+        PerformanceComparison.Task legacy = () -> legacyDecode(new String(requestBody, StandardCharsets.UTF_8))
+                .size();
+        PerformanceComparison.Task current = () -> FormUrlEncodedDecoder
+                .decode(new ByteArrayInputStream(requestBody), FIELD_NAMES, requestBody.length).size();
+
+        PerformanceComparison
+                .compareThroughput("form decoding of " + requestBody.length + " bytes", legacy, current)
+                .report(reporter)
+                .assertCurrentIsNotSlower();
+    }
+
+    private static String createRequestBody() {
+        Random random = new Random(1L);
+        StringBuilder certificate = new StringBuilder();
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789%2B%2F";
+        while (certificate.length() < AuthenticationRequest.MAX_CERTIFICATE_LENGTH - 3) {
+            int index = random.nextInt(64);
+            certificate.append(index < 62 ? alphabet.substring(index, index + 1)
+                    : alphabet.substring(62 + (index - 62) * 3, 65 + (index - 62) * 3));
+        }
+        return "mode=replacement&encryptedUserAuthenticationCertificate=" + certificate
+                + "&applicantData=752bb712-055a-4091-b35e-45973c475dcc&sign=" + certificate.substring(0, 512)
+                + "&amp;response_type=code";
+    }
+
+    /**
+     * 変更前の UserInfoReplacementProvider と同じ方法で復号します。
+     */
+    private static MultivaluedMap<String, String> legacyDecode(final String requestBody) {
+        MultivaluedMap<String, String> formData = new MultivaluedHashMap<>();
+        Arrays.asList(requestBody.split("&")).forEach(pair -> {
+            String[] encodedParameterArray = pair.split("=", 2);
+            Map<String, String> encodedParameter = new HashMap<>(2);
+            encodedParameter.put("name", encodedParameterArray[0]);
+            encodedParameter.put("value", encodedParameterArray.length == 1 ? "" : encodedParameterArray[1]);
+            Map<String, String> decodedParameter = new HashMap<>(2);
+            decodedParameter.put("name", encodedParameter.get("name").replaceFirst("amp;", ""));
+            decodedParameter.put("value", URLDecoder.decode(encodedParameter.get("value"), StandardCharsets.UTF_8));
+            formData.add(decodedParameter.get("name"), decodedParameter.get("value"));
+        });
+        return formData;
+    }
+}
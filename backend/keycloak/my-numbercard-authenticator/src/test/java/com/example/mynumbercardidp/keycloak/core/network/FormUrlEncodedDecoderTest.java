@@ -0,0 +1,199 @@
+package com.example.mynumbercardidp.keycloak.core.network;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.junit.jupiter.api.Test;
+
+public class FormUrlEncodedDecoderTest {
+    private static final Set<String> FIELD_NAMES = AuthenticationRequestBinder.getFieldNames();
+    private static final long MAX_LENGTH = 1024 * 1024;
+
+    @Test
+    public void testDecode() throws IOException {
+        MultivaluedMap<String, String> formData = decode(
+                "mode=replacement&sign=c2ln%2Bbg%3D%3D&applicantData=a+b%E3%81%82&amp;response_type=code");
+
+        assertEquals("replacement", formData.getFirst("mode"));
+        assertEquals("c2ln+bg==", formData.getFirst("sign"));
+        assertEquals("a bあ", formData.getFirst("applicantData"));
+        // HTMLエスケープされた区切り文字で送信された場合も、従来どおりパラメータ名の amp; を取り除く。
+        assertEquals("code", formData.getFirst("response_type"));
+        assertEquals(4, formData.size());
+    }
+
+    @Test
+    public void testDecodeSkipsEmptyNames() throws IOException {
+        MultivaluedMap<String, String> formData = decode("mode&=x&&sign=a&sign=b");
+
+        assertEquals(List.of(""), formData.get("mode"));
+        assertEquals(List.of("a", "b"), formData.get("sign"));
+        assertEquals(2, formData.size());
+    }
+
+    @Test
+    public void testRejectUnknownFieldNames() {
+        // AuthenticationRequestBinder と同じく、想定しないパラメータは値を復号する前に拒否する。
+        assertThrows(IllegalArgumentException.class, () -> decode("mode=login&password=%zz"));
+        assertThrows(IllegalArgumentException.class, () -> decode("mode=login&unknown"));
+        assertThrows(IllegalArgumentException.class, () -> decode("mode=login&amp;amp;sign=a"));
+        assertThrows(IllegalArgumentException.class, () -> decode("mode=login&" + "x".repeat(1000) + "=y"));
+    }
+
+    @Test
+    public void testRejectMalformedEscape() {
+        assertThrows(IllegalArgumentException.class, () -> decode("mode=%zz"));
+        assertThrows(IllegalArgumentException.class, () -> decode("mode=%2&sign=a"));
+        assertThrows(IllegalArgumentException.class, () -> decode("mode=%2"));
+    }
+
+    @Test
+    public void testRejectOversizedBody() {
+        InputStream requestBody = new ByteArrayInputStream("mode=login".getBytes(StandardCharsets.US_ASCII));
+        assertThrows(IllegalArgumentException.class,
+                () -> FormUrlEncodedDecoder.decode(requestBody, FIELD_NAMES, 9));
+    }
+
+    @Test
+    public void testDecodeLargeValue() throws IOException {
+        // 読み込みバッファと値のバッファの初期サイズを超える値も復号する。
+        String certificate = "c".repeat(AuthenticationRequest.MAX_CERTIFICATE_LENGTH) + "%2B";
+        MultivaluedMap<String, String> formData = decode("encryptedUserAuthenticationCertificate=" + certificate);
+
+        assertEquals(AuthenticationRequest.MAX_CERTIFICATE_LENGTH + 1,
+                formData.getFirst("encryptedUserAuthenticationCertificate").length());
+        assertTrue(formData.getFirst("encryptedUserAuthenticationCertificate").endsWith("c+"));
+    }
+
+    /**
+     * ランダムに生成したリクエストボディを、少しずつ返す入力ストリームから復号し、
+     * String.split と URLDecoder を使う従来の実装の結果と比較します。
+     */
+    @Test
+    public void testFuzzAgainstLegacyDecoder() throws IOException {
+        Random random = new Random(20240601L);
+        for (int i = 0; i < 5000; i++) {
+            String requestBody = randomBody(random);
+            MultivaluedMap<String, String> expected;
+            try {
+                expected = legacyDecode(requestBody);
+            } catch (IllegalArgumentException e) {
+                expected = null;
+            }
+
+            MultivaluedMap<String, String> actual;
+            try {
+                actual = FormUrlEncodedDecoder.decode(new ChunkedInputStream(requestBody, random), FIELD_NAMES,
+                        MAX_LENGTH);
+            } catch (IllegalArgumentException e) {
+                // 想定しないパラメータ、またはパラメータの値が不正な場合は、従来の実装でも例外が発生する。
+                assertEquals(null, expected, requestBody);
+                continue;
+            }
+            if (expected != null) {
+                assertEquals(expected, actual, requestBody);
+            }
+        }
+    }
+
+    private static MultivaluedMap<String, String> decode(final String requestBody) throws IOException {
+        return FormUrlEncodedDecoder.decode(new ByteArrayInputStream(requestBody.getBytes(StandardCharsets.UTF_8)),
+                FIELD_NAMES, MAX_LENGTH);
+    }
+
+    /**
+     * 変更前の UserInfoReplacementProvider と同じ方法で復号し、AuthenticationRequestBinder と同じく想定しないパラメータを拒否します。
+     */
+    private static MultivaluedMap<String, String> legacyDecode(final String requestBody) {
+        MultivaluedMap<String, String> formData = new MultivaluedHashMap<>();
+        for (String pair : requestBody.split("&")) {
+            String[] nameAndValue = pair.split("=", 2);
+            String name = nameAndValue[0];
+            if (name.startsWith("amp;")) {
+                name = name.replaceFirst("amp;", "");
+            }
+            String encodedValue = nameAndValue.length == 1 ? "" : nameAndValue[1];
+            // URLDecoder は %+0 のような符号付きの16進数も受け付けるが、FormUrlEncodedDecoder は16進数の桁のみを受け付ける。
+            if (encodedValue.matches(".*%[+-].*")) {
+                throw new IllegalArgumentException("Illegal hex characters in escape (%) pattern.");
+            }
+            String value = URLDecoder.decode(encodedValue, StandardCharsets.UTF_8);
+            if (FIELD_NAMES.contains(name)) {
+                formData.add(name, value);
+            } else if (!name.isEmpty()) {
+                throw new IllegalArgumentException("Unknown form parameter " + name + ".");
+            }
+        }
+        return formData;
+    }
+
+    private static String randomBody(final Random random) {
+        String[] names = { "mode", "sign", "applicantData", "response_type", "amp;mode", "amp;amp;sign", "unknown",
+                "", "mo%64e" };
+        String[] fragments = { "a", "Z", "0", "-", "_", ".", "~", "+", "=", "&", "%2B", "%3D", "%26", "%25", "%E3%81%82",
+                "%C3", "%81", "%F0%9F%98%80", "%", "%G", "%4", "%zz" };
+        StringBuilder builder = new StringBuilder();
+        int pairs = random.nextInt(6);
+        for (int i = 0; i < pairs; i++) {
+            if (i > 0) {
+                builder.append('&');
+            }
+            builder.append(names[random.nextInt(names.length)]);
+            if (random.nextInt(8) == 0) {
+                continue;
+            }
+            builder.append('=');
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                // 不正なパーセントエンコーディングは低い頻度で含める。
+                int bound = random.nextInt(10) == 0 ? fragments.length : fragments.length - 4;
+                builder.append(fragments[random.nextInt(bound)]);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 1回の読み込みで1～7バイトのみを返す入力ストリームです。
+     */
+    private static final class ChunkedInputStream extends InputStream {
+        private final byte[] bytes;
+        private final Random random;
+        private int position = 0;
+
+        private ChunkedInputStream(final String requestBody, final Random random) {
+            this.bytes = requestBody.getBytes(StandardCharsets.UTF_8);
+            this.random = random;
+        }
+
+        @Override
+        public int read() {
+            return position < bytes.length ? bytes[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) {
+            if (position >= bytes.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, 1 + random.nextInt(7)), bytes.length - position);
+            System.arraycopy(bytes, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -3,7 +3,7 @@ package com.example.mynumbercardidp.keycloak.core.network.platform;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.keycloak.authentication.AuthenticationFlowContext;
+import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.UserActionContext;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -28,7 +28,7 @@ public class AbstractPlatformApiClientTest {
     public class ConcreteImpl extends AbstractPlatformApiClient {
 
         @Override
-        public void setContextForDataManager(AuthenticationFlowContext context) {}
+        public void setContextForDataManager(UserActionContext context) {}
 
         @Override
         public void sendRequest() {}
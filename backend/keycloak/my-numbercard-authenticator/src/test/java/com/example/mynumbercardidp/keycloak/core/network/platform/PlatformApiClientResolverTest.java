@@ -11,6 +11,7 @@ import org.mockito.MockitoAnnotations;
 
 import static org.junit.Assert.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.mockito.Mockito.doReturn;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
@@ -56,4 +57,41 @@ public class PlatformApiClientResolverTest {
             platformApiClientResolver.createPlatform("", context, "/verify");
         });
     }
+
+    @Test
+    public void testWarmUp() {
+        assertDoesNotThrow(() -> {
+            platformApiClientResolver.warmUp("com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient");
+        });
+    }
+
+    @Test
+    public void testWarmUpWithoutClass() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            platformApiClientResolver.warmUp("");
+        });
+    }
+
+    @Test
+    public void testCreatePlatformReturnsNewInstance() {
+        PlatformApiClientInterface first = platformApiClientResolver.createPlatform("com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient", context, "/verify");
+        PlatformApiClientInterface second = platformApiClientResolver.createPlatform("com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient", context, "/verify");
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testCreatePlatformWithNonPlatformClass() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            platformApiClientResolver.createPlatform("java.lang.String", context, "/verify");
+        });
+    }
+
+    @Test
+    public void testCreatePlatformAfterInvalidate() {
+        platformApiClientResolver.createPlatform("com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient", context, "/verify");
+        PlatformApiClientResolver.invalidate();
+        assertDoesNotThrow(() -> {
+            platformApiClientResolver.createPlatform("com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient", context, "/verify");
+        });
+    }
 }
@@ -0,0 +1,52 @@
+package com.example.mynumbercardidp.keycloak.network.platform;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class IdentityAttributeMappingTest {
+
+    @AfterEach
+    public void tearDown() {
+        IdentityAttributeMapping.reset();
+    }
+
+    @Test
+    public void testDefaultMapping() {
+        assertEquals(List.of("uniqueid", "name", "gender_code", "user_address", "birth_date"),
+                new ArrayList<>(IdentityAttributeMapping
+                        .toAttributes(new PlatformAuthenticationResponse.IdentityInfo()).keySet()));
+    }
+
+    @Test
+    public void testConfigure() {
+        IdentityAttributeMapping.configure(" name = full_name ,, dateOfBirth=birthdate");
+
+        Map<String, String> mapping = IdentityAttributeMapping.getMapping();
+        assertEquals("uniqueid", mapping.get(IdentityAttributeMapping.UNIQUE_ID));
+        assertEquals("full_name", mapping.get(IdentityAttributeMapping.NAME));
+        assertEquals("gender_code", mapping.get(IdentityAttributeMapping.GENDER));
+        assertEquals("user_address", mapping.get(IdentityAttributeMapping.ADDRESS));
+        assertEquals("birthdate", mapping.get(IdentityAttributeMapping.DATE_OF_BIRTH));
+
+        IdentityAttributeMapping.reset();
+        assertEquals("name", IdentityAttributeMapping.getMapping().get(IdentityAttributeMapping.NAME));
+    }
+
+    @Test
+    public void testConfigureInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> IdentityAttributeMapping.configure("email=mail"));
+        assertThrows(IllegalArgumentException.class, () -> IdentityAttributeMapping.configure("uniqueId=id"));
+        assertThrows(IllegalArgumentException.class, () -> IdentityAttributeMapping.configure("name="));
+        assertThrows(IllegalArgumentException.class, () -> IdentityAttributeMapping.configure("name"));
+        assertThrows(IllegalArgumentException.class, () -> IdentityAttributeMapping.configure("name=uniqueid"));
+        // 不正な指定では対応を変更しない。
+        assertEquals("name", IdentityAttributeMapping.getMapping().get(IdentityAttributeMapping.NAME));
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.mynumbercardidp.keycloak.network.platform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Properties;
+
+import com.sun.management.ThreadMXBean;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Java Flight Recorder で処理を繰り返し記録し、このプロバイダーのパッケージに起因する
+ * 1リクエストあたりのアロケーション量とCPU時間を求めます。
+ *
+ * スレッド全体のアロケーション量とCPU時間は ThreadMXBean で正確に計測し、
+ * そのうちプロバイダーに起因する割合を JFR のサンプルのスタックから求めます。
+ * スタックを上から辿り、プロバイダーのフレームより先に Mockito のフレームが現れたサンプルは
+ * テスト用のモックに起因するものとして除外します。
+ */
+class JfrRequestProfiler {
+    private static final String PROVIDER_PACKAGE = "com.example.mynumbercardidp.keycloak.";
+    private static final String[] MOCK_PACKAGES = { "org.mockito.", "net.bytebuddy." };
+    private static final Duration SAMPLING_PERIOD = Duration.ofMillis(1L);
+    private static final String BUDGET_RESOURCE = "/performance-budgets.properties";
+
+    private final Path workDirectory;
+
+    JfrRequestProfiler(final Path workDirectory) {
+        this.workDirectory = workDirectory;
+    }
+
+    /**
+     * 処理をウォームアップした後、JFR で記録しながら繰り返し実行します。
+     *
+     * @param name        記録名
+     * @param warmUp      ウォームアップの回数
+     * @param iterations  記録する回数
+     * @param request     1リクエスト分の処理
+     * @return 1リクエストあたりの計測結果
+     */
+    Result profile(final String name, final int warmUp, final int iterations, final Runnable request) {
+        for (int i = 0; i < warmUp; i++) {
+            request.run();
+        }
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        String threadName = Thread.currentThread().getName();
+        Path file = this.workDirectory.resolve(name + ".jfr");
+        long totalAllocatedBytes;
+        long totalCpuNanos;
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.ObjectAllocationSample").with("throttle", "100000/s").withStackTrace();
+            recording.enable("jdk.ExecutionSample").withPeriod(JfrRequestProfiler.SAMPLING_PERIOD);
+            recording.start();
+            long startAllocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+            long startCpuNanos = threadMXBean.getThreadCpuTime(threadId);
+            for (int i = 0; i < iterations; i++) {
+                request.run();
+            }
+            totalCpuNanos = threadMXBean.getThreadCpuTime(threadId) - startCpuNanos;
+            totalAllocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - startAllocatedBytes;
+            recording.stop();
+            recording.dump(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Share allocationShare = new Share();
+        Share executionShare = new Share();
+        boolean firstAllocationSample = true;
+        try {
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                String eventName = event.getEventType().getName();
+                if ("jdk.ObjectAllocationSample".equals(eventName)
+                        && JfrRequestProfiler.isThread(event, "eventThread", threadName)) {
+                    // 最初のサンプルの重みには記録開始前のアロケーションが含まれるため除外する。
+                    if (!firstAllocationSample) {
+                        allocationShare.add(event.getLong("weight"),
+                                JfrRequestProfiler.isProviderStack(event.getStackTrace()));
+                    }
+                    firstAllocationSample = false;
+                } else if ("jdk.ExecutionSample".equals(eventName)
+                        && JfrRequestProfiler.isThread(event, "sampledThread", threadName)) {
+                    executionShare.add(1L, JfrRequestProfiler.isProviderStack(event.getStackTrace()));
+                }
+            }
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Result((long) (totalAllocatedBytes * allocationShare.ratio()) / iterations,
+                (long) (totalCpuNanos * executionShare.ratio()) / iterations);
+    }
+
+    /**
+     * チェックイン済みの性能予算を読み込みます。
+     *
+     * @return 性能予算
+     */
+    static Properties loadBudgets() {
+        Properties budgets = new Properties();
+        try (InputStream inputStream = JfrRequestProfiler.class.getResourceAsStream(BUDGET_RESOURCE)) {
+            budgets.load(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return budgets;
+    }
+
+    private static boolean isThread(final RecordedEvent event, final String field, final String threadName) {
+        return event.hasField(field) && threadName.equals(event.getThread(field).getJavaName());
+    }
+
+    private static boolean isProviderStack(final RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return false;
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            if (!frame.isJavaFrame()) {
+                continue;
+            }
+            String typeName = frame.getMethod().getType().getName();
+            for (String mockPackage : JfrRequestProfiler.MOCK_PACKAGES) {
+                if (typeName.startsWith(mockPackage)) {
+                    return false;
+                }
+            }
+            if (typeName.startsWith(JfrRequestProfiler.PROVIDER_PACKAGE) && !typeName.contains("Test")
+                    && !typeName.startsWith(JfrRequestProfiler.class.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * サンプルのうちプロバイダーに起因する割合です。
+     */
+    private static class Share {
+        private long provider = 0L;
+        private long total = 0L;
+
+        void add(final long weight, final boolean isProvider) {
+            this.total += weight;
+            if (isProvider) {
+                this.provider += weight;
+            }
+        }
+
+        double ratio() {
+            // サンプルが無い場合は全てをプロバイダーに起因するものとして扱い、予算の判定を甘くしない。
+            return this.total == 0L ? 1.0 : (double) this.provider / this.total;
+        }
+    }
+
+    /**
+     * 1リクエストあたりの計測結果です。
+     */
+    static class Result {
+        private final long allocatedBytes;
+        private final long cpuNanos;
+
+        Result(final long allocatedBytes, final long cpuNanos) {
+            this.allocatedBytes = allocatedBytes;
+            this.cpuNanos = cpuNanos;
+        }
+
+        long getAllocatedBytes() {
+            return this.allocatedBytes;
+        }
+
+        long getCpuNanos() {
+            return this.cpuNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "allocatedBytes=" + this.allocatedBytes + ", cpuNanos=" + this.cpuNanos;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.mynumbercardidp.keycloak.network.platform;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mockStatic;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.common.crypto.CryptoIntegration;
+import org.keycloak.common.util.CertificateUtils;
+import org.keycloak.common.util.PemUtils;
+import org.keycloak.crypto.KeyUse;
+import org.keycloak.crypto.KeyWrapper;
+import org.keycloak.http.HttpRequest;
+import org.keycloak.jose.jwe.JWE;
+import org.keycloak.jose.jwe.JWEHeader;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.jose.jwk.JWKBuilder;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.KeyManager;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.keycloak.protocol.oidc.utils.JWKSHttpUtils;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.util.JsonSerialization;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.MockitoAnnotations;
+
+import com.example.mynumbercardidp.keycloak.authentication.application.procedures.user.LoginAction;
+import com.example.mynumbercardidp.keycloak.authentication.application.procedures.user.RegistrationAction;
+import com.example.mynumbercardidp.keycloak.authentication.application.procedures.user.ReplacementAction;
+import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientInterface;
+import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientResolver;
+
+/**
+ * 処理の種類ごとに認証フローのユーザーの操作（ログイン、登録、登録情報の変更）を繰り返し実行し、
+ * 1リクエストあたりのアロケーション量とCPU時間が性能予算を超えないことを確認します。
+ *
+ * プラットフォームとの HTTP 通信のみ固定のレスポンスに置き換え、フォームの解析、署名の検証、JWEの復号と再暗号化、
+ * プラットフォームリクエストの JSON 変換、プラットフォームレスポンスの解析、ユーザーの検索と属性の設定を計測します。
+ * 性能予算は src/test/resources/performance-budgets.properties で管理します。
+ */
+@Tag("performance")
+public class PlatformApiClientPerformanceTest {
+    private static final int WARM_UP = 1000;
+    private static final int ITERATIONS = 2000;
+    private static final String API_ROOT_URI = "http://localhost";
+    private static final String RESPONSE_BODY = "{\"applicantId\":\"752bb712-055a-4091-b35e-45973c475dcc\","
+            + "\"responseInfo\":{\"transactionId\":\"4b0a9e5c-3b59-4a1f-a1c4-9d8b0e6b8f41\",\"recipient\":\"IDP\","
+            + "\"sender\":\"JPKI\",\"ts\":\"2023-09-01 10:00:00.000\"},"
+            + "\"status\":{\"status\":\"OK\",\"errorInfoReason\":\"\",\"message\":\"\"},"
+            + "\"identityInfo\":{\"tisUserId\":\"7910ae5f-a6c1-4117-b890-fc2df2db63f1\",\"name\":\"佐藤 太郎\","
+            + "\"dateOfBirth\":\"1970-01-31\",\"gender\":\"0\",\"address\":\"東京都千代田区千代田1-1\"}}";
+
+    private static final String NONCE = "752bb712-055a-4091-b35e-45973c475dcc";
+    private static final String UNIQUE_ID = "7910ae5f-a6c1-4117-b890-fc2df2db63f1";
+
+    private static KeyPair keyPair;
+    private static String encryptedCertificate;
+    private static String sign;
+    private static CloseableHttpResponse platformResponse;
+
+    private AutoCloseable closeable;
+    private MultivaluedMap<String, String> formData;
+    private int successes;
+
+    @TempDir
+    Path tempDir;
+
+    @Mock(stubOnly = true)
+    AuthenticationFlowContext context;
+    @Mock(stubOnly = true)
+    AuthenticationSessionModel authenticationSession;
+    @Mock(stubOnly = true)
+    UserProvider userProvider;
+    @Mock(stubOnly = true)
+    UserModel user;
+    @Mock
+    KeycloakSession session;
+    @Mock
+    KeyManager keyManager;
+    @Mock
+    RealmModel realm;
+    @Mock
+    HttpRequest httpRequest;
+    @Mock
+    AuthenticatorConfigModel authenticatorConfigModel;
+    @Mock
+    CloseableHttpResponse httpResponse;
+    @Mock
+    HttpEntity httpEntity;
+    @Mock
+    StatusLine statusLine;
+
+    @BeforeAll
+    public static void setUpKeys() throws Exception {
+        CryptoIntegration.init(PlatformApiClientPerformanceTest.class.getClassLoader());
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+
+        // 署名の検証まで実行するため、個人番号カードの代わりの鍵で証明書を作成し、Nonceに署名する。
+        KeyPair cardKeyPair = generator.generateKeyPair();
+        X509Certificate certificate = CertificateUtils.generateV1SelfSignedCertificate(cardKeyPair, "Taro Sample");
+        String certificatePem = PemUtils.BEGIN_CERT + "\n" + PemUtils.encodeCertificate(certificate) + "\n"
+                + PemUtils.END_CERT + "\n";
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(cardKeyPair.getPrivate());
+        signature.update(NONCE.getBytes(StandardCharsets.UTF_8));
+        sign = Base64.getEncoder().encodeToString(signature.sign());
+
+        JWE jwe = new JWE()
+                .header(new JWEHeader("RSA-OAEP-256", "A128CBC-HS256", "DEF"))
+                .content(JsonSerialization.writeValueAsBytes(Map.of("claim", certificatePem, "exp", 1695104412)));
+        jwe.getKeyStorage().setEncryptionKey(keyPair.getPublic());
+        encryptedCertificate = jwe.encodeJwe();
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        closeable = MockitoAnnotations.openMocks(this);
+
+        Map<String, String> config = Map.of(
+                "my-num-cd-auth.certificate-validator-uri", API_ROOT_URI,
+                "my-num-cd-auth.platform-sender", "PlatformApiIdpSender");
+        KeyWrapper key = new KeyWrapper();
+        key.setPrivateKey(keyPair.getPrivate());
+
+        doReturn(httpRequest).when(context).getHttpRequest();
+        doReturn(authenticatorConfigModel).when(context).getAuthenticatorConfig();
+        doReturn(config).when(authenticatorConfigModel).getConfig();
+        doReturn(realm).when(context).getRealm();
+        doReturn(session).when(context).getSession();
+        doReturn(authenticationSession).when(context).getAuthenticationSession();
+        doReturn(NONCE).when(authenticationSession).getAuthNote("nonce");
+        doReturn("realm-id").when(realm).getId();
+        doReturn(userProvider).when(session).users();
+        doReturn(user).when(userProvider).addUser(realm, UNIQUE_ID);
+        doReturn(user).when(context).getUser();
+        doAnswer(invocation -> successes++).when(context).success();
+        doReturn(keyManager).when(session).keys();
+        doReturn(key).when(keyManager).getActiveKey(realm, KeyUse.ENC, "RSA-OAEP-256");
+        doAnswer(invocation -> new ByteArrayInputStream(RESPONSE_BODY.getBytes(StandardCharsets.UTF_8)))
+                .when(httpEntity).getContent();
+        doReturn(httpEntity).when(httpResponse).getEntity();
+        doReturn(statusLine).when(httpResponse).getStatusLine();
+        doReturn(200).when(statusLine).getStatusCode();
+        platformResponse = httpResponse;
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "login", "registration", "replacement" })
+    public void testRequestBudget(final String actionMode) throws Exception {
+        String certificateField = actionMode.equals("login") ? "encryptedUserAuthenticationCertificate"
+                : "encryptedDigitalSignatureCertificate";
+        formData = new MultivaluedHashMap<>();
+        formData.putSingle("mode", actionMode);
+        formData.putSingle(certificateField, encryptedCertificate);
+        formData.putSingle("sign", sign);
+        formData.putSingle("applicantData", NONCE);
+        doReturn(formData).when(httpRequest).getDecodedFormParameters();
+        // 登録はユーザーが見つからない場合、ログインと登録情報の変更はユーザーが見つかった場合に成功する。
+        doAnswer(invocation -> actionMode.equals("registration") ? Stream.empty() : Stream.of(user))
+                .when(userProvider).searchForUserByUserAttributeStream(realm, "uniqueid", UNIQUE_ID);
+
+        JWK jwk = JWKBuilder.create().kid("enc").algorithm("RSA-OAEP-256").rsa(keyPair.getPublic(), KeyUse.ENC);
+        JSONWebKeySet publishedJwks = new JSONWebKeySet();
+        publishedJwks.setKeys(new JWK[] { jwk });
+        // JWKSのエンドポイントから取得した場合と同じく、JSONから読み込んだ鍵を使う。
+        JSONWebKeySet jwks = JsonSerialization.readValue(JsonSerialization.writeValueAsString(publishedJwks),
+                JSONWebKeySet.class);
+
+        try (MockedStatic<JWKSHttpUtils> jwksHttpUtils = mockStatic(JWKSHttpUtils.class)) {
+            jwksHttpUtils.when(() -> JWKSHttpUtils.sendJwksRequest(any(), any())).thenReturn(jwks);
+
+            PlatformApiClientResolver resolver = new PlatformApiClientResolver();
+            Consumer<PlatformApiClientInterface> action = PlatformApiClientPerformanceTest.action(actionMode, context);
+            JfrRequestProfiler.Result result = new JfrRequestProfiler(tempDir).profile(actionMode, WARM_UP,
+                    ITERATIONS, () -> {
+                        PlatformApiClientInterface platform = resolver.createPlatform(
+                                NoNetworkPlatformApiClient.class.getName(), context, API_ROOT_URI, "PlatformApiIdpSender");
+                        platform.setContextForDataManager(context);
+                        action.accept(platform);
+                    });
+
+            // 全てのリクエストが署名の検証とプラットフォームの呼び出しを通り、認証フローを成功させたことを確認する。
+            assertEquals(WARM_UP + ITERATIONS, successes, actionMode + " did not complete every request.");
+            Properties budgets = JfrRequestProfiler.loadBudgets();
+            long allocatedBytesBudget = Long.parseLong(budgets.getProperty(actionMode + ".allocatedBytesPerRequest"));
+            long cpuNanosBudget = Long.parseLong(budgets.getProperty(actionMode + ".cpuNanosPerRequest"));
+            assertTrue(result.getAllocatedBytes() <= allocatedBytesBudget,
+                    actionMode + " allocated " + result.getAllocatedBytes() + " bytes per request. Budget: "
+                            + allocatedBytesBudget);
+            assertTrue(result.getCpuNanos() <= cpuNanosBudget,
+                    actionMode + " used " + result.getCpuNanos() + " ns of CPU per request. Budget: "
+                            + cpuNanosBudget);
+        }
+    }
+
+    private static Consumer<PlatformApiClientInterface> action(final String actionMode,
+            final AuthenticationFlowContext context) {
+        switch (actionMode) {
+            case "login":
+                LoginAction loginAction = new LoginAction();
+                return platform -> loginAction.authenticate(context, platform);
+            case "registration":
+                RegistrationAction registrationAction = new RegistrationAction();
+                return platform -> registrationAction.register(context, platform);
+            case "replacement":
+                ReplacementAction replacementAction = new ReplacementAction();
+                return platform -> replacementAction.replace(context, platform);
+            default:
+                throw new IllegalArgumentException(actionMode);
+        }
+    }
+
+    /**
+     * プラットフォームへ送信せず、固定のレスポンスを受け取ったものとして扱うクライアントです。
+     */
+    public static class NoNetworkPlatformApiClient extends PlatformApiClient {
+        @Override
+        public void sendRequest() {
+            DataModelManager data = (DataModelManager) super.getDataModelManager();
+            data.convertPlatformRequestToJson().getBytes(super.getDefaultCharset());
+            data.setPlatformResponseFromHttpResponse(platformResponse);
+        }
+    }
+}
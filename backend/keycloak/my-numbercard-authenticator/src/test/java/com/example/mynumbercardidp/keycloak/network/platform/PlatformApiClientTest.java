@@ -28,7 +28,10 @@ import org.keycloak.connections.httpclient.HttpClientBuilder;
 import org.mockito.*;
 
 import com.example.mynumbercardidp.keycloak.core.network.AuthenticationRequest;
+import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.UserActionContext;
 import com.example.mynumbercardidp.keycloak.core.network.platform.CertificateType;
+import com.example.mynumbercardidp.keycloak.util.Encryption;
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
 
 public class PlatformApiClientTest {
 
@@ -171,6 +174,58 @@ public class PlatformApiClientTest {
         }
     }
 
+    @Test
+    public void testSendRequestEvictsPublicKeyWhenRejected() throws Exception {
+        UserActionContext actionContext = mock(UserActionContext.class);
+        ConfigSnapshot config = mock(ConfigSnapshot.class);
+        doReturn(config).when(actionContext).getConfig();
+        doReturn("http://platform.example.com").when(config).getCertificateValidatorRootUri();
+        doReturn(HttpStatus.SC_BAD_REQUEST).when(statusLine).getStatusCode();
+        try (
+            MockedConstruction<HttpClientBuilder> httpClientBuilder = mockConstruction(HttpClientBuilder.class,
+                                                            (mock, ctx) -> {
+                                                                doReturn(mock).when(mock).disableTrustManager();
+                                                                doReturn(mock).when(mock).establishConnectionTimeout(10000L, TimeUnit.MILLISECONDS);
+                                                                doReturn(mock).when(mock).maxConnectionIdleTime(30000L, TimeUnit.MILLISECONDS);
+                                                                doReturn(mock).when(mock).socketTimeout(30000L, TimeUnit.MILLISECONDS);
+                                                                doReturn(closeableHttpClient).when(mock).build();
+                                                            });
+            MockedStatic<IOUtils> ioUtilsStatic = mockStatic(IOUtils.class);
+            MockedStatic<Encryption> encryptionStatic = mockStatic(Encryption.class);
+        ) {
+            authenticationRequest = new AuthenticationRequest() {
+                {
+                    setActionMode("login");
+                    setCertificateType(CertificateType.ENCRYPTED_DIGITAL_SIGNATURE);
+                    setCertificate(certificateStr);
+                    setSign(signStr);
+                    setApplicantData("752bb712-055a-4091-b35e-45973c475dcc");
+                }
+            };
+            dataModel = new DataModelManager() {
+                {
+                    setUserFormData(formData);
+                    setPlatformRequest(platformAuthenticationRequest);
+                    setUserRequest(authenticationRequest);
+                }
+            };
+            dataModel.setContext(actionContext);
+
+            Field dataManagerField = platformApiClient.getClass().getSuperclass().getDeclaredField("dataManager");
+            dataManagerField.setAccessible(true);
+            dataManagerField.set(platformApiClient, dataModel);
+            Field apiRootUriField = platformApiClient.getClass().getSuperclass().getDeclaredField("apiRootUri");
+            apiRootUriField.setAccessible(true);
+            apiRootUriField.set(platformApiClient, new URI("http://xxxxxxxx.co.jp"));
+            ioUtilsStatic.when(() -> IOUtils.toString(inputStream, Charset.forName("UTF-8"))).thenReturn(httpResponseBody);
+
+            platformApiClient.sendRequest();
+
+            // 更新前の公開鍵で暗号化した証明書を拒否された場合は、キャッシュした公開鍵を破棄する。
+            encryptionStatic.verify(() -> Encryption.evictPublicKey("http://platform.example.com/key/jwks.json"));
+        }
+    }
+
     @Test
     public void testSetContextForDataManager() throws Exception {
 
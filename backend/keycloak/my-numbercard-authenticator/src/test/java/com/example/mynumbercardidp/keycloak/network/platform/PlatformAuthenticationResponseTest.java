@@ -3,8 +3,15 @@ package com.example.mynumbercardidp.keycloak.network.platform;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -20,14 +27,17 @@ public class PlatformAuthenticationResponseTest {
     private PlatformAuthenticationResponse.IdentityInfo identityInfo = new PlatformAuthenticationResponse.IdentityInfo();
     @Mock
     UserModel user;
+    private final Map<String, List<String>> attributes = new HashMap<>();
 
     @BeforeEach
     public void setup() {
         closeable = MockitoAnnotations.openMocks(this);
+        doReturn(attributes).when(user).getAttributes();
     }
 
     @AfterEach
     public void tearDown() throws Exception {
+        IdentityAttributeMapping.reset();
         closeable.close();
     }
 
@@ -49,6 +59,50 @@ public class PlatformAuthenticationResponseTest {
         assertNull(user.getFirstAttribute("birth_date"));
     }
 
+    @Test
+    public void testToUserModelAttributesWithoutChanges() throws Exception {
+        setIdentityInfo("c610e161-90ce-4a31-ab84-9429dd484e83", "name", "0", "address", "1999-01-01");
+        stubAttribute("uniqueid", "c610e161-90ce-4a31-ab84-9429dd484e83");
+        stubAttribute("name", "name");
+        stubAttribute("gender_code", "0");
+        stubAttribute("user_address", "address");
+        stubAttribute("birth_date", "1999-01-01");
+
+        platformAuthenticationResponse.toUserModelAttributes(user);
+        verify(user, never()).setSingleAttribute(any(), any());
+        // 現在のユーザー属性は項目ごとに読み込まない。
+        verify(user).getAttributes();
+        verify(user, never()).getAttributeStream(any());
+    }
+
+    @Test
+    public void testToUserModelAttributesWithChanges() throws Exception {
+        setIdentityInfo("c610e161-90ce-4a31-ab84-9429dd484e83", "name", "0", "new address", null);
+        stubAttribute("uniqueid", "c610e161-90ce-4a31-ab84-9429dd484e83");
+        stubAttribute("name", "name", "other name");
+        stubAttribute("gender_code", "0");
+        stubAttribute("user_address", "address");
+        stubAttribute("birth_date", "1999-01-01");
+
+        platformAuthenticationResponse.toUserModelAttributes(user);
+        // 値が同じ項目は設定せず、複数の値を持つ項目は1つの値に揃える。
+        verify(user, never()).setSingleAttribute("uniqueid", "c610e161-90ce-4a31-ab84-9429dd484e83");
+        verify(user, never()).setSingleAttribute("gender_code", "0");
+        verify(user).setSingleAttribute("name", "name");
+        verify(user).setSingleAttribute("user_address", "new address");
+        verify(user).setSingleAttribute("birth_date", null);
+    }
+
+    @Test
+    public void testToUserModelAttributesWithMapping() throws Exception {
+        IdentityAttributeMapping.configure("address=address_line");
+        setIdentityInfo(null, null, null, "address", null);
+
+        platformAuthenticationResponse.toUserModelAttributes(user);
+        verify(user).setSingleAttribute("address_line", "address");
+        verify(user, never()).setSingleAttribute("user_address", "address");
+    }
+
     @Test
     public void testSetHttpStatusCode() {
         platformAuthenticationResponse.setHttpStatusCode(400);
@@ -104,4 +158,24 @@ public class PlatformAuthenticationResponseTest {
         field.set(identityInfo, "address");
         assertEquals("address", identityInfo.getAddress());
     }
+
+    private void setIdentityInfo(final String uniqueId, final String name, final String gender, final String address,
+            final String dateOfBirth) throws Exception {
+        PlatformAuthenticationResponse.IdentityInfo info = platformAuthenticationResponse.getIdentityInfo();
+        setField(info, "tisUserId", uniqueId);
+        setField(info, "name", name);
+        setField(info, "gender", gender);
+        setField(info, "address", address);
+        setField(info, "dateOfBirth", dateOfBirth);
+    }
+
+    private void setField(final Object target, final String name, final Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private void stubAttribute(final String name, final String... values) {
+        attributes.put(name, List.of(values));
+    }
 }
@@ -0,0 +1,204 @@
+package com.example.mynumbercardidp.keycloak.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakSessionTaskWithResult;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.keycloak.models.jpa.entities.UserEntity;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.MockitoAnnotations;
+
+import com.example.mynumbercardidp.keycloak.rest.blob.CustomAttributeBlobStore;
+
+public class CustomAttributeBatchTest {
+    private static final String ATTRIBUTE_NAME = "sample-client_user_attributes";
+    private static final int MAX_BYTES = 16;
+    private AutoCloseable closeable;
+    private MockedStatic<KeycloakModelUtils> modelUtils;
+    private int transactions;
+
+    @Mock
+    KeycloakSessionFactory sessionFactory;
+    @Mock
+    KeycloakSession session;
+    @Mock
+    KeycloakContext context;
+    @Mock
+    RealmProvider realmProvider;
+    @Mock
+    RealmModel realm;
+    @Mock
+    UserProvider userProvider;
+    @Mock
+    UserModel user;
+    @Mock
+    UserModel duplicatedUser;
+    @Mock
+    JpaConnectionProvider jpaConnectionProvider;
+    @Mock
+    EntityManager entityManager;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        transactions = 0;
+        modelUtils = mockStatic(KeycloakModelUtils.class);
+        modelUtils.when(() -> KeycloakModelUtils.runJobInTransactionWithResult(any(), any()))
+                .thenAnswer(invocation -> {
+                    transactions++;
+                    return ((KeycloakSessionTaskWithResult<Object>) invocation.getArgument(1)).run(session);
+                });
+        doReturn(realmProvider).when(session).realms();
+        doReturn(realm).when(realmProvider).getRealm("realm-id");
+        doReturn(context).when(session).getContext();
+        doReturn(userProvider).when(session).users();
+        doReturn(jpaConnectionProvider).when(session).getProvider(JpaConnectionProvider.class);
+        doReturn(entityManager).when(jpaConnectionProvider).getEntityManager();
+        doReturn(user).when(userProvider).getUserById(realm, "user-id");
+        doReturn("user-id").when(user).getId();
+        doAnswer(invocation -> Stream.of(user)).when(userProvider)
+                .searchForUserByUserAttributeStream(realm, "uniqueid", "unique-id");
+        doAnswer(invocation -> Stream.of(user, duplicatedUser)).when(userProvider)
+                .searchForUserByUserAttributeStream(realm, "uniqueid", "duplicated-id");
+        doAnswer(invocation -> Stream.empty()).when(userProvider)
+                .searchForUserByUserAttributeStream(realm, "uniqueid", "unknown-id");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        CustomAttributeStorage.configure(false, CustomAttributeStorage.DEFAULT_MAX_BYTES,
+                CustomAttributeStorage.DEFAULT_BLOB_THRESHOLD_BYTES);
+        modelUtils.close();
+        closeable.close();
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        String result = write("[{\"user_id\":\"user-id\",\"user_attributes\":{\"a\":1}},"
+                + "{\"uniqueid\":\"unique-id\",\"ignored\":[1,2],\"user_attributes\":{\"b\" : \"x\"}},"
+                + "{\"uniqueid\":\"unknown-id\",\"user_attributes\":{}},"
+                + "{\"uniqueid\":\"duplicated-id\",\"user_attributes\":{}},"
+                + "{\"user_id\":\"user-id\",\"user_attributes\":\"{}\"},"
+                + "{\"user_attributes\":{}},"
+                + "\"user-id\"]");
+
+        assertEquals("[{\"index\":0,\"status\":\"updated\",\"user_id\":\"user-id\"},"
+                + "{\"index\":1,\"status\":\"updated\",\"user_id\":\"user-id\"},"
+                + "{\"index\":2,\"status\":\"not_found\"},"
+                + "{\"index\":3,\"status\":\"conflict\"},"
+                + "{\"index\":4,\"status\":\"invalid\"},"
+                + "{\"index\":5,\"status\":\"invalid\"},"
+                + "{\"index\":6,\"status\":\"invalid\"}]", result);
+        verify(user).setSingleAttribute(ATTRIBUTE_NAME, "{\"a\":1}");
+        verify(user).setSingleAttribute(ATTRIBUTE_NAME, "{\"b\":\"x\"}");
+        verify(user).setSingleAttribute(ATTRIBUTE_NAME + CustomAttributeEntityTag.ENTITY_TAG_SUFFIX,
+                CustomAttributeEntityTag.compute("{\"a\":1}"));
+        verify(duplicatedUser, never()).setSingleAttribute(any(), any());
+        verify(context).setRealm(realm);
+        assertEquals(1, transactions);
+    }
+
+    @Test
+    public void testWriteLocksUser() throws Exception {
+        String result = write("[{\"user_id\":\"user-id\",\"user_attributes\":{\"a\":1}},"
+                + "{\"uniqueid\":\"duplicated-id\",\"user_attributes\":{}}]");
+
+        assertEquals("[{\"index\":0,\"status\":\"updated\",\"user_id\":\"user-id\"},"
+                + "{\"index\":1,\"status\":\"conflict\"}]", result);
+        // 個別の設定と同じく、ユーザーの行をロックしてから書き込む
+        InOrder order = inOrder(entityManager, user);
+        order.verify(entityManager).find(UserEntity.class, "user-id", LockModeType.PESSIMISTIC_WRITE);
+        order.verify(user).setSingleAttribute(ATTRIBUTE_NAME, "{\"a\":1}");
+        verify(entityManager, times(1)).find(eq(UserEntity.class), any(), eq(LockModeType.PESSIMISTIC_WRITE));
+    }
+
+    @Test
+    public void testWriteToBlobStorage() throws Exception {
+        CustomAttributeStorage.configure(true, CustomAttributeStorage.DEFAULT_MAX_BYTES, 0);
+        try (MockedStatic<CustomAttributeBlobStore> blobStore = mockStatic(CustomAttributeBlobStore.class)) {
+            String result = write("[{\"user_id\":\"user-id\",\"user_attributes\":{\"a\":1}},"
+                    + "{\"user_id\":\"user-id\",\"user_attributes\":{\"a\":\"0123456789\"}}]");
+
+            // 上限のバイト数はテーブルへの保存を有効にした場合のみ適用する。
+            assertEquals("[{\"index\":0,\"status\":\"updated\",\"user_id\":\"user-id\"},"
+                    + "{\"index\":1,\"status\":\"too_large\"}]", result);
+            blobStore.verify(() -> CustomAttributeBlobStore.write(session, realm, user, ATTRIBUTE_NAME, "{\"a\":1}"));
+            verify(user).setSingleAttribute(ATTRIBUTE_NAME, CustomAttributeStorage.BLOB_REFERENCE);
+        }
+    }
+
+    @Test
+    public void testWriteInChunks() throws Exception {
+        int count = CustomAttributeBatch.CHUNK_SIZE * 2 + 1;
+        String items = IntStream.range(0, count)
+                .mapToObj(i -> "{\"user_id\":\"user-id\",\"user_attributes\":{\"i\":" + i + "}}")
+                .collect(Collectors.joining(",", "[", "]"));
+
+        String result = write(items);
+
+        assertEquals(3, transactions);
+        assertEquals(count, result.split("\"updated\"", -1).length - 1);
+        verify(user, times(count)).setSingleAttribute(eq(ATTRIBUTE_NAME), any());
+    }
+
+    @Test
+    public void testWriteMalformed() throws Exception {
+        // 不正な位置より前の要素は設定する。
+        String result = write("[{\"user_id\":\"user-id\",\"user_attributes\":{\"a\":1}},{\"user_id\":");
+
+        assertEquals("[{\"index\":0,\"status\":\"updated\",\"user_id\":\"user-id\"},"
+                + "{\"index\":1,\"status\":\"malformed\"}]", result);
+        assertEquals("[{\"index\":0,\"status\":\"malformed\"}]", write("{\"user_id\":\"user-id\"}"));
+        assertEquals("[]", write("[]"));
+    }
+
+    @Test
+    public void testWriteFailedTransaction() throws Exception {
+        doReturn(null).when(realmProvider).getRealm("realm-id");
+
+        String result = write("[{\"user_id\":\"user-id\",\"user_attributes\":{}},{\"user_id\":\"user-id\"}]");
+
+        assertEquals("[{\"index\":0,\"status\":\"failed\"},{\"index\":1,\"status\":\"invalid\"}]", result);
+        verify(user, never()).setSingleAttribute(any(), any());
+    }
+
+    private String write(final String requestBody) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new CustomAttributeBatch(sessionFactory, "realm-id", ATTRIBUTE_NAME, MAX_BYTES,
+                new ByteArrayInputStream(requestBody.getBytes(StandardCharsets.UTF_8))).write(output);
+        return output.toString(StandardCharsets.UTF_8);
+    }
+}
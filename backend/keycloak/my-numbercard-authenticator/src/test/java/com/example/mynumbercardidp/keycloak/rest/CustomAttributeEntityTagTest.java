@@ -0,0 +1,111 @@
+package com.example.mynumbercardidp.keycloak.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.keycloak.models.UserModel;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class CustomAttributeEntityTagTest {
+    private static final String ATTRIBUTE_NAME = "sample-client_user_attributes";
+    private static final String ETAG_ATTRIBUTE_NAME = "sample-client_user_attributes_etag";
+    private AutoCloseable closeable;
+
+    @Mock
+    UserModel user;
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    @Test
+    public void testCompute() {
+        String etag = CustomAttributeEntityTag.compute("{\"a\":1}");
+
+        assertTrue(etag.matches("\"[A-Za-z0-9_-]{43}\""));
+        assertEquals(etag, CustomAttributeEntityTag.compute("{\"a\":1}"));
+        assertNotEquals(etag, CustomAttributeEntityTag.compute("{\"a\":2}"));
+    }
+
+    @Test
+    public void testCurrent() {
+        assertNull(CustomAttributeEntityTag.current(user, ATTRIBUTE_NAME));
+
+        // 保持したエンティティタグがない値は、その場で計算する。
+        doReturn("{\"a\":1}").when(user).getFirstAttribute(ATTRIBUTE_NAME);
+        assertEquals(CustomAttributeEntityTag.compute("{\"a\":1}"), CustomAttributeEntityTag.current(user, ATTRIBUTE_NAME));
+
+        doReturn("\"stored\"").when(user).getFirstAttribute(ETAG_ATTRIBUTE_NAME);
+        assertEquals("\"stored\"", CustomAttributeEntityTag.current(user, ATTRIBUTE_NAME));
+    }
+
+    @Test
+    public void testCurrentWithoutValue() {
+        doReturn("\"stored\"").when(user).getFirstAttribute(ETAG_ATTRIBUTE_NAME);
+
+        assertNull(CustomAttributeEntityTag.current(user, ATTRIBUTE_NAME, null));
+        verify(user, never()).getFirstAttribute(any());
+    }
+
+    @Test
+    public void testStore() {
+        String etag = CustomAttributeEntityTag.store(user, ATTRIBUTE_NAME, "{\"a\":1}");
+
+        assertEquals(CustomAttributeEntityTag.compute("{\"a\":1}"), etag);
+        verify(user).setSingleAttribute(ATTRIBUTE_NAME, "{\"a\":1}");
+        verify(user).setSingleAttribute(ETAG_ATTRIBUTE_NAME, etag);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "\"3\"", "*", "\"1\", \"3\"", " \"3\" " })
+    public void testMatchesIfMatch(String ifMatch) {
+        assertTrue(CustomAttributeEntityTag.matchesIfMatch(ifMatch, "\"3\""));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "\"2\"", "W/\"3\"", "3", "\"1\", \"2\"" })
+    public void testNotMatchesIfMatch(String ifMatch) {
+        assertFalse(CustomAttributeEntityTag.matchesIfMatch(ifMatch, "\"3\""));
+    }
+
+    @Test
+    public void testMatchesIfMatchWithoutEntityTag() {
+        assertTrue(CustomAttributeEntityTag.matchesIfMatch(null, "\"3\""));
+        assertTrue(CustomAttributeEntityTag.matchesIfMatch(" ", null));
+        // 値が設定されていない場合は、*も一致しない。
+        assertFalse(CustomAttributeEntityTag.matchesIfMatch("*", null));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "\"3\"", "W/\"3\"", "*", "\"1\", W/\"3\"" })
+    public void testMatchesIfNoneMatch(String ifNoneMatch) {
+        assertTrue(CustomAttributeEntityTag.matchesIfNoneMatch(ifNoneMatch, "\"3\""));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "\"2\"", "3", " " })
+    public void testNotMatchesIfNoneMatch(String ifNoneMatch) {
+        assertFalse(CustomAttributeEntityTag.matchesIfNoneMatch(ifNoneMatch, "\"3\""));
+        assertFalse(CustomAttributeEntityTag.matchesIfNoneMatch(null, "\"3\""));
+        assertFalse(CustomAttributeEntityTag.matchesIfNoneMatch("*", null));
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.mynumbercardidp.keycloak.rest;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.keycloak.representations.AccessTokenResponse;
+
+import com.example.mynumbercardidp.keycloak.util.PerformanceComparison;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * ユーザー属性の設定で読み書きするJSONについて、JSONツリーを経由する従来の実装と1回あたりの割り当てバイト数とスループットを比較します。
+ *
+ * mvn -B test -Pperformance で実行します。
+ */
+@Tag("performance")
+public class CustomAttributeJsonPerformanceTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String REQUEST_BODY = "{\"user_attributes\":{\"service_id\":\"example@example.com\","
+            + "\"notes\":\"RP1\",\"plan\":{\"name\":\"premium\",\"features\":[\"a\",\"b\",\"c\"]},\"score\":12.5}}";
+
+    @Test
+    public void testAllocationAndThroughput(final TestReporter reporter) throws Exception {
+        AccessTokenResponse tokenResponse = createTokenResponse();
+        PerformanceComparison.Task legacy = () -> {
+            String userAttributes = OBJECT_MAPPER.readTree(REQUEST_BODY).get("user_attributes").toString();
+            ObjectNode tokens = OBJECT_MAPPER.valueToTree(tokenResponse);
+            tokens.remove(Arrays.asList("error", "error_description", "error_uri"));
+            return userAttributes.length() + OBJECT_MAPPER.writeValueAsString(tokens).length();
+        };
+        PerformanceComparison.Task current = () -> CustomAttributeJson.readUserAttributes(REQUEST_BODY).length()
+                + CustomAttributeJson.writeTokenResponse(tokenResponse).length();
+
+        PerformanceComparison.compareAllocation("custom attribute JSON allocation", legacy, current)
+                .report(reporter)
+                .assertCurrentAllocatesNoMore();
+        PerformanceComparison.compareThroughput("custom attribute JSON throughput", legacy, current)
+                .report(reporter)
+                .assertCurrentIsNotSlower();
+    }
+
+    private static AccessTokenResponse createTokenResponse() {
+        AccessTokenResponse response = new AccessTokenResponse();
+        response.setToken("a".repeat(1200));
+        response.setExpiresIn(300);
+        response.setRefreshExpiresIn(1800);
+        response.setRefreshToken("r".repeat(700));
+        response.setTokenType("Bearer");
+        response.setIdToken("i".repeat(1100));
+        response.setSessionState("6f3c5e9a-3a43-4c4e-9a0a-1f1f0b6d2a11");
+        response.setScope("openid profile email");
+        return response;
+    }
+}
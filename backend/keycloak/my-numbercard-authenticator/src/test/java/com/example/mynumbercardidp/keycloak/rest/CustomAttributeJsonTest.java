@@ -0,0 +1,117 @@
+package com.example.mynumbercardidp.keycloak.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.keycloak.representations.AccessTokenResponse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class CustomAttributeJsonTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "{\"user_attributes\":{\"service_id\":\"example@example.com\",\"notes\":\"RP1\"}}",
+        "{ \"other\" : [1, {\"a\": null}], \"user_attributes\" : { \"n\" : 1.50, \"b\" : true, \"s\" : \"\\u3042\\n\\\"\" } }",
+        "{\"user_attributes\":{\"nested\":{\"list\":[1,2,{\"x\":-1e3}]},\"big\":123456789012345678901234567890}}",
+        "{\"user_attributes\":{\"first\":1},\"user_attributes\":{\"second\":2}}",
+        "{\"user_attributes\":{}} trailing",
+        "{\"user_attributes\":{\"ja\":\"個人番号カード\"}}",
+    })
+    public void testReadUserAttributes(String requestBody) throws IOException {
+        // 変更前と同じく、JSONツリーを文字列に変換した値と一致する。
+        assertEquals(MAPPER.readTree(requestBody).get("user_attributes").toString(),
+                CustomAttributeJson.readUserAttributes(requestBody));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "",
+        "null",
+        "[{\"user_attributes\":{}}]",
+        "{}",
+        "{\"user_attributes\":\"{}\"}",
+        "{\"user_attributes\":[]}",
+        "{\"user_attributes\":{},\"user_attributes\":null}",
+        "{\"user_attributes\"\"service_id\"\"example@example.com\"}",
+        "{\"user_attributes\":{\"service_id\"\"example@example.com\"}}",
+        // ユーザー属性以外の項目の構文も検証する。
+        "{\"user_attributes\":{},\"other\":\"\\q\"}",
+        "{\"user_attributes\":{},\"other\":[1,}",
+        "{\"user_attributes\":{}",
+    })
+    public void testReadInvalidUserAttributes(String requestBody) {
+        assertNull(CustomAttributeJson.readUserAttributes(requestBody));
+    }
+
+    @Test
+    public void testReadNull() {
+        assertNull(CustomAttributeJson.readUserAttributes(null));
+    }
+
+    // RFC 7386 の付録Aの例
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+        "{\"a\":\"b\"}|{\"a\":\"c\"}|{\"a\":\"c\"}",
+        "{\"a\":\"b\"}|{\"b\":\"c\"}|{\"a\":\"b\",\"b\":\"c\"}",
+        "{\"a\":\"b\"}|{\"a\":null}|{}",
+        "{\"a\":\"b\",\"b\":\"c\"}|{\"a\":null}|{\"b\":\"c\"}",
+        "{\"a\":[\"b\"]}|{\"a\":\"c\"}|{\"a\":\"c\"}",
+        "{\"a\":\"c\"}|{\"a\":[\"b\"]}|{\"a\":[\"b\"]}",
+        "{\"a\":{\"b\":\"c\"}}|{\"a\":{\"b\":\"d\",\"c\":null}}|{\"a\":{\"b\":\"d\"}}",
+        "{\"a\":[{\"b\":\"c\"}]}|{\"a\":[1]}|{\"a\":[1]}",
+        "{\"e\":null}|{\"a\":1}|{\"e\":null,\"a\":1}",
+        "{}|{\"a\":{\"bb\":{\"ccc\":null}}}|{\"a\":{\"bb\":{}}}",
+        "[1,2]|{\"a\":\"b\",\"c\":null}|{\"a\":\"b\"}",
+        "not json|{\"a\":1}|{\"a\":1}",
+    })
+    public void testMergePatch(String target, String patch, String expected) throws IOException {
+        assertEquals(expected, CustomAttributeJson.mergePatch(target, patch));
+    }
+
+    @Test
+    public void testMergePatchWithoutTarget() throws IOException {
+        assertEquals("{\"a\":1}", CustomAttributeJson.mergePatch(null, "{\"a\":1,\"b\":null}"));
+    }
+
+    @Test
+    public void testMergePatchNotObject() {
+        assertThrows(IllegalArgumentException.class, () -> CustomAttributeJson.mergePatch("{}", "[1]"));
+    }
+
+    @Test
+    public void testWriteTokenResponse() throws IOException {
+        AccessTokenResponse response = new AccessTokenResponse();
+        response.setToken("access");
+        response.setExpiresIn(300);
+        response.setRefreshToken("refresh");
+        response.setTokenType("Bearer");
+        response.setIdToken("id");
+        response.setSessionState("session");
+        response.setScope("openid");
+        response.setError("error");
+        response.setOtherClaims("custom", "value");
+
+        String json = CustomAttributeJson.writeTokenResponse(response);
+
+        // 変更前と同じく、エラー項目を除いた順序で書き出す。
+        ObjectNode legacy = MAPPER.valueToTree(response);
+        legacy.remove(Arrays.asList("error", "error_description", "error_uri"));
+        assertEquals(MAPPER.writeValueAsString(legacy), json);
+        JsonNode written = MAPPER.readTree(json);
+        assertFalse(written.has("error"));
+        assertEquals("value", written.get("custom").asText());
+    }
+}
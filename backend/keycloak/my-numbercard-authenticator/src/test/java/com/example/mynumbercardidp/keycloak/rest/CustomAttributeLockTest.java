@@ -0,0 +1,112 @@
+package com.example.mynumbercardidp.keycloak.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.TypedQuery;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.jpa.entities.UserEntity;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class CustomAttributeLockTest {
+    private static final String ATTRIBUTE_NAME = "sample-client_user_attributes";
+    private static final String ETAG_ATTRIBUTE_NAME = "sample-client_user_attributes_etag";
+    private AutoCloseable closeable;
+
+    @Mock
+    KeycloakSession session;
+    @Mock
+    JpaConnectionProvider jpaConnectionProvider;
+    @Mock
+    EntityManager entityManager;
+    @Mock
+    TypedQuery<Object[]> query;
+    @Mock
+    UserModel user;
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        doReturn(jpaConnectionProvider).when(session).getProvider(JpaConnectionProvider.class);
+        doReturn(entityManager).when(jpaConnectionProvider).getEntityManager();
+        doReturn("user-id").when(user).getId();
+        doReturn(query).when(entityManager).createQuery(anyString(), eq(Object[].class));
+        doReturn(query).when(query).setParameter(anyString(), any());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    @Test
+    public void testAcquireReadsCommittedAttributes() {
+        doReturn(mock(UserEntity.class)).when(entityManager)
+                .find(UserEntity.class, "user-id", LockModeType.PESSIMISTIC_WRITE);
+        doReturn(List.of(new Object[] { ETAG_ATTRIBUTE_NAME, "\"committed\"" },
+                new Object[] { ATTRIBUTE_NAME, "{\"a\":2}" })).when(query).getResultList();
+        doReturn("{\"a\":1}").when(user).getFirstAttribute(ATTRIBUTE_NAME);
+        doReturn("\"cached\"").when(user).getFirstAttribute(ETAG_ATTRIBUTE_NAME);
+
+        CustomAttributeLock lock = CustomAttributeLock.acquire(session, user, ATTRIBUTE_NAME);
+
+        assertEquals("{\"a\":2}", lock.getValue());
+        assertEquals("\"committed\"", lock.getEntityTag());
+        verify(query).setParameter("userId", "user-id");
+        verify(query).setParameter("names", List.of(ATTRIBUTE_NAME, ETAG_ATTRIBUTE_NAME));
+    }
+
+    @Test
+    public void testAcquireComputesMissingEntityTag() {
+        doReturn(mock(UserEntity.class)).when(entityManager)
+                .find(UserEntity.class, "user-id", LockModeType.PESSIMISTIC_WRITE);
+        doReturn(List.<Object[]>of(new Object[] { ATTRIBUTE_NAME, "{\"a\":1}" })).when(query).getResultList();
+
+        CustomAttributeLock lock = CustomAttributeLock.acquire(session, user, ATTRIBUTE_NAME);
+
+        assertEquals("{\"a\":1}", lock.getValue());
+        assertEquals(CustomAttributeEntityTag.compute("{\"a\":1}"), lock.getEntityTag());
+    }
+
+    @Test
+    public void testAcquireWithoutAttribute() {
+        doReturn(mock(UserEntity.class)).when(entityManager)
+                .find(UserEntity.class, "user-id", LockModeType.PESSIMISTIC_WRITE);
+        doReturn(List.of()).when(query).getResultList();
+
+        CustomAttributeLock lock = CustomAttributeLock.acquire(session, user, ATTRIBUTE_NAME);
+
+        assertNull(lock.getValue());
+        assertNull(lock.getEntityTag());
+    }
+
+    @Test
+    public void testAcquireUserOutsideLocalStorage() {
+        doReturn("{\"a\":1}").when(user).getFirstAttribute(ATTRIBUTE_NAME);
+        doReturn("\"stored\"").when(user).getFirstAttribute(ETAG_ATTRIBUTE_NAME);
+
+        CustomAttributeLock lock = CustomAttributeLock.acquire(session, user, ATTRIBUTE_NAME);
+
+        assertEquals("{\"a\":1}", lock.getValue());
+        assertEquals("\"stored\"", lock.getEntityTag());
+        verify(entityManager, never()).createQuery(anyString(), eq(Object[].class));
+    }
+}
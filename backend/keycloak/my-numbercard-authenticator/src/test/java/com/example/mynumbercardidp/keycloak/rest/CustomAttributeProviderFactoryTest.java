@@ -2,11 +2,16 @@ package com.example.mynumbercardidp.keycloak.rest;
 
 import static org.junit.Assert.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doReturn;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.keycloak.Config.Scope;
+import org.keycloak.models.ClientModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.mockito.InjectMocks;
@@ -25,6 +30,8 @@ public class CustomAttributeProviderFactoryTest {
     Scope config;
     @Mock
     KeycloakSessionFactory factory;
+    @Mock
+    ClientModel client;
     @BeforeEach
     public void setup() {
         closeable = MockitoAnnotations.openMocks(this);
@@ -59,6 +66,32 @@ public class CustomAttributeProviderFactoryTest {
         });
     }
 
+    @Test
+    public void testInitBatchAssignEnabled() {
+        doReturn(true).when(config).getBoolean("batchAssignEnabled", false);
+        customAttributeProviderFactory.init(config);
+        assertTrue(CustomAttributeBatch.isEnabled());
+
+        customAttributeProviderFactory.close();
+        assertFalse(CustomAttributeBatch.isEnabled());
+    }
+
+    @Test
+    public void testInitBlobStorageEnabled() {
+        doReturn(true).when(config).getBoolean("blobStorageEnabled", false);
+        doReturn(1024).when(config).getInt("blobMaxBytes", CustomAttributeStorage.DEFAULT_MAX_BYTES);
+        doReturn(0).when(config).getInt("blobThresholdBytes", CustomAttributeStorage.DEFAULT_BLOB_THRESHOLD_BYTES);
+        customAttributeProviderFactory.init(config);
+        assertTrue(CustomAttributeStorage.isBlobEnabled());
+        assertEquals(1024, CustomAttributeStorage.getMaxBytes(client));
+        // しきい値を0にした場合は全ての値をテーブルに保持するため、参照と同じ値も書き込める。
+        assertFalse(CustomAttributeStorage.isReserved(CustomAttributeStorage.BLOB_REFERENCE));
+
+        customAttributeProviderFactory.close();
+        assertFalse(CustomAttributeStorage.isBlobEnabled());
+        assertEquals(CustomAttributeStorage.DEFAULT_MAX_BYTES, CustomAttributeStorage.getMaxBytes(client));
+    }
+
     @Test
     public void testPostInit() {
         assertDoesNotThrow(() -> {
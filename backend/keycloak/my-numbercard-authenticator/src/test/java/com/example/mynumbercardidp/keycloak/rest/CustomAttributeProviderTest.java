@@ -2,31 +2,51 @@ package com.example.mynumbercardidp.keycloak.rest;
 
 import static org.junit.Assert.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockConstruction;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import java.io.ByteArrayInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.TypedQuery;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.keycloak.common.ClientConnection;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
 import org.keycloak.models.ClientModel;
 import org.keycloak.models.KeycloakContext;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.KeycloakUriInfo;
 import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
 import org.keycloak.models.SingleUseObjectProvider;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.UserSessionModel;
 import org.keycloak.models.UserSessionProvider;
+import org.keycloak.models.jpa.entities.UserEntity;
 import org.keycloak.protocol.oidc.TokenManager;
 import org.keycloak.protocol.oidc.TokenManager.AccessTokenResponseBuilder;
 import org.keycloak.representations.AccessToken;
@@ -38,6 +58,9 @@ import org.keycloak.models.AuthenticatedClientSessionModel;
 import org.keycloak.services.managers.RealmManager;
 import org.keycloak.services.util.DefaultClientSessionContext;
 import org.keycloak.services.managers.AppAuthManager.BearerTokenAuthenticator;
+import com.example.mynumbercardidp.keycloak.rest.blob.CustomAttributeBlobStore;
+import com.example.mynumbercardidp.keycloak.util.token.BearerTokenVerifier;
+import com.example.mynumbercardidp.keycloak.util.token.BearerTokenVerifier.VerifiedToken;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockedConstruction;
@@ -103,6 +126,10 @@ public class CustomAttributeProviderTest {
     SingleUseObjectProvider singleUseObjectProvider;
     @Mock
     JsonNode requestData;
+    @Mock
+    JpaConnectionProvider jpaConnectionProvider;
+    @Mock
+    EntityManager entityManager;
     private String accessTokenString = "{\"access_token\":\"eyJhbGciOiJSUzI1NiIsInR5cCIgOiAiSldUIiwia2lkIiA6ICI4amRuSVo1UG0wVS10b1RNYlJyVlJNSkt3OG81RDVkVHJqVURXb3kzNlNzIn0.eyJleHAiOjE2OTU0NTMzNzcsImlhdCI6MTY5NTQ1MzA3NywiYXV0aF90aW1lIjoxNjk1NDUzMDcyLCJqdGkiOiJmMmU1ODg4NS1lZThkLTQ1YTYtOGVmMi0yNDdiNzI0ZDFmNGEiLCJpc3MiOiJodHRwczovLzllNTYtMTE4LTIzOC03LTY2Lm5ncm9rLWZyZWUuYXBwL3JlYWxtcy9PSWRwIiwiYXVkIjoiYWNjb3VudCIsInN1YiI6ImQ5YWRlNzcwLWExYWUtNDdkOC05ODc3LTkzMjc1YmQ1YTQzMSIsInR5cCI6IkJlYXJlciIsImF6cCI6InNhbXBsZS1jbGllbnQwMSIsInNlc3Npb25fc3RhdGUiOiJmYTZhODRlNS04ODY5LTQwZTYtOTkyZC1lZjBlYTc3MTg1NzYiLCJhY3IiOiIxIiwiYWxsb3dlZC1vcmlnaW5zIjpbIioiXSwicmVhbG1fYWNjZXNzIjp7InJvbGVzIjpbIm9mZmxpbmVfYWNjZXNzIiwidW1hX2F1dGhvcml6YXRpb24iLCJkZWZhdWx0LXJvbGVzLW9pZHAiXX0sInJlc291cmNlX2FjY2VzcyI6eyJhY2NvdW50Ijp7InJvbGVzIjpbIm1hbmFnZS1hY2NvdW50IiwibWFuYWdlLWFjY291bnQtbGlua3MiLCJ2aWV3LXByb2ZpbGUiXX19LCJzY29wZSI6Im9wZW5pZCBwcm9maWxlIGVtYWlsIGFkZHJlc3MiLCJzaWQiOiJmYTZhODRlNS04ODY5LTQwZTYtOTkyZC1lZjBlYTc3MTg1NzYiLCJlbWFpbF92ZXJpZmllZCI6ZmFsc2UsImFkZHJlc3MiOnt9LCJiaXJ0aF9kYXRlIjoiMTk3MC0wMS0zMSIsInVzZXJfYWRkcmVzcyI6IuadseS6rOmDveWNg-S7o-eUsOWMuuWNg-S7o-eUsDEtMSIsIm5hbWUiOiLkvZDol6Qg5aSq6YOOIiwidXNlcl9hdHRyaWJ1dGVzIjp7InNlcnZpY2VfaWQiOiJleGFtcGxlQGV4YW1wbGUuY29tIiwibm90ZXMiOiJSUDEifSwiZ2VuZGVyX2NvZGUiOiIwIiwicHJlZmVycmVkX3VzZXJuYW1lIjoiNzkxMGFlNWYtYTZjMS00MTE3LWI4OTAtZmMyZGYyZGI2M2YxIn0.BBN0Mrwe-roBKs4slNb46veTzfK2qzDkYTBnqi7ugb4wCgRoLX_KiXseq485rol8wX86vWZs3r_hTPP6L8A_B80r0gqSlOz21X92z0hgqzv9y1xk29JKNprjRosoz074v3f2JD-qoAxHmDxhz7saN862KKxbat7AjzkNTldFWYovHazAmAgC2o30Jqy1hIZgAvNKYS7sCNE5Z3ZwuOu0uEaaXOaQdHmuo7DDveuqVLVjtj_p53gBJEWCWA4y6bD6JqEfZu_A-wWzRTc5nQmTNn9dMcCDqBs2LeXfkYVL1OIhpEAUI5VN97-aotI-L3gheQ5BuRbmRbhy-brH2nA3JA\",\"expires_in\":300,\"refresh_expires_in\":1800,\"refresh_token\":\"eyJhbGciOiJIUzI1NiIsInR5cCIgOiAiSldUIiwia2lkIiA6ICJkYTA2NmFlMS1jZmY2LTQ5OWQtYjBhMS04NjZkMGQyNTg2NzYifQ.eyJleHAiOjE2OTU0NTQ4NzcsImlhdCI6MTY5NTQ1MzA3NywianRpIjoiMDZlYmU0YzItODJlYS00ODBhLWE0YWUtM2I4NWJjZmQ1YmQ2IiwiaXNzIjoiaHR0cHM6Ly85ZTU2LTExOC0yMzgtNy02Ni5uZ3Jvay1mcmVlLmFwcC9yZWFsbXMvT0lkcCIsImF1ZCI6Imh0dHBzOi8vOWU1Ni0xMTgtMjM4LTctNjYubmdyb2stZnJlZS5hcHAvcmVhbG1zL09JZHAiLCJzdWIiOiJkOWFkZTc3MC1hMWFlLTQ3ZDgtOTg3Ny05MzI3NWJkNWE0MzEiLCJ0eXAiOiJSZWZyZXNoIiwiYXpwIjoic2FtcGxlLWNsaWVudDAxIiwic2Vzc2lvbl9zdGF0ZSI6ImZhNmE4NGU1LTg4NjktNDBlNi05OTJkLWVmMGVhNzcxODU3NiIsInNjb3BlIjoib3BlbmlkIHByb2ZpbGUgZW1haWwgYWRkcmVzcyIsInNpZCI6ImZhNmE4NGU1LTg4NjktNDBlNi05OTJkLWVmMGVhNzcxODU3NiJ9.v4pwOyRb_D2h1z_HXgjebk7-iupXQs2MviPgEUcridE\",\"token_type\":\"Bearer\",\"id_token\":\"eyJhbGciOiJSUzI1NiIsInR5cCIgOiAiSldUIiwia2lkIiA6ICI4amRuSVo1UG0wVS10b1RNYlJyVlJNSkt3OG81RDVkVHJqVURXb3kzNlNzIn0.eyJleHAiOjE2OTU0NTMzNzcsImlhdCI6MTY5NTQ1MzA3NywiYXV0aF90aW1lIjoxNjk1NDUzMDcyLCJqdGkiOiJkYzA1OTY0NS03ZDBhLTQ0ZWMtOTdlNi0wNjEwOTFkNGRmNjAiLCJpc3MiOiJodHRwczovLzllNTYtMTE4LTIzOC03LTY2Lm5ncm9rLWZyZWUuYXBwL3JlYWxtcy9PSWRwIiwiYXVkIjoic2FtcGxlLWNsaWVudDAxIiwic3ViIjoiZDlhZGU3NzAtYTFhZS00N2Q4LTk4NzctOTMyNzViZDVhNDMxIiwidHlwIjoiSUQiLCJhenAiOiJzYW1wbGUtY2xpZW50MDEiLCJzZXNzaW9uX3N0YXRlIjoiZmE2YTg0ZTUtODg2OS00MGU2LTk5MmQtZWYwZWE3NzE4NTc2IiwiYWNyIjoiMSIsInNpZCI6ImZhNmE4NGU1LTg4NjktNDBlNi05OTJkLWVmMGVhNzcxODU3NiIsImVtYWlsX3ZlcmlmaWVkIjpmYWxzZSwiYWRkcmVzcyI6e30sImJpcnRoX2RhdGUiOiIxOTcwLTAxLTMxIiwidXNlcl9hZGRyZXNzIjoi5p2x5Lqs6YO95Y2D5Luj55Sw5Yy65Y2D5Luj55SwMS0xIiwibmFtZSI6IuS9kOiXpCDlpKrpg44iLCJ1c2VyX2F0dHJpYnV0ZXMiOnsic2VydmljZV9pZCI6ImV4YW1wbGVAZXhhbXBsZS5jb20iLCJub3RlcyI6IlJQMSJ9LCJnZW5kZXJfY29kZSI6IjAiLCJwcmVmZXJyZWRfdXNlcm5hbWUiOiI3OTEwYWU1Zi1hNmMxLTQxMTctYjg5MC1mYzJkZjJkYjYzZjEifQ.ODQ4fGf8lU1nl5kiAt3bci2hFfo6FgQn3aV7IOmN_CF9YTV2rT4_qA1AjvbiR7FhIOH9NOU4TUzzqxgcJvMeWiJoXhCIE9iJrg-1NlJ2cQ0cbYWx4GbEeuJrAMdWPSgroComGfgInWeq81nYNIvazQ7wNITEaKnuvmF3yOfATgAarRbx6A6qDNne-Loe19qV4WkMo_xrDmxjwxjsdbxLrnAdqFlZCNMLdD-_A-2X7aFcGeGmySNKxCDMxo614-O430SMLkHXhsjIbIuZ3BSb1aoH9Vq_uQMfQXfmdFFLHiVCxGSMxxIeOTnEU_JF7NucLXh2foKF14B4JKgHRRcowg\",\"not-before-policy\":0,\"session_state\":\"fa6a84e5-8869-40e6-992d-ef0ea7718576\",\"scope\":\"openid profile email address\",\"error\":null,\"error_description\":null,\"error_uri\":null}";
 
     @BeforeEach
@@ -115,6 +142,8 @@ public class CustomAttributeProviderTest {
         doReturn(context).when(session).getContext();
         doReturn(keycloakUriInfo).when(context).getUri();
         doReturn(singleUseObjectProvider).when(session).getProvider(SingleUseObjectProvider.class);
+        doReturn(jpaConnectionProvider).when(session).getProvider(JpaConnectionProvider.class);
+        doReturn(entityManager).when(jpaConnectionProvider).getEntityManager();
         doReturn(userSessionProvider).when(session).sessions();
         doReturn(userSession).when(userSessionProvider).getUserSession(any(), any());
         doReturn(httpHeaders).when(context).getRequestHeaders();
@@ -129,6 +158,9 @@ public class CustomAttributeProviderTest {
 
     @AfterEach
     public void tearDown() throws Exception {
+        CustomAttributeBatch.setEnabled(false);
+        CustomAttributeStorage.configure(false, CustomAttributeStorage.DEFAULT_MAX_BYTES,
+                CustomAttributeStorage.DEFAULT_BLOB_THRESHOLD_BYTES);
         closeable.close();
     }
 
@@ -292,6 +324,262 @@ public class CustomAttributeProviderTest {
         }
     }
 
+    @Test
+    public void testPatchAttributes() {
+        String stored = "{\"service_id\":\"example@example.com\",\"notes\":\"RP1\"}";
+        String merged = "{\"service_id\":\"example@example.com\",\"plan\":\"premium\"}";
+        doReturn(stored).when(user).getFirstAttribute("sample-client_user_attributes");
+        doReturn(CustomAttributeEntityTag.compute(stored)).when(httpHeaders).getHeaderString(HttpHeaders.IF_MATCH);
+        doReturn(connection).when(context).getConnection();
+        try (
+            MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization();
+            MockedStatic<DefaultClientSessionContext> defaultClientSessionContextStatic = mockStatic(DefaultClientSessionContext.class);
+            MockedConstruction<TokenManager> tokenManagerConstruction = mockConstruction(TokenManager.class,
+                                                    (mock, ctx) -> {
+                                                        doReturn(accessTokenResponseBuilder).when(mock).responseBuilder(any(), any(), any(), any(), any(), any());
+                                                        doReturn(accessTokenResponseBuilder).when(accessTokenResponseBuilder).generateAccessToken();
+                                                        doReturn(accessTokenResponseBuilder).when(accessTokenResponseBuilder).generateIDToken();
+                                                        doReturn(accessTokenResponseBuilder).when(accessTokenResponseBuilder).generateRefreshToken();
+                                                        doReturn(new AccessTokenResponse()).when(accessTokenResponseBuilder).build();
+                                                    });
+        ) {
+            Response response = customAttributeProvider.patchAttributes("{\"user_attributes\":{\"notes\":null,\"plan\":\"premium\"}}");
+
+            assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+            assertEquals(CustomAttributeEntityTag.compute(merged), response.getHeaderString(HttpHeaders.ETAG));
+            verify(user).setSingleAttribute("sample-client_user_attributes", merged);
+            verify(user).setSingleAttribute("sample-client_user_attributes_etag", CustomAttributeEntityTag.compute(merged));
+        }
+    }
+
+    @Test
+    public void testPatchAttributesPreconditionFailed() {
+        doReturn("{}").when(user).getFirstAttribute("sample-client_user_attributes");
+        doReturn("\"current\"").when(user).getFirstAttribute("sample-client_user_attributes_etag");
+        doReturn("\"stale\"").when(httpHeaders).getHeaderString(HttpHeaders.IF_MATCH);
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization()) {
+            Response response = customAttributeProvider.patchAttributes("{\"user_attributes\":{\"notes\":null}}");
+
+            assertEquals(Response.Status.PRECONDITION_FAILED.getStatusCode(), response.getStatus());
+            assertEquals("\"current\"", response.getHeaderString(HttpHeaders.ETAG));
+            verify(user, never()).setSingleAttribute(any(), any());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testPatchAttributesPreconditionFailedAfterConcurrentWrite() {
+        // キャッシュしたユーザーは古い値を保持し、ロックした後のテーブルには他の要求がコミットした値がある
+        String stale = "{\"notes\":\"RP1\"}";
+        String committed = "{\"notes\":\"RP2\"}";
+        doReturn(stale).when(user).getFirstAttribute("sample-client_user_attributes");
+        doReturn(CustomAttributeEntityTag.compute(stale)).when(httpHeaders).getHeaderString(HttpHeaders.IF_MATCH);
+        doReturn("user-id").when(user).getId();
+        doReturn(mock(UserEntity.class)).when(entityManager)
+                .find(UserEntity.class, "user-id", LockModeType.PESSIMISTIC_WRITE);
+        TypedQuery<Object[]> query = mock(TypedQuery.class);
+        doReturn(query).when(entityManager).createQuery(anyString(), eq(Object[].class));
+        doReturn(query).when(query).setParameter(anyString(), any());
+        doReturn(List.of(new Object[] { "sample-client_user_attributes", committed },
+                new Object[] { "sample-client_user_attributes_etag", CustomAttributeEntityTag.compute(committed) }))
+                .when(query).getResultList();
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization()) {
+            Response response = customAttributeProvider.patchAttributes("{\"user_attributes\":{\"plan\":\"premium\"}}");
+
+            assertEquals(Response.Status.PRECONDITION_FAILED.getStatusCode(), response.getStatus());
+            assertEquals(CustomAttributeEntityTag.compute(committed), response.getHeaderString(HttpHeaders.ETAG));
+            verify(user, never()).setSingleAttribute(any(), any());
+        }
+    }
+
+    @Test
+    public void testPatchAttributesWithInvalidJSON() {
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization()) {
+            Response response = customAttributeProvider.patchAttributes("{\"user_attributes\":[]}");
+
+            assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+            verify(user, never()).setSingleAttribute(any(), any());
+        }
+    }
+
+    @Test
+    public void testPatchAttributesWithoutToken() {
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockStatic(BearerTokenVerifier.class);
+                MockedStatic<AppAuthManager> appAuthManagerStatic = mockStatic(AppAuthManager.class)) {
+            Response response = customAttributeProvider.patchAttributes("{\"user_attributes\":{}}");
+
+            assertEquals(Response.Status.UNAUTHORIZED.getStatusCode(), response.getStatus());
+        }
+    }
+
+    @Test
+    public void testGetAttributes() {
+        doReturn("{\"a\":1}").when(user).getFirstAttribute("sample-client_user_attributes");
+        doReturn("\"stored\"").when(user).getFirstAttribute("sample-client_user_attributes_etag");
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization()) {
+            Response response = customAttributeProvider.getAttributes("sample-client");
+
+            assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+            assertEquals("{\"a\":1}", response.getEntity());
+            assertEquals("\"stored\"", response.getHeaderString(HttpHeaders.ETAG));
+            verify(user, never()).setSingleAttribute(any(), any());
+        }
+    }
+
+    @Test
+    public void testGetAttributesNotModified() {
+        doReturn("{\"a\":1}").when(user).getFirstAttribute("sample-client_user_attributes");
+        doReturn("\"stored\"").when(user).getFirstAttribute("sample-client_user_attributes_etag");
+        doReturn("W/\"stored\"").when(httpHeaders).getHeaderString(HttpHeaders.IF_NONE_MATCH);
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization()) {
+            Response response = customAttributeProvider.getAttributes("sample-client");
+
+            assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+            assertNull(response.getEntity());
+            assertEquals("\"stored\"", response.getHeaderString(HttpHeaders.ETAG));
+        }
+    }
+
+    @Test
+    public void testPatchAttributesTooLarge() {
+        CustomAttributeStorage.configure(true, CustomAttributeStorage.DEFAULT_MAX_BYTES, 0);
+        doReturn("8").when(client).getAttribute(CustomAttributeStorage.MAX_BYTES_ATTRIBUTE);
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization();
+                MockedStatic<CustomAttributeBlobStore> blobStore = mockStatic(CustomAttributeBlobStore.class)) {
+            Response response = customAttributeProvider.patchAttributes("{\"user_attributes\":{\"notes\":\"RP1\"}}");
+
+            assertEquals(Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode(), response.getStatus());
+            verify(user, never()).setSingleAttribute(any(), any());
+            blobStore.verify(() -> CustomAttributeBlobStore.write(any(), any(), any(), any(), any()), never());
+        }
+    }
+
+    @Test
+    public void testGetAttributesFromBlobStorage() {
+        doReturn(CustomAttributeStorage.BLOB_REFERENCE).when(user).getFirstAttribute("sample-client_user_attributes");
+        doReturn("\"stored\"").when(user).getFirstAttribute("sample-client_user_attributes_etag");
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization();
+                MockedStatic<CustomAttributeBlobStore> blobStore = mockStatic(CustomAttributeBlobStore.class)) {
+            blobStore.when(() -> CustomAttributeBlobStore.read(session, user, "sample-client_user_attributes"))
+                    .thenReturn("{\"a\":1}");
+            Response response = customAttributeProvider.getAttributes("sample-client");
+            assertEquals("{\"a\":1}", response.getEntity());
+            assertEquals("\"stored\"", response.getHeaderString(HttpHeaders.ETAG));
+
+            // エンティティタグが一致する場合は、テーブルから読み込まない。
+            doReturn("\"stored\"").when(httpHeaders).getHeaderString(HttpHeaders.IF_NONE_MATCH);
+            response = customAttributeProvider.getAttributes("sample-client");
+            assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+            blobStore.verify(() -> CustomAttributeBlobStore.read(any(), any(), any()));
+        }
+    }
+
+    @Test
+    public void testGetAttributesNotFound() {
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization()) {
+            Response response = customAttributeProvider.getAttributes("sample-client");
+
+            assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
+        }
+    }
+
+    @Test
+    public void testGetAttributesOfOtherClient() {
+        doReturn("{\"a\":1}").when(user).getFirstAttribute("other-client_user_attributes");
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization()) {
+            Response response = customAttributeProvider.getAttributes("other-client");
+
+            assertEquals(Response.Status.FORBIDDEN.getStatusCode(), response.getStatus());
+        }
+    }
+
+    @Test
+    public void testGetAttributesWithoutToken() {
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockStatic(BearerTokenVerifier.class);
+                MockedStatic<AppAuthManager> appAuthManagerStatic = mockStatic(AppAuthManager.class)) {
+            Response response = customAttributeProvider.getAttributes("sample-client");
+
+            assertEquals(Response.Status.UNAUTHORIZED.getStatusCode(), response.getStatus());
+        }
+    }
+
+    @Test
+    public void testSetAttributesInBatchDisabled() {
+        Response response = customAttributeProvider.setAttributesInBatch(new ByteArrayInputStream(new byte[0]));
+
+        assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
+    }
+
+    @Test
+    public void testSetAttributesInBatch() {
+        CustomAttributeBatch.setEnabled(true);
+        RoleModel batchRole = mock(RoleModel.class);
+        doReturn(batchRole).when(client).getRole(CustomAttributeProvider.BATCH_ROLE);
+        doReturn(true).when(user).hasRole(batchRole);
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization()) {
+            Response response = customAttributeProvider.setAttributesInBatch(new ByteArrayInputStream(new byte[0]));
+
+            assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+            assertTrue(response.getEntity() instanceof StreamingOutput);
+        }
+    }
+
+    @Test
+    public void testSetAttributesInBatchWithoutRole() {
+        CustomAttributeBatch.setEnabled(true);
+        RoleModel batchRole = mock(RoleModel.class);
+        doReturn(batchRole).when(client).getRole(CustomAttributeProvider.BATCH_ROLE);
+        doReturn(false).when(user).hasRole(batchRole);
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization()) {
+            Response response = customAttributeProvider.setAttributesInBatch(new ByteArrayInputStream(new byte[0]));
+
+            assertEquals(Response.Status.FORBIDDEN.getStatusCode(), response.getStatus());
+        }
+    }
+
+    @Test
+    public void testSetAttributesInBatchWithoutServiceAccount() {
+        CustomAttributeBatch.setEnabled(true);
+        RoleModel batchRole = mock(RoleModel.class);
+        doReturn(batchRole).when(client).getRole(CustomAttributeProvider.BATCH_ROLE);
+        doReturn(true).when(user).hasRole(batchRole);
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockAuthorization()) {
+            doReturn(null).when(user).getServiceAccountClientLink();
+            Response response = customAttributeProvider.setAttributesInBatch(new ByteArrayInputStream(new byte[0]));
+
+            assertEquals(Response.Status.FORBIDDEN.getStatusCode(), response.getStatus());
+        }
+    }
+
+    @Test
+    public void testSetAttributesInBatchWithoutToken() {
+        CustomAttributeBatch.setEnabled(true);
+        try (MockedStatic<BearerTokenVerifier> verifierStatic = mockStatic(BearerTokenVerifier.class);
+                MockedStatic<AppAuthManager> appAuthManagerStatic = mockStatic(AppAuthManager.class)) {
+            Response response = customAttributeProvider.setAttributesInBatch(new ByteArrayInputStream(new byte[0]));
+
+            assertEquals(Response.Status.UNAUTHORIZED.getStatusCode(), response.getStatus());
+        }
+    }
+
+    private MockedStatic<BearerTokenVerifier> mockAuthorization() {
+        doReturn(new MultivaluedHashMap<String, String>()).when(httpHeaders).getRequestHeaders();
+        VerifiedToken verified = mock(VerifiedToken.class);
+        doReturn(token).when(verified).getToken();
+        doReturn(realm).when(verified).getRealm();
+        doReturn(user).when(verified).getUser();
+        doReturn("sample-client").when(token).getIssuedFor();
+        doReturn("client-id").when(client).getId();
+        doReturn("sample-client").when(client).getClientId();
+        doReturn(realm).when(client).getRealm();
+        doReturn("realm-id").when(realm).getId();
+        doReturn("client-id").when(user).getServiceAccountClientLink();
+        doReturn(mock(KeycloakSessionFactory.class)).when(session).getKeycloakSessionFactory();
+        MockedStatic<BearerTokenVerifier> verifierStatic = mockStatic(BearerTokenVerifier.class);
+        verifierStatic.when(() -> BearerTokenVerifier.verify(any(), any())).thenReturn(verified);
+        return verifierStatic;
+    }
+
     @Test
     public void testClose() {
         assertDoesNotThrow(() -> {
@@ -0,0 +1,194 @@
+package com.example.mynumbercardidp.keycloak.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.MockitoAnnotations;
+
+import com.example.mynumbercardidp.keycloak.rest.blob.CustomAttributeBlobStore;
+
+public class CustomAttributeStorageTest {
+    private static final String ATTRIBUTE_NAME = "sample-client_user_attributes";
+    private static final String ETAG_ATTRIBUTE_NAME = "sample-client_user_attributes_etag";
+    private AutoCloseable closeable;
+    private MockedStatic<CustomAttributeBlobStore> blobStore;
+
+    @Mock
+    KeycloakSession session;
+    @Mock
+    RealmModel realm;
+    @Mock
+    UserModel user;
+    @Mock
+    ClientModel client;
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        blobStore = mockStatic(CustomAttributeBlobStore.class);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        CustomAttributeStorage.configure(false, CustomAttributeStorage.DEFAULT_MAX_BYTES,
+                CustomAttributeStorage.DEFAULT_BLOB_THRESHOLD_BYTES);
+        blobStore.close();
+        closeable.close();
+    }
+
+    @Test
+    public void testWriteToUserAttribute() {
+        String etag = CustomAttributeStorage.write(session, realm, user, ATTRIBUTE_NAME, "{\"a\":1}");
+
+        assertEquals(CustomAttributeEntityTag.compute("{\"a\":1}"), etag);
+        verify(user).setSingleAttribute(ATTRIBUTE_NAME, "{\"a\":1}");
+        verify(user).setSingleAttribute(ETAG_ATTRIBUTE_NAME, etag);
+        blobStore.verifyNoInteractions();
+    }
+
+    @Test
+    public void testWriteToBlobStorage() {
+        CustomAttributeStorage.configure(true, CustomAttributeStorage.DEFAULT_MAX_BYTES, 0);
+
+        String etag = CustomAttributeStorage.write(session, realm, user, ATTRIBUTE_NAME, "{\"a\":1}");
+
+        // ユーザー属性には参照を書き込み、エンティティタグは値から計算する。
+        assertEquals(CustomAttributeEntityTag.compute("{\"a\":1}"), etag);
+        blobStore.verify(() -> CustomAttributeBlobStore.write(session, realm, user, ATTRIBUTE_NAME, "{\"a\":1}"));
+        verify(user).setSingleAttribute(ATTRIBUTE_NAME, CustomAttributeStorage.BLOB_REFERENCE);
+        verify(user).setSingleAttribute(ETAG_ATTRIBUTE_NAME, etag);
+    }
+
+    @Test
+    public void testWriteToBlobStorageWithReference() {
+        CustomAttributeStorage.configure(true, CustomAttributeStorage.DEFAULT_MAX_BYTES, 0);
+        doReturn(CustomAttributeStorage.BLOB_REFERENCE).when(user).getFirstAttribute(ATTRIBUTE_NAME);
+
+        CustomAttributeStorage.write(session, realm, user, ATTRIBUTE_NAME, "{\"a\":2}");
+
+        // 参照を書き込み済みの場合は、ユーザー属性の値を書き換えない。
+        verify(user, never()).setSingleAttribute(eq(ATTRIBUTE_NAME), any());
+        verify(user).setSingleAttribute(ETAG_ATTRIBUTE_NAME, CustomAttributeEntityTag.compute("{\"a\":2}"));
+    }
+
+    @Test
+    public void testWriteBelowBlobThreshold() {
+        CustomAttributeStorage.configure(true, CustomAttributeStorage.DEFAULT_MAX_BYTES, 16);
+
+        CustomAttributeStorage.write(session, realm, user, ATTRIBUTE_NAME, "{\"a\":1}");
+
+        // しきい値未満の値はテーブルに保持せず、トークンにも値が含まれるようユーザー属性へ直接書き込む。
+        verify(user).setSingleAttribute(ATTRIBUTE_NAME, "{\"a\":1}");
+        blobStore.verifyNoInteractions();
+
+        CustomAttributeStorage.write(session, realm, user, ATTRIBUTE_NAME, "{\"a\":\"0123456789\"}");
+
+        blobStore.verify(() -> CustomAttributeBlobStore.write(session, realm, user, ATTRIBUTE_NAME,
+                "{\"a\":\"0123456789\"}"));
+        verify(user).setSingleAttribute(ATTRIBUTE_NAME, CustomAttributeStorage.BLOB_REFERENCE);
+    }
+
+    @Test
+    public void testWriteBelowBlobThresholdAfterBlobStorage() {
+        CustomAttributeStorage.configure(true, CustomAttributeStorage.DEFAULT_MAX_BYTES, 16);
+        doReturn(CustomAttributeStorage.BLOB_REFERENCE).when(user).getFirstAttribute(ATTRIBUTE_NAME);
+
+        CustomAttributeStorage.write(session, realm, user, ATTRIBUTE_NAME, "{\"a\":1}");
+
+        blobStore.verify(() -> CustomAttributeBlobStore.delete(session, user, ATTRIBUTE_NAME));
+        verify(user).setSingleAttribute(ATTRIBUTE_NAME, "{\"a\":1}");
+    }
+
+    @Test
+    public void testWriteToUserAttributeAfterBlobStorage() {
+        doReturn(CustomAttributeStorage.BLOB_REFERENCE).when(user).getFirstAttribute(ATTRIBUTE_NAME);
+
+        CustomAttributeStorage.write(session, realm, user, ATTRIBUTE_NAME, "{\"a\":1}");
+
+        blobStore.verify(() -> CustomAttributeBlobStore.delete(session, user, ATTRIBUTE_NAME));
+        verify(user).setSingleAttribute(ATTRIBUTE_NAME, "{\"a\":1}");
+    }
+
+    @Test
+    public void testRead() {
+        assertNull(CustomAttributeStorage.read(session, user, ATTRIBUTE_NAME));
+
+        doReturn("{\"a\":1}").when(user).getFirstAttribute(ATTRIBUTE_NAME);
+        assertEquals("{\"a\":1}", CustomAttributeStorage.read(session, user, ATTRIBUTE_NAME));
+        blobStore.verifyNoInteractions();
+
+        // テーブルへの保存を無効にした後も、参照は展開する。
+        doReturn(CustomAttributeStorage.BLOB_REFERENCE).when(user).getFirstAttribute(ATTRIBUTE_NAME);
+        blobStore.when(() -> CustomAttributeBlobStore.read(session, user, ATTRIBUTE_NAME)).thenReturn("{\"b\":2}");
+        assertEquals("{\"b\":2}", CustomAttributeStorage.read(session, user, ATTRIBUTE_NAME));
+    }
+
+    @Test
+    public void testGetMaxBytes() {
+        assertEquals(CustomAttributeStorage.DEFAULT_MAX_BYTES, CustomAttributeStorage.getMaxBytes(client));
+        doReturn(" 1024 ").when(client).getAttribute(CustomAttributeStorage.MAX_BYTES_ATTRIBUTE);
+        assertEquals(1024, CustomAttributeStorage.getMaxBytes(client));
+        doReturn("-1").when(client).getAttribute(CustomAttributeStorage.MAX_BYTES_ATTRIBUTE);
+        assertEquals(CustomAttributeStorage.DEFAULT_MAX_BYTES, CustomAttributeStorage.getMaxBytes(client));
+        doReturn("large").when(client).getAttribute(CustomAttributeStorage.MAX_BYTES_ATTRIBUTE);
+        assertEquals(CustomAttributeStorage.DEFAULT_MAX_BYTES, CustomAttributeStorage.getMaxBytes(client));
+
+        CustomAttributeStorage.configure(false, 100, CustomAttributeStorage.DEFAULT_BLOB_THRESHOLD_BYTES);
+        assertEquals(100, CustomAttributeStorage.getMaxBytes(client));
+    }
+
+    @Test
+    public void testExceedsQuota() {
+        // 上限はテーブルへの保存を有効にした場合のみ適用する。
+        assertFalse(CustomAttributeStorage.exceedsQuota("{\"a\":\"あ\"}", 8));
+
+        CustomAttributeStorage.configure(true, CustomAttributeStorage.DEFAULT_MAX_BYTES, 0);
+        assertTrue(CustomAttributeStorage.exceedsQuota("{\"a\":\"あ\"}", 10));
+        assertFalse(CustomAttributeStorage.exceedsQuota("{\"a\":\"あ\"}", 11));
+    }
+
+    @Test
+    public void testIsReserved() {
+        assertTrue(CustomAttributeStorage.isReserved(CustomAttributeStorage.BLOB_REFERENCE));
+        assertFalse(CustomAttributeStorage.isReserved("{\"a\":1}"));
+
+        CustomAttributeStorage.configure(true, CustomAttributeStorage.DEFAULT_MAX_BYTES, 0);
+        assertFalse(CustomAttributeStorage.isReserved(CustomAttributeStorage.BLOB_REFERENCE));
+
+        // しきい値未満でユーザー属性へ直接書き込む場合は、参照と区別できないため受け付けない。
+        CustomAttributeStorage.configure(true, CustomAttributeStorage.DEFAULT_MAX_BYTES,
+                CustomAttributeStorage.DEFAULT_BLOB_THRESHOLD_BYTES);
+        assertTrue(CustomAttributeStorage.isReserved(CustomAttributeStorage.BLOB_REFERENCE));
+    }
+
+    @Test
+    public void testConfigureInvalidMaxBytes() {
+        assertThrows(IllegalArgumentException.class, () -> CustomAttributeStorage.configure(true, 0, 0));
+        assertFalse(CustomAttributeStorage.isBlobEnabled());
+    }
+
+    @Test
+    public void testConfigureInvalidThresholdBytes() {
+        assertThrows(IllegalArgumentException.class,
+                () -> CustomAttributeStorage.configure(true, CustomAttributeStorage.DEFAULT_MAX_BYTES, -1));
+        assertFalse(CustomAttributeStorage.isBlobEnabled());
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.mynumbercardidp.keycloak.rest.blob;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.provider.ProviderEvent;
+import org.keycloak.provider.ProviderEventListener;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.MockitoAnnotations;
+
+public class CustomAttributeBlobEntityProviderFactoryTest {
+    private AutoCloseable closeable;
+    private final CustomAttributeBlobEntityProviderFactory factory = new CustomAttributeBlobEntityProviderFactory();
+
+    @Mock
+    KeycloakSessionFactory sessionFactory;
+    @Mock
+    KeycloakSession session;
+    @Mock
+    RealmModel realm;
+    @Mock
+    UserModel user;
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    @Test
+    public void testCreate() {
+        JpaEntityProvider provider = factory.create(session);
+
+        assertEquals(List.of(CustomAttributeBlobEntity.class), provider.getEntities());
+        assertEquals(CustomAttributeBlobEntityProviderFactory.ID, provider.getFactoryId());
+        assertNotNull(getClass().getClassLoader().getResource(provider.getChangelogLocation()));
+    }
+
+    @Test
+    public void testRemoveUserAndRealm() {
+        factory.postInit(sessionFactory);
+        ArgumentCaptor<ProviderEventListener> captor = ArgumentCaptor.forClass(ProviderEventListener.class);
+        verify(sessionFactory).register(captor.capture());
+        ProviderEventListener listener = captor.getValue();
+
+        UserModel.UserRemovedEvent userRemoved = mock(UserModel.UserRemovedEvent.class);
+        doReturn(session).when(userRemoved).getKeycloakSession();
+        doReturn(user).when(userRemoved).getUser();
+        RealmModel.RealmRemovedEvent realmRemoved = mock(RealmModel.RealmRemovedEvent.class);
+        doReturn(session).when(realmRemoved).getKeycloakSession();
+        doReturn(realm).when(realmRemoved).getRealm();
+
+        try (MockedStatic<CustomAttributeBlobStore> blobStore = mockStatic(CustomAttributeBlobStore.class)) {
+            listener.onEvent(userRemoved);
+            listener.onEvent(realmRemoved);
+            listener.onEvent(mock(ProviderEvent.class));
+
+            blobStore.verify(() -> CustomAttributeBlobStore.deleteByUser(session, user));
+            blobStore.verify(() -> CustomAttributeBlobStore.deleteByRealm(session, realm));
+            blobStore.verify(() -> CustomAttributeBlobStore.deleteByUser(any(), any()));
+        }
+    }
+}
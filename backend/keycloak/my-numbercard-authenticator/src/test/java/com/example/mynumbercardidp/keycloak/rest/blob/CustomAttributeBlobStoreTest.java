@@ -0,0 +1,168 @@
+package com.example.mynumbercardidp.keycloak.rest.blob;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class CustomAttributeBlobStoreTest {
+    private static final String ATTRIBUTE_NAME = "sample-client_user_attributes";
+    private AutoCloseable closeable;
+
+    @Mock
+    KeycloakSession session;
+    @Mock
+    JpaConnectionProvider jpaConnectionProvider;
+    @Mock
+    EntityManager entityManager;
+    @Mock
+    TypedQuery<CustomAttributeBlobEntity> findQuery;
+    @Mock
+    Query deleteQuery;
+    @Mock
+    RealmModel realm;
+    @Mock
+    UserModel user;
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        doReturn(jpaConnectionProvider).when(session).getProvider(JpaConnectionProvider.class);
+        doReturn(entityManager).when(jpaConnectionProvider).getEntityManager();
+        doReturn(findQuery).when(entityManager).createNamedQuery("findCustomAttributeBlob", CustomAttributeBlobEntity.class);
+        doReturn(findQuery).when(findQuery).setParameter(anyString(), any());
+        doReturn(List.of()).when(findQuery).getResultList();
+        doReturn(deleteQuery).when(entityManager).createNamedQuery(anyString());
+        doReturn(deleteQuery).when(deleteQuery).setParameter(anyString(), any());
+        doReturn("realm-id").when(realm).getId();
+        doReturn("user-id").when(user).getId();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    @Test
+    public void testCompress() {
+        String value = "{\"items\":[" + "{\"name\":\"個人番号カード\",\"count\":1},".repeat(200) + "{}]}";
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        byte[] content = CustomAttributeBlobStore.compress(bytes);
+
+        assertTrue(content.length < bytes.length / 10, "compressed to " + content.length + " bytes");
+        assertEquals(value, CustomAttributeBlobStore.decompress(content, bytes.length));
+    }
+
+    @Test
+    public void testDecompressCorrupted() {
+        byte[] content = CustomAttributeBlobStore.compress("{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalStateException.class, () -> CustomAttributeBlobStore.decompress(content, 6));
+        assertThrows(IllegalStateException.class, () -> CustomAttributeBlobStore.decompress(content, 8));
+        assertThrows(IllegalStateException.class, () -> CustomAttributeBlobStore.decompress(new byte[] { 1, 2, 3 }, 7));
+    }
+
+    @Test
+    public void testWriteNew() {
+        CustomAttributeBlobStore.write(session, realm, user, ATTRIBUTE_NAME, "{\"a\":1}");
+
+        ArgumentCaptor<CustomAttributeBlobEntity> captor = ArgumentCaptor.forClass(CustomAttributeBlobEntity.class);
+        verify(entityManager).persist(captor.capture());
+        CustomAttributeBlobEntity entity = captor.getValue();
+        assertNotNull(entity.getId());
+        assertEquals("realm-id", entity.getRealmId());
+        assertEquals("user-id", entity.getUserId());
+        assertEquals(ATTRIBUTE_NAME, entity.getAttributeName());
+        assertEquals(7, entity.getContentLength());
+        assertEquals("{\"a\":1}", CustomAttributeBlobStore.decompress(entity.getContent(), entity.getContentLength()));
+        verify(findQuery).setParameter("userId", "user-id");
+        verify(findQuery).setParameter("attributeName", ATTRIBUTE_NAME);
+    }
+
+    @Test
+    public void testWriteExisting() {
+        CustomAttributeBlobEntity entity = new CustomAttributeBlobEntity();
+        entity.setId("blob-id");
+        doReturn(List.of(entity)).when(findQuery).getResultList();
+
+        CustomAttributeBlobStore.write(session, realm, user, ATTRIBUTE_NAME, "{\"b\":2}");
+
+        verify(entityManager, never()).persist(any());
+        assertEquals("blob-id", entity.getId());
+        assertEquals("{\"b\":2}", CustomAttributeBlobStore.decompress(entity.getContent(), entity.getContentLength()));
+    }
+
+    @Test
+    public void testRead() {
+        assertNull(CustomAttributeBlobStore.read(session, user, ATTRIBUTE_NAME));
+
+        byte[] bytes = "{\"a\":1}".getBytes(StandardCharsets.UTF_8);
+        CustomAttributeBlobEntity entity = new CustomAttributeBlobEntity();
+        entity.setContent(CustomAttributeBlobStore.compress(bytes));
+        entity.setContentLength(bytes.length);
+        doReturn(List.of(entity)).when(findQuery).getResultList();
+
+        assertEquals("{\"a\":1}", CustomAttributeBlobStore.read(session, user, ATTRIBUTE_NAME));
+    }
+
+    @Test
+    public void testDelete() {
+        CustomAttributeBlobStore.delete(session, user, ATTRIBUTE_NAME);
+        verify(entityManager, never()).remove(any());
+
+        CustomAttributeBlobEntity entity = new CustomAttributeBlobEntity();
+        doReturn(List.of(entity)).when(findQuery).getResultList();
+        CustomAttributeBlobStore.delete(session, user, ATTRIBUTE_NAME);
+        verify(entityManager).remove(entity);
+    }
+
+    @Test
+    public void testDeleteByUserAndRealm() {
+        CustomAttributeBlobStore.deleteByUser(session, user);
+        verify(entityManager).createNamedQuery("deleteCustomAttributeBlobsByUser");
+        verify(deleteQuery).setParameter("userId", "user-id");
+
+        CustomAttributeBlobStore.deleteByRealm(session, realm);
+        verify(entityManager).createNamedQuery("deleteCustomAttributeBlobsByRealm");
+        verify(deleteQuery).setParameter("realmId", "realm-id");
+    }
+
+    @Test
+    public void testEntityEquals() {
+        CustomAttributeBlobEntity entity = new CustomAttributeBlobEntity();
+        entity.setId("blob-id");
+        CustomAttributeBlobEntity other = new CustomAttributeBlobEntity();
+        other.setId("blob-id");
+        other.setContent(new byte[] { 1 });
+
+        assertEquals(entity, other);
+        assertEquals(entity.hashCode(), other.hashCode());
+        assertArrayEquals(new byte[] { 1 }, other.getContent());
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.mynumbercardidp.keycloak.rest.login.status;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.Config.Scope;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class LoginStatusProviderFactoryTest {
+    private AutoCloseable closeable;
+
+    @InjectMocks
+    LoginStatusProviderFactory loginStatusProviderFactory;
+
+    @Mock
+    KeycloakSession session;
+    @Mock
+    Scope scope;
+    @Mock
+    KeycloakSessionFactory keycloakSessionFactory;
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    @Test
+    public void testGetId() {
+        String expected = "mynumbercard-status";
+        String result = loginStatusProviderFactory.getId();
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void testCreate() {
+        var expected = new LoginStatusProvider(session);
+        var result = loginStatusProviderFactory.create(session);
+        assertEquals(expected instanceof LoginStatusProvider, result instanceof LoginStatusProvider);
+    }
+
+    @Test
+    public void testInit() {
+        assertDoesNotThrow(() -> {
+            loginStatusProviderFactory.init(scope);
+        });
+    }
+
+    @Test
+    public void testPostInit() {
+        assertDoesNotThrow(() -> {
+            loginStatusProviderFactory.postInit(keycloakSessionFactory);
+        });
+    }
+
+    @Test
+    public void testClose() {
+        assertDoesNotThrow(() -> {
+            loginStatusProviderFactory.close();
+        });
+    }
+}
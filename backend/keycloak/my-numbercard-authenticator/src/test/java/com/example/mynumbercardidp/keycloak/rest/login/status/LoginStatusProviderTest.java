@@ -0,0 +1,115 @@
+package com.example.mynumbercardidp.keycloak.rest.login.status;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mockConstruction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.services.managers.AuthenticationSessionManager;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.sessions.CommonClientSessionModel.ExecutionStatus;
+import org.keycloak.sessions.RootAuthenticationSessionModel;
+import org.mockito.Mock;
+import org.mockito.MockedConstruction;
+import org.mockito.MockitoAnnotations;
+
+public class LoginStatusProviderTest {
+    private AutoCloseable closeable;
+    private final Map<String, ExecutionStatus> executionStatus = new HashMap<>();
+
+    @Mock
+    KeycloakSession session;
+    @Mock
+    KeycloakContext keycloakContext;
+    @Mock
+    RealmModel realm;
+    @Mock
+    ClientModel client;
+    @Mock
+    RootAuthenticationSessionModel rootAuthenticationSession;
+    @Mock
+    AuthenticationSessionModel authenticationSession;
+    @Mock
+    UserModel user;
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        doReturn(keycloakContext).when(session).getContext();
+        doReturn(realm).when(keycloakContext).getRealm();
+        doReturn(client).when(realm).getClientByClientId("sample-client");
+        doReturn(authenticationSession).when(rootAuthenticationSession).getAuthenticationSession(client,
+                "n2zdEv2oWSQ");
+        doReturn(executionStatus).when(authenticationSession).getExecutionStatus();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    @Test
+    public void testGetStatusPending() {
+        assertEquals("pending", getStatus());
+    }
+
+    @Test
+    public void testGetStatusCompleted() {
+        doReturn(user).when(authenticationSession).getAuthenticatedUser();
+        assertEquals("completed", getStatus());
+    }
+
+    @Test
+    public void testGetStatusError() {
+        executionStatus.put("19ca82cd-d3ab-44ab-8732-ac3af3656c6a", ExecutionStatus.FAILED);
+        assertEquals("error", getStatus());
+    }
+
+    @Test
+    public void testGetStatusWithoutAuthenticationSession() {
+        doReturn(null).when(rootAuthenticationSession).getAuthenticationSession(client, "n2zdEv2oWSQ");
+        assertEquals("completed", getStatus());
+    }
+
+    @Test
+    public void testGetStatusWithoutCookie() {
+        try (MockedConstruction<AuthenticationSessionManager> manager = mockConstruction(
+                AuthenticationSessionManager.class)) {
+            Response response = new LoginStatusProvider(session).getStatus("sample-client", "n2zdEv2oWSQ");
+            assertEquals(Map.of("status", "completed"), response.getEntity());
+        }
+    }
+
+    @Test
+    public void testGetStatusBadRequest() {
+        LoginStatusProvider provider = new LoginStatusProvider(session);
+        assertEquals(400, provider.getStatus(null, "n2zdEv2oWSQ").getStatus());
+        assertEquals(400, provider.getStatus("sample-client", null).getStatus());
+        assertEquals(400, provider.getStatus("unknown-client", "n2zdEv2oWSQ").getStatus());
+    }
+
+    @SuppressWarnings("unchecked")
+    private String getStatus() {
+        try (MockedConstruction<AuthenticationSessionManager> manager = mockConstruction(
+                AuthenticationSessionManager.class, (mock, context) -> {
+                    doReturn(rootAuthenticationSession).when(mock).getCurrentRootAuthenticationSession(realm);
+                })) {
+            // 状態の変化を待たず、別のトランザクションも開始しない。
+            Response response = new LoginStatusProvider(session).getStatus("sample-client", "n2zdEv2oWSQ");
+            assertEquals(200, response.getStatus());
+            return ((Map<String, String>) response.getEntity()).get("status");
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package com.example.mynumbercardidp.keycloak.rest.userinfo.replacement;
 
-import static org.mockito.ArgumentMatchers.any;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
-import java.util.Optional;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.AfterEach;
@@ -12,50 +17,102 @@ import org.keycloak.models.AuthenticationExecutionModel;
 import org.keycloak.models.AuthenticationFlowModel;
 import org.keycloak.models.ClientModel;
 import org.keycloak.models.RealmModel;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 public class AuthenticationUtilTest {
+    private static final String AUTHENTICATOR_ID = "my-number-card";
     private AutoCloseable closeable;
-
-    @InjectMocks
-    AuthenticationUtil authenticationUtil;
+    private AuthenticationExecutionModel cookie;
+    private AuthenticationExecutionModel forms;
+    private AuthenticationExecutionModel myNumberCard;
 
     @Mock
     RealmModel realmModel;
-
     @Mock
     ClientModel clientModel;
     @Mock
     AuthenticationFlowModel authenticationFlowModel;
-    @Mock
-    Stream<AuthenticationExecutionModel> authenticationExecutionStream;
-    @Mock
-    Optional<AuthenticationExecutionModel> authenticationExecutionOptional;
-    @Mock
-    AuthenticationExecutionModel authenticationExecutionModel;
 
     @BeforeEach
     public void setUp() throws Exception {
         closeable = MockitoAnnotations.openMocks(this);
+        cookie = new AuthenticationExecutionModel();
+        cookie.setAuthenticator("auth-cookie");
+        forms = new AuthenticationExecutionModel();
+        forms.setAuthenticatorFlow(true);
+        forms.setFlowId("forms-flow");
+        myNumberCard = new AuthenticationExecutionModel();
+        myNumberCard.setAuthenticator(AUTHENTICATOR_ID);
+        myNumberCard.setParentFlow("forms-flow");
+
+        doReturn("realm-id").when(realmModel).getId();
+        doReturn(authenticationFlowModel).when(realmModel).getBrowserFlow();
+        doReturn("browser-flow").when(authenticationFlowModel).getId();
+        doReturn(authenticationFlowModel).when(realmModel).getAuthenticationFlowById("browser-flow");
+        doAnswer(invocation -> Stream.of(cookie, forms)).when(realmModel)
+                .getAuthenticationExecutionsStream("browser-flow");
+        doAnswer(invocation -> Stream.of(myNumberCard)).when(realmModel)
+                .getAuthenticationExecutionsStream("forms-flow");
     }
 
     @AfterEach
     public void tearDown() throws Exception {
+        AuthenticationUtil.invalidateAll();
         closeable.close();
     }
 
     @Test
     public void testFindAuthenticationExecutionModel() {
+        // サブフローの中の認証器も検索する。
+        assertSame(myNumberCard,
+                AuthenticationUtil.findAuthenticationExecutionModel(realmModel, clientModel, AUTHENTICATOR_ID).get());
+        assertSame(myNumberCard,
+                AuthenticationUtil.findAuthenticationExecutionModel(realmModel, clientModel, AUTHENTICATOR_ID).get());
 
-        doReturn(authenticationFlowModel).when(realmModel).getBrowserFlow();
-        doReturn(authenticationExecutionStream).when(realmModel).getAuthenticationExecutionsStream(any());
-        doReturn("xxxxxxxxxx").when(authenticationFlowModel).getId();
-        doReturn(authenticationExecutionStream).when(authenticationExecutionStream).filter(any());
-        doReturn(authenticationExecutionOptional).when(authenticationExecutionStream).findFirst();
+        // 2回目はキャッシュから返す。
+        verify(realmModel, times(1)).getAuthenticationExecutionsStream("forms-flow");
+        assertEquals(1, AuthenticationUtil.size());
+    }
 
-        AuthenticationUtil.findAuthenticationExecutionModel(realmModel, clientModel, "aaaaaaaaa");
+    @Test
+    public void testFindWithFlowBindingOverride() {
+        AuthenticationFlowModel overrideFlow = new AuthenticationFlowModel();
+        doReturn("override-flow").when(clientModel).getAuthenticationFlowBindingOverride("browser");
+        doReturn(overrideFlow).when(realmModel).getAuthenticationFlowById("override-flow");
+        doAnswer(invocation -> Stream.of(myNumberCard)).when(realmModel)
+                .getAuthenticationExecutionsStream("override-flow");
+
+        assertSame(myNumberCard,
+                AuthenticationUtil.findAuthenticationExecutionModel(realmModel, clientModel, AUTHENTICATOR_ID).get());
+        verify(realmModel, times(0)).getAuthenticationExecutionsStream("browser-flow");
+    }
+
+    @Test
+    public void testSearchAgainWhenFlowIsUpdated() {
+        AuthenticationUtil.findAuthenticationExecutionModel(realmModel, clientModel, AUTHENTICATOR_ID);
+
+        // レルムキャッシュが作り直された場合は、別のフローのインスタンスが返される。
+        AuthenticationExecutionModel moved = new AuthenticationExecutionModel();
+        moved.setAuthenticator(AUTHENTICATOR_ID);
+        doReturn(new AuthenticationFlowModel()).when(realmModel).getAuthenticationFlowById("browser-flow");
+        doAnswer(invocation -> Stream.of(moved, cookie)).when(realmModel)
+                .getAuthenticationExecutionsStream("browser-flow");
+
+        assertSame(moved,
+                AuthenticationUtil.findAuthenticationExecutionModel(realmModel, clientModel, AUTHENTICATOR_ID).get());
+
+        AuthenticationUtil.invalidate("realm-id");
+        assertEquals(0, AuthenticationUtil.size());
+    }
+
+    @Test
+    public void testNotFound() {
+        // フローが循環していても走査を終える。
+        doAnswer(invocation -> Stream.of(forms)).when(realmModel).getAuthenticationExecutionsStream("forms-flow");
 
+        assertTrue(AuthenticationUtil.findAuthenticationExecutionModel(realmModel, clientModel, AUTHENTICATOR_ID)
+                .isEmpty());
+        assertEquals(0, AuthenticationUtil.size());
     }
 }
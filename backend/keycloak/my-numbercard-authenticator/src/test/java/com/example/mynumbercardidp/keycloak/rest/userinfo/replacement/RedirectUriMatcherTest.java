@@ -0,0 +1,83 @@
+package com.example.mynumbercardidp.keycloak.rest.userinfo.replacement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doReturn;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.ClientModel;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class RedirectUriMatcherTest {
+    private AutoCloseable closeable;
+    private Set<String> redirectUris;
+
+    @Mock
+    ClientModel client;
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        redirectUris = new HashSet<>(Set.of(
+                "https://rp.example.com/callback",
+                "https://*.tenant.example.com/callback?x=1",
+                "myapp://login/*"));
+        doReturn("client-uuid").when(client).getId();
+        doReturn(redirectUris).when(client).getRedirectUris();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        RedirectUriMatcher.invalidateAll();
+        closeable.close();
+    }
+
+    @Test
+    public void testExactMatch() {
+        assertTrue(RedirectUriMatcher.isAllowed(client, "https://rp.example.com/callback"));
+        assertFalse(RedirectUriMatcher.isAllowed(client, "https://rp.example.com/callback/other"));
+        // 正規表現のメタ文字はリテラルとして扱う。
+        assertFalse(RedirectUriMatcher.isAllowed(client, "https://rpXexample.com/callback"));
+    }
+
+    @Test
+    public void testWildcardMatch() {
+        assertTrue(RedirectUriMatcher.isAllowed(client, "https://a.tenant.example.com/callback?x=1"));
+        assertTrue(RedirectUriMatcher.isAllowed(client, "myapp://login/"));
+        assertTrue(RedirectUriMatcher.isAllowed(client, "myapp://login/path?code=1"));
+        assertFalse(RedirectUriMatcher.isAllowed(client, "https://a.tenantXexample.com/callback?x=1"));
+        assertFalse(RedirectUriMatcher.isAllowed(client, "https://a.tenant.example.com/callbackx=1"));
+        assertFalse(RedirectUriMatcher.isAllowed(client, "otherapp://login/"));
+    }
+
+    @Test
+    public void testRebuildWhenRedirectUrisChange() {
+        assertFalse(RedirectUriMatcher.isAllowed(client, "https://new.example.com/callback"));
+        assertEquals(1, RedirectUriMatcher.size());
+
+        // 他のノードで更新された場合と同様に、返される集合の内容が変わった場合は作り直す。
+        Set<String> updated = new HashSet<>(redirectUris);
+        updated.add("https://new.example.com/callback");
+        doReturn(updated).when(client).getRedirectUris();
+        assertTrue(RedirectUriMatcher.isAllowed(client, "https://new.example.com/callback"));
+
+        updated.remove("https://new.example.com/callback");
+        RedirectUriMatcher.invalidate("client-uuid");
+        assertEquals(0, RedirectUriMatcher.size());
+        assertFalse(RedirectUriMatcher.isAllowed(client, "https://new.example.com/callback"));
+    }
+
+    @Test
+    public void testClientWithoutId() {
+        doReturn(null).when(client).getId();
+        assertTrue(RedirectUriMatcher.isAllowed(client, "https://rp.example.com/callback"));
+        assertEquals(0, RedirectUriMatcher.size());
+    }
+}
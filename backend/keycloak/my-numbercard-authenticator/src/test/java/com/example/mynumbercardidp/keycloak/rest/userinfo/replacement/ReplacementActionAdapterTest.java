@@ -3,14 +3,15 @@ package com.example.mynumbercardidp.keycloak.rest.userinfo.replacement;
 import static org.junit.Assert.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyBoolean;
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mockConstruction;
 import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 import javax.ws.rs.core.MultivaluedHashMap;
@@ -22,13 +23,13 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.keycloak.protocol.oidc.OIDCLoginProtocol;
 import org.keycloak.OAuth2Constants;
 import org.keycloak.authentication.AuthenticationFlowContext;
-import org.keycloak.authentication.AuthenticationProcessor;
-import org.keycloak.authentication.Authenticator;
 import org.keycloak.http.HttpRequest;
 import org.keycloak.models.AuthenticatedClientSessionModel;
 import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticatorConfigModel;
 import org.keycloak.models.ClientModel;
 import org.keycloak.models.Constants;
 import org.keycloak.models.KeycloakContext;
@@ -42,9 +43,9 @@ import org.mockito.Mock;
 import org.mockito.MockedConstruction;
 import org.mockito.MockedStatic;
 import org.mockito.MockitoAnnotations;
-import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.MyNumberCardAuthenticatorFactory;
 import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.SpiConfigProperty;
 import com.example.mynumbercardidp.keycloak.core.network.platform.PlatformApiClientInterface;
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
 import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
 
 public class ReplacementActionAdapterTest {
@@ -69,15 +70,13 @@ public class ReplacementActionAdapterTest {
     @Mock
     KeycloakUriInfo keycloakUriInfo;
     @Mock
-    Authenticator authenticator;
-    @Mock
     AuthenticationExecutionModel authenticationExecutionModel;
     @Mock
     Optional<AuthenticationExecutionModel> authenticationSessionModelOptional;
     @Mock
     AuthenticationSessionModel authenticationSessionModel;
     @Mock
-    AuthenticationProcessor.Result authenticationProcessorResult;
+    AuthenticatorConfigModel authenticatorConfigModel;
     @Mock
     PlatformApiClientInterface platformApiClientInterface;
     @Mock
@@ -114,13 +113,11 @@ public class ReplacementActionAdapterTest {
         doReturn("test_name").when(realmModel).getName();
         doReturn(authenticationExecutionModel).when(authenticationSessionModelOptional).orElseThrow();
         doReturn("test_frow_id").when(authenticationExecutionModel).getFlowId();
-        doReturn(formData).when(httpRequest).getDecodedFormParameters();
+        doReturn("test_config_id").when(authenticationExecutionModel).getAuthenticatorConfig();
+        doReturn(authenticatorConfigModel).when(realmModel).getAuthenticatorConfigById("test_config_id");
         doNothing().when(authenticationSessionModel).setClientNote(any(), any());
         doNothing().when(platformApiClientInterface).setContextForDataManager(authenticationFlowContext);
         authenticationUtilStatic.when(() -> AuthenticationUtil.findAuthenticationExecutionModel(any(), any(), any())).thenReturn(authenticationSessionModelOptional);
-
-        replacementActionAdapter = new ReplacementActionAdapter(keycloakSession);
-
     }
 
     @AfterEach
@@ -133,25 +130,6 @@ public class ReplacementActionAdapterTest {
     public void testReplace(String pattern) throws Exception {
 
         try(
-            MockedConstruction<AuthenticationProcessor> authenticationProcessor = mockConstruction(AuthenticationProcessor.class,
-                                                            (mock, ctx) -> {
-                                                                doReturn(mock).when(mock).setSession(any());
-                                                                doReturn(mock).when(mock).setRealm(any());
-                                                                doReturn(mock).when(mock).setBrowserFlow(anyBoolean());
-                                                                doReturn(mock).when(mock).setRequest(any());
-                                                                doReturn(mock).when(mock).setAuthenticationSession(any());
-                                                                doReturn(mock).when(mock).setUriInfo(any());
-                                                                doReturn(mock).when(mock).setFlowPath(any());
-                                                                doReturn(mock).when(mock).setFlowId(any());
-                                                                doReturn(authenticationSessionModel).when(mock).getAuthenticationSession();
-                                                                doReturn(authenticationProcessorResult).when(mock).createAuthenticatorContext(any(), any(), any());
-                                                                doNothing().when(mock).setClient(any());
-                                                            });
-            MockedConstruction<MyNumberCardAuthenticatorFactory> myNumberCardAuthenticatorFactory = mockConstruction(MyNumberCardAuthenticatorFactory.class,
-                                                            (mock, ctx) -> {
-                                                                doReturn(authenticator).when(mock).create(any());
-                                                                doReturn("test_id").when(mock).getId();
-                                                            });
             MockedConstruction<ReplacementAction> replacementAction = mockConstruction(ReplacementAction.class,
                                                             (mock, ctx) -> {
                                                                 doReturn(responseData).when(mock).replace(any(), any());
@@ -159,26 +137,36 @@ public class ReplacementActionAdapterTest {
             MockedStatic<CurrentConfig> currentConfig = mockStatic(CurrentConfig.class);
         ) {
 
-            currentConfig.when(() -> CurrentConfig.getValue(any(), eq(SpiConfigProperty.CertificateValidatorRootUri.CONFIG.getName()))).thenReturn("CertificateValidatorRootUri");
-            currentConfig.when(() -> CurrentConfig.getValue(any(), eq(SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName()))).thenReturn("PlatformApiIdpSender");
+            Map<String, String> config = new HashMap<>();
+            config.put(SpiConfigProperty.CertificateValidatorRootUri.CONFIG.getName(), "CertificateValidatorRootUri");
+            config.put(SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName(), "PlatformApiIdpSender");
 
             if (pattern.equals("runtime")) {
-                currentConfig.when(() -> CurrentConfig.getValue(any(), eq(SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName()))).thenReturn(null);
+                config.put(SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName(), null);
+                currentConfig.when(() -> CurrentConfig.getSnapshot(authenticatorConfigModel)).thenReturn(new ConfigSnapshot(config));
+                replacementActionAdapter = new ReplacementActionAdapter(keycloakSession, formData);
                 assertThrows(RuntimeException.class, () -> {
-                    replacementActionAdapter.replace(formData);
+                    replacementActionAdapter.replace();
                 });
             } else if (pattern.equals("exception")) {
-                currentConfig.when(() -> CurrentConfig.getValue(any(), eq(SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName()))).thenReturn("exceptionTest");
+                config.put(SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName(), "exceptionTest");
+                currentConfig.when(() -> CurrentConfig.getSnapshot(authenticatorConfigModel)).thenReturn(new ConfigSnapshot(config));
+                replacementActionAdapter = new ReplacementActionAdapter(keycloakSession, formData);
                 assertThrows(Exception.class, () -> {
-                    replacementActionAdapter.replace(formData);
+                    replacementActionAdapter.replace();
                 });
             } else {
-                currentConfig.when(() -> CurrentConfig.getValue(any(), eq(SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName()))).thenReturn("com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient");
+                config.put(SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName(), "com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient");
+                currentConfig.when(() -> CurrentConfig.getSnapshot(authenticatorConfigModel)).thenReturn(new ConfigSnapshot(config));
+                replacementActionAdapter = new ReplacementActionAdapter(keycloakSession, formData);
 
                 verify(authenticationSessionModelOptional, times(1)).orElseThrow();
                 Response expected = responseData;
-                Response result = replacementActionAdapter.replace(formData);
+                Response result = replacementActionAdapter.replace();
                 assertEquals(expected, result);
+                // リクエストボディは復号済みのフォームから読み込み、HTTPリクエストから読み込み直さない。
+                verify(authenticationSessionModel).setClientNote(OIDCLoginProtocol.RESPONSE_TYPE_PARAM, "testResponse");
+                verify(httpRequest, never()).getDecodedFormParameters();
 
             }
 
@@ -5,12 +5,14 @@ import static org.junit.Assert.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mockConstruction;
 import static org.mockito.Mockito.mockStatic;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
@@ -21,8 +23,6 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.keycloak.OAuth2Constants;
-import org.keycloak.authentication.AuthenticationFlowContext;
-import org.keycloak.authentication.authenticators.x509.UserIdentityToModelMapper;
 import org.keycloak.common.ClientConnection;
 import org.keycloak.crypto.KeyUse;
 import org.keycloak.crypto.KeyWrapper;
@@ -37,6 +37,7 @@ import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakUriInfo;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
 import org.keycloak.models.UserSessionModel;
 import org.keycloak.models.UserSessionProvider;
 import org.keycloak.protocol.oidc.OIDCLoginProtocol;
@@ -51,14 +52,14 @@ import org.mockito.Mock;
 import org.mockito.MockedConstruction;
 import org.mockito.MockedStatic;
 import org.mockito.MockitoAnnotations;
-import org.mockito.stubbing.Answer;
 
-import com.example.mynumbercardidp.keycloak.authentication.application.procedures.ResponseCreater;
+import com.example.mynumbercardidp.keycloak.core.authentication.application.procedures.UserActionContext;
 import com.example.mynumbercardidp.keycloak.core.network.AuthenticationRequest;
 import com.example.mynumbercardidp.keycloak.core.network.platform.CertificateType;
 import com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient;
 import com.example.mynumbercardidp.keycloak.network.platform.PlatformAuthenticationResponse;
 import com.example.mynumbercardidp.keycloak.util.Encryption;
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -74,7 +75,7 @@ public class ReplacementActionTest {
     ReplacementAction replacementAction;
 
     @Mock
-    AuthenticationFlowContext context;
+    UserActionContext context;
     @Mock
     AuthenticationRequest authenticationRequest;
     @Mock
@@ -106,7 +107,7 @@ public class ReplacementActionTest {
     @Mock
     PlatformAuthenticationResponse platformAuthenticationResponse;
     @Mock
-    UserIdentityToModelMapper userIdentityToModelMapper;
+    UserProvider userProvider;
     @Mock
     DefaultClientSessionContext defaultClientSessionContext;
     @Mock
@@ -245,6 +246,8 @@ public class ReplacementActionTest {
         .addParam(OAuth2Constants.CODE, "code").build();
 
         doReturn(keycloakSession).when(context).getSession();
+        doReturn(ConfigSnapshot.EMPTY).when(context).getConfig();
+        doReturn(userProvider).when(keycloakSession).users();
         doReturn(keyManager).when(keycloakSession).keys();
         doReturn(userSessionProvider).when(keycloakSession).sessions();
         doReturn(keycloakContext).when(keycloakSession).getContext();
@@ -298,8 +301,6 @@ public class ReplacementActionTest {
                                                             (mock, ctx) -> {
                                                                 doReturn(responseData).when(mock).authenticated(any(), any(), any());
                                                             });
-            MockedStatic<ResponseCreater> responseCreaterStatic = mockStatic(ResponseCreater.class);
-            MockedStatic<UserIdentityToModelMapper> userIdentityToModelMapperStatic = mockStatic(UserIdentityToModelMapper.class);
             MockedStatic<Encryption> encryptionStatic = mockStatic(Encryption.class);
             MockedStatic<DefaultClientSessionContext> defaultClientSessionContextStatic = mockStatic(DefaultClientSessionContext.class);
         ) {
@@ -310,12 +311,13 @@ public class ReplacementActionTest {
                 userModel = null;
             }
 
-            doReturn(userModel).when(userIdentityToModelMapper).find(any(), any());
+            UserModel foundUser = userModel;
+            doAnswer(invocation -> Stream.ofNullable(foundUser)).when(userProvider)
+                    .searchForUserByUserAttributeStream(any(), any(), any());
             doReturn(responseStatus).when(platformAuthenticationResponse).getHttpStatusCode();
 
-            userIdentityToModelMapperStatic.when(() -> UserIdentityToModelMapper.getUserIdentityToCustomAttributeMapper(any())).thenReturn(userIdentityToModelMapper);
-            responseCreaterStatic.when(() -> ResponseCreater.sendChallengeResponse(any(), any(), any())).thenAnswer((Answer<Void>) invocation -> null);
             encryptionStatic.when(() -> Encryption.decrypt(any(), any())).thenReturn(toJsonNode(certificateJsonStr));
+            encryptionStatic.when(() -> Encryption.isWellFormed(any())).thenReturn(true);
             defaultClientSessionContextStatic.when(() -> DefaultClientSessionContext.fromClientSessionScopeParameter(any(), any())).thenReturn(defaultClientSessionContext);
 
             if (seq == 8) {
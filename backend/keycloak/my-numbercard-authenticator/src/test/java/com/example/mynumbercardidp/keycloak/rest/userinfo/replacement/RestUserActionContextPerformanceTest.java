@@ -0,0 +1,95 @@
+package com.example.mynumbercardidp.keycloak.rest.userinfo.replacement;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.authentication.AuthenticationProcessor;
+import org.keycloak.authentication.Authenticator;
+import org.keycloak.authentication.AuthenticatorFactory;
+import org.keycloak.http.HttpRequest;
+import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakUriInfo;
+import org.keycloak.models.RealmModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.MyNumberCardAuthenticatorFactory;
+import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.SpiConfigProperty;
+import com.example.mynumbercardidp.keycloak.util.PerformanceComparison;
+import com.example.mynumbercardidp.keycloak.util.authentication.CurrentConfig;
+
+/**
+ * 登録情報の変更のコンテキストを作成し、AuthenticationProcessor から認証フローのコンテキストを作成する従来の実装とスループットを比較します。
+ *
+ * mvn -B test -Pperformance で実行します。
+ */
+@Tag("performance")
+public class RestUserActionContextPerformanceTest {
+    @Test
+    public void testThroughput(final TestReporter reporter) throws Exception {
+        KeycloakSession session = createSession();
+        RealmModel realm = session.getContext().getRealm();
+        AuthenticationExecutionModel execution = new AuthenticationExecutionModel();
+        execution.setFlowId("forms-flow");
+        execution.setAuthenticatorConfig("config-id");
+        PerformanceComparison.Task legacy = () -> legacyCreate(session, execution).length();
+        PerformanceComparison.Task current = () -> new RestUserActionContext(session,
+                CurrentConfig.getSnapshot(realm.getAuthenticatorConfigById(execution.getAuthenticatorConfig())))
+                .getConfig().getPlatformApiClientClassFqdn().length();
+
+        PerformanceComparison.compareThroughput("replacement context creation", legacy, current)
+                .report(reporter)
+                .assertCurrentIsNotSlower();
+    }
+
+    private static KeycloakSession createSession() {
+        KeycloakSession session = mock(KeycloakSession.class);
+        KeycloakContext context = mock(KeycloakContext.class);
+        RealmModel realm = mock(RealmModel.class);
+        HttpRequest request = mock(HttpRequest.class);
+        AuthenticatorConfigModel config = new AuthenticatorConfigModel();
+        config.setId("config-id");
+        config.setConfig(Map.of(SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName(),
+                "com.example.mynumbercardidp.keycloak.network.platform.PlatformApiClient"));
+        doReturn(context).when(session).getContext();
+        doReturn(realm).when(context).getRealm();
+        doReturn(mock(ClientModel.class)).when(context).getClient();
+        doReturn(request).when(context).getHttpRequest();
+        doReturn(mock(AuthenticationSessionModel.class)).when(context).getAuthenticationSession();
+        doReturn(mock(KeycloakUriInfo.class)).when(context).getUri();
+        doReturn("realm").when(realm).getName();
+        doReturn(config).when(realm).getAuthenticatorConfigById("config-id");
+        return session;
+    }
+
+    /**
+     * 変更前の ReplacementActionAdapter と同じ方法で認証フローのコンテキストを作成し、SPI設定を参照します。
+     */
+    private static String legacyCreate(final KeycloakSession session, final AuthenticationExecutionModel execution) {
+        AuthenticationProcessor authenticationProcessor = new AuthenticationProcessor().setSession(session);
+        authenticationProcessor.setRealm(session.getContext().getRealm());
+        authenticationProcessor.setClient(session.getContext().getClient());
+        authenticationProcessor.setBrowserFlow(true);
+        authenticationProcessor.setRequest(session.getContext().getHttpRequest());
+        authenticationProcessor.setAuthenticationSession(session.getContext().getAuthenticationSession());
+        authenticationProcessor.setUriInfo(session.getContext().getUri());
+        authenticationProcessor.setFlowPath(
+                "/realms/" + session.getContext().getRealm().getName() + "/" + UserInfoReplacementProviderFactory.ID
+                        + "/replace");
+        AuthenticatorFactory authenticatorFactory = new MyNumberCardAuthenticatorFactory();
+        Authenticator authenticator = authenticatorFactory.create(session);
+        authenticationProcessor.setFlowId(execution.getFlowId());
+        AuthenticationFlowContext context = authenticationProcessor.createAuthenticatorContext(execution,
+                authenticator, null);
+        return CurrentConfig.getSnapshot(context).getPlatformApiClientClassFqdn();
+    }
+}
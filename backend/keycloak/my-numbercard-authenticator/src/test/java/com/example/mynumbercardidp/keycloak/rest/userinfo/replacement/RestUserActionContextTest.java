@@ -0,0 +1,99 @@
+package com.example.mynumbercardidp.keycloak.rest.userinfo.replacement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.authentication.AuthenticationFlowError;
+import org.keycloak.authentication.AuthenticationFlowException;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.example.mynumbercardidp.keycloak.util.authentication.ConfigSnapshot;
+
+public class RestUserActionContextTest {
+    private AutoCloseable closeable;
+    private RestUserActionContext context;
+
+    @Mock
+    KeycloakSession keycloakSession;
+    @Mock
+    KeycloakContext keycloakContext;
+    @Mock
+    RealmModel realmModel;
+    @Mock
+    AuthenticationSessionModel authenticationSessionModel;
+    @Mock
+    UserModel tokenUser;
+    @Mock
+    UserModel foundUser;
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        doReturn(keycloakContext).when(keycloakSession).getContext();
+        doReturn(realmModel).when(keycloakContext).getRealm();
+        doReturn(authenticationSessionModel).when(keycloakContext).getAuthenticationSession();
+        doReturn(tokenUser).when(authenticationSessionModel).getAuthenticatedUser();
+        doReturn("user-id").when(tokenUser).getId();
+        doReturn(true).when(foundUser).isEnabled();
+
+        context = new RestUserActionContext(keycloakSession, ConfigSnapshot.EMPTY);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    @Test
+    public void testGetters() {
+        assertSame(keycloakSession, context.getSession());
+        assertSame(realmModel, context.getRealm());
+        assertSame(authenticationSessionModel, context.getAuthenticationSession());
+        assertSame(ConfigSnapshot.EMPTY, context.getConfig());
+        assertSame(tokenUser, context.getUser());
+    }
+
+    @Test
+    public void testSetUser() {
+        doReturn("user-id").when(foundUser).getId();
+
+        context.setUser(foundUser);
+        verify(authenticationSessionModel).setAuthenticatedUser(foundUser);
+    }
+
+    @Test
+    public void testSetConflictingUser() {
+        // アクセストークンのユーザーと異なるユーザーには変更しない。
+        doReturn("other-user-id").when(foundUser).getId();
+
+        AuthenticationFlowException e = assertThrows(AuthenticationFlowException.class,
+                () -> context.setUser(foundUser));
+        assertEquals(AuthenticationFlowError.USER_CONFLICT, e.getError());
+        verify(authenticationSessionModel, never()).setAuthenticatedUser(any());
+    }
+
+    @Test
+    public void testSetDisabledUser() {
+        doReturn("user-id").when(foundUser).getId();
+        doReturn(false).when(foundUser).isEnabled();
+
+        AuthenticationFlowException e = assertThrows(AuthenticationFlowException.class,
+                () -> context.setUser(foundUser));
+        assertEquals(AuthenticationFlowError.USER_DISABLED, e.getError());
+        verify(authenticationSessionModel, never()).setAuthenticatedUser(any());
+    }
+}
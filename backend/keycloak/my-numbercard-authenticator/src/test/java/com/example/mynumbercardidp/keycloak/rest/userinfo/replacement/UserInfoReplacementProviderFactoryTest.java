@@ -2,6 +2,7 @@ package com.example.mynumbercardidp.keycloak.rest.userinfo.replacement;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -13,6 +14,10 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import com.example.mynumbercardidp.keycloak.util.metrics.AuthenticatorMetrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 public class UserInfoReplacementProviderFactoryTest {
     private AutoCloseable closeable;
 
@@ -64,6 +69,22 @@ public class UserInfoReplacementProviderFactoryTest {
         });
     }
 
+    @Test
+    public void testPostInitRegistersCacheGauges() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AuthenticatorMetrics.enable(registry);
+        try {
+            userInfoReplacementProviderFactory.postInit(keycloakSessionFactory);
+
+            assertEquals(RedirectUriMatcher.size(), registry.find("mynumbercard.cache.redirect_uri_matchers").gauge().value());
+            assertNotNull(registry.find("mynumbercard.cache.authenticator_executions").gauge());
+            assertNotNull(registry.find("mynumbercard.cache.bearer_tokens").gauge());
+            assertNotNull(registry.find("mynumbercard.cache.token_issuers").gauge());
+        } finally {
+            AuthenticatorMetrics.disable();
+        }
+    }
+
     @Test
     public void testClose() {
         assertDoesNotThrow(() -> {
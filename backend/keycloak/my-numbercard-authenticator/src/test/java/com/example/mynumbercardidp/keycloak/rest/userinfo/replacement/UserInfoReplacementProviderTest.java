@@ -3,19 +3,24 @@ package com.example.mynumbercardidp.keycloak.rest.userinfo.replacement;
 import static org.junit.Assert.assertSame;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mockConstruction;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashSet;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedHashMap;
@@ -58,12 +63,14 @@ import org.mockito.MockedStatic;
 import org.mockito.MockitoAnnotations;
 
 import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.MyNumberCardAuthenticatorFactory;
+import com.example.mynumbercardidp.keycloak.util.IdGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 public class UserInfoReplacementProviderTest {
     private AutoCloseable closeable;
     private Response expected;
-    private static final UUID uuid = UUID.fromString("a05500d4-6764-4c72-9765-109b198189b5");
+    private static final String uuid = "a05500d4-6764-4c72-9765-109b198189b5";
+    private static final String FORM_BODY = "mode=replacement&applicantData=" + uuid;
     private Response responseData;
 
     @Mock
@@ -247,11 +254,11 @@ public class UserInfoReplacementProviderTest {
 
             MockedStatic<AppAuthManager> appAuthManagerStatic = mockStatic(AppAuthManager.class);
             MockedStatic<AuthenticationUtil> authenticationUtilStatic = mockStatic(AuthenticationUtil.class);
-            MockedStatic<UUID> uuidStatic = mockStatic(UUID.class);
+            MockedStatic<IdGenerator> idGeneratorStatic = mockStatic(IdGenerator.class);
         ) {
 
             authenticationUtilStatic.when(() -> AuthenticationUtil.findAuthenticationExecutionModel(any(), any(), any())).thenReturn(authenticationSessionModelOptional);
-            uuidStatic.when(() -> UUID.randomUUID()).thenReturn(uuid);
+            idGeneratorStatic.when(() -> IdGenerator.randomUuid()).thenReturn(uuid);
 
             if (isRealmError) {
                 expected = Response.status(Response.Status.BAD_REQUEST).build();
@@ -290,7 +297,9 @@ public class UserInfoReplacementProviderTest {
         try (
             MockedConstruction<ReplacementActionAdapter> replacementActionAdapter = mockConstruction(ReplacementActionAdapter.class,
                                                     (mock, ctx) -> {
-                                                        doReturn(responseData).when(mock).replace(any());
+                                                        // アダプターには作成より前に復号したフォームを渡す。
+                                                        assertEquals("replacement", ((MultivaluedMap<?, ?>) ctx.arguments().get(1)).get("mode").get(0));
+                                                        doReturn(responseData).when(mock).replace();
                                                     });
             MockedConstruction<JWSInput> JWSInput = mockConstruction(JWSInput.class,
                                                     (mock, ctx) -> {
@@ -303,30 +312,46 @@ public class UserInfoReplacementProviderTest {
         ) {
             if (isError) {
                 expected = Response.status(Response.Status.BAD_REQUEST).build();
-                Response result = userInfoReplacementProvider.replace("{\"user_attributes\":{\"service_id\":\"example@example.com\",\"notes\":\"RP1\"}}");
+                Response result = userInfoReplacementProvider.replace(toInputStream(FORM_BODY));
                 assertEquals(expected.getStatus(), result.getStatus());
                 assertEquals(expected instanceof Response, result instanceof Response);
             } else {
                 Response expected = responseData;
-                Response result = userInfoReplacementProvider.replace("{\"user_attributes\":{\"service_id\":\"example@example.com\",\"notes\":\"RP1\"}}");
+                Response result = userInfoReplacementProvider.replace(toInputStream(FORM_BODY));
                 assertEquals(expected, result);
+                assertEquals(1, replacementActionAdapter.constructed().size());
+                verify(httpRequest, never()).getDecodedFormParameters();
             }
         }
     }
 
+    @Test
+    public void testReplaceRejectsUnknownFormParameter() throws Exception {
+        try (
+            MockedConstruction<ReplacementActionAdapter> replacementActionAdapter = mockConstruction(ReplacementActionAdapter.class);
+        ) {
+            Response result = userInfoReplacementProvider.replace(toInputStream(FORM_BODY + "&password=secret"));
+            assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), result.getStatus());
+            assertTrue(replacementActionAdapter.constructed().isEmpty());
+        }
+    }
+
     @Test
     public void testReplaceWithInternalServerError() {
         try (
             MockedConstruction<ReplacementActionAdapter> replacementActionAdapter = mockConstruction(ReplacementActionAdapter.class,
                                                     (mock, ctx) -> {
-                                                        doReturn(responseData).when(mock).replace(any());
+                                                        doReturn(responseData).when(mock).replace();
                                                     });
         ) {
             expected = Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
-            Response result = userInfoReplacementProvider.replace("{\"user_attributes\":{\"service_id\"\"example@example.com\",\"notes\"\"RP1\"}}");
+            Response result = userInfoReplacementProvider.replace(toInputStream(FORM_BODY));
             assertEquals(expected.getStatus(), result.getStatus());
             assertEquals(expected instanceof Response, result instanceof Response);
         }
     }
 
+    private static InputStream toInputStream(final String requestBody) {
+        return new ByteArrayInputStream(requestBody.getBytes(StandardCharsets.UTF_8));
+    }
 }
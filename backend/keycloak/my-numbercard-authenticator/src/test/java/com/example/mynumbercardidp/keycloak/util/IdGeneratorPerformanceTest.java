@@ -0,0 +1,36 @@
+package com.example.mynumbercardidp.keycloak.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+/**
+ * 64スレッドで同時にNonce、トランザクションIDとタイムスタンプを生成し、
+ * 共有のSecureRandomとリクエストごとのSimpleDateFormatを使う従来の実装とスループットを比較します。
+ *
+ * mvn -B test -Pperformance で実行します。
+ */
+@Tag("performance")
+public class IdGeneratorPerformanceTest {
+    private static final int THREADS = 64;
+
+    @Test
+    public void testThroughputUnderContention(final TestReporter reporter) throws Exception {
+        PerformanceComparison.Task legacy = () -> {
+            // 変更前の ResponseCreater、RequestInfo と同じ生成方法
+            return UUID.randomUUID().toString().length() + UUID.randomUUID().toString().length()
+                    + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date()).length();
+        };
+        PerformanceComparison.Task current = () -> IdGenerator.randomUuid().length()
+                + IdGenerator.timeOrderedUuid().length() + IdGenerator.timestamp().length();
+
+        PerformanceComparison
+                .compareThroughput("id generation with " + THREADS + " threads", THREADS, legacy, current)
+                .report(reporter)
+                .assertCurrentIsNotSlower();
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.mynumbercardidp.keycloak.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+public class IdGeneratorTest {
+
+    @AfterEach
+    public void tearDown() {
+        IdGenerator.setClock(Clock.systemDefaultZone());
+    }
+
+    @Test
+    public void testRandomUuid() {
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String id = IdGenerator.randomUuid();
+            UUID uuid = UUID.fromString(id);
+            assertEquals(id, uuid.toString());
+            assertEquals(4, uuid.version());
+            assertEquals(2, uuid.variant());
+            ids.add(id);
+        }
+        assertEquals(1000, ids.size());
+    }
+
+    @Test
+    public void testTimeOrderedUuid() {
+        Instant now = Instant.parse("2023-09-13T02:11:11.123Z");
+        IdGenerator.setClock(Clock.fixed(now, ZoneId.of("UTC")));
+        UUID first = UUID.fromString(IdGenerator.timeOrderedUuid());
+        IdGenerator.setClock(Clock.fixed(now.plusMillis(1), ZoneId.of("UTC")));
+        UUID second = UUID.fromString(IdGenerator.timeOrderedUuid());
+
+        assertEquals(7, first.version());
+        assertEquals(2, first.variant());
+        assertEquals(now.toEpochMilli(), first.getMostSignificantBits() >>> 16);
+        assertTrue(first.toString().compareTo(second.toString()) < 0);
+    }
+
+    @Test
+    public void testTimestamp() {
+        // 分と月を取り違えないこと。
+        ZonedDateTime time = ZonedDateTime.of(2023, 9, 13, 11, 42, 11, 123_000_000, ZoneId.systemDefault());
+        IdGenerator.setClock(Clock.fixed(time.toInstant(), ZoneId.systemDefault()));
+
+        assertEquals("2023-09-13 11:42:11.123", IdGenerator.timestamp());
+        assertEquals("2023-09-13 11:42:11.123", IdGenerator.timestamp());
+
+        IdGenerator.setClock(Clock.fixed(time.toInstant().plusMillis(1), ZoneId.systemDefault()));
+        assertNotEquals("2023-09-13 11:42:11.123", IdGenerator.timestamp());
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.mynumbercardidp.keycloak.util;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.TestReporter;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * 変更前の実装と現在の実装を同じ条件で繰り返し実行し、スループットと割り当てバイト数を比較する性能テスト用のクラスです。
+ *
+ * 計測値は標準出力ではなく、TestReporter のレポートエントリーとアサーションのメッセージで報告します。
+ */
+public final class PerformanceComparison {
+    /** JITコンパイルを済ませるために実行する時間 */
+    private static final long WARM_UP_MILLIS = 1000;
+    /** スループットを計測する時間 */
+    private static final long MEASURE_MILLIS = 3000;
+    /** 割り当てバイト数の計測で実行する回数 */
+    private static final int ALLOCATION_CALLS = 10000;
+    /** 処理結果がJITコンパイラに除去されないよう、結果の合計を書き込む */
+    private static volatile long sink;
+
+    private PerformanceComparison() {
+    }
+
+    /**
+     * 1スレッドで両方の実装をウォームアップした後、スループットを計測します。
+     *
+     * @param description 計測対象の説明
+     * @param legacy      変更前の実装
+     * @param current     現在の実装
+     * @return 計測結果
+     * @exception Exception 処理が例外を送出した場合
+     */
+    public static Result compareThroughput(final String description, final Task legacy, final Task current)
+            throws Exception {
+        return PerformanceComparison.compareThroughput(description, 1, legacy, current);
+    }
+
+    /**
+     * 指定したスレッド数で両方の実装を同時に実行し、ウォームアップした後にスループットを計測します。
+     *
+     * @param description 計測対象の説明
+     * @param threads     同時に実行するスレッド数
+     * @param legacy      変更前の実装
+     * @param current     現在の実装
+     * @return 計測結果
+     * @exception Exception 処理が例外を送出した場合
+     */
+    public static Result compareThroughput(final String description, final int threads, final Task legacy,
+            final Task current) throws Exception {
+        PerformanceComparison.measure(legacy, threads, PerformanceComparison.WARM_UP_MILLIS);
+        PerformanceComparison.measure(current, threads, PerformanceComparison.WARM_UP_MILLIS);
+        long legacyOps = PerformanceComparison.measure(legacy, threads, PerformanceComparison.MEASURE_MILLIS);
+        long currentOps = PerformanceComparison.measure(current, threads, PerformanceComparison.MEASURE_MILLIS);
+        return new Result(description, "ops/s", legacyOps * 1000 / PerformanceComparison.MEASURE_MILLIS,
+                currentOps * 1000 / PerformanceComparison.MEASURE_MILLIS);
+    }
+
+    /**
+     * 現在のスレッドで両方の実装を繰り返し実行し、1回あたりの割り当てバイト数を計測します。
+     *
+     * @param description 計測対象の説明
+     * @param legacy      変更前の実装
+     * @param current     現在の実装
+     * @return 計測結果
+     * @exception Exception 処理が例外を送出した場合
+     */
+    public static Result compareAllocation(final String description, final Task legacy, final Task current)
+            throws Exception {
+        PerformanceComparison.measure(legacy, 1, PerformanceComparison.WARM_UP_MILLIS);
+        PerformanceComparison.measure(current, 1, PerformanceComparison.WARM_UP_MILLIS);
+        return new Result(description, "bytes/call", PerformanceComparison.allocatedBytesPerCall(legacy),
+                PerformanceComparison.allocatedBytesPerCall(current));
+    }
+
+    private static long allocatedBytesPerCall(final Task task) throws Exception {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long results = 0;
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < PerformanceComparison.ALLOCATION_CALLS; i++) {
+            results += task.run();
+        }
+        long after = threadMXBean.getThreadAllocatedBytes(threadId);
+        PerformanceComparison.sink = results;
+        return (after - before) / PerformanceComparison.ALLOCATION_CALLS;
+    }
+
+    private static long measure(final Task task, final int threads, final long millis) throws Exception {
+        if (threads == 1) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            long operations = 0;
+            long results = 0;
+            while (System.nanoTime() < deadline) {
+                results += task.run();
+                operations++;
+            }
+            PerformanceComparison.sink = results;
+            return operations;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        LongAdder operations = new LongAdder();
+        LongAdder results = new LongAdder();
+        long[] deadline = new long[1];
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    while (System.nanoTime() < deadline[0]) {
+                        results.add(task.run());
+                        operations.increment();
+                    }
+                    return null;
+                }));
+            }
+            deadline[0] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        PerformanceComparison.sink = results.sum();
+        return operations.sum();
+    }
+
+    /**
+     * 計測する1回分の処理です。
+     *
+     * 処理結果から求めた値を返し、処理がJITコンパイラに除去されないようにします。
+     */
+    @FunctionalInterface
+    public interface Task {
+        int run() throws Exception;
+    }
+
+    /**
+     * 変更前の実装と現在の実装の計測結果です。
+     */
+    public static final class Result {
+        private final String description;
+        private final String unit;
+        private final long legacy;
+        private final long current;
+
+        private Result(final String description, final String unit, final long legacy, final long current) {
+            this.description = description;
+            this.unit = unit;
+            this.legacy = legacy;
+            this.current = current;
+        }
+
+        /**
+         * 計測結果をテストのレポートエントリーとして出力します。
+         *
+         * @param reporter テストのレポート出力先
+         * @return この計測結果
+         */
+        public Result report(final TestReporter reporter) {
+            reporter.publishEntry(this.description, this.toString());
+            return this;
+        }
+
+        /**
+         * 現在の実装のスループットが変更前の実装以上であることを検証します。
+         */
+        public void assertCurrentIsNotSlower() {
+            assertTrue(this.current >= this.legacy, "Current implementation was slower. " + this);
+        }
+
+        /**
+         * 現在の実装の割り当てバイト数が変更前の実装以下であることを検証します。
+         */
+        public void assertCurrentAllocatesNoMore() {
+            assertTrue(this.current <= this.legacy, "Current implementation allocated more. " + this);
+        }
+
+        @Override
+        public String toString() {
+            return this.description + ": legacy=" + this.legacy + " " + this.unit + ", current=" + this.current
+                    + " " + this.unit;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.mynumbercardidp.keycloak.util.authentication;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.AuthenticatorConfigModel;
+
+import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.SpiConfigProperty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ConfigSnapshotTest {
+
+    @Test
+    public void testGetValue() {
+        Map<String, String> config = new HashMap<>();
+        config.put(SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName(), "PlatformApiClientClassFqdn");
+        config.put(SpiConfigProperty.CertificateValidatorRootUri.CONFIG.getName(), "CertificateValidatorRootUri");
+        config.put(SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName(), null);
+        ConfigSnapshot snapshot = new ConfigSnapshot(config);
+
+        assertEquals("PlatformApiClientClassFqdn", snapshot.getPlatformApiClientClassFqdn());
+        assertEquals("CertificateValidatorRootUri", snapshot.getCertificateValidatorRootUri());
+        assertEquals("", snapshot.getPlatformApiIdpSender());
+        assertEquals("", snapshot.getValue("TestConfig"));
+        assertFalse(snapshot.isDebugMode());
+    }
+
+    @Test
+    public void testTemplateVariables() {
+        ConfigSnapshot snapshot = new ConfigSnapshot(Map.of(
+            SpiConfigProperty.DebugMode.CONFIG.getName(), "TRUE",
+            SpiConfigProperty.RunUriOfAndroidApplication.CONFIG.getName(), "android",
+            SpiConfigProperty.RunUriOfiOSApplication.CONFIG.getName(), "ios",
+            SpiConfigProperty.InstallationUriOfSmartPhoneApplication.CONFIG.getName(), "other"
+        ));
+        Map<String, String> variables = snapshot.getTemplateVariables();
+
+        assertTrue(snapshot.isDebugMode());
+        assertEquals("true", variables.get("debug"));
+        assertEquals("android", variables.get("androidAppUri"));
+        assertEquals("ios", variables.get("iosAppUri"));
+        assertEquals("other", variables.get("otherAppUri"));
+        assertEquals("", variables.get("termsOfUseDirUrl"));
+        assertEquals(7, variables.size());
+        assertThrows(UnsupportedOperationException.class, () -> {
+            variables.put("debug", "false");
+        });
+    }
+
+    @Test
+    public void testRateLimits() {
+        ConfigSnapshot snapshot = new ConfigSnapshot(Map.of(
+            SpiConfigProperty.RateLimitPerIp.CONFIG.getName(), " 30 ",
+            SpiConfigProperty.RateLimitPerCard.CONFIG.getName(), "-1",
+            SpiConfigProperty.RateLimitPerSession.CONFIG.getName(), "ten",
+            SpiConfigProperty.RateLimitCluster.CONFIG.getName(), "true"
+        ));
+
+        assertEquals(30, snapshot.getRateLimitPerIp());
+        assertEquals(0, snapshot.getRateLimitPerCard());
+        assertEquals(0, snapshot.getRateLimitPerSession());
+        assertTrue(snapshot.isRateLimitCluster());
+        assertEquals(0, ConfigSnapshot.EMPTY.getRateLimitPerIp());
+        assertFalse(ConfigSnapshot.EMPTY.isRateLimitCluster());
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals("", ConfigSnapshot.EMPTY.getCertificateValidatorRootUri());
+        assertEquals("false", ConfigSnapshot.EMPTY.getTemplateVariables().get("debug"));
+    }
+
+    @Test
+    public void testIsSnapshotOf() {
+        AuthenticatorConfigModel model = new AuthenticatorConfigModel();
+        model.setConfig(new HashMap<>(Map.of(SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName(), "ID123")));
+        ConfigSnapshot snapshot = new ConfigSnapshot(model, model.getConfig());
+
+        AuthenticatorConfigModel sameModel = new AuthenticatorConfigModel();
+        sameModel.setConfig(Map.of(SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName(), "ID123"));
+        AuthenticatorConfigModel updatedModel = new AuthenticatorConfigModel();
+        updatedModel.setConfig(Map.of(SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName(), "ID456"));
+
+        assertTrue(snapshot.isSnapshotOf(model));
+        assertTrue(snapshot.isSnapshotOf(sameModel));
+        assertFalse(snapshot.isSnapshotOf(updatedModel));
+        AuthenticatorConfigModel addedModel = new AuthenticatorConfigModel();
+        addedModel.setConfig(Map.of(SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName(), "ID123",
+                SpiConfigProperty.DebugMode.CONFIG.getName(), "true"));
+        assertFalse(snapshot.isSnapshotOf(addedModel));
+        AuthenticatorConfigModel renamedModel = new AuthenticatorConfigModel();
+        renamedModel.setConfig(Map.of(SpiConfigProperty.DebugMode.CONFIG.getName(), "ID123"));
+        assertFalse(snapshot.isSnapshotOf(renamedModel));
+
+        // 作成後に元の設定を書き換えてもスナップショットは変わらない。
+        model.getConfig().put(SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName(), "ID789");
+        assertEquals("ID123", snapshot.getPlatformApiIdpSender());
+    }
+
+    @Test
+    public void testIsSnapshotOfWithNullValues() {
+        Map<String, String> config = new HashMap<>();
+        config.put(SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName(), null);
+        AuthenticatorConfigModel model = new AuthenticatorConfigModel();
+        model.setConfig(config);
+        ConfigSnapshot snapshot = new ConfigSnapshot(model, config);
+
+        // 値がnullの項目は空文字列として比較する。
+        AuthenticatorConfigModel sameModel = new AuthenticatorConfigModel();
+        sameModel.setConfig(Map.of(SpiConfigProperty.PlatformApiIdpSender.CONFIG.getName(), ""));
+        assertTrue(snapshot.isSnapshotOf(sameModel));
+
+        ConfigSnapshot emptySnapshot = new ConfigSnapshot(null, null);
+        AuthenticatorConfigModel emptyModel = new AuthenticatorConfigModel();
+        emptyModel.setConfig(null);
+        assertTrue(emptySnapshot.isSnapshotOf(emptyModel));
+        assertFalse(snapshot.isSnapshotOf(emptyModel));
+    }
+}
@@ -12,6 +12,8 @@ import com.example.mynumbercardidp.keycloak.authentication.authenticators.browse
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.mockito.Mockito.doReturn;
 
 import java.util.Map;
@@ -41,6 +43,7 @@ public class CurrentConfigTest {
 
     @AfterEach
     public void tearDown() throws Exception {
+        CurrentConfig.invalidate();
         closeable.close();
     }
 
@@ -49,4 +52,44 @@ public class CurrentConfigTest {
         assertEquals("", CurrentConfig.getValue(context, "TestConfig"));
         assertNotNull(CurrentConfig.getValue(context, SpiConfigProperty.PlatformApiClientClassFqdn.CONFIG.getName()));
     }
+
+    @Test
+    public void testGetSnapshotWithoutConfig() {
+        doReturn(null).when(context).getAuthenticatorConfig();
+        assertSame(ConfigSnapshot.EMPTY, CurrentConfig.getSnapshot(context));
+    }
+
+    @Test
+    public void testGetSnapshotIsCached() {
+        doReturn("config-id").when(authenticatorConfig).getId();
+        ConfigSnapshot snapshot = CurrentConfig.getSnapshot(context);
+
+        assertSame(snapshot, CurrentConfig.getSnapshot(context));
+        assertEquals("PlatformApiClientClassFqdn", snapshot.getPlatformApiClientClassFqdn());
+    }
+
+    @Test
+    public void testGetSnapshotAfterConfigUpdate() {
+        doReturn("config-id").when(authenticatorConfig).getId();
+        ConfigSnapshot snapshot = CurrentConfig.getSnapshot(context);
+
+        // レルムキャッシュは設定の更新後に別のインスタンスを返す。
+        AuthenticatorConfigModel updatedConfig = new AuthenticatorConfigModel();
+        updatedConfig.setId("config-id");
+        updatedConfig.setConfig(Map.of("my-num-cd-auth.platform-class", "UpdatedPlatformApiClientClassFqdn"));
+        ConfigSnapshot updated = CurrentConfig.getSnapshot(updatedConfig);
+
+        assertNotSame(snapshot, updated);
+        assertEquals("UpdatedPlatformApiClientClassFqdn", updated.getPlatformApiClientClassFqdn());
+        assertSame(updated, CurrentConfig.getSnapshot(updatedConfig));
+    }
+
+    @Test
+    public void testInvalidate() {
+        doReturn("config-id").when(authenticatorConfig).getId();
+        ConfigSnapshot snapshot = CurrentConfig.getSnapshot(context);
+        CurrentConfig.invalidate();
+
+        assertNotSame(snapshot, CurrentConfig.getSnapshot(context));
+    }
 }
@@ -0,0 +1,174 @@
+package com.example.mynumbercardidp.keycloak.util.authentication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.common.util.Time;
+import org.keycloak.crypto.Algorithm;
+import org.keycloak.crypto.KeyUse;
+import org.keycloak.crypto.KeyWrapper;
+import org.keycloak.models.KeyManager;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.SingleUseObjectProvider;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.sessions.RootAuthenticationSessionModel;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+public class SignedNonceTest {
+    private AutoCloseable closeable;
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final Set<String> usedKeys = new HashSet<>();
+    private KeyWrapper activeKey;
+
+    @Mock
+    KeycloakSession session;
+    @Mock
+    KeyManager keyManager;
+    @Mock
+    RealmModel realm;
+    @Mock
+    AuthenticationSessionModel authenticationSession;
+    @Mock
+    RootAuthenticationSessionModel rootAuthenticationSession;
+    @Mock
+    SingleUseObjectProvider singleUseObjectProvider;
+
+    @BeforeEach
+    public void setup() {
+        closeable = MockitoAnnotations.openMocks(this);
+        activeKey = createKey("kid-1", "0123456789abcdef0123456789abcdef");
+
+        doReturn(keyManager).when(session).keys();
+        doReturn(singleUseObjectProvider).when(session).getProvider(SingleUseObjectProvider.class);
+        doReturn(activeKey).when(keyManager).getActiveKey(realm, KeyUse.SIG, Algorithm.HS256);
+        doAnswer(invocation -> Stream.of(activeKey)).when(keyManager).getKeysStream(realm, KeyUse.SIG,
+                Algorithm.HS256);
+        doReturn(300).when(realm).getAccessCodeLifespanLogin();
+        doReturn(rootAuthenticationSession).when(authenticationSession).getParentSession();
+        doReturn("df4fafea-fc51-4037-999e-2546c66ff913").when(rootAuthenticationSession).getId();
+        doReturn("n2zdEv2oWSQ").when(authenticationSession).getTabId();
+        doAnswer(invocation -> usedKeys.add(invocation.getArgument(0))).when(singleUseObjectProvider)
+                .putIfAbsent(anyString(), anyLong());
+        doAnswer(invocation -> usedKeys.contains(invocation.getArgument(0))).when(singleUseObjectProvider)
+                .contains(anyString());
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1))).when(session)
+                .setAttribute(anyString(), any());
+        doAnswer(invocation -> attributes.get(invocation.getArgument(0))).when(session)
+                .getAttribute(anyString(), eq(String.class));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        Time.setOffset(0);
+        closeable.close();
+    }
+
+    @Test
+    public void testIssueAndVerify() {
+        String nonce = SignedNonce.issue(session, realm, authenticationSession);
+
+        assertEquals(3, nonce.split("\\.").length);
+        assertTrue(SignedNonce.verify(session, realm, authenticationSession, nonce));
+        assertFalse(SignedNonce.verify(session, realm, authenticationSession, null));
+        assertFalse(SignedNonce.verify(session, realm, authenticationSession, "nonce"));
+        assertFalse(SignedNonce.verify(session, realm, authenticationSession, "a.b.c"));
+    }
+
+    @Test
+    public void testVerifyTampered() {
+        String nonce = SignedNonce.issue(session, realm, authenticationSession);
+        String[] parts = nonce.split("\\.");
+        String extended = parts[0] + "." + (Long.parseLong(parts[1]) + 3600) + "." + parts[2];
+
+        assertFalse(SignedNonce.verify(session, realm, authenticationSession, extended));
+    }
+
+    @Test
+    public void testVerifyOtherSession() {
+        String nonce = SignedNonce.issue(session, realm, authenticationSession);
+        doReturn("aMx9VtB3Z1E").when(authenticationSession).getTabId();
+
+        assertFalse(SignedNonce.verify(session, realm, authenticationSession, nonce));
+    }
+
+    @Test
+    public void testVerifyExpired() {
+        String nonce = SignedNonce.issue(session, realm, authenticationSession);
+        Time.setOffset(301);
+
+        assertFalse(SignedNonce.verify(session, realm, authenticationSession, nonce));
+    }
+
+    @Test
+    public void testVerifyAfterKeyRotation() {
+        String nonce = SignedNonce.issue(session, realm, authenticationSession);
+        KeyWrapper rotatedKey = createKey("kid-2", "fedcba9876543210fedcba9876543210");
+        KeyWrapper previousKey = activeKey;
+        doAnswer(invocation -> Stream.of(rotatedKey, previousKey)).when(keyManager).getKeysStream(realm, KeyUse.SIG,
+                Algorithm.HS256);
+
+        assertTrue(SignedNonce.verify(session, realm, authenticationSession, nonce));
+    }
+
+    @Test
+    public void testMarkUsed() {
+        String nonce = SignedNonce.issue(session, realm, authenticationSession);
+        assertNull(SignedNonce.getVerified(session));
+
+        assertTrue(SignedNonce.markUsed(session, nonce));
+        assertEquals(nonce, SignedNonce.getVerified(session));
+        assertFalse(SignedNonce.markUsed(session, nonce));
+    }
+
+    @Test
+    public void testIsUsed() {
+        String nonce = SignedNonce.issue(session, realm, authenticationSession);
+        assertFalse(SignedNonce.isUsed(session, nonce));
+
+        SignedNonce.markUsed(session, nonce);
+        assertTrue(SignedNonce.isUsed(session, nonce));
+        assertFalse(SignedNonce.isUsed(session, SignedNonce.issue(session, realm, authenticationSession)));
+    }
+
+    @Test
+    public void testIssueWithoutKey() {
+        doReturn(null).when(keyManager).getActiveKey(realm, KeyUse.SIG, Algorithm.HS256);
+
+        assertThrows(IllegalStateException.class, () -> {
+            SignedNonce.issue(session, realm, authenticationSession);
+        });
+    }
+
+    private static KeyWrapper createKey(final String kid, final String secret) {
+        SecretKey secretKey = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        KeyWrapper key = new KeyWrapper();
+        key.setKid(kid);
+        key.setAlgorithm(Algorithm.HS256);
+        key.setUse(KeyUse.SIG);
+        key.setSecretKey(secretKey);
+        return key;
+    }
+}
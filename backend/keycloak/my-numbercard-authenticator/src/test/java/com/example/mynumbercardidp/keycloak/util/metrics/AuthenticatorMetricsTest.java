@@ -0,0 +1,84 @@
+package com.example.mynumbercardidp.keycloak.util.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class AuthenticatorMetricsTest {
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    public void beforeEach() {
+        registry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        AuthenticatorMetrics.disable();
+        registry.close();
+    }
+
+    @Test
+    public void testDisabled() {
+        assertFalse(AuthenticatorMetrics.isEnabled());
+        assertEquals(0L, AuthenticatorMetrics.startTimer());
+        AuthenticatorMetrics.recordLatency(AuthenticatorMetrics.Stage.JWE_DECRYPT, 0L);
+        AuthenticatorMetrics.countAttempt("login");
+        AuthenticatorMetrics.countResult("login", true, 200);
+        AuthenticatorMetrics.registerGauge("test.gauge", new int[] { 1 }, v -> v[0]);
+        assertTrue(registry.getMeters().isEmpty());
+    }
+
+    @Test
+    public void testRecordLatency() {
+        AuthenticatorMetrics.enable(registry);
+        assertTrue(AuthenticatorMetrics.isEnabled());
+        long start = AuthenticatorMetrics.startTimer();
+        assertTrue(start != 0L);
+        AuthenticatorMetrics.recordLatency(AuthenticatorMetrics.Stage.PLATFORM_ROUND_TRIP, start);
+        assertEquals(1L, registry.get("mynumbercard.latency").tag("stage", "platform_round_trip").timer().count());
+        assertEquals(0L, registry.get("mynumbercard.latency").tag("stage", "jwe_decrypt").timer().count());
+    }
+
+    @Test
+    public void testCountAttemptAndResult() {
+        AuthenticatorMetrics.enable(registry);
+        AuthenticatorMetrics.countAttempt("login");
+        AuthenticatorMetrics.countAttempt("login");
+        AuthenticatorMetrics.countResult("login", true, 200);
+        AuthenticatorMetrics.countResult("login", false, 401);
+        AuthenticatorMetrics.countResult("login", false, null);
+
+        assertEquals(2.0, registry.get("mynumbercard.action.attempts").tag("action", "login").counter().count());
+        assertEquals(1.0, registry.get("mynumbercard.action.successes").tag("platform_status", "200").counter()
+                .count());
+        assertEquals(1.0, registry.get("mynumbercard.action.failures").tag("platform_status", "401").counter()
+                .count());
+        assertEquals(1.0, registry.get("mynumbercard.action.failures").tag("platform_status", "none").counter()
+                .count());
+    }
+
+    @Test
+    public void testRegisterGauge() {
+        AuthenticatorMetrics.enable(registry);
+        int[] state = new int[] { 3 };
+        AuthenticatorMetrics.registerGauge("test.gauge", state, v -> v[0]);
+        assertEquals(3.0, registry.get("mynumbercard.test.gauge").gauge().value());
+    }
+
+    @Test
+    public void testDisable() {
+        AuthenticatorMetrics.enable(registry);
+        AuthenticatorMetrics.disable();
+        assertFalse(AuthenticatorMetrics.isEnabled());
+        AuthenticatorMetrics.countAttempt("login");
+        assertNull(registry.find("mynumbercard.action.attempts").counter());
+    }
+}
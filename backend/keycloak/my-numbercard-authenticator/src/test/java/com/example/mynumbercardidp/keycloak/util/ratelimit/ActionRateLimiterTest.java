@@ -0,0 +1,169 @@
+package com.example.mynumbercardidp.keycloak.util.ratelimit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.common.ClientConnection;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.SingleUseObjectProvider;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.sessions.RootAuthenticationSessionModel;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.example.mynumbercardidp.keycloak.authentication.authenticators.browser.SpiConfigProperty;
+
+public class ActionRateLimiterTest {
+    private AutoCloseable closeable;
+    private final Map<String, String> config = new HashMap<>();
+    private final Map<String, Map<String, String>> store = new HashMap<>();
+
+    @Mock
+    AuthenticationFlowContext context;
+    @Mock
+    AuthenticatorConfigModel authenticatorConfig;
+    @Mock
+    ClientConnection connection;
+    @Mock
+    RealmModel realm;
+    @Mock
+    AuthenticationSessionModel authenticationSession;
+    @Mock
+    RootAuthenticationSessionModel rootAuthenticationSession;
+    @Mock
+    KeycloakSession session;
+    @Mock
+    SingleUseObjectProvider singleUseObjectProvider;
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        ActionRateLimiter.invalidate();
+        ActionRateLimiter.setClock(() -> 0L);
+        doReturn(authenticatorConfig).when(context).getAuthenticatorConfig();
+        doReturn(config).when(authenticatorConfig).getConfig();
+        doReturn(connection).when(context).getConnection();
+        doReturn("192.0.2.1").when(connection).getRemoteAddr();
+        doReturn(realm).when(context).getRealm();
+        doReturn("realm-id").when(realm).getId();
+        doReturn(authenticationSession).when(context).getAuthenticationSession();
+        doReturn(rootAuthenticationSession).when(authenticationSession).getParentSession();
+        doReturn("df4fafea-fc51-4037-999e-2546c66ff913").when(rootAuthenticationSession).getId();
+        doReturn(session).when(context).getSession();
+        doReturn(singleUseObjectProvider).when(session).getProvider(SingleUseObjectProvider.class);
+        doAnswer(invocation -> store.get(invocation.getArgument(0))).when(singleUseObjectProvider).get(anyString());
+        doAnswer(invocation -> store.put(invocation.getArgument(0), invocation.getArgument(2)))
+                .when(singleUseObjectProvider).put(anyString(), anyLong(), anyMap());
+        doAnswer(invocation -> store.remove(invocation.getArgument(0))).when(singleUseObjectProvider)
+                .remove(anyString());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        ActionRateLimiter.invalidate();
+        ActionRateLimiter.setClock(System::nanoTime);
+        closeable.close();
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ActionRateLimiter.tryAcquire(context));
+            assertTrue(ActionRateLimiter.tryAcquireCard(context, "certificate"));
+        }
+        verify(context, never()).getConnection();
+    }
+
+    @Test
+    public void testLimitPerIp() {
+        config.put(SpiConfigProperty.RateLimitPerIp.CONFIG.getName(), "2");
+
+        assertTrue(ActionRateLimiter.tryAcquire(context));
+        assertTrue(ActionRateLimiter.tryAcquire(context));
+        assertFalse(ActionRateLimiter.tryAcquire(context));
+
+        doReturn("192.0.2.2").when(connection).getRemoteAddr();
+        assertTrue(ActionRateLimiter.tryAcquire(context));
+    }
+
+    @Test
+    public void testLimitPerSession() {
+        config.put(SpiConfigProperty.RateLimitPerSession.CONFIG.getName(), "1");
+
+        assertTrue(ActionRateLimiter.tryAcquire(context));
+        // IPアドレスが変わっても同じ認証セッションは制限する。
+        doReturn("192.0.2.2").when(connection).getRemoteAddr();
+        assertFalse(ActionRateLimiter.tryAcquire(context));
+    }
+
+    @Test
+    public void testSessionRejectionKeepsIpLimit() {
+        config.put(SpiConfigProperty.RateLimitPerIp.CONFIG.getName(), "2");
+        config.put(SpiConfigProperty.RateLimitPerSession.CONFIG.getName(), "1");
+
+        assertTrue(ActionRateLimiter.tryAcquire(context));
+        // 認証セッションの上限で拒否した要求は、IPアドレスの要求数に数えない。
+        for (int i = 0; i < 10; i++) {
+            assertFalse(ActionRateLimiter.tryAcquire(context));
+        }
+        doReturn("a8f2b9c1-0000-4000-8000-000000000000").when(rootAuthenticationSession).getId();
+        assertTrue(ActionRateLimiter.tryAcquire(context));
+        assertFalse(ActionRateLimiter.tryAcquire(context));
+    }
+
+    @Test
+    public void testSessionRejectionKeepsIpLimitInCluster() {
+        config.put(SpiConfigProperty.RateLimitPerIp.CONFIG.getName(), "2");
+        config.put(SpiConfigProperty.RateLimitPerSession.CONFIG.getName(), "1");
+        config.put(SpiConfigProperty.RateLimitCluster.CONFIG.getName(), "true");
+
+        assertTrue(ActionRateLimiter.tryAcquire(context));
+        assertFalse(ActionRateLimiter.tryAcquire(context));
+        // 別のノードで受け付けた場合を、ノード内のバケットを削除して再現する。
+        ActionRateLimiter.invalidate();
+        doReturn("a8f2b9c1-0000-4000-8000-000000000000").when(rootAuthenticationSession).getId();
+        assertTrue(ActionRateLimiter.tryAcquire(context));
+    }
+
+    @Test
+    public void testLimitPerCard() {
+        config.put(SpiConfigProperty.RateLimitPerCard.CONFIG.getName(), "1");
+
+        assertTrue(ActionRateLimiter.tryAcquireCard(context, "certificate A"));
+        assertFalse(ActionRateLimiter.tryAcquireCard(context, "certificate A"));
+        assertTrue(ActionRateLimiter.tryAcquireCard(context, "certificate B"));
+        // 証明書ごとの制限はIPアドレスと認証セッションの制限に影響しない。
+        assertTrue(ActionRateLimiter.tryAcquire(context));
+    }
+
+    @Test
+    public void testLimitInCluster() {
+        config.put(SpiConfigProperty.RateLimitPerIp.CONFIG.getName(), "1");
+        config.put(SpiConfigProperty.RateLimitCluster.CONFIG.getName(), "true");
+
+        assertTrue(ActionRateLimiter.tryAcquire(context));
+        // 別のノードで同じIPアドレスから受け付けた場合を、ノード内のバケットを削除して再現する。
+        ActionRateLimiter.invalidate();
+        assertFalse(ActionRateLimiter.tryAcquire(context));
+        assertEquals(1, store.size());
+        verify(singleUseObjectProvider).put(eq("mynumbercard.ratelimit.realm-id.ip.192.0.2.1"), eq(60L), anyMap());
+    }
+}
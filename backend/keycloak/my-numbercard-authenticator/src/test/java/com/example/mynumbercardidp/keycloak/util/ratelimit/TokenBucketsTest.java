@@ -0,0 +1,105 @@
+package com.example.mynumbercardidp.keycloak.util.ratelimit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketsTest {
+    private static final long SECOND_NANOS = 1_000_000_000L;
+
+    @Test
+    public void testBurstAndRefill() {
+        TokenBuckets buckets = new TokenBuckets();
+        long now = 123L;
+        // 容量は1分あたりの要求数と同じ
+        for (int i = 0; i < 6; i++) {
+            assertTrue(buckets.tryAcquire("realm.ip.192.0.2.1", 6, now));
+        }
+        assertFalse(buckets.tryAcquire("realm.ip.192.0.2.1", 6, now));
+        // 別のキーは影響を受けない
+        assertTrue(buckets.tryAcquire("realm.ip.192.0.2.2", 6, now));
+
+        // 10秒ごとに1つ補充される
+        assertFalse(buckets.tryAcquire("realm.ip.192.0.2.1", 6, now + 9 * SECOND_NANOS));
+        assertTrue(buckets.tryAcquire("realm.ip.192.0.2.1", 6, now + 10 * SECOND_NANOS));
+        assertFalse(buckets.tryAcquire("realm.ip.192.0.2.1", 6, now + 10 * SECOND_NANOS));
+    }
+
+    @Test
+    public void testRelease() {
+        TokenBuckets buckets = new TokenBuckets();
+        assertTrue(buckets.tryAcquire("realm.ip.192.0.2.1", 1, 0L));
+        assertFalse(buckets.tryAcquire("realm.ip.192.0.2.1", 1, 0L));
+
+        buckets.release("realm.ip.192.0.2.1", 1);
+        assertTrue(buckets.tryAcquire("realm.ip.192.0.2.1", 1, 0L));
+        // バケットが無いキーは何もしない
+        buckets.release("realm.ip.192.0.2.2", 1);
+        assertEquals(1, buckets.size());
+    }
+
+    @Test
+    public void testConcurrentAcquire() throws Exception {
+        TokenBuckets buckets = new TokenBuckets();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger acquired = new AtomicInteger();
+        try {
+            for (int i = 0; i < 16; i++) {
+                executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < 100; j++) {
+                        if (buckets.tryAcquire("realm.session.same", 50, 0L)) {
+                            acquired.incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(50, acquired.get());
+    }
+
+    @Test
+    public void testEvictsFullBuckets() {
+        TokenBuckets buckets = new TokenBuckets();
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(buckets.tryAcquire("realm.ip.key" + i, 60, 0L));
+        }
+        // 1分後にはすべてのバケットが満杯に戻っているため、上限を超えたマップから削除される。
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(buckets.tryAcquire("realm.ip.other" + i, 60, 60 * SECOND_NANOS));
+        }
+        assertEquals(1_000, buckets.size());
+        buckets.clear();
+        assertEquals(0, buckets.size());
+    }
+
+    @Test
+    public void testBoundsEntriesPerStripe() {
+        TokenBuckets buckets = new TokenBuckets(8);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(buckets.tryAcquire("realm.ip.192.0.2.1", 6, 0L));
+        }
+        // 1分以内に多数のキーで要求されても、キーの数は上限を超えない。
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(buckets.tryAcquire("realm.ip.key" + i, 60, 0L));
+            // 使われ続けているバケットは削除されず、制限が緩まない。
+            assertFalse(buckets.tryAcquire("realm.ip.192.0.2.1", 6, 0L));
+        }
+        assertTrue(buckets.size() <= 16 * 8);
+    }
+}
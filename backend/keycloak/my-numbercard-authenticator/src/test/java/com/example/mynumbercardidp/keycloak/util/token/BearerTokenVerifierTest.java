@@ -0,0 +1,200 @@
+package com.example.mynumbercardidp.keycloak.util.token;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.mockStatic;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.common.util.Time;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.SingleUseObjectProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.models.UserSessionProvider;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.services.managers.AppAuthManager.BearerTokenAuthenticator;
+import org.keycloak.services.managers.AuthenticationManager;
+import org.keycloak.services.managers.RealmManager;
+import org.mockito.Mock;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.MockitoAnnotations;
+
+public class BearerTokenVerifierTest {
+    private static final String TOKEN_STRING = "header.payload.signature";
+    private AutoCloseable closeable;
+    private AccessToken token;
+
+    @Mock
+    KeycloakSession session;
+    @Mock
+    KeycloakContext keycloakContext;
+    @Mock
+    RealmProvider realmProvider;
+    @Mock
+    RealmModel realm;
+    @Mock
+    SingleUseObjectProvider singleUseObjectProvider;
+    @Mock
+    UserSessionProvider userSessionProvider;
+    @Mock
+    UserSessionModel userSession;
+    @Mock
+    UserModel user;
+    @Mock
+    AuthenticationManager.AuthResult authResult;
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        token = new AccessToken();
+        token.id("token-id");
+        token.issuer("https://idp.example.com/realms/OIdp");
+        token.subject("user-id");
+        token.iat((long) Time.currentTime());
+        token.exp((long) Time.currentTime() + 300);
+        token.setSessionState("session-id");
+
+        doReturn(keycloakContext).when(session).getContext();
+        doReturn(realmProvider).when(session).realms();
+        doReturn(singleUseObjectProvider).when(session).getProvider(SingleUseObjectProvider.class);
+        doReturn(userSessionProvider).when(session).sessions();
+        doReturn(realm).when(realmProvider).getRealm("realm-id");
+        doReturn("realm-id").when(realm).getId();
+        doReturn("OIdp").when(realm).getName();
+        doReturn(userSession).when(userSessionProvider).getUserSession(realm, "session-id");
+        doReturn(user).when(userSession).getUser();
+        doReturn("user-id").when(user).getId();
+        doReturn(true).when(user).isEnabled();
+        doReturn(user).when(authResult).getUser();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        BearerTokenVerifier.disable();
+        closeable.close();
+    }
+
+    @Test
+    public void testVerifyWithoutCache() {
+        try (Verification verification = new Verification(true)) {
+            assertSame(user, BearerTokenVerifier.verify(session, TOKEN_STRING).getUser());
+            assertSame(user, BearerTokenVerifier.verify(session, TOKEN_STRING).getUser());
+
+            assertEquals(2, verification.authenticators.constructed().size());
+            assertEquals(2, verification.realmManagers.constructed().size());
+            assertEquals(0, BearerTokenVerifier.size());
+        }
+    }
+
+    @Test
+    public void testVerifyWithCache() {
+        BearerTokenVerifier.enable();
+        try (Verification verification = new Verification(true)) {
+            BearerTokenVerifier.VerifiedToken first = BearerTokenVerifier.verify(session, TOKEN_STRING);
+            BearerTokenVerifier.VerifiedToken second = BearerTokenVerifier.verify(session, TOKEN_STRING);
+
+            assertSame(user, first.getUser());
+            assertSame(user, second.getUser());
+            assertSame(realm, second.getRealm());
+            assertEquals("token-id", second.getToken().getId());
+            // 2回目は署名を検証しない。
+            assertEquals(1, verification.authenticators.constructed().size());
+            assertEquals(1, BearerTokenVerifier.size());
+
+            // 別のトークンでも発行者のレルムはキャッシュから返す。
+            BearerTokenVerifier.verify(session, TOKEN_STRING + "2");
+            assertEquals(2, verification.authenticators.constructed().size());
+            assertEquals(1, verification.realmManagers.constructed().size());
+        }
+    }
+
+    @Test
+    public void testVerifyRevokedToken() {
+        BearerTokenVerifier.enable();
+        try (Verification verification = new Verification(true)) {
+            BearerTokenVerifier.verify(session, TOKEN_STRING);
+            doReturn(true).when(singleUseObjectProvider).contains("token-id" + SingleUseObjectProvider.REVOKED_KEY);
+
+            assertNull(BearerTokenVerifier.verify(session, TOKEN_STRING));
+            assertEquals(0, BearerTokenVerifier.size());
+        }
+    }
+
+    @Test
+    public void testVerifyWithoutUserSession() {
+        BearerTokenVerifier.enable();
+        try (Verification verification = new Verification(true)) {
+            BearerTokenVerifier.verify(session, TOKEN_STRING);
+            doReturn(null).when(userSessionProvider).getUserSession(realm, "session-id");
+
+            assertNull(BearerTokenVerifier.verify(session, TOKEN_STRING));
+            assertEquals(0, BearerTokenVerifier.size());
+        }
+    }
+
+    @Test
+    public void testVerifyExpiredToken() {
+        BearerTokenVerifier.enable();
+        try (Verification verification = new Verification(true)) {
+            BearerTokenVerifier.verify(session, TOKEN_STRING);
+            token.exp((long) Time.currentTime());
+
+            assertNull(BearerTokenVerifier.verify(session, TOKEN_STRING));
+        }
+    }
+
+    @Test
+    public void testVerifyInvalidToken() {
+        BearerTokenVerifier.enable();
+        try (Verification verification = new Verification(false)) {
+            assertNull(BearerTokenVerifier.verify(session, TOKEN_STRING));
+            assertEquals(0, BearerTokenVerifier.size());
+        }
+    }
+
+    /**
+     * アクセストークンの解析、レルムの検索、KeycloakによるBearerトークンの検証を置き換えます。
+     */
+    private class Verification implements AutoCloseable {
+        private final MockedConstruction<JWSInput> jwsInputs;
+        private final MockedConstruction<RealmManager> realmManagers;
+        private final MockedConstruction<BearerTokenAuthenticator> authenticators;
+        private final MockedStatic<AuthenticationManager> authenticationManager;
+
+        private Verification(final boolean authenticated) {
+            jwsInputs = mockConstruction(JWSInput.class,
+                    (mock, ctx) -> doReturn(token).when(mock).readJsonContent(any()));
+            realmManagers = mockConstruction(RealmManager.class,
+                    (mock, ctx) -> doReturn(realm).when(mock).getRealmByName("OIdp"));
+            authenticators = mockConstruction(BearerTokenAuthenticator.class, (mock, ctx) -> {
+                doReturn(mock).when(mock).setRealm(any());
+                doReturn(mock).when(mock).setUriInfo(any());
+                doReturn(mock).when(mock).setTokenString(any());
+                doReturn(mock).when(mock).setConnection(any());
+                doReturn(mock).when(mock).setHeaders(any());
+                doReturn(authenticated ? authResult : null).when(mock).authenticate();
+            });
+            authenticationManager = mockStatic(AuthenticationManager.class);
+            authenticationManager.when(() -> AuthenticationManager.isSessionValid(realm, userSession)).thenReturn(true);
+        }
+
+        @Override
+        public void close() {
+            authenticationManager.close();
+            authenticators.close();
+            realmManagers.close();
+            jwsInputs.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.mynumbercardidp.keycloak.util.tracing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TracingTest {
+    private final List<List<TraceSpan>> exported = new ArrayList<>();
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    public void afterEach() {
+        Tracing.disable();
+    }
+
+    @Test
+    public void testDisabled() {
+        try (TraceSpan span = Tracing.startSpan("root")) {
+            span.setAttribute("key", "value");
+            assertFalse(span.isRecording());
+            assertFalse(Tracing.currentSpan().isPresent());
+            assertFalse(Tracing.traceparent().isPresent());
+        }
+    }
+
+    @Test
+    public void testNestedSpans() {
+        Tracing.enable(exported::add);
+        try (TraceSpan root = Tracing.startSpan("root")) {
+            try (TraceSpan child = Tracing.startSpan("child")) {
+                assertEquals(root.getTraceId(), child.getTraceId());
+                assertEquals(root.getSpanId(), child.getParentSpanId());
+                assertEquals("00-" + child.getTraceId() + "-" + child.getSpanId() + "-01",
+                        Tracing.traceparent().get());
+            }
+            assertTrue(exported.isEmpty());
+            assertEquals(root, Tracing.currentSpan().get());
+            Tracing.setTraceAttribute(Tracing.TRANSACTION_ID_ATTRIBUTE, "transaction-1");
+        }
+
+        assertFalse(Tracing.currentSpan().isPresent());
+        assertEquals(1, exported.size());
+        List<TraceSpan> spans = exported.get(0);
+        assertEquals(2, spans.size());
+        assertEquals("child", spans.get(0).getName());
+        assertEquals("root", spans.get(1).getName());
+        assertEquals("", spans.get(1).getParentSpanId());
+        assertEquals(32, spans.get(1).getTraceId().length());
+        assertEquals(16, spans.get(1).getSpanId().length());
+        // 子スパンの終了後に設定したトレース属性も子スパンへ付与される。
+        spans.forEach(span -> assertEquals("transaction-1",
+                span.getAttributes().get(Tracing.TRANSACTION_ID_ATTRIBUTE)));
+    }
+
+    @Test
+    public void testRecordException() {
+        Tracing.enable(exported::add);
+        try (TraceSpan span = Tracing.startSpan("root")) {
+            span.recordException(new IllegalStateException("failed"));
+        }
+        TraceSpan span = exported.get(0).get(0);
+        assertTrue(span.isError());
+        assertEquals("java.lang.IllegalStateException: failed", span.getErrorMessage());
+    }
+
+    @Test
+    public void testExporterFailureIsIgnored() {
+        Tracing.enable(spans -> {
+            throw new IllegalStateException("collector is down");
+        });
+        try (TraceSpan span = Tracing.startSpan("root")) {
+            span.setAttribute("key", "value");
+        }
+        assertFalse(Tracing.currentSpan().isPresent());
+    }
+
+    @Test
+    public void testFileSpanExporter() throws Exception {
+        Path file = tempDir.resolve("traces/spans.jsonl");
+        Tracing.enable(new FileSpanExporter(file, "test-service"));
+        try (TraceSpan root = Tracing.startSpan("root")) {
+            try (TraceSpan child = Tracing.startSpan("child")) {
+                child.setAttribute("http.status_code", 200);
+            }
+        }
+        // 出力先を閉じると、書き込みスレッドがキューに残ったトレースを書き込む。
+        Tracing.disable();
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        JsonNode resourceSpans = new ObjectMapper().readTree(lines.get(0)).get("resourceSpans").get(0);
+        assertEquals("test-service",
+                resourceSpans.at("/resource/attributes/0/value/stringValue").asText());
+        JsonNode spans = resourceSpans.at("/scopeSpans/0/spans");
+        assertEquals(2, spans.size());
+        assertEquals("child", spans.get(0).get("name").asText());
+        assertEquals(spans.get(1).get("spanId").asText(), spans.get(0).get("parentSpanId").asText());
+        assertEquals("http.status_code", spans.get(0).at("/attributes/0/key").asText());
+        assertEquals("200", spans.get(0).at("/attributes/0/value/stringValue").asText());
+        assertFalse(spans.get(1).has("parentSpanId"));
+    }
+
+    @Test
+    public void testFileSpanExporterDropsWhenQueueIsFull() throws Exception {
+        Path file = tempDir.resolve("spans.jsonl");
+        FileSpanExporter exporter = new FileSpanExporter(file, "test-service", 1);
+        List<TraceSpan> spans = List.of(
+                new TraceSpan(new TraceSpan.Trace("0".repeat(32)), null, "root", "0".repeat(16)));
+        exporter.export(spans);
+        exporter.export(spans);
+        assertEquals(1, exporter.getDroppedCount());
+
+        exporter.start();
+        exporter.close();
+        exporter.export(spans);
+        assertEquals(2, exporter.getDroppedCount());
+        assertEquals(1, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+}
@@ -58,4 +58,12 @@ test('iOSで利用した場合', () => {
         return 'other';
     });
     expect(getMobileOS()).toBe("iOS");
-});
\ No newline at end of file
+});
+
+test('認証フローの状態を確認する間隔', () => {
+    const { nextLoginStatusInterval } = require('../login');
+    expect(nextLoginStatusInterval(2000)).toBe(4000);
+    expect(nextLoginStatusInterval(8000)).toBe(16000);
+    // 上限を超えない
+    expect(nextLoginStatusInterval(16000)).toBe(16000);
+});